@@ -4,7 +4,17 @@ import sms.app.menus.*;
 import sms.data.*;
 import sms.domain.*;
 import sms.exceptions.*;
+import sms.services.AttendanceAnalyticsService;
+import sms.services.BulkImportService;
+import sms.services.CsvExportService;
+import sms.services.DeadlineReminderService;
 import sms.services.FileUploadService;
+import sms.services.GpaService;
+import sms.services.GradeAnalyticsService;
+import sms.services.MessageDeliveryService;
+import sms.services.MessageRetentionService;
+import sms.services.StatisticsService;
+import sms.services.StudentDashboardService;
 import sms.services.UploadService;
 
 import java.io.File;
@@ -12,14 +22,27 @@ import java.util.List;
 import java.util.Scanner;
 
 public class Main {
-    private static Repository<Student> studentRepository;
-    private static Repository<Teacher> teacherRepository;
-    private static Repository<Admin> adminRepository;
-    private static Repository<Course> courseRepository;
+    private static StudentRepository studentRepository;
+    private static TeacherRepository teacherRepository;
+    private static AdminRepository adminRepository;
+    private static CourseRepository courseRepository;
     private static MessageRepository messageRepository;
     private static AssignmentRepository assignmentRepository;
     private static GradeRepository gradeRepository;
     private static SubmissionRepository submissionRepository;
+    private static AttendanceRepository attendanceRepository;
+    private static BroadcastRepository broadcastRepository;
+    private static EnrollmentIndex enrollmentIndex;
+    private static StatisticsService statisticsService;
+    private static GpaService gpaService;
+    private static GradeAnalyticsService gradeAnalyticsService;
+    private static AttendanceAnalyticsService attendanceAnalyticsService;
+    private static StudentDashboardService studentDashboardService;
+    private static CsvExportService csvExportService;
+    private static BulkImportService bulkImportService;
+    private static DeadlineReminderService deadlineReminderService;
+    private static MessageRetentionService messageRetentionService;
+    private static MessageDeliveryService messageDeliveryService;
     private static UploadService<File> uploadService;
     private static Scanner scanner;
 
@@ -37,6 +60,15 @@ public class Main {
             System.err.println("System initialization failed: " + e.getMessage());
             e.printStackTrace();
         } finally {
+            if (deadlineReminderService != null) {
+                deadlineReminderService.stop();
+            }
+            if (messageDeliveryService != null) {
+                messageDeliveryService.stop();
+            }
+            if (messageRetentionService != null) {
+                messageRetentionService.stop();
+            }
             if (scanner != null) {
                 scanner.close();
             }
@@ -52,6 +84,27 @@ public class Main {
         assignmentRepository = new AssignmentRepository();
         gradeRepository = new GradeRepository();
         submissionRepository = new SubmissionRepository();
+        attendanceRepository = new AttendanceRepository();
+        broadcastRepository = new BroadcastRepository();
+        enrollmentIndex = new EnrollmentIndex(studentRepository);
+        statisticsService = new StatisticsService(studentRepository, teacherRepository, adminRepository,
+                courseRepository, gradeRepository, messageRepository);
+        gpaService = new GpaService(gradeRepository, courseRepository);
+        gradeAnalyticsService = new GradeAnalyticsService(gradeRepository);
+        attendanceAnalyticsService = new AttendanceAnalyticsService(attendanceRepository, enrollmentIndex);
+        studentDashboardService = new StudentDashboardService(studentRepository, assignmentRepository,
+                submissionRepository, gradeRepository, messageRepository);
+        csvExportService = new CsvExportService(gradeRepository, studentRepository, submissionRepository,
+                attendanceRepository);
+        bulkImportService = new BulkImportService(studentRepository, courseRepository, gradeRepository);
+        messageDeliveryService = new MessageDeliveryService(messageRepository);
+        messageDeliveryService.start();
+        deadlineReminderService = new DeadlineReminderService(assignmentRepository, submissionRepository,
+                messageRepository, messageDeliveryService, enrollmentIndex, DeadlineReminderService.DEFAULT_OFFSETS);
+        deadlineReminderService.start();
+        messageRepository.setRetention("SYSTEM", MessageRetentionService.SYSTEM_MESSAGE_TTL);
+        messageRetentionService = new MessageRetentionService(messageRepository, broadcastRepository);
+        messageRetentionService.start();
         uploadService = new FileUploadService();
         scanner = new Scanner(System.in);
         
@@ -341,30 +394,34 @@ public class Main {
                 case 1:
                     PrincipalMenuHandler principalHandler = new PrincipalMenuHandler(
                         scanner, adminRepository, teacherRepository, courseRepository, 
-                        studentRepository, messageRepository
+                        studentRepository, messageRepository, broadcastRepository, messageDeliveryService, statisticsService, gpaService,
+                        gradeAnalyticsService, attendanceAnalyticsService
                     );
                     principalHandler.demonstratePrincipalAccess();
                     break;
                 case 2:
                     AdminMenuHandler adminHandler = new AdminMenuHandler(
                         scanner, studentRepository, teacherRepository, courseRepository, 
-                        adminRepository, messageRepository
+                        adminRepository, messageRepository, broadcastRepository, enrollmentIndex, statisticsService,
+                        csvExportService, bulkImportService
                     );
                     adminHandler.demonstrateAdminAccess();
                     break;
                 case 3:
                     TeacherMenuHandler teacherHandler = new TeacherMenuHandler(
                         studentRepository, teacherRepository, courseRepository,
-                        assignmentRepository, submissionRepository, messageRepository,
-                        gradeRepository, uploadService, scanner
+                        assignmentRepository, submissionRepository, messageRepository, broadcastRepository,
+                        messageDeliveryService, gradeRepository, enrollmentIndex, gradeAnalyticsService, attendanceRepository,
+                        uploadService, scanner
                     );
                     teacherHandler.run();
                     break;
                 case 4:
                     StudentMenuHandler studentHandler = new StudentMenuHandler(
                         studentRepository, courseRepository, teacherRepository,
-                        assignmentRepository, submissionRepository, messageRepository,
-                        gradeRepository, uploadService, scanner
+                        assignmentRepository, submissionRepository, messageRepository, broadcastRepository,
+                        messageDeliveryService, gradeRepository, gpaService, studentDashboardService, attendanceAnalyticsService,
+                        uploadService, scanner
                     );
                     studentHandler.run();
                     break;
@@ -377,18 +434,19 @@ public class Main {
     }
 
     private static void displaySystemStatistics() {
-        try {
-            System.out.println("\n=== LMS SYSTEM STATISTICS ===");
-            System.out.println("Total Students: " + studentRepository.getAll().size());
-            System.out.println("Total Teachers: " + teacherRepository.getAll().size());
-            System.out.println("Total Admins: " + adminRepository.getAll().size());
-            System.out.println("Total Courses: " + courseRepository.getAll().size());
-            System.out.println("Data files: students.json, teachers.json, admins.json, courses.json");
-            System.out.println("Upload directory: uploads/");
-            System.out.println("==============================\n");
-        } catch (RepositoryException e) {
-            System.out.println("Error retrieving statistics: " + e.getMessage());
+        System.out.println("\n=== LMS SYSTEM STATISTICS ===");
+        System.out.println("Total Students: " + statisticsService.getStudentCount());
+        System.out.println("Total Teachers: " + statisticsService.getTeacherCount());
+        System.out.println("Total Admins: " + statisticsService.getAdminCount());
+        System.out.println("Total Courses: " + statisticsService.getCourseCount());
+        if (messageDeliveryService != null) {
+            System.out.printf("Messages Delivered: %d (avg %.2f ms, max %.2f ms)%n",
+                    messageDeliveryService.getDeliveredCount(), messageDeliveryService.getAverageLatencyMillis(),
+                    messageDeliveryService.getMaxLatencyMillis());
         }
+        System.out.println("Data files: students.json, teachers.json, admins.json, courses.json");
+        System.out.println("Upload directory: uploads/");
+        System.out.println("==============================\n");
     }
 
     private static void demonstrateSearchSort() {
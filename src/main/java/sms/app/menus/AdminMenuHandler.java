@@ -4,29 +4,45 @@ import sms.data.*;
 import sms.domain.*;
 import sms.exceptions.*;
 import sms.validation.InputValidator;
+import sms.services.BulkImportService;
+import sms.services.CsvExportService;
 import sms.services.FileUploadService;
+import sms.services.StatisticsService;
 import sms.services.UploadService;
 import java.io.File;
 import java.util.*;
 
 public class AdminMenuHandler {
+    private static final int PAGE_SIZE = 10;
     private Scanner scanner;
     private Repository<Student> studentRepository;
     private Repository<Teacher> teacherRepository;
     private Repository<Course> courseRepository;
     private Repository<Admin> adminRepository;
     private MessageRepository messageRepository;
+    private BroadcastRepository broadcastRepository;
+    private EnrollmentIndex enrollmentIndex;
+    private StatisticsService statisticsService;
+    private CsvExportService csvExportService;
+    private BulkImportService bulkImportService;
     private UploadService<File> uploadService;
 
     public AdminMenuHandler(Scanner scanner, Repository<Student> studentRepo,
                            Repository<Teacher> teacherRepo, Repository<Course> courseRepo,
-                           Repository<Admin> adminRepo, MessageRepository messageRepo) {
+                           Repository<Admin> adminRepo, MessageRepository messageRepo,
+                           BroadcastRepository broadcastRepo, EnrollmentIndex enrollmentIndex, StatisticsService statisticsService,
+                           CsvExportService csvExportService, BulkImportService bulkImportService) {
         this.scanner = scanner;
         this.studentRepository = studentRepo;
         this.teacherRepository = teacherRepo;
         this.courseRepository = courseRepo;
         this.adminRepository = adminRepo;
         this.messageRepository = messageRepo;
+        this.broadcastRepository = broadcastRepo;
+        this.enrollmentIndex = enrollmentIndex;
+        this.statisticsService = statisticsService;
+        this.csvExportService = csvExportService;
+        this.bulkImportService = bulkImportService;
         this.uploadService = new FileUploadService();
     }
 
@@ -152,6 +168,15 @@ public class AdminMenuHandler {
                         case 6:
                             handleFileUpload(admin);
                             break;
+                        case 7:
+                            handleReportExport(admin);
+                            break;
+                        case 8:
+                            handleBulkImport(admin);
+                            break;
+                        case 9:
+                            handleDeleteUpload(admin);
+                            break;
                         case 0:
                             System.out.println("Logging out from Admin account...");
                             return;
@@ -637,6 +662,7 @@ public class AdminMenuHandler {
             if (teacher != null && course != null) {
                 teacher.addCourse(course);
                 course.setFacultyName(teacher.getName());
+                course.setFacultyId(teacher.getUserId());
                 this.teacherRepository.update(teacher);
                 this.courseRepository.update(course);
                 System.out.println("✓ Admin: Assigned course " + course.getCourseName() + " to teacher " + teacher.getName());
@@ -807,37 +833,30 @@ public class AdminMenuHandler {
 
     public void showAdminReports(Admin admin) {
         try {
-            List<Student> allStudents = this.studentRepository.getAll();
             List<Teacher> allTeachers = this.teacherRepository.getAll();
             List<Course> allCourses = this.courseRepository.getAll();
             
             System.out.println("\n" + "=".repeat(60));
             System.out.println("         ADMIN REPORTS & STATISTICS");
             System.out.println("=".repeat(60));
-            System.out.println("Total Students: " + allStudents.size());
-            System.out.println("Total Teachers: " + allTeachers.size());
-            System.out.println("Total Courses: " + allCourses.size());
+            System.out.println("Total Students: " + this.statisticsService.getStudentCount());
+            System.out.println("Total Teachers: " + this.statisticsService.getTeacherCount());
+            System.out.println("Total Courses: " + this.statisticsService.getCourseCount());
             
             System.out.println("\n--- Students Per Course ---");
             for (Course course : allCourses) {
-                long studentCount = allStudents.stream()
-                    .filter(s -> s.getCourses().stream()
-                        .anyMatch(c -> c.getCourseId().equals(course.getCourseId())))
-                    .count();
+                int studentCount = this.enrollmentIndex.countStudentsInCourse(course.getCourseId());
                 System.out.println("  " + course.getCourseName() + ": " + studentCount + " students");
             }
             
             System.out.println("\n--- Teacher Workload ---");
             for (Teacher teacher : allTeachers) {
-                System.out.println("  " + teacher.getName() + ": " + teacher.getCourses().size() + " courses");
+                System.out.println("  " + teacher.getName() + ": " + this.statisticsService.getCourseLoad(teacher.getUserId()) + " courses");
             }
             
             System.out.println("\n--- Course Enrollment ---");
             for (Course course : allCourses) {
-                long enrolled = allStudents.stream()
-                    .filter(s -> s.getCourses().stream()
-                        .anyMatch(c -> c.getCourseId().equals(course.getCourseId())))
-                    .count();
+                int enrolled = this.enrollmentIndex.countStudentsInCourse(course.getCourseId());
                 System.out.println("  " + course.getCourseName() + " (" + course.getCourseId() + "): " + enrolled + " enrolled");
             }
             
@@ -847,44 +866,184 @@ public class AdminMenuHandler {
         }
     }
 
+    public void handleReportExport(Admin admin) {
+        while (true) {
+            try {
+                admin.showExportMenu();
+                int choice = Integer.parseInt(this.scanner.nextLine());
+                
+                String defaultName;
+                switch (choice) {
+                    case 1:
+                        defaultName = "Grade_Export.csv";
+                        break;
+                    case 2:
+                        defaultName = "Roster_Export.csv";
+                        break;
+                    case 3:
+                        defaultName = "Submission_Export.csv";
+                        break;
+                    case 4:
+                        defaultName = "Attendance_Export.csv";
+                        break;
+                    case 0:
+                        return;
+                    default:
+                        System.out.println("Invalid option.");
+                        continue;
+                }
+                
+                System.out.print("Output file [" + defaultName + "]: ");
+                String fileName = this.scanner.nextLine().trim();
+                java.nio.file.Path target = java.nio.file.Paths.get(fileName.isEmpty() ? defaultName : fileName);
+                
+                long rows;
+                if (choice == 1) {
+                    rows = this.csvExportService.exportGrades(target);
+                } else if (choice == 2) {
+                    rows = this.csvExportService.exportRoster(target);
+                } else if (choice == 3) {
+                    rows = this.csvExportService.exportSubmissions(target);
+                } else {
+                    rows = this.csvExportService.exportAttendance(target);
+                }
+                System.out.println("✓ Exported " + rows + " rows to " + target.toAbsolutePath());
+            } catch (NumberFormatException e) {
+                System.out.println("Please enter a valid number.");
+            } catch (RepositoryException e) {
+                System.out.println("Export failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public void handleBulkImport(Admin admin) {
+        while (true) {
+            try {
+                admin.showImportMenu();
+                int choice = Integer.parseInt(this.scanner.nextLine());
+                if (choice == 0) {
+                    return;
+                }
+                if (choice < 1 || choice > 3) {
+                    System.out.println("Invalid option.");
+                    continue;
+                }
+                
+                System.out.print("Enter path of the CSV or JSON file: ");
+                String fileName = this.scanner.nextLine().trim();
+                java.nio.file.Path source = java.nio.file.Paths.get(fileName);
+                if (fileName.isEmpty() || !java.nio.file.Files.isRegularFile(source)) {
+                    System.out.println("File not found: " + fileName);
+                    continue;
+                }
+                
+                BulkImportService.ImportResult result;
+                if (choice == 1) {
+                    result = this.bulkImportService.importStudents(source);
+                } else if (choice == 2) {
+                    result = this.bulkImportService.importCourses(source);
+                } else {
+                    result = this.bulkImportService.importGrades(source);
+                }
+                
+                System.out.println("\n✓ Read " + result.getRowsRead() + " rows, imported " + result.getImported() + 
+                                 ", rejected " + result.getRejected().size());
+                if (choice == 1 && result.getImported() > 0) {
+                    System.out.println("  New students log in with their registration number as username and password.");
+                }
+                List<BulkImportService.Rejection> rejected = result.getRejected();
+                for (int i = 0; i < Math.min(20, rejected.size()); i++) {
+                    System.out.println("  ⚠️ " + rejected.get(i));
+                }
+                if (rejected.size() > 20) {
+                    System.out.println("  ... and " + (rejected.size() - 20) + " more");
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("Please enter a valid number.");
+            } catch (RepositoryException e) {
+                System.out.println("Import failed: " + e.getMessage());
+            }
+        }
+    }
+
     public void viewAdminMessages(Admin admin) {
         try {
-            List<Message> messages = this.messageRepository.getMessagesForUser(admin.getUserId(), "ADMIN");
-            List<Message> unreadMessages = this.messageRepository.getUnreadMessagesForUser(admin.getUserId(), "ADMIN");
+            int recentCount = this.messageRepository.getMessageCount(admin.getUserId(), "ADMIN");
+            int unreadCount = this.messageRepository.getUnreadCount(admin.getUserId(), "ADMIN");
+            List<Broadcast> broadcasts = this.broadcastRepository.getBroadcastsForUser(
+                    admin.getUserId(), "ADMIN", Collections.emptyList(), null);
             
             System.out.println("\n" + "=".repeat(60));
             System.out.println("         MESSAGE INBOX FOR " + admin.getName());
             System.out.println("=".repeat(60));
-            System.out.println("Total Messages: " + messages.size());
-            System.out.println("Unread Messages: " + unreadMessages.size());
+            System.out.println("Recent Messages: " + recentCount);
+            System.out.println("Unread Messages: " + unreadCount);
             System.out.println();
             
-            if (messages.isEmpty()) {
-                System.out.println("No messages found.");
-            } else {
+            if (!broadcasts.isEmpty()) {
+                System.out.println("--- Announcements ---");
+                for (Broadcast b : broadcasts) {
+                    String status = b.isReadBy(admin.getUserId()) ? "READ" : "NEW";
+                    System.out.println("[" + status + "] From: " + b.getFromUserName() + " (" + b.getFromRole() + ")");
+                    System.out.println("   Time: " + b.getTimestamp());
+                    System.out.println("   Message: " + b.getMessage());
+                    System.out.println();
+                }
+                this.broadcastRepository.markRead(admin.getUserId(), broadcasts);
+            }
+            
+            // Newest first, a page at a time, archived history included
+            MessageRepository.Cursor cursor = MessageRepository.Cursor.latest();
+            boolean any = false;
+            while (cursor != null) {
+                MessageRepository.Page page = this.messageRepository.getInboxPage(
+                        admin.getUserId(), "ADMIN", cursor, PAGE_SIZE);
+                List<Message> messages = page.getMessages();
+                boolean pageHasUnread = false;
                 for (int i = 0; i < messages.size(); i++) {
                     Message msg = messages.get(i);
                     String status = msg.isRead() ? "READ" : "UNREAD";
+                    pageHasUnread |= !msg.isRead();
                     System.out.println((i + 1) + ". [" + status + "] From: " + msg.getFromUserName() + 
                                      " (" + msg.getFromRole() + ")");
                     System.out.println("   Time: " + msg.getTimestamp());
                     System.out.println("   Message: " + msg.getMessage());
                     System.out.println();
                 }
+                any |= !messages.isEmpty();
                 
-                System.out.print("Mark message as read? Enter message number (or 0 to skip): ");
-                try {
-                    int msgNum = Integer.parseInt(this.scanner.nextLine());
-                    if (msgNum > 0 && msgNum <= messages.size()) {
-                        Message toMark = messages.get(msgNum - 1);
-                        toMark.setRead(true);
-                        this.messageRepository.update(toMark);
-                        System.out.println("✓ Message marked as read.");
+                if (pageHasUnread) {
+                    System.out.print("Mark message as read? Enter message number, 'all', or 0 to skip: ");
+                    try {
+                        String input = this.scanner.nextLine().trim();
+                        if (input.equalsIgnoreCase("all")) {
+                            int marked = this.messageRepository.markAllRead(admin.getUserId(), "ADMIN");
+                            System.out.println("✓ " + marked + " message(s) marked as read.");
+                        } else {
+                            int msgNum = Integer.parseInt(input);
+                            if (msgNum > 0 && msgNum <= messages.size()) {
+                                Message toMark = messages.get(msgNum - 1);
+                                toMark.setRead(true);
+                                this.messageRepository.update(toMark);
+                                System.out.println("✓ Message marked as read.");
+                            }
+                        }
+                    } catch (NumberFormatException e) {
+                        System.out.println("Skipping mark as read.");
+                    }
+                }
+                
+                cursor = page.getNextCursor();
+                if (cursor != null) {
+                    System.out.print("Press Enter for older messages, or 0 to stop: ");
+                    if (this.scanner.nextLine().trim().equals("0")) {
+                        break;
                     }
-                } catch (NumberFormatException e) {
-                    System.out.println("Skipping mark as read.");
                 }
             }
+            if (!any) {
+                System.out.println("No messages found.");
+            }
             
             System.out.println("=".repeat(60) + "\n");
         } catch (Exception e) {
@@ -994,4 +1153,24 @@ public class AdminMenuHandler {
             System.out.println("Error uploading file: " + e.getMessage());
         }
     }
+
+    public void handleDeleteUpload(Admin admin) {
+        try {
+            FileUploadService fileService = (FileUploadService) this.uploadService;
+            fileService.displayUploadedFiles();
+            System.out.print("\nEnter the ID of the file to delete (0 to cancel): ");
+            int uploadId = Integer.parseInt(this.scanner.nextLine());
+            if (uploadId == 0) {
+                return;
+            }
+            
+            boolean contentDeleted = fileService.deleteUpload(uploadId);
+            System.out.println("✓ Upload " + uploadId + " deleted" + (contentDeleted ? "" :
+                    " (its content is still used by other uploads or predates shared storage)"));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input.");
+        } catch (Exception e) {
+            System.out.println("Error deleting file: " + e.getMessage());
+        }
+    }
 }
@@ -3,8 +3,15 @@ package sms.app.menus;
 import sms.data.*;
 import sms.domain.*;
 import sms.exceptions.*;
+import sms.services.AttendanceAnalyticsService;
+import sms.services.GpaService;
+import sms.services.GradeAnalyticsService;
+import sms.services.GradeDistribution;
+import sms.services.MessageDeliveryService;
+import sms.services.StatisticsService;
 import sms.validation.InputValidator;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public class PrincipalMenuHandler {
     private Scanner scanner;
@@ -13,16 +20,32 @@ public class PrincipalMenuHandler {
     private Repository<Course> courseRepository;
     private Repository<Student> studentRepository;
     private MessageRepository messageRepository;
+    private BroadcastRepository broadcastRepository;
+    private MessageDeliveryService messageDeliveryService;
+    private StatisticsService statisticsService;
+    private GpaService gpaService;
+    private GradeAnalyticsService gradeAnalyticsService;
+    private AttendanceAnalyticsService attendanceAnalyticsService;
 
     public PrincipalMenuHandler(Scanner scanner, Repository<Admin> adminRepo, 
                                 Repository<Teacher> teacherRepo, Repository<Course> courseRepo,
-                                Repository<Student> studentRepo, MessageRepository messageRepo) {
+                                Repository<Student> studentRepo, MessageRepository messageRepo,
+                                BroadcastRepository broadcastRepo, MessageDeliveryService messageDeliveryService,
+                                StatisticsService statisticsService, GpaService gpaService,
+                                GradeAnalyticsService gradeAnalyticsService,
+                                AttendanceAnalyticsService attendanceAnalyticsService) {
         this.scanner = scanner;
         this.adminRepository = adminRepo;
         this.teacherRepository = teacherRepo;
         this.courseRepository = courseRepo;
         this.studentRepository = studentRepo;
         this.messageRepository = messageRepo;
+        this.broadcastRepository = broadcastRepo;
+        this.messageDeliveryService = messageDeliveryService;
+        this.statisticsService = statisticsService;
+        this.gpaService = gpaService;
+        this.gradeAnalyticsService = gradeAnalyticsService;
+        this.attendanceAnalyticsService = attendanceAnalyticsService;
     }
 
     public void demonstratePrincipalAccess() {
@@ -103,6 +126,9 @@ public class PrincipalMenuHandler {
                     case 6:
                         sendMessageFromPrincipal(principal);
                         break;
+                    case 7:
+                        viewAttendanceShortages();
+                        break;
                     case 0:
                         System.out.println("Logging out from Principal account...");
                         return;
@@ -153,10 +179,10 @@ public class PrincipalMenuHandler {
             System.out.println("\n" + "=".repeat(60));
             System.out.println("         PRINCIPAL'S SYSTEM REPORTS & STATISTICS");
             System.out.println("=".repeat(60));
-            System.out.println("Total Admins: " + allAdmins.size());
-            System.out.println("Total Teachers: " + allTeachers.size());
-            System.out.println("Total Courses: " + allCourses.size());
-            System.out.println("Total Students: " + allStudents.size());
+            System.out.println("Total Admins: " + this.statisticsService.getAdminCount());
+            System.out.println("Total Teachers: " + this.statisticsService.getTeacherCount());
+            System.out.println("Total Courses: " + this.statisticsService.getCourseCount());
+            System.out.println("Total Students: " + this.statisticsService.getStudentCount());
             
             System.out.println("\nAdmins:");
             if (allAdmins.isEmpty()) {
@@ -173,7 +199,7 @@ public class PrincipalMenuHandler {
             } else {
                 for (Teacher teacher : allTeachers) {
                     System.out.println("  - " + teacher.getName() + " (ID: " + teacher.getUserId() + 
-                                     ", Courses: " + teacher.getCourses().size() + ")");
+                                     ", Courses: " + this.statisticsService.getCourseLoad(teacher.getUserId()) + ")");
                 }
             }
 
@@ -196,12 +222,74 @@ public class PrincipalMenuHandler {
                                      ", Courses: " + student.getCourses().size() + ")");
                 }
             }
+
+            List<GpaService.StudentGpa> ranking = this.gpaService.rank(allStudents);
+            System.out.println("\nTop Students by GPA:");
+            if (ranking.isEmpty()) {
+                System.out.println("  No grades recorded.");
+            } else {
+                for (int i = 0; i < Math.min(5, ranking.size()); i++) {
+                    GpaService.StudentGpa standing = ranking.get(i);
+                    System.out.println("  " + (i + 1) + ". " + standing.getStudent().getName() + 
+                                     " - GPA " + String.format("%.2f", standing.getGpa()));
+                }
+            }
+
+            Map<String, GradeDistribution> departments = this.gradeAnalyticsService.getDepartmentDistributions();
+            System.out.println("\nGrade Distribution by Department:");
+            if (departments.isEmpty()) {
+                System.out.println("  No grades recorded.");
+            } else {
+                departments.put("All", this.gradeAnalyticsService.getOverallDistribution());
+                for (Map.Entry<String, GradeDistribution> entry : departments.entrySet()) {
+                    GradeDistribution distribution = entry.getValue();
+                    if (distribution.getCount() == 0) {
+                        continue;
+                    }
+                    System.out.println("  " + entry.getKey() + ": " + distribution.getCount() + " grades, mean " + 
+                                     String.format("%.2f", distribution.getMean()) + 
+                                     ", median " + GradeDistribution.letterFor(distribution.getMedian()) + 
+                                     ", P90 " + GradeDistribution.letterFor(distribution.getPercentile(90)));
+                    System.out.println("    " + distribution.getHistogram());
+                }
+            }
             System.out.println("=".repeat(60) + "\n");
         } catch (Exception e) {
             System.out.println("Error retrieving reports: " + e.getMessage());
         }
     }
 
+    public void viewAttendanceShortages() {
+        try {
+            System.out.print("Enter department code (e.g. CS, blank for all): ");
+            String department = this.scanner.nextLine().trim();
+            System.out.print("Enter minimum attendance % (blank for " + 
+                             String.format("%.0f", AttendanceAnalyticsService.DEFAULT_THRESHOLD) + "): ");
+            String input = this.scanner.nextLine().trim();
+            double threshold = input.isEmpty() ? AttendanceAnalyticsService.DEFAULT_THRESHOLD : Double.parseDouble(input);
+            
+            List<AttendanceAnalyticsService.AttendanceSummary> shortages = this.attendanceAnalyticsService
+                .getShortages(department.isEmpty() ? null : department, threshold);
+            
+            System.out.println("\n=== Attendance Below " + String.format("%.0f", threshold) + "% " + 
+                             (department.isEmpty() ? "(All Departments)" : "(" + department.toUpperCase() + ")") + " ===");
+            if (shortages.isEmpty()) {
+                System.out.println("No students below the threshold.");
+                return;
+            }
+            for (AttendanceAnalyticsService.AttendanceSummary shortage : shortages) {
+                System.out.printf("  Student %d in %s: %d/%d classes (%.1f%%)%n", shortage.getUserId(), 
+                                  shortage.getCourseId(), shortage.getAttended(), shortage.getHeld(), 
+                                  shortage.getPercentage());
+            }
+            System.out.println("Total: " + shortages.size() + " shortages");
+        } catch (NumberFormatException e) {
+            System.out.println("Please enter a valid percentage.");
+        } catch (Exception e) {
+            System.out.println("Error retrieving attendance: " + e.getMessage());
+        }
+    }
+
     public void handleAdminManagement(Principal principal) {
         while (true) {
             try {
@@ -633,6 +721,7 @@ public class PrincipalMenuHandler {
             if (teacher != null && course != null) {
                 teacher.addCourse(course);
                 course.setFacultyName(teacher.getName());
+                course.setFacultyId(teacher.getUserId());
                 
                 this.teacherRepository.update(teacher);
                 this.courseRepository.update(course);
@@ -702,6 +791,9 @@ public class PrincipalMenuHandler {
             System.out.println("\n--- Send Message ---");
             System.out.println("1. Send to Admin");
             System.out.println("2. Send to Teacher");
+            System.out.println("3. Broadcast to All Admins");
+            System.out.println("4. Broadcast to All Teachers");
+            System.out.println("5. Broadcast to a Batch of Students");
             System.out.print("Choose recipient type: ");
             
             int recipientType = Integer.parseInt(this.scanner.nextLine());
@@ -746,7 +838,7 @@ public class PrincipalMenuHandler {
                         messageText
                     );
                     
-                    this.messageRepository.add(message);
+                    this.messageDeliveryService.send(message);
                     System.out.println("✓ Message sent to " + targetAdmin.getName());
                 } else {
                     System.out.println("✗ Admin with ID " + adminId + " not found");
@@ -791,11 +883,29 @@ public class PrincipalMenuHandler {
                         messageText
                     );
                     
-                    this.messageRepository.add(message);
+                    this.messageDeliveryService.send(message);
                     System.out.println("✓ Message sent to " + targetTeacher.getName());
                 } else {
                     System.out.println("✗ Teacher with ID " + teacherId + " not found");
                 }
+            } else if (recipientType == 3) {
+                broadcastFromPrincipal(principal, Broadcast.AUDIENCE_ROLE, "ADMIN", null,
+                        this.adminRepository.getAll().size() + " admins");
+            } else if (recipientType == 4) {
+                broadcastFromPrincipal(principal, Broadcast.AUDIENCE_ROLE, "TEACHER", null,
+                        this.teacherRepository.getAll().size() + " teachers");
+            } else if (recipientType == 5) {
+                System.out.print("Enter batch year range (e.g., 2024-2028): ");
+                String batch = this.scanner.nextLine().trim();
+                long students = this.studentRepository.getAll().stream()
+                        .filter(s -> s.getBatch() != null && batch.equals(s.getBatch().getYearRange()))
+                        .count();
+                if (students == 0) {
+                    System.out.println("✗ No students found in batch " + batch);
+                    return;
+                }
+                broadcastFromPrincipal(principal, Broadcast.AUDIENCE_BATCH, "STUDENT", batch,
+                        students + " students in batch " + batch);
             } else {
                 System.out.println("Invalid recipient type.");
             }
@@ -806,4 +916,31 @@ public class PrincipalMenuHandler {
             System.out.println("Error sending message: " + e.getMessage());
         }
     }
+
+    // Stored once; recipients pick it up when they read their messages
+    private void broadcastFromPrincipal(Principal principal, String audience, String audienceRole,
+                                        String audienceKey, String recipients) throws RepositoryException, ValidationException {
+        System.out.print("Enter your message: ");
+        String messageText = this.scanner.nextLine();
+        
+        Broadcast broadcast = new Broadcast(
+            this.broadcastRepository.getNextBroadcastId(),
+            principal.getUserId(),
+            principal.getName(),
+            "PRINCIPAL",
+            audience,
+            audienceRole,
+            audienceKey,
+            messageText
+        );
+        
+        System.out.print("Expire after how many days? (blank for never): ");
+        String days = this.scanner.nextLine().trim();
+        if (!days.isEmpty()) {
+            broadcast.setExpiresAtMillis(broadcast.getTimestampMillis() + TimeUnit.DAYS.toMillis(Integer.parseInt(days)));
+        }
+        
+        this.broadcastRepository.add(broadcast);
+        System.out.println("✓ Message broadcast to " + recipients);
+    }
 }
@@ -2,24 +2,36 @@ package sms.app.menus;
 
 import sms.data.*;
 import sms.domain.*;
+import sms.domain.support.Timestamps;
 import sms.exceptions.*;
+import sms.services.AttendanceAnalyticsService;
 import sms.services.FileUploadService;
+import sms.services.GpaService;
+import sms.services.MessageDeliveryService;
+import sms.services.StudentDashboardService;
 import sms.services.UploadService;
 import sms.validation.InputValidator;
 
 import java.io.File;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 
 public class StudentMenuHandler {
+    private static final int PAGE_SIZE = 10;
     private final Repository<Student> studentRepository;
     private final Repository<Course> courseRepository;
     private final Repository<Teacher> teacherRepository;
     private final AssignmentRepository assignmentRepository;
     private final SubmissionRepository submissionRepository;
     private final MessageRepository messageRepository;
+    private final BroadcastRepository broadcastRepository;
+    private final MessageDeliveryService messageDeliveryService;
     private final GradeRepository gradeRepository;
+    private final GpaService gpaService;
+    private final StudentDashboardService dashboardService;
+    private final AttendanceAnalyticsService attendanceAnalyticsService;
     private final UploadService<File> uploadService;
     private final Scanner scanner;
 
@@ -30,7 +42,12 @@ public class StudentMenuHandler {
         AssignmentRepository assignmentRepository,
         SubmissionRepository submissionRepository,
         MessageRepository messageRepository,
+        BroadcastRepository broadcastRepository,
+        MessageDeliveryService messageDeliveryService,
         GradeRepository gradeRepository,
+        GpaService gpaService,
+        StudentDashboardService dashboardService,
+        AttendanceAnalyticsService attendanceAnalyticsService,
         UploadService<File> uploadService,
         Scanner scanner
     ) {
@@ -40,7 +57,12 @@ public class StudentMenuHandler {
         this.assignmentRepository = assignmentRepository;
         this.submissionRepository = submissionRepository;
         this.messageRepository = messageRepository;
+        this.broadcastRepository = broadcastRepository;
+        this.messageDeliveryService = messageDeliveryService;
         this.gradeRepository = gradeRepository;
+        this.gpaService = gpaService;
+        this.dashboardService = dashboardService;
+        this.attendanceAnalyticsService = attendanceAnalyticsService;
         this.uploadService = uploadService;
         this.scanner = scanner;
     }
@@ -108,7 +130,13 @@ public class StudentMenuHandler {
             System.out.println("   All operations work directly with persistent storage");
             System.out.println("=".repeat(60));
             
-            runStudentMenuLoop(student);
+            MessageDeliveryService.DeliveryListener notifier = StudentMenuHandler::notifyNewMessage;
+            messageDeliveryService.subscribe(student.getUserId(), "STUDENT", notifier);
+            try {
+                runStudentMenuLoop(student);
+            } finally {
+                messageDeliveryService.unsubscribe(student.getUserId(), "STUDENT", notifier);
+            }
         } catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
             e.printStackTrace();
@@ -140,6 +168,9 @@ public class StudentMenuHandler {
                     case 6:
                         handleFileUpload(student);
                         break;
+                    case 7:
+                        viewStudentAttendance(student);
+                        break;
                     case 0:
                         System.out.println("Logging out from Student account...");
                         return;
@@ -346,8 +377,7 @@ public class StudentMenuHandler {
                 
                 submission.setFileName(fileName);
                 submission.setFilePath(filePath);
-                submission.setTimestamp(java.time.LocalDateTime.now().format(
-                    java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+                submission.setTimestampMillis(System.currentTimeMillis());
                 
                 submissionRepository.update(submission);
                 System.out.println("Submission updated successfully!");
@@ -431,19 +461,10 @@ public class StudentMenuHandler {
                     System.out.println("Course: " + g.getCourseId() + " - Grade: " + g.getGrade());
                 }
                 
-                double total = 0;
-                int count = 0;
-                for (Grade g : myGrades) {
-                    double gradeValue = convertGradeToPoints(g.getGrade());
-                    if (gradeValue >= 0) {
-                        total += gradeValue;
-                        count++;
-                    }
-                }
-                
-                if (count > 0) {
-                    double gpa = total / count;
-                    System.out.println("\nGPA: " + String.format("%.2f", gpa));
+                double gpa = gpaService.getGpa(student.getUserId());
+                if (gpa >= 0) {
+                    System.out.println("\nGPA: " + String.format("%.2f", gpa) +
+                                     " (" + String.format("%.0f", gpaService.getCreditsAttempted(student.getUserId())) + " credit hours)");
                 }
                 
                 System.out.println("Total: " + myGrades.size() + " grades");
@@ -487,25 +508,34 @@ public class StudentMenuHandler {
         }
     }
 
-    private double convertGradeToPoints(String grade) {
-        switch (grade.toUpperCase()) {
-            case "A": return 4.0;
-            case "A-": return 3.7;
-            case "B+": return 3.3;
-            case "B": return 3.0;
-            case "B-": return 2.7;
-            case "C+": return 2.3;
-            case "C": return 2.0;
-            case "C-": return 1.7;
-            case "D": return 1.0;
-            case "F": return 0.0;
-            default: return -1;
+    private void viewStudentAttendance(Student student) {
+        System.out.println("\n=== Your Attendance ===");
+        List<String> courseIds = new ArrayList<>();
+        for (Course course : student.getCourses()) {
+            courseIds.add(course.getCourseId());
+        }
+        List<AttendanceAnalyticsService.AttendanceSummary> summaries =
+            attendanceAnalyticsService.getStudentAttendance(student.getUserId(), courseIds);
+        if (summaries.isEmpty()) {
+            System.out.println("No attendance has been recorded for your courses yet.");
+            return;
+        }
+        for (AttendanceAnalyticsService.AttendanceSummary summary : summaries) {
+            System.out.printf("%-10s %d/%d classes (%.1f%%), %d late%s%n",
+                summary.getCourseId(), summary.getAttended(), summary.getHeld(), summary.getPercentage(),
+                summary.getLate(),
+                summary.getPercentage() < AttendanceAnalyticsService.DEFAULT_THRESHOLD ? "  ⚠ below 75%" : "");
         }
     }
 
     private void handleStudentMessaging(Student student) {
         while (true) {
             try {
+                int unread = messageRepository.getUnreadCount(student.getUserId(), "STUDENT")
+                        + unreadBroadcasts(student).size();
+                if (unread > 0) {
+                    System.out.println("\nYou have " + unread + " unread message" + (unread == 1 ? "" : "s") + ".");
+                }
                 student.showMessagingMenu();
                 int choice = Integer.parseInt(scanner.nextLine());
                 
@@ -522,6 +552,12 @@ public class StudentMenuHandler {
                     case 4:
                         markStudentMessagesAsRead(student);
                         break;
+                    case 5:
+                        deleteConversation(student);
+                        break;
+                    case 6:
+                        viewConversations(student);
+                        break;
                     case 0:
                         return;
                     default:
@@ -537,26 +573,98 @@ public class StudentMenuHandler {
 
     private void viewStudentMessages(Student student) {
         try {
-            List<Message> messages = messageRepository.getMessagesForUser(student.getUserId(), "STUDENT");
+            boolean hasMessages = !messageRepository.getInboxPage(student.getUserId(), "STUDENT",
+                    MessageRepository.Cursor.latest(), 1).getMessages().isEmpty();
+            List<Broadcast> broadcasts = broadcastRepository.getBroadcastsForUser(
+                    student.getUserId(), "STUDENT", courseIdsOf(student), batchOf(student));
             
-            if (messages.isEmpty()) {
+            if (!hasMessages && broadcasts.isEmpty()) {
                 System.out.println("\nNo messages found.");
                 return;
             }
             
-            System.out.println("\n=== Your Messages ===");
-            for (Message m : messages) {
+            if (!broadcasts.isEmpty()) {
+                printAnnouncements(student, broadcasts);
+                broadcastRepository.markRead(student.getUserId(), broadcasts);
+            }
+            
+            if (hasMessages) {
+                System.out.println("\n=== Your Messages (newest first) ===");
+                printPages(cursor -> messageRepository.getInboxPage(student.getUserId(), "STUDENT", cursor, PAGE_SIZE), student);
+            }
+            
+        } catch (Exception e) {
+            System.out.println("Error viewing messages: " + e.getMessage());
+        }
+    }
+
+    private void viewConversations(Student student) {
+        try {
+            List<MessageRepository.ConversationSummary> conversations =
+                    messageRepository.getConversations(student.getUserId(), "STUDENT");
+            
+            if (conversations.isEmpty()) {
+                System.out.println("\nNo conversations found.");
+                return;
+            }
+            
+            System.out.println("\n=== Your Conversations ===");
+            for (int i = 0; i < conversations.size(); i++) {
+                MessageRepository.ConversationSummary c = conversations.get(i);
+                System.out.println((i + 1) + ". " + c.getOtherUserName() + " (" + c.getOtherRole() + ") - "
+                                   + c.getMessageCount() + " messages, last " + c.getLastMessage().getTimestamp());
+            }
+            
+            System.out.print("Select conversation (1, 2, etc., or 0 to go back): ");
+            int choice = Integer.parseInt(scanner.nextLine());
+            if (choice == 0) {
+                return;
+            }
+            if (choice < 1 || choice > conversations.size()) {
+                System.out.println("Invalid selection.");
+                return;
+            }
+            
+            MessageRepository.ConversationSummary selected = conversations.get(choice - 1);
+            System.out.println("\n=== Conversation with " + selected.getOtherUserName() + " (newest first) ===");
+            printPages(cursor -> messageRepository.getConversationPage(student.getUserId(), "STUDENT",
+                    selected.getOtherUserId(), selected.getOtherRole(), cursor, PAGE_SIZE), student);
+            
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input.");
+        } catch (Exception e) {
+            System.out.println("Error viewing conversations: " + e.getMessage());
+        }
+    }
+
+    private interface PageSource {
+        MessageRepository.Page load(MessageRepository.Cursor before) throws RepositoryException;
+    }
+
+    // Print a history one page at a time, older pages on request
+    private void printPages(PageSource pages, Student student) throws RepositoryException {
+        MessageRepository.Cursor cursor = MessageRepository.Cursor.latest();
+        while (cursor != null) {
+            MessageRepository.Page page = pages.load(cursor);
+            for (Message m : page.getMessages()) {
+                boolean sent = m.getFromUserId() == student.getUserId() && m.getFromRole().equalsIgnoreCase("STUDENT");
                 System.out.println("ID: " + m.getMessageId());
-                System.out.println("  From: " + m.getFromUserName() + " (" + m.getFromRole() + ")");
+                System.out.println(sent ? "  To: " + m.getToUserName() + " (" + m.getToRole() + ")"
+                                        : "  From: " + m.getFromUserName() + " (" + m.getFromRole() + ")");
                 System.out.println("  Message: " + m.getMessage());
                 System.out.println("  Timestamp: " + m.getTimestamp());
-                System.out.println("  Status: " + (m.isRead() ? "Read" : "Unread"));
+                if (!sent) {
+                    System.out.println("  Status: " + (m.isRead() ? "Read" : "Unread"));
+                }
                 System.out.println();
             }
-            System.out.println("Total: " + messages.size() + " messages");
-            
-        } catch (Exception e) {
-            System.out.println("Error viewing messages: " + e.getMessage());
+            cursor = page.getNextCursor();
+            if (cursor != null) {
+                System.out.print("Press Enter for older messages, or 0 to stop: ");
+                if (scanner.nextLine().trim().equals("0")) {
+                    return;
+                }
+            }
         }
     }
 
@@ -593,7 +701,7 @@ public class StudentMenuHandler {
                                          selectedTeacher.getUserId(), selectedTeacher.getName(), "TEACHER",
                                          messageContent);
             
-            messageRepository.add(message);
+            messageDeliveryService.send(message);
             System.out.println("Message sent successfully!");
             
         } catch (Exception e) {
@@ -601,11 +709,17 @@ public class StudentMenuHandler {
         }
     }
 
+    // Runs on the delivery thread while this user is logged in
+    private static void notifyNewMessage(Message message) {
+        System.out.println("\n🔔 New message from " + message.getFromUserName() + " (" + message.getFromRole() + ")");
+    }
+
     private void viewStudentUnreadMessages(Student student) {
         try {
             List<Message> unreadMessages = messageRepository.getUnreadMessagesForUser(student.getUserId(), "STUDENT");
+            List<Broadcast> unreadBroadcasts = unreadBroadcasts(student);
             
-            if (unreadMessages.isEmpty()) {
+            if (unreadMessages.isEmpty() && unreadBroadcasts.isEmpty()) {
                 System.out.println("\nNo unread messages.");
                 return;
             }
@@ -620,6 +734,10 @@ public class StudentMenuHandler {
             }
             System.out.println("Total: " + unreadMessages.size() + " unread messages");
             
+            if (!unreadBroadcasts.isEmpty()) {
+                printAnnouncements(student, unreadBroadcasts);
+            }
+            
         } catch (Exception e) {
             System.out.println("Error viewing unread messages: " + e.getMessage());
         }
@@ -628,8 +746,9 @@ public class StudentMenuHandler {
     private void markStudentMessagesAsRead(Student student) {
         try {
             List<Message> unreadMessages = messageRepository.getUnreadMessagesForUser(student.getUserId(), "STUDENT");
+            List<Broadcast> unreadBroadcasts = unreadBroadcasts(student);
             
-            if (unreadMessages.isEmpty()) {
+            if (unreadMessages.isEmpty() && unreadBroadcasts.isEmpty()) {
                 System.out.println("No unread messages.");
                 return;
             }
@@ -640,26 +759,29 @@ public class StudentMenuHandler {
                 System.out.println((i + 1) + ". From: " + m.getFromUserName() + " - " + 
                                  m.getMessage().substring(0, Math.min(50, m.getMessage().length())) + "...");
             }
+            if (!unreadBroadcasts.isEmpty()) {
+                System.out.println("(plus " + unreadBroadcasts.size() + " unread announcement" + (unreadBroadcasts.size() == 1 ? "" : "s") + ", marked with 'all')");
+            }
             
-            System.out.print("Select message to mark as read (1, 2, etc., or 'all'): ");
+            System.out.print("Select messages to mark as read (e.g. 1 or 1,3,4, or 'all'): ");
             String choice = scanner.nextLine();
             
             if (choice.equalsIgnoreCase("all")) {
-                for (Message m : unreadMessages) {
-                    m.setRead(true);
-                    messageRepository.update(m);
-                }
+                messageRepository.markAllRead(student.getUserId(), "STUDENT");
+                broadcastRepository.markRead(student.getUserId(), unreadBroadcasts);
                 System.out.println("All messages marked as read!");
             } else {
-                int msgChoice = Integer.parseInt(choice);
-                if (msgChoice >= 1 && msgChoice <= unreadMessages.size()) {
-                    Message message = unreadMessages.get(msgChoice - 1);
-                    message.setRead(true);
-                    messageRepository.update(message);
-                    System.out.println("Message marked as read!");
-                } else {
-                    System.out.println("Invalid selection.");
+                List<Integer> messageIds = new ArrayList<>();
+                for (String part : choice.split(",")) {
+                    int msgChoice = Integer.parseInt(part.trim());
+                    if (msgChoice < 1 || msgChoice > unreadMessages.size()) {
+                        System.out.println("Invalid selection: " + msgChoice);
+                        return;
+                    }
+                    messageIds.add(unreadMessages.get(msgChoice - 1).getMessageId());
                 }
+                int marked = messageRepository.markRead(messageIds);
+                System.out.println(marked + " message" + (marked == 1 ? "" : "s") + " marked as read!");
             }
             
         } catch (NumberFormatException e) {
@@ -669,44 +791,111 @@ public class StudentMenuHandler {
         }
     }
 
+    private void deleteConversation(Student student) {
+        try {
+            List<MessageRepository.ConversationSummary> conversations =
+                    messageRepository.getConversations(student.getUserId(), "STUDENT");
+            
+            if (conversations.isEmpty()) {
+                System.out.println("No conversations found.");
+                return;
+            }
+            
+            System.out.println("\n--- Delete Conversation ---");
+            for (int i = 0; i < conversations.size(); i++) {
+                MessageRepository.ConversationSummary c = conversations.get(i);
+                System.out.println((i + 1) + ". " + c.getOtherUserName() + " (" + c.getOtherRole() + ", ID: "
+                                   + c.getOtherUserId() + ") - " + c.getMessageCount() + " messages");
+            }
+            
+            System.out.print("Select conversation (1, 2, etc.): ");
+            int partnerChoice = Integer.parseInt(scanner.nextLine());
+            if (partnerChoice < 1 || partnerChoice > conversations.size()) {
+                System.out.println("Invalid selection.");
+                return;
+            }
+            
+            MessageRepository.ConversationSummary partner = conversations.get(partnerChoice - 1);
+            System.out.print("Delete all messages with " + partner.getOtherUserName() + "? (yes/no): ");
+            if (!scanner.nextLine().equalsIgnoreCase("yes")) {
+                System.out.println("Cancelled.");
+                return;
+            }
+            
+            int deleted = messageRepository.deleteConversation(student.getUserId(), "STUDENT",
+                                                               partner.getOtherUserId(), partner.getOtherRole());
+            System.out.println(deleted + " message" + (deleted == 1 ? "" : "s") + " deleted.");
+            
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input.");
+        } catch (Exception e) {
+            System.out.println("Error deleting conversation: " + e.getMessage());
+        }
+    }
+
+    private List<Broadcast> unreadBroadcasts(Student student) {
+        return broadcastRepository.getUnreadBroadcastsForUser(student.getUserId(), "STUDENT",
+                                                              courseIdsOf(student), batchOf(student));
+    }
+
+    private static List<String> courseIdsOf(Student student) {
+        List<String> courseIds = new ArrayList<>();
+        for (Course course : student.getCourses()) {
+            courseIds.add(course.getCourseId());
+        }
+        return courseIds;
+    }
+
+    private static String batchOf(Student student) {
+        return student.getBatch() == null ? null : student.getBatch().getYearRange();
+    }
+
+    private void printAnnouncements(Student student, List<Broadcast> broadcasts) {
+        System.out.println("\n=== Announcements ===");
+        for (Broadcast b : broadcasts) {
+            System.out.println("ID: B" + b.getBroadcastId());
+            System.out.println("  From: " + b.getFromUserName() + " (" + b.getFromRole() + ")");
+            System.out.println("  Message: " + b.getMessage());
+            System.out.println("  Timestamp: " + b.getTimestamp());
+            System.out.println("  Status: " + (b.isReadBy(student.getUserId()) ? "Read" : "Unread"));
+            System.out.println();
+        }
+    }
+
     private void showStudentDashboard(Student student) {
         try {
             student.showDashboard();
             
-            java.util.ArrayList<Assignment> pendingAssignments = new java.util.ArrayList<>();
-            for (Course course : student.getCourses()) {
-                List<Assignment> courseAssignments = assignmentRepository.getAssignmentsByCourseId(course.getCourseId());
-                for (Assignment a : courseAssignments) {
-                    Submission submission = submissionRepository.getSubmissionByStudentAndAssignment(
-                        student.getUserId(), a.getId());
-                    if (submission == null) {
-                        pendingAssignments.add(a);
-                    }
-                }
-            }
+            StudentDashboardService.Dashboard dashboard = dashboardService.getDashboard(student);
             
-            List<Submission> mySubmissions = submissionRepository.getSubmissionsByStudentId(student.getUserId());
-            List<Grade> myGrades = gradeRepository.getAll().stream()
-                .filter(g -> g.getStudentId() == student.getUserId())
-                .collect(java.util.stream.Collectors.toList());
-            List<Message> unreadMessages = messageRepository.getUnreadMessagesForUser(student.getUserId(), "STUDENT");
+            System.out.println("Pending Assignments: " + dashboard.getPendingCount());
+            System.out.println("Submitted Assignments: " + dashboard.getSubmittedCount());
+            System.out.println("Total Grades: " + dashboard.getGradeCount());
+            System.out.println("Unread Messages: " + dashboard.getUnreadCount());
+            System.out.println("Unread Announcements: " + unreadBroadcasts(student).size());
             
-            System.out.println("Pending Assignments: " + pendingAssignments.size());
-            System.out.println("Submitted Assignments: " + mySubmissions.size());
-            System.out.println("Total Grades: " + myGrades.size());
-            System.out.println("Unread Messages: " + unreadMessages.size());
+            LocalDate today = LocalDate.now();
+            int dueThisWeek = 0;
+            for (Assignment a : assignmentRepository.getAssignmentsDueBetween(Timestamps.startOf(today), 
+                                                                               Timestamps.startOf(today.plusDays(7)))) {
+                if (student.getCourses().stream().anyMatch(c -> c.getCourseId().equals(a.getCourseId()))) {
+                    dueThisWeek++;
+                }
+            }
+            System.out.println("Due in the Next 7 Days: " + dueThisWeek);
             
-            if (!pendingAssignments.isEmpty() && pendingAssignments.size() <= 3) {
+            List<Assignment> nextDeadlines = dashboard.getNextDeadlines(3);
+            if (!nextDeadlines.isEmpty()) {
                 System.out.println("\nUpcoming Assignments:");
-                for (Assignment a : pendingAssignments) {
+                for (Assignment a : nextDeadlines) {
                     System.out.println("  - " + a.getTitle() + " (Due: " + a.getDueDate() + ")");
                 }
             }
             
+            List<Message> unreadMessages = dashboard.getUnreadMessages();
             if (!unreadMessages.isEmpty() && unreadMessages.size() <= 3) {
                 System.out.println("\nLatest Messages:");
-                for (int i = 0; i < Math.min(3, unreadMessages.size()); i++) {
-                    Message m = unreadMessages.get(i);
+                for (Message m : unreadMessages) {
                     System.out.println("  - From " + m.getFromUserName() + ": " + 
                                      m.getMessage().substring(0, Math.min(40, m.getMessage().length())) + "...");
                 }
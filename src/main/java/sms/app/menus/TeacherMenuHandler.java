@@ -4,33 +4,52 @@ import sms.data.*;
 import sms.domain.*;
 import sms.exceptions.*;
 import sms.services.FileUploadService;
+import sms.services.GradeAnalyticsService;
+import sms.services.GradeDistribution;
+import sms.services.MessageDeliveryService;
 import sms.services.UploadService;
 import sms.validation.InputValidator;
 
 import java.io.File;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 public class TeacherMenuHandler {
+    private static final int PAGE_SIZE = 10;
+    private static final int HISTOGRAM_WIDTH = 50;
     private final Repository<Student> studentRepository;
     private final Repository<Teacher> teacherRepository;
-    private final Repository<Course> courseRepository;
+    private final CourseRepository courseRepository;
     private final AssignmentRepository assignmentRepository;
     private final SubmissionRepository submissionRepository;
     private final MessageRepository messageRepository;
+    private final BroadcastRepository broadcastRepository;
+    private final MessageDeliveryService messageDeliveryService;
     private final GradeRepository gradeRepository;
+    private final EnrollmentIndex enrollmentIndex;
+    private final GradeAnalyticsService gradeAnalyticsService;
+    private final AttendanceRepository attendanceRepository;
     private final UploadService<File> uploadService;
     private final Scanner scanner;
 
     public TeacherMenuHandler(
         Repository<Student> studentRepository,
         Repository<Teacher> teacherRepository,
-        Repository<Course> courseRepository,
+        CourseRepository courseRepository,
         AssignmentRepository assignmentRepository,
         SubmissionRepository submissionRepository,
         MessageRepository messageRepository,
+        BroadcastRepository broadcastRepository,
+        MessageDeliveryService messageDeliveryService,
         GradeRepository gradeRepository,
+        EnrollmentIndex enrollmentIndex,
+        GradeAnalyticsService gradeAnalyticsService,
+        AttendanceRepository attendanceRepository,
         UploadService<File> uploadService,
         Scanner scanner
     ) {
@@ -40,7 +59,12 @@ public class TeacherMenuHandler {
         this.assignmentRepository = assignmentRepository;
         this.submissionRepository = submissionRepository;
         this.messageRepository = messageRepository;
+        this.broadcastRepository = broadcastRepository;
+        this.messageDeliveryService = messageDeliveryService;
         this.gradeRepository = gradeRepository;
+        this.enrollmentIndex = enrollmentIndex;
+        this.gradeAnalyticsService = gradeAnalyticsService;
+        this.attendanceRepository = attendanceRepository;
         this.uploadService = uploadService;
         this.scanner = scanner;
     }
@@ -110,7 +134,13 @@ public class TeacherMenuHandler {
             System.out.println("   All operations work directly with persistent storage");
             System.out.println("=".repeat(60));
             
-            runTeacherMenuLoop(teacher);
+            MessageDeliveryService.DeliveryListener notifier = TeacherMenuHandler::notifyNewMessage;
+            messageDeliveryService.subscribe(teacher.getUserId(), "TEACHER", notifier);
+            try {
+                runTeacherMenuLoop(teacher);
+            } finally {
+                messageDeliveryService.unsubscribe(teacher.getUserId(), "TEACHER", notifier);
+            }
         } catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
             e.printStackTrace();
@@ -135,6 +165,7 @@ public class TeacherMenuHandler {
                         break;
                     case 4:
                         teacher.showDashboard();
+                        showRecentSubmissions(teacher);
                         break;
                     case 5:
                         viewTeacherCourses(teacher);
@@ -145,6 +176,9 @@ public class TeacherMenuHandler {
                     case 7:
                         handleFileUpload(teacher);
                         break;
+                    case 8:
+                        handleAttendance(teacher);
+                        break;
                     case 0:
                         System.out.println("Logging out from Teacher account...");
                         return;
@@ -161,12 +195,8 @@ public class TeacherMenuHandler {
 
     private void loadTeacherCourses(Teacher teacher) {
         try {
-            List<Course> allCourses = courseRepository.getAll();
-            for (Course course : allCourses) {
-                if (String.valueOf(teacher.getUserId()).equals(course.getFacultyName()) || 
-                    teacher.getName().equals(course.getFacultyName())) {
-                    teacher.addCourse(course);
-                }
+            for (Course course : courseRepository.getCoursesByFaculty(teacher.getUserId(), teacher.getName())) {
+                teacher.addCourse(course);
             }
         } catch (Exception e) {
             System.out.println("Warning: Could not load courses: " + e.getMessage());
@@ -175,16 +205,8 @@ public class TeacherMenuHandler {
 
     private void loadStudentsForTeacher(Teacher teacher) {
         try {
-            List<Student> allStudents = studentRepository.getAll();
-            for (Student student : allStudents) {
-                for (Course teacherCourse : teacher.getCourses()) {
-                    for (Course studentCourse : student.getCourses()) {
-                        if (teacherCourse.getCourseId().equals(studentCourse.getCourseId())) {
-                            teacher.addStudent(student);
-                            break;
-                        }
-                    }
-                }
+            for (Student student : enrollmentIndex.getStudentsInCourses(teacher.getCourses())) {
+                teacher.addStudent(student);
             }
         } catch (Exception e) {
             System.out.println("Warning: Could not load students: " + e.getMessage());
@@ -254,6 +276,7 @@ public class TeacherMenuHandler {
             
             System.out.print("Enter Due Date (YYYY-MM-DD): ");
             String dueDate = scanner.nextLine();
+            InputValidator.validateDueDate(dueDate);
             
             int assignmentId = assignmentRepository.getNextAssignmentId();
             Assignment assignment = new Assignment(assignmentId, selectedCourse.getCourseId(), 
@@ -331,6 +354,7 @@ public class TeacherMenuHandler {
             System.out.print("Enter new due date (or press Enter to keep '" + assignment.getDueDate() + "'): ");
             String dueDate = scanner.nextLine();
             if (!dueDate.trim().isEmpty()) {
+                InputValidator.validateDueDate(dueDate);
                 assignment.setDueDate(dueDate);
             }
             
@@ -551,6 +575,28 @@ public class TeacherMenuHandler {
             }
             System.out.println("Total: " + grades.size() + " grades");
             
+            GradeDistribution distribution = gradeAnalyticsService.getCourseDistribution(selectedCourse.getCourseId());
+            if (distribution.getCount() > 0) {
+                System.out.println("\n--- Grade Distribution ---");
+                long maxCount = 0;
+                for (long count : distribution.getHistogram().values()) {
+                    maxCount = Math.max(maxCount, count);
+                }
+                for (Map.Entry<String, Long> bucket : distribution.getHistogram().entrySet()) {
+                    if (bucket.getValue() > 0) {
+                        // Scale to the largest bucket, but never hide a non-empty one
+                        int width = (int) Math.max(1, HISTOGRAM_WIDTH * bucket.getValue() / maxCount);
+                        System.out.printf("%-3s %s %d%n", bucket.getKey(), "#".repeat(width), bucket.getValue());
+                    }
+                }
+                System.out.printf("Mean: %.2f  Median: %s  P25: %s  P75: %s  P90: %s%n",
+                    distribution.getMean(),
+                    GradeDistribution.letterFor(distribution.getMedian()),
+                    GradeDistribution.letterFor(distribution.getPercentile(25)),
+                    GradeDistribution.letterFor(distribution.getPercentile(75)),
+                    GradeDistribution.letterFor(distribution.getPercentile(90)));
+            }
+            
         } catch (Exception e) {
             System.out.println("Error viewing grades: " + e.getMessage());
         }
@@ -581,6 +627,11 @@ public class TeacherMenuHandler {
     private void handleMessaging(Teacher teacher) {
         while (true) {
             try {
+                int unread = messageRepository.getUnreadCount(teacher.getUserId(), "TEACHER")
+                        + unreadBroadcasts(teacher).size();
+                if (unread > 0) {
+                    System.out.println("\nYou have " + unread + " unread message" + (unread == 1 ? "" : "s") + ".");
+                }
                 teacher.showMessagingMenu();
                 int choice = Integer.parseInt(scanner.nextLine());
                 
@@ -597,6 +648,15 @@ public class TeacherMenuHandler {
                     case 4:
                         markMessagesAsRead(teacher);
                         break;
+                    case 5:
+                        broadcastToCourse(teacher);
+                        break;
+                    case 6:
+                        deleteConversation(teacher);
+                        break;
+                    case 7:
+                        viewConversations(teacher);
+                        break;
                     case 0:
                         return;
                     default:
@@ -612,26 +672,98 @@ public class TeacherMenuHandler {
 
     private void viewTeacherMessages(Teacher teacher) {
         try {
-            List<Message> messages = messageRepository.getMessagesForUser(teacher.getUserId(), "TEACHER");
+            boolean hasMessages = !messageRepository.getInboxPage(teacher.getUserId(), "TEACHER",
+                    MessageRepository.Cursor.latest(), 1).getMessages().isEmpty();
+            List<Broadcast> broadcasts = broadcastRepository.getBroadcastsForUser(
+                    teacher.getUserId(), "TEACHER", List.of(), null);
             
-            if (messages.isEmpty()) {
+            if (!hasMessages && broadcasts.isEmpty()) {
                 System.out.println("\nNo messages found.");
                 return;
             }
             
-            System.out.println("\n=== Your Messages ===");
-            for (Message m : messages) {
+            if (!broadcasts.isEmpty()) {
+                printAnnouncements(teacher, broadcasts);
+                broadcastRepository.markRead(teacher.getUserId(), broadcasts);
+            }
+            
+            if (hasMessages) {
+                System.out.println("\n=== Your Messages (newest first) ===");
+                printPages(cursor -> messageRepository.getInboxPage(teacher.getUserId(), "TEACHER", cursor, PAGE_SIZE), teacher);
+            }
+            
+        } catch (Exception e) {
+            System.out.println("Error viewing messages: " + e.getMessage());
+        }
+    }
+
+    private void viewConversations(Teacher teacher) {
+        try {
+            List<MessageRepository.ConversationSummary> conversations =
+                    messageRepository.getConversations(teacher.getUserId(), "TEACHER");
+            
+            if (conversations.isEmpty()) {
+                System.out.println("\nNo conversations found.");
+                return;
+            }
+            
+            System.out.println("\n=== Your Conversations ===");
+            for (int i = 0; i < conversations.size(); i++) {
+                MessageRepository.ConversationSummary c = conversations.get(i);
+                System.out.println((i + 1) + ". " + c.getOtherUserName() + " (" + c.getOtherRole() + ") - "
+                                   + c.getMessageCount() + " messages, last " + c.getLastMessage().getTimestamp());
+            }
+            
+            System.out.print("Select conversation (1, 2, etc., or 0 to go back): ");
+            int choice = Integer.parseInt(scanner.nextLine());
+            if (choice == 0) {
+                return;
+            }
+            if (choice < 1 || choice > conversations.size()) {
+                System.out.println("Invalid selection.");
+                return;
+            }
+            
+            MessageRepository.ConversationSummary selected = conversations.get(choice - 1);
+            System.out.println("\n=== Conversation with " + selected.getOtherUserName() + " (newest first) ===");
+            printPages(cursor -> messageRepository.getConversationPage(teacher.getUserId(), "TEACHER",
+                    selected.getOtherUserId(), selected.getOtherRole(), cursor, PAGE_SIZE), teacher);
+            
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input.");
+        } catch (Exception e) {
+            System.out.println("Error viewing conversations: " + e.getMessage());
+        }
+    }
+
+    private interface PageSource {
+        MessageRepository.Page load(MessageRepository.Cursor before) throws RepositoryException;
+    }
+
+    // Print a history one page at a time, older pages on request
+    private void printPages(PageSource pages, Teacher teacher) throws RepositoryException {
+        MessageRepository.Cursor cursor = MessageRepository.Cursor.latest();
+        while (cursor != null) {
+            MessageRepository.Page page = pages.load(cursor);
+            for (Message m : page.getMessages()) {
+                boolean sent = m.getFromUserId() == teacher.getUserId() && m.getFromRole().equalsIgnoreCase("TEACHER");
                 System.out.println("ID: " + m.getMessageId());
-                System.out.println("  From: " + m.getFromUserName() + " (" + m.getFromRole() + ")");
+                System.out.println(sent ? "  To: " + m.getToUserName() + " (" + m.getToRole() + ")"
+                                        : "  From: " + m.getFromUserName() + " (" + m.getFromRole() + ")");
                 System.out.println("  Message: " + m.getMessage());
                 System.out.println("  Timestamp: " + m.getTimestamp());
-                System.out.println("  Status: " + (m.isRead() ? "Read" : "Unread"));
+                if (!sent) {
+                    System.out.println("  Status: " + (m.isRead() ? "Read" : "Unread"));
+                }
                 System.out.println();
             }
-            System.out.println("Total: " + messages.size() + " messages");
-            
-        } catch (Exception e) {
-            System.out.println("Error viewing messages: " + e.getMessage());
+            cursor = page.getNextCursor();
+            if (cursor != null) {
+                System.out.print("Press Enter for older messages, or 0 to stop: ");
+                if (scanner.nextLine().trim().equals("0")) {
+                    return;
+                }
+            }
         }
     }
 
@@ -666,7 +798,7 @@ public class TeacherMenuHandler {
                                          selectedStudent.getUserId(), selectedStudent.getName(), "STUDENT",
                                          messageContent);
             
-            messageRepository.add(message);
+            messageDeliveryService.send(message);
             System.out.println("Message sent successfully!");
             
         } catch (Exception e) {
@@ -674,11 +806,17 @@ public class TeacherMenuHandler {
         }
     }
 
+    // Runs on the delivery thread while this user is logged in
+    private static void notifyNewMessage(Message message) {
+        System.out.println("\n🔔 New message from " + message.getFromUserName() + " (" + message.getFromRole() + ")");
+    }
+
     private void viewUnreadMessages(Teacher teacher) {
         try {
             List<Message> unreadMessages = messageRepository.getUnreadMessagesForUser(teacher.getUserId(), "TEACHER");
+            List<Broadcast> unreadBroadcasts = unreadBroadcasts(teacher);
             
-            if (unreadMessages.isEmpty()) {
+            if (unreadMessages.isEmpty() && unreadBroadcasts.isEmpty()) {
                 System.out.println("\nNo unread messages.");
                 return;
             }
@@ -693,6 +831,10 @@ public class TeacherMenuHandler {
             }
             System.out.println("Total: " + unreadMessages.size() + " unread messages");
             
+            if (!unreadBroadcasts.isEmpty()) {
+                printAnnouncements(teacher, unreadBroadcasts);
+            }
+            
         } catch (Exception e) {
             System.out.println("Error viewing unread messages: " + e.getMessage());
         }
@@ -701,8 +843,9 @@ public class TeacherMenuHandler {
     private void markMessagesAsRead(Teacher teacher) {
         try {
             List<Message> unreadMessages = messageRepository.getUnreadMessagesForUser(teacher.getUserId(), "TEACHER");
+            List<Broadcast> unreadBroadcasts = unreadBroadcasts(teacher);
             
-            if (unreadMessages.isEmpty()) {
+            if (unreadMessages.isEmpty() && unreadBroadcasts.isEmpty()) {
                 System.out.println("No unread messages.");
                 return;
             }
@@ -712,26 +855,29 @@ public class TeacherMenuHandler {
                 Message m = unreadMessages.get(i);
                 System.out.println((i + 1) + ". From: " + m.getFromUserName() + " - " + m.getMessage().substring(0, Math.min(50, m.getMessage().length())) + "...");
             }
+            if (!unreadBroadcasts.isEmpty()) {
+                System.out.println("(plus " + unreadBroadcasts.size() + " unread announcement" + (unreadBroadcasts.size() == 1 ? "" : "s") + ", marked with 'all')");
+            }
             
-            System.out.print("Select message to mark as read (1, 2, etc., or 'all'): ");
+            System.out.print("Select messages to mark as read (e.g. 1 or 1,3,4, or 'all'): ");
             String choice = scanner.nextLine();
             
             if (choice.equalsIgnoreCase("all")) {
-                for (Message m : unreadMessages) {
-                    m.setRead(true);
-                    messageRepository.update(m);
-                }
+                messageRepository.markAllRead(teacher.getUserId(), "TEACHER");
+                broadcastRepository.markRead(teacher.getUserId(), unreadBroadcasts);
                 System.out.println("All messages marked as read!");
             } else {
-                int msgChoice = Integer.parseInt(choice);
-                if (msgChoice >= 1 && msgChoice <= unreadMessages.size()) {
-                    Message message = unreadMessages.get(msgChoice - 1);
-                    message.setRead(true);
-                    messageRepository.update(message);
-                    System.out.println("Message marked as read!");
-                } else {
-                    System.out.println("Invalid selection.");
+                List<Integer> messageIds = new ArrayList<>();
+                for (String part : choice.split(",")) {
+                    int msgChoice = Integer.parseInt(part.trim());
+                    if (msgChoice < 1 || msgChoice > unreadMessages.size()) {
+                        System.out.println("Invalid selection: " + msgChoice);
+                        return;
+                    }
+                    messageIds.add(unreadMessages.get(msgChoice - 1).getMessageId());
                 }
+                int marked = messageRepository.markRead(messageIds);
+                System.out.println(marked + " message" + (marked == 1 ? "" : "s") + " marked as read!");
             }
             
         } catch (NumberFormatException e) {
@@ -741,6 +887,121 @@ public class TeacherMenuHandler {
         }
     }
 
+    private void deleteConversation(Teacher teacher) {
+        try {
+            List<MessageRepository.ConversationSummary> conversations =
+                    messageRepository.getConversations(teacher.getUserId(), "TEACHER");
+            
+            if (conversations.isEmpty()) {
+                System.out.println("No conversations found.");
+                return;
+            }
+            
+            System.out.println("\n--- Delete Conversation ---");
+            for (int i = 0; i < conversations.size(); i++) {
+                MessageRepository.ConversationSummary c = conversations.get(i);
+                System.out.println((i + 1) + ". " + c.getOtherUserName() + " (" + c.getOtherRole() + ", ID: "
+                                   + c.getOtherUserId() + ") - " + c.getMessageCount() + " messages");
+            }
+            
+            System.out.print("Select conversation (1, 2, etc.): ");
+            int partnerChoice = Integer.parseInt(scanner.nextLine());
+            if (partnerChoice < 1 || partnerChoice > conversations.size()) {
+                System.out.println("Invalid selection.");
+                return;
+            }
+            
+            MessageRepository.ConversationSummary partner = conversations.get(partnerChoice - 1);
+            System.out.print("Delete all messages with " + partner.getOtherUserName() + "? (yes/no): ");
+            if (!scanner.nextLine().equalsIgnoreCase("yes")) {
+                System.out.println("Cancelled.");
+                return;
+            }
+            
+            int deleted = messageRepository.deleteConversation(teacher.getUserId(), "TEACHER",
+                                                               partner.getOtherUserId(), partner.getOtherRole());
+            System.out.println(deleted + " message" + (deleted == 1 ? "" : "s") + " deleted.");
+            
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input.");
+        } catch (Exception e) {
+            System.out.println("Error deleting conversation: " + e.getMessage());
+        }
+    }
+
+    private void broadcastToCourse(Teacher teacher) {
+        try {
+            System.out.println("\n--- Broadcast to a Course ---");
+            Course course = selectCourse(teacher);
+            if (course == null) {
+                return;
+            }
+            int students = enrollmentIndex.getStudentsInCourse(course.getCourseId()).size();
+            if (students == 0) {
+                System.out.println("No students are enrolled in " + course.getCourseId() + ".");
+                return;
+            }
+            
+            System.out.print("Enter your message: ");
+            String messageContent = scanner.nextLine();
+            
+            // Stored once; each student sees it when reading their messages
+            Broadcast broadcast = new Broadcast(broadcastRepository.getNextBroadcastId(), teacher.getUserId(),
+                                                teacher.getName(), "TEACHER", Broadcast.AUDIENCE_COURSE, "STUDENT",
+                                                course.getCourseId(), messageContent);
+            
+            System.out.print("Expire after how many days? (blank for never): ");
+            String days = scanner.nextLine().trim();
+            if (!days.isEmpty()) {
+                broadcast.setExpiresAtMillis(broadcast.getTimestampMillis() + TimeUnit.DAYS.toMillis(Integer.parseInt(days)));
+            }
+            
+            broadcastRepository.add(broadcast);
+            System.out.println("Message broadcast to " + students + " students in " + course.getCourseId() + "!");
+            
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input.");
+        } catch (Exception e) {
+            System.out.println("Error sending broadcast: " + e.getMessage());
+        }
+    }
+
+    private List<Broadcast> unreadBroadcasts(Teacher teacher) {
+        return broadcastRepository.getUnreadBroadcastsForUser(teacher.getUserId(), "TEACHER", List.of(), null);
+    }
+
+    private void printAnnouncements(Teacher teacher, List<Broadcast> broadcasts) {
+        System.out.println("\n=== Announcements ===");
+        for (Broadcast b : broadcasts) {
+            System.out.println("ID: B" + b.getBroadcastId());
+            System.out.println("  From: " + b.getFromUserName() + " (" + b.getFromRole() + ")");
+            System.out.println("  Message: " + b.getMessage());
+            System.out.println("  Timestamp: " + b.getTimestamp());
+            System.out.println("  Status: " + (b.isReadBy(teacher.getUserId()) ? "Read" : "Unread"));
+            System.out.println();
+        }
+    }
+
+    private void showRecentSubmissions(Teacher teacher) {
+        try {
+            long now = System.currentTimeMillis();
+            List<Submission> recent = new ArrayList<>();
+            for (Submission s : submissionRepository.getSubmissionsBetween(now - TimeUnit.DAYS.toMillis(1), now + 1)) {
+                Assignment assignment = assignmentRepository.getAssignmentById(s.getAssignmentId());
+                if (assignment.getTeacherId() == teacher.getUserId()) {
+                    recent.add(s);
+                }
+            }
+            System.out.println("Submissions in the last 24 hours: " + recent.size());
+            for (Submission s : recent) {
+                System.out.println("  - Student " + s.getStudentId() + ", Assignment " + s.getAssignmentId() + 
+                                 " at " + s.getTimestamp());
+            }
+        } catch (Exception e) {
+            System.out.println("Warning: Could not load recent submissions: " + e.getMessage());
+        }
+    }
+
     private void viewTeacherCourses(Teacher teacher) {
         System.out.println("\n=== Your Courses ===");
         if (teacher.getCourses().isEmpty()) {
@@ -766,6 +1027,158 @@ public class TeacherMenuHandler {
         }
     }
 
+    private void handleAttendance(Teacher teacher) {
+        while (true) {
+            try {
+                teacher.showAttendanceMenu();
+                int choice = Integer.parseInt(scanner.nextLine());
+                
+                switch (choice) {
+                    case 1:
+                        markClassAttendance(teacher);
+                        break;
+                    case 2:
+                        viewClassAttendance(teacher);
+                        break;
+                    case 0:
+                        return;
+                    default:
+                        System.out.println("Invalid option.");
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("Please enter a valid number.");
+            } catch (Exception e) {
+                System.out.println("Error: " + e.getMessage());
+            }
+        }
+    }
+
+    private Course selectCourse(Teacher teacher) {
+        if (teacher.getCourses().isEmpty()) {
+            System.out.println("You have no courses assigned.");
+            return null;
+        }
+        System.out.println("Your Courses:");
+        for (int i = 0; i < teacher.getCourses().size(); i++) {
+            Course c = teacher.getCourses().get(i);
+            System.out.println((i + 1) + ". " + c.getCourseName() + " (" + c.getCourseId() + ")");
+        }
+        System.out.print("Select course (1, 2, etc.): ");
+        int courseChoice = Integer.parseInt(scanner.nextLine());
+        if (courseChoice < 1 || courseChoice > teacher.getCourses().size()) {
+            System.out.println("Invalid course selection.");
+            return null;
+        }
+        return teacher.getCourses().get(courseChoice - 1);
+    }
+
+    private LocalDate readClassDate() throws ValidationException {
+        System.out.print("Enter class date (yyyy-MM-dd, blank for today): ");
+        String input = scanner.nextLine().trim();
+        return input.isEmpty() ? LocalDate.now() : AttendanceRepository.parseDate(input);
+    }
+
+    private void markClassAttendance(Teacher teacher) {
+        try {
+            System.out.println("\n--- Mark Attendance ---");
+            Course course = selectCourse(teacher);
+            if (course == null) {
+                return;
+            }
+            List<Student> roster = enrollmentIndex.getStudentsInCourse(course.getCourseId());
+            if (roster.isEmpty()) {
+                System.out.println("No students enrolled in this course.");
+                return;
+            }
+            LocalDate date = readClassDate();
+            
+            System.out.println("\nStudents in " + course.getCourseName() + ":");
+            for (int i = 0; i < roster.size(); i++) {
+                Student s = roster.get(i);
+                System.out.println((i + 1) + ". " + s.getName() + " (ID: " + s.getUserId() + ")");
+            }
+            
+            // Everyone is present unless listed as absent or late
+            Map<Integer, String> statuses = new HashMap<>();
+            for (Student s : roster) {
+                statuses.put(s.getUserId(), AttendanceRepository.PRESENT);
+            }
+            System.out.print("Enter numbers of ABSENT students (comma-separated, blank for none): ");
+            for (int index : readSelections(scanner.nextLine(), roster.size())) {
+                statuses.put(roster.get(index).getUserId(), AttendanceRepository.ABSENT);
+            }
+            System.out.print("Enter numbers of LATE students (comma-separated, blank for none): ");
+            for (int index : readSelections(scanner.nextLine(), roster.size())) {
+                statuses.put(roster.get(index).getUserId(), AttendanceRepository.LATE);
+            }
+            
+            attendanceRepository.markAll(course.getCourseId(), date, statuses);
+            long absent = statuses.values().stream().filter(AttendanceRepository.ABSENT::equals).count();
+            long late = statuses.values().stream().filter(AttendanceRepository.LATE::equals).count();
+            System.out.println("\n✓ Attendance saved for " + date + ": " + (roster.size() - absent) + " present ("
+                + late + " late), " + absent + " absent");
+            
+        } catch (Exception e) {
+            System.out.println("Error marking attendance: " + e.getMessage());
+        }
+    }
+
+    private List<Integer> readSelections(String input, int size) throws ValidationException {
+        List<Integer> selections = new ArrayList<>();
+        if (input == null || input.trim().isEmpty()) {
+            return selections;
+        }
+        for (String part : input.split(",")) {
+            try {
+                int number = Integer.parseInt(part.trim());
+                if (number < 1 || number > size) {
+                    throw new ValidationException("Selection out of range: " + number, "selection", part.trim());
+                }
+                selections.add(number - 1);
+            } catch (NumberFormatException e) {
+                throw new ValidationException("Invalid selection: " + part.trim(), "selection", part.trim());
+            }
+        }
+        return selections;
+    }
+
+    private void viewClassAttendance(Teacher teacher) {
+        try {
+            System.out.println("\n--- View Attendance ---");
+            Course course = selectCourse(teacher);
+            if (course == null) {
+                return;
+            }
+            List<AttendanceRepository.Session> sessions = attendanceRepository.getSessions(course.getCourseId());
+            if (sessions.isEmpty()) {
+                System.out.println("\nNo attendance has been marked for this course.");
+                return;
+            }
+            
+            System.out.println("\nClass dates:");
+            for (int i = 0; i < sessions.size(); i++) {
+                AttendanceRepository.Session session = sessions.get(i);
+                System.out.println((i + 1) + ". " + session.getDate() + " - " + session.getAttended().cardinality()
+                    + " attended, " + session.getLate().cardinality() + " late");
+            }
+            System.out.print("Select date to view details (0 to skip): ");
+            int dateChoice = Integer.parseInt(scanner.nextLine());
+            if (dateChoice < 1 || dateChoice > sessions.size()) {
+                return;
+            }
+            
+            LocalDate date = sessions.get(dateChoice - 1).getDate();
+            System.out.println("\n=== " + course.getCourseName() + " on " + date + " ===");
+            for (Student s : enrollmentIndex.getStudentsInCourse(course.getCourseId())) {
+                System.out.println("- " + s.getName() + " (ID: " + s.getUserId() + "): "
+                    + attendanceRepository.getStatus(course.getCourseId(), date, s.getUserId()));
+            }
+            
+        } catch (Exception e) {
+            System.out.println("Error viewing attendance: " + e.getMessage());
+        }
+    }
+
     private void handleFileUpload(User user) {
         try {
             System.out.println("\n=== File Upload ===");
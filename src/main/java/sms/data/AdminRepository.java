@@ -3,34 +3,44 @@ package sms.data;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import sms.domain.Admin;
+import sms.domain.support.IdentityMap;
+import sms.events.ChangeEventBus;
+import sms.exceptions.NotFoundException;
 import sms.exceptions.RepositoryException;
 import sms.exceptions.ValidationException;
-import sms.exceptions.NotFoundException;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class AdminRepository implements Repository<Admin> {
     private static final String DATA_FILE = "admins.json";
     private final List<Admin> admins;
     private final ObjectMapper objectMapper;
+    private final DataFile dataFile;
+    private final ChangeEventBus<Admin> eventBus;
+    private long loadedGeneration;
 
     public AdminRepository() {
         this.admins = new ArrayList<>();
         this.objectMapper = new ObjectMapper();
         this.objectMapper.configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.eventBus = new ChangeEventBus<>("Admin", Admin.class, Admin::getUserId, this);
+        this.dataFile = DataFile.of(DATA_FILE);
         try {
             loadAll();
         } catch (RepositoryException e) {
             System.out.println("Warning: Could not load existing admin data: " + e.getMessage());
         }
+        dataFile.onChange(this::reloadIfChanged);
     }
 
     @Override
-    public void add(Admin admin) throws RepositoryException, ValidationException {
+    public synchronized void add(Admin admin) throws RepositoryException, ValidationException {
         if (admin == null) {
             throw new ValidationException("Admin cannot be null", "admin", "null");
         }
@@ -38,56 +48,69 @@ public class AdminRepository implements Repository<Admin> {
             throw new ValidationException("Admin name cannot be empty", "name", admin.getName());
         }
         
-        admins.add(admin);
-        saveAll();
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            admins.add(IdentityMap.intern(admin));
+            saveAll(lease);
+        }
+        eventBus.added(admin);
         System.out.println("AdminRepository: Added admin " + admin.getName());
     }
 
     @Override
-    public void update(Admin admin) throws RepositoryException, NotFoundException {
+    public synchronized void update(Admin admin) throws RepositoryException, NotFoundException {
         if (admin == null) {
             throw new NotFoundException("Admin not found", "Admin", "null");
         }
         
-        boolean found = false;
-        for (int i = 0; i < admins.size(); i++) {
-            if (admins.get(i).getUserId() == admin.getUserId()) {
-                admins.set(i, admin);
-                found = true;
-                break;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            boolean found = false;
+            for (int i = 0; i < admins.size(); i++) {
+                if (admins.get(i).getUserId() == admin.getUserId()) {
+                    admins.set(i, IdentityMap.intern(admin));
+                    found = true;
+                    break;
+                }
             }
-        }
         
-        if (!found) {
-            throw new NotFoundException("Admin not found with ID: " + admin.getUserId(), "Admin", String.valueOf(admin.getUserId()));
-        }
+            if (!found) {
+                throw new NotFoundException("Admin not found with ID: " + admin.getUserId(), "Admin", String.valueOf(admin.getUserId()));
+            }
         
-        saveAll();
+            saveAll(lease);
+        }
+        eventBus.updated(admin);
         System.out.println("AdminRepository: Updated admin " + admin.getName());
     }
 
     @Override
-    public void delete(Admin admin) throws RepositoryException, NotFoundException {
+    public synchronized void delete(Admin admin) throws RepositoryException, NotFoundException {
         if (admin == null) {
             throw new NotFoundException("Admin not found", "Admin", "null");
         }
         
-        boolean removed = admins.removeIf(a -> a.getUserId() == admin.getUserId());
-        if (!removed) {
-            throw new NotFoundException("Admin not found with ID: " + admin.getUserId(), "Admin", String.valueOf(admin.getUserId()));
-        }
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            boolean removed = admins.removeIf(a -> a.getUserId() == admin.getUserId());
+            if (!removed) {
+                throw new NotFoundException("Admin not found with ID: " + admin.getUserId(), "Admin", String.valueOf(admin.getUserId()));
+            }
         
-        saveAll();
+            saveAll(lease);
+        }
+        IdentityMap.evict(admin);
+        eventBus.deleted(admin);
         System.out.println("AdminRepository: Deleted admin " + admin.getName());
     }
 
     @Override
-    public List<Admin> getAll() throws RepositoryException {
+    public synchronized List<Admin> getAll() throws RepositoryException {
         return new ArrayList<>(admins);
     }
 
     @Override
-    public List<Admin> find(String criteria) throws RepositoryException {
+    public synchronized List<Admin> find(String criteria) throws RepositoryException {
         return admins.stream()
                 .filter(admin -> admin.getName().toLowerCase().contains(criteria.toLowerCase()) ||
                                admin.getEmail().toLowerCase().contains(criteria.toLowerCase()) ||
@@ -96,36 +119,68 @@ public class AdminRepository implements Repository<Admin> {
     }
 
     private void loadAll() throws RepositoryException {
-        File file = new File(DATA_FILE);
-        if (!file.exists()) {
-            System.out.println("Admin data file does not exist. Starting with empty repository.");
-            return;
+        try (DataFile.Lease lease = dataFile.lockShared()) {
+            loadedGeneration = lease.getGeneration();
+            File file = dataFile.getFile();
+            if (!file.exists()) {
+                System.out.println("Admin data file does not exist. Starting with empty repository.");
+                return;
+            }
+
+            try {
+                List<Admin> adminList = objectMapper.readValue(file, new TypeReference<List<Admin>>() {});
+                Map<Integer, Admin> previous = new HashMap<>();
+                for (Admin existing : admins) {
+                    previous.put(existing.getUserId(), existing);
+                }
+                admins.clear();
+                for (Admin loaded : adminList) {
+                    admins.add(IdentityMap.intern(loaded));
+                    previous.remove(loaded.getUserId());
+                }
+                // Deleted by another process
+                for (Admin removed : previous.values()) {
+                    IdentityMap.evict(removed);
+                }
+                eventBus.reset(admins);
+                System.out.println("Loaded " + admins.size() + " admins from " + DATA_FILE);
+            } catch (IOException e) {
+                throw new RepositoryException("Failed to load admins from file: " + e.getMessage(), "LOAD", "ADMIN", e);
+            }
         }
+    }
 
+    private void saveAll(DataFile.Lease lease) throws RepositoryException {
         try {
-            List<Admin> adminList = objectMapper.readValue(file, new TypeReference<List<Admin>>() {});
-            admins.clear();
-            admins.addAll(adminList);
-            System.out.println("Loaded " + admins.size() + " admins from " + DATA_FILE);
+            objectMapper.writerFor(new TypeReference<List<Admin>>() {}).withDefaultPrettyPrinter().writeValue(new File(DATA_FILE), admins);
+            loadedGeneration = lease.commit();
         } catch (IOException e) {
-            throw new RepositoryException("Failed to load admins from file: " + e.getMessage(), "LOAD", "ADMIN", e);
+            throw new RepositoryException("Failed to save admins to file: " + e.getMessage(), "SAVE", "ADMIN", e);
+        }
+    }
+
+    private void reloadIfStale(DataFile.Lease lease) throws RepositoryException {
+        if (lease.getGeneration() != loadedGeneration) {
+            loadAll();
         }
     }
 
-    private void saveAll() throws RepositoryException {
+    private synchronized void reloadIfChanged() {
         try {
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(DATA_FILE), admins);
-        } catch (IOException e) {
-            throw new RepositoryException("Failed to save admins to file: " + e.getMessage(), "SAVE", "ADMIN", e);
+            if (dataFile.currentGeneration() != loadedGeneration) {
+                loadAll();
+            }
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not reload admin data: " + e.getMessage());
         }
     }
 
-    public long count() {
+    public synchronized long count() {
         return admins.size();
     }
 
     @Override
-    public List<Admin> sort(String criteria) throws RepositoryException {
+    public synchronized List<Admin> sort(String criteria) throws RepositoryException {
         List<Admin> sortedList = new ArrayList<>(admins);
         if ("name".equalsIgnoreCase(criteria)) {
             sortedList.sort((a1, a2) -> a1.getName().compareToIgnoreCase(a2.getName()));
@@ -136,4 +191,12 @@ public class AdminRepository implements Repository<Admin> {
         }
         return sortedList;
     }
+
+    /**
+     * Get the bus that publishes committed admin changes
+     * @return The change-event bus for this repository
+     */
+    public ChangeEventBus<Admin> getEventBus() {
+        return eventBus;
+    }
 }
\ No newline at end of file
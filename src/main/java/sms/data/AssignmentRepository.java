@@ -3,9 +3,12 @@ package sms.data;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import sms.domain.Assignment;
+import sms.domain.support.SymbolTable;
+import sms.domain.support.Timestamps;
+import sms.events.ChangeEventBus;
+import sms.exceptions.NotFoundException;
 import sms.exceptions.RepositoryException;
 import sms.exceptions.ValidationException;
-import sms.exceptions.NotFoundException;
 
 import java.io.File;
 import java.io.IOException;
@@ -16,21 +19,31 @@ import java.util.stream.Collectors;
 public class AssignmentRepository implements Repository<Assignment> {
     private static final String DATA_FILE = "assignments.json";
     private final List<Assignment> assignments;
+    private final TimeIndex<Assignment> byDueDate;
     private final ObjectMapper objectMapper;
+    private final DataFile dataFile;
+    private final ChangeEventBus<Assignment> eventBus;
+    private final IdSequence idSequence;
+    private long loadedGeneration;
 
     public AssignmentRepository() {
         this.assignments = new ArrayList<>();
+        this.byDueDate = new TimeIndex<>(Assignment::getDueDateMillis, Assignment::getId);
         this.objectMapper = new ObjectMapper();
         this.objectMapper.configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.eventBus = new ChangeEventBus<>("Assignment", Assignment.class, Assignment::getId, this);
+        this.idSequence = IdSequence.of("assignment");
+        this.dataFile = DataFile.of(DATA_FILE);
         try {
             loadAll();
         } catch (RepositoryException e) {
             System.out.println("Warning: Could not load existing assignment data: " + e.getMessage());
         }
+        dataFile.onChange(this::reloadIfChanged);
     }
 
     @Override
-    public void add(Assignment assignment) throws RepositoryException, ValidationException {
+    public synchronized void add(Assignment assignment) throws RepositoryException, ValidationException {
         if (assignment == null) {
             throw new ValidationException("Assignment cannot be null", "assignment", "null");
         }
@@ -38,57 +51,73 @@ public class AssignmentRepository implements Repository<Assignment> {
             throw new ValidationException("Assignment title cannot be empty", "title", assignment.getTitle());
         }
         
-        assignments.add(assignment);
-        saveAll();
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            assignments.add(assignment);
+            byDueDate.put(assignment);
+            saveAll(lease);
+        }
+        idSequence.ensureAbove(assignment.getId());
+        eventBus.added(assignment);
         System.out.println("AssignmentRepository: Added assignment '" + assignment.getTitle() + "' for course " + assignment.getCourseId());
     }
 
     @Override
-    public void update(Assignment assignment) throws RepositoryException, NotFoundException {
+    public synchronized void update(Assignment assignment) throws RepositoryException, NotFoundException {
         if (assignment == null) {
             throw new NotFoundException("Assignment not found", "Assignment", "null");
         }
         
-        boolean found = false;
-        for (int i = 0; i < assignments.size(); i++) {
-            if (assignments.get(i).getId() == assignment.getId()) {
-                assignments.set(i, assignment);
-                found = true;
-                break;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            boolean found = false;
+            for (int i = 0; i < assignments.size(); i++) {
+                if (assignments.get(i).getId() == assignment.getId()) {
+                    assignments.set(i, assignment);
+                    byDueDate.put(assignment);
+                    found = true;
+                    break;
+                }
             }
-        }
         
-        if (!found) {
-            throw new NotFoundException("Assignment not found with ID: " + assignment.getId(), "Assignment", String.valueOf(assignment.getId()));
-        }
+            if (!found) {
+                throw new NotFoundException("Assignment not found with ID: " + assignment.getId(), "Assignment", String.valueOf(assignment.getId()));
+            }
         
-        saveAll();
+            saveAll(lease);
+        }
+        eventBus.updated(assignment);
         System.out.println("AssignmentRepository: Updated assignment ID " + assignment.getId());
     }
 
     @Override
-    public void delete(Assignment assignment) throws RepositoryException, NotFoundException {
+    public synchronized void delete(Assignment assignment) throws RepositoryException, NotFoundException {
         if (assignment == null) {
             throw new NotFoundException("Assignment not found", "Assignment", "null");
         }
         
-        boolean removed = assignments.removeIf(a -> a.getId() == assignment.getId());
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            boolean removed = assignments.removeIf(a -> a.getId() == assignment.getId());
+            byDueDate.remove(assignment.getId());
         
-        if (!removed) {
-            throw new NotFoundException("Assignment not found with ID: " + assignment.getId(), "Assignment", String.valueOf(assignment.getId()));
-        }
+            if (!removed) {
+                throw new NotFoundException("Assignment not found with ID: " + assignment.getId(), "Assignment", String.valueOf(assignment.getId()));
+            }
         
-        saveAll();
+            saveAll(lease);
+        }
+        eventBus.deleted(assignment);
         System.out.println("AssignmentRepository: Deleted assignment ID " + assignment.getId());
     }
 
     @Override
-    public List<Assignment> getAll() throws RepositoryException {
+    public synchronized List<Assignment> getAll() throws RepositoryException {
         return new ArrayList<>(assignments);
     }
 
     @Override
-    public List<Assignment> find(String criteria) throws RepositoryException {
+    public synchronized List<Assignment> find(String criteria) throws RepositoryException {
         return assignments.stream()
                 .filter(a -> a.getTitle().toLowerCase().contains(criteria.toLowerCase()) ||
                            a.getCourseId().toLowerCase().contains(criteria.toLowerCase()) ||
@@ -96,19 +125,84 @@ public class AssignmentRepository implements Repository<Assignment> {
                 .collect(Collectors.toList());
     }
 
-    public List<Assignment> getAssignmentsByCourseId(String courseId) {
+    public synchronized List<Assignment> getAssignmentsByCourseId(String courseId) {
+        int courseCode = SymbolTable.lookup(courseId);
         return assignments.stream()
-                .filter(a -> a.getCourseId().equals(courseId))
+                .filter(a -> a.getCourseIdCode() == courseCode)
                 .collect(Collectors.toList());
     }
 
-    public List<Assignment> getAssignmentsByTeacherId(int teacherId) {
+    public synchronized List<Assignment> getAssignmentsByTeacherId(int teacherId) {
         return assignments.stream()
                 .filter(a -> a.getTeacherId() == teacherId)
                 .collect(Collectors.toList());
     }
 
-    public Assignment getAssignmentById(int id) throws NotFoundException {
+    /**
+     * @param from Start of the range in epoch millis, inclusive
+     * @param to End of the range in epoch millis, exclusive
+     * @return Assignments due in the range, earliest first
+     */
+    public synchronized List<Assignment> getAssignmentsDueBetween(long from, long to) {
+        return byDueDate.between(from, to);
+    }
+
+    /**
+     * Record that a deadline reminder is being sent, unless this or another process
+     * already sent it or a later one. The check and the write happen under one
+     * exclusive lock, so exactly one caller wins each reminder.
+     * @param assignmentId The assignment
+     * @param remindAtMillis When the reminder was scheduled
+     * @return true if the caller should send the reminder
+     */
+    public synchronized boolean claimReminder(int assignmentId, long remindAtMillis) throws RepositoryException {
+        Assignment claimed = null;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            for (Assignment assignment : assignments) {
+                if (assignment.getId() == assignmentId) {
+                    claimed = assignment;
+                    break;
+                }
+            }
+            if (claimed == null || (claimed.getRemindedAtMillis() != Timestamps.NONE
+                    && claimed.getRemindedAtMillis() >= remindAtMillis)) {
+                return false;
+            }
+            claimed.setRemindedAtMillis(remindAtMillis);
+            saveAll(lease);
+        }
+        eventBus.updated(claimed);
+        return true;
+    }
+
+    /**
+     * Give back a claim whose reminder could not be sent to everyone, so the next
+     * {@link #claimReminder(int, long)} for it succeeds. Earlier reminders stay
+     * claimed. Does nothing if a later reminder has been claimed since.
+     * @param assignmentId The assignment
+     * @param remindAtMillis The time passed to claimReminder
+     */
+    public synchronized void releaseReminder(int assignmentId, long remindAtMillis) throws RepositoryException {
+        Assignment released = null;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            for (Assignment assignment : assignments) {
+                if (assignment.getId() == assignmentId) {
+                    released = assignment;
+                    break;
+                }
+            }
+            if (released == null || released.getRemindedAtMillis() != remindAtMillis) {
+                return;
+            }
+            released.setRemindedAtMillis(remindAtMillis - 1);
+            saveAll(lease);
+        }
+        eventBus.updated(released);
+    }
+
+    public synchronized Assignment getAssignmentById(int id) throws NotFoundException {
         return assignments.stream()
                 .filter(a -> a.getId() == id)
                 .findFirst()
@@ -116,39 +210,59 @@ public class AssignmentRepository implements Repository<Assignment> {
     }
 
     private void loadAll() throws RepositoryException {
-        File file = new File(DATA_FILE);
-        if (!file.exists()) {
-            System.out.println("Assignment data file does not exist. Starting with empty repository.");
-            return;
-        }
+        try (DataFile.Lease lease = dataFile.lockShared()) {
+            loadedGeneration = lease.getGeneration();
+            File file = dataFile.getFile();
+            if (!file.exists()) {
+                System.out.println("Assignment data file does not exist. Starting with empty repository.");
+                return;
+            }
 
-        try {
-            List<Assignment> loadedAssignments = objectMapper.readValue(file, new TypeReference<List<Assignment>>() {});
-            assignments.clear();
-            assignments.addAll(loadedAssignments);
-            System.out.println("Loaded " + assignments.size() + " assignments from " + DATA_FILE);
-        } catch (IOException e) {
-            throw new RepositoryException("Failed to load assignments from file: " + e.getMessage(), "LOAD", "Assignment");
+            try {
+                List<Assignment> loadedAssignments = objectMapper.readValue(file, new TypeReference<List<Assignment>>() {});
+                assignments.clear();
+                assignments.addAll(loadedAssignments);
+                byDueDate.rebuild(assignments);
+                eventBus.reset(assignments);
+                idSequence.ensureAbove(assignments.stream().mapToInt(Assignment::getId).max().orElse(0));
+                System.out.println("Loaded " + assignments.size() + " assignments from " + DATA_FILE);
+            } catch (IOException e) {
+                throw new RepositoryException("Failed to load assignments from file: " + e.getMessage(), "LOAD", "Assignment");
+            }
         }
     }
 
-    private void saveAll() throws RepositoryException {
+    private void saveAll(DataFile.Lease lease) throws RepositoryException {
         try {
             objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(DATA_FILE), assignments);
+            loadedGeneration = lease.commit();
         } catch (IOException e) {
             throw new RepositoryException("Failed to save assignments to file: " + e.getMessage(), "SAVE", "Assignment");
         }
     }
 
-    public int getNextAssignmentId() {
-        return assignments.stream()
-                .mapToInt(Assignment::getId)
-                .max()
-                .orElse(0) + 1;
+    private void reloadIfStale(DataFile.Lease lease) throws RepositoryException {
+        if (lease.getGeneration() != loadedGeneration) {
+            loadAll();
+        }
+    }
+
+    private synchronized void reloadIfChanged() {
+        try {
+            if (dataFile.currentGeneration() != loadedGeneration) {
+                loadAll();
+            }
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not reload assignment data: " + e.getMessage());
+        }
+    }
+
+    public int getNextAssignmentId() throws RepositoryException {
+        return idSequence.next();
     }
 
     @Override
-    public List<Assignment> sort(String criteria) throws RepositoryException {
+    public synchronized List<Assignment> sort(String criteria) throws RepositoryException {
         List<Assignment> sortedList = new ArrayList<>(assignments);
         if ("title".equalsIgnoreCase(criteria) || "name".equalsIgnoreCase(criteria)) {
             sortedList.sort((a1, a2) -> a1.getTitle().compareToIgnoreCase(a2.getTitle()));
@@ -159,4 +273,12 @@ public class AssignmentRepository implements Repository<Assignment> {
         }
         return sortedList;
     }
+
+    /**
+     * Get the bus that publishes committed assignment changes
+     * @return The change-event bus for this repository
+     */
+    public ChangeEventBus<Assignment> getEventBus() {
+        return eventBus;
+    }
 }
@@ -0,0 +1,450 @@
+package sms.data;
+
+import sms.domain.Attendance;
+import sms.domain.Student;
+import sms.domain.support.CompressedBitmap;
+import sms.domain.support.SymbolTable;
+import sms.exceptions.NotFoundException;
+import sms.exceptions.RepositoryException;
+import sms.exceptions.ValidationException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Attendance stored as one pair of bitmaps per class session (course and date)
+ * instead of one record per student per session.
+ *
+ * Students are numbered with dense indexes in the order they are first marked,
+ * and a session keeps a {@link CompressedBitmap} of the indexes that attended
+ * (Present or Late) plus a usually tiny bitmap of those who were Late. A student
+ * enrolled in the course but not in the attended bitmap was absent. The whole
+ * store is written to attendance.dat in a compact binary form.
+ *
+ * Session bitmaps are replaced, never modified, when attendance is marked, so the
+ * bitmaps handed out by {@link #getSessions(String)} can be read without locking.
+ */
+public class AttendanceRepository implements Repository<Attendance> {
+    public static final String PRESENT = "Present";
+    public static final String ABSENT = "Absent";
+    public static final String LATE = "Late";
+
+    private static final String DATA_FILE = "attendance.dat";
+    private static final int MAGIC = 0x534D5341; // "SMSA"
+    private static final int VERSION = 1;
+
+    // Dense student index: position -> userId, and userId -> position
+    private int[] userIds;
+    private int studentCount;
+    private final Map<Integer, Integer> indexByUserId;
+    // Keyed by interned course id code
+    private final Map<Integer, TreeMap<LocalDate, Session>> sessionsByCourse;
+    private final DataFile dataFile;
+    private long loadedGeneration;
+
+    public AttendanceRepository() {
+        this.userIds = new int[64];
+        this.indexByUserId = new HashMap<>();
+        this.sessionsByCourse = new HashMap<>();
+        this.dataFile = DataFile.of(DATA_FILE);
+        try {
+            loadAll();
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not load existing attendance data: " + e.getMessage());
+        }
+        dataFile.onChange(this::reloadIfChanged);
+    }
+
+    /**
+     * The attendance of one class session. The bitmaps hold dense student indexes
+     * (see {@link #userIdAt(int)}) and must not be modified.
+     */
+    public static final class Session {
+        private final String courseId;
+        private final LocalDate date;
+        private final CompressedBitmap attended;
+        private final CompressedBitmap late;
+
+        Session(String courseId, LocalDate date, CompressedBitmap attended, CompressedBitmap late) {
+            this.courseId = courseId;
+            this.date = date;
+            this.attended = attended;
+            this.late = late;
+        }
+
+        public String getCourseId() {
+            return courseId;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        /**
+         * @return Students who were Present or Late
+         */
+        public CompressedBitmap getAttended() {
+            return attended;
+        }
+
+        public CompressedBitmap getLate() {
+            return late;
+        }
+    }
+
+    /**
+     * Mark one student for one session
+     * @param courseId The course
+     * @param date The class date
+     * @param userId The student's userId
+     * @param status Present, Absent or Late
+     */
+    public synchronized void mark(String courseId, LocalDate date, int userId, String status)
+            throws RepositoryException, ValidationException {
+        markAll(courseId, date, Collections.singletonMap(userId, status));
+    }
+
+    /**
+     * Mark many students for one session with a single write of attendance.dat
+     * @param courseId The course
+     * @param date The class date
+     * @param statuses Present, Absent or Late by student userId
+     */
+    public synchronized void markAll(String courseId, LocalDate date, Map<Integer, String> statuses)
+            throws RepositoryException, ValidationException {
+        if (courseId == null || courseId.trim().isEmpty()) {
+            throw new ValidationException("Course ID cannot be empty", "courseId", courseId);
+        }
+        if (date == null) {
+            throw new ValidationException("Class date cannot be empty", "classDates", null);
+        }
+        Map<Integer, String> normalized = new HashMap<>();
+        for (Map.Entry<Integer, String> entry : statuses.entrySet()) {
+            normalized.put(entry.getKey(), normalizeStatus(entry.getValue()));
+        }
+
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            Session session = getSession(courseId, date);
+            CompressedBitmap attended = session == null ? new CompressedBitmap() : session.attended.copy();
+            CompressedBitmap late = session == null ? new CompressedBitmap() : session.late.copy();
+            for (Map.Entry<Integer, String> entry : normalized.entrySet()) {
+                int index = indexFor(entry.getKey());
+                if (ABSENT.equals(entry.getValue())) {
+                    attended.remove(index);
+                    late.remove(index);
+                } else {
+                    attended.add(index);
+                    if (LATE.equals(entry.getValue())) {
+                        late.add(index);
+                    } else {
+                        late.remove(index);
+                    }
+                }
+            }
+            sessionsByCourse.computeIfAbsent(SymbolTable.code(courseId), code -> new TreeMap<>())
+                    .put(date, new Session(courseId, date, attended, late));
+            saveAll(lease);
+        }
+        System.out.println("AttendanceRepository: Marked " + normalized.size() + " students for " + courseId + " on " + date);
+    }
+
+    /**
+     * @return Present, Late or Absent, or null if no session was held for the course on that date
+     */
+    public synchronized String getStatus(String courseId, LocalDate date, int userId) {
+        Session session = getSession(courseId, date);
+        if (session == null) {
+            return null;
+        }
+        Integer index = indexByUserId.get(userId);
+        if (index == null || !session.attended.contains(index)) {
+            return ABSENT;
+        }
+        return session.late.contains(index) ? LATE : PRESENT;
+    }
+
+    /**
+     * @return The session, or null if none was held for the course on that date
+     */
+    public synchronized Session getSession(String courseId, LocalDate date) {
+        TreeMap<LocalDate, Session> sessions = sessionsByCourse.get(SymbolTable.lookup(courseId));
+        return sessions == null ? null : sessions.get(date);
+    }
+
+    /**
+     * @param courseId The course to look up
+     * @return Its sessions, earliest first
+     */
+    public synchronized List<Session> getSessions(String courseId) {
+        TreeMap<LocalDate, Session> sessions = sessionsByCourse.get(SymbolTable.lookup(courseId));
+        return sessions == null ? new ArrayList<>() : new ArrayList<>(sessions.values());
+    }
+
+    /**
+     * @return The ids of the courses with at least one session
+     */
+    public synchronized List<String> getCourseIds() {
+        List<String> courseIds = new ArrayList<>(sessionsByCourse.size());
+        for (int courseCode : sessionsByCourse.keySet()) {
+            courseIds.add(SymbolTable.name(courseCode));
+        }
+        Collections.sort(courseIds);
+        return courseIds;
+    }
+
+    /**
+     * @param userId A student's userId
+     * @return The student's dense index, or -1 if they have never been marked
+     */
+    public synchronized int indexOf(int userId) {
+        return indexByUserId.getOrDefault(userId, -1);
+    }
+
+    /**
+     * @param index A dense student index from a session bitmap
+     * @return The student's userId
+     */
+    public synchronized int userIdAt(int index) {
+        return userIds[index];
+    }
+
+    /**
+     * @return Every userId with a dense index, at that index
+     */
+    public synchronized int[] getUserIds() {
+        return Arrays.copyOf(userIds, studentCount);
+    }
+
+    /**
+     * @return How many students have a dense index
+     */
+    public synchronized int getStudentCount() {
+        return studentCount;
+    }
+
+    /**
+     * Mark attendance from a record; classDates holds one date (yyyy-MM-dd)
+     */
+    @Override
+    public synchronized void add(Attendance attendance) throws RepositoryException, ValidationException {
+        if (attendance == null) {
+            throw new ValidationException("Attendance cannot be null", "attendance", "null");
+        }
+        mark(attendance.getCourseCode(), parseDate(attendance.getClassDates()),
+                Student.parseRegNo(attendance.getStudentRegNo()), attendance.getStatus());
+    }
+
+    @Override
+    public synchronized void update(Attendance attendance) throws RepositoryException, NotFoundException {
+        if (attendance == null) {
+            throw new NotFoundException("Attendance not found", "Attendance", "null");
+        }
+        try {
+            LocalDate date = parseDate(attendance.getClassDates());
+            if (getSession(attendance.getCourseCode(), date) == null) {
+                throw new NotFoundException("No session for " + attendance.getCourseCode() + " on " + date,
+                        "Attendance", attendance.getCourseCode());
+            }
+            mark(attendance.getCourseCode(), date, Student.parseRegNo(attendance.getStudentRegNo()), attendance.getStatus());
+        } catch (ValidationException e) {
+            throw new RepositoryException(e.getMessage(), "UPDATE", "ATTENDANCE", e);
+        }
+    }
+
+    /**
+     * Clear a student's mark for a session, which leaves them absent
+     */
+    @Override
+    public synchronized void delete(Attendance attendance) throws RepositoryException, NotFoundException {
+        if (attendance == null) {
+            throw new NotFoundException("Attendance not found", "Attendance", "null");
+        }
+        try {
+            LocalDate date = parseDate(attendance.getClassDates());
+            int userId = Student.parseRegNo(attendance.getStudentRegNo());
+            String status = getStatus(attendance.getCourseCode(), date, userId);
+            if (status == null || ABSENT.equals(status)) {
+                throw new NotFoundException("No attendance for " + attendance.getStudentRegNo() + " in "
+                        + attendance.getCourseCode() + " on " + date, "Attendance", attendance.getStudentRegNo());
+            }
+            mark(attendance.getCourseCode(), date, userId, ABSENT);
+        } catch (ValidationException e) {
+            throw new RepositoryException(e.getMessage(), "DELETE", "ATTENDANCE", e);
+        }
+    }
+
+    /**
+     * Expand the store into records. Only Present and Late marks are returned,
+     * since absences are implied by the course roster.
+     */
+    @Override
+    public synchronized List<Attendance> getAll() throws RepositoryException {
+        List<Attendance> records = new ArrayList<>();
+        for (String courseId : getCourseIds()) {
+            for (Session session : sessionsByCourse.get(SymbolTable.lookup(courseId)).values()) {
+                session.attended.forEach(index -> records.add(new Attendance("S" + userIds[index], courseId,
+                        session.date.toString(), session.late.contains(index) ? LATE : PRESENT)));
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public synchronized List<Attendance> find(String criteria) throws RepositoryException {
+        String lower = criteria.toLowerCase(Locale.ROOT);
+        return getAll().stream()
+                .filter(a -> a.getStudentRegNo().toLowerCase(Locale.ROOT).contains(lower) ||
+                           a.getCourseCode().toLowerCase(Locale.ROOT).contains(lower) ||
+                           a.getClassDates().contains(criteria))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized List<Attendance> sort(String criteria) throws RepositoryException {
+        List<Attendance> sortedList = getAll();
+        if ("student".equalsIgnoreCase(criteria)) {
+            sortedList.sort(Comparator.comparing(Attendance::getStudentRegNo));
+        } else if ("course".equalsIgnoreCase(criteria)) {
+            sortedList.sort(Comparator.comparing(Attendance::getCourseCode));
+        } else {
+            sortedList.sort(Comparator.comparing(Attendance::getClassDates));
+        }
+        return sortedList;
+    }
+
+    /**
+     * @param text A date in yyyy-MM-dd form
+     * @return The date
+     */
+    public static LocalDate parseDate(String text) throws ValidationException {
+        try {
+            return LocalDate.parse(text == null ? "" : text.trim());
+        } catch (DateTimeParseException e) {
+            throw new ValidationException("Invalid class date '" + text + "': use yyyy-MM-dd", "classDates", text);
+        }
+    }
+
+    private static String normalizeStatus(String status) throws ValidationException {
+        if (PRESENT.equalsIgnoreCase(status)) {
+            return PRESENT;
+        } else if (LATE.equalsIgnoreCase(status)) {
+            return LATE;
+        } else if (ABSENT.equalsIgnoreCase(status)) {
+            return ABSENT;
+        }
+        throw new ValidationException("Invalid status '" + status + "': use Present, Absent or Late", "status", status);
+    }
+
+    private int indexFor(int userId) {
+        Integer index = indexByUserId.get(userId);
+        if (index != null) {
+            return index;
+        }
+        if (studentCount == userIds.length) {
+            userIds = Arrays.copyOf(userIds, studentCount * 2);
+        }
+        userIds[studentCount] = userId;
+        indexByUserId.put(userId, studentCount);
+        return studentCount++;
+    }
+
+    private void loadAll() throws RepositoryException {
+        try (DataFile.Lease lease = dataFile.lockShared()) {
+            loadedGeneration = lease.getGeneration();
+            File file = dataFile.getFile();
+            if (!file.exists()) {
+                System.out.println("Attendance data file does not exist. Starting with empty repository.");
+                return;
+            }
+
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new RepositoryException("Unrecognised attendance file format", "LOAD", "ATTENDANCE");
+                }
+                studentCount = 0;
+                indexByUserId.clear();
+                sessionsByCourse.clear();
+                int students = in.readInt();
+                userIds = new int[Math.max(64, students)];
+                for (int i = 0; i < students; i++) {
+                    indexFor(in.readInt());
+                }
+                int courses = in.readInt();
+                int sessionCount = 0;
+                for (int c = 0; c < courses; c++) {
+                    String courseId = in.readUTF();
+                    TreeMap<LocalDate, Session> sessions = new TreeMap<>();
+                    int count = in.readInt();
+                    for (int s = 0; s < count; s++) {
+                        LocalDate date = LocalDate.ofEpochDay(in.readInt());
+                        sessions.put(date, new Session(courseId, date, CompressedBitmap.read(in), CompressedBitmap.read(in)));
+                    }
+                    sessionsByCourse.put(SymbolTable.code(courseId), sessions);
+                    sessionCount += count;
+                }
+                System.out.println("Loaded " + sessionCount + " attendance sessions from " + DATA_FILE);
+            } catch (IOException e) {
+                throw new RepositoryException("Failed to load attendance from file: " + e.getMessage(), "LOAD", "ATTENDANCE", e);
+            }
+        }
+    }
+
+    private void saveAll(DataFile.Lease lease) throws RepositoryException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile.getFile())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(studentCount);
+            for (int i = 0; i < studentCount; i++) {
+                out.writeInt(userIds[i]);
+            }
+            out.writeInt(sessionsByCourse.size());
+            for (Map.Entry<Integer, TreeMap<LocalDate, Session>> course : sessionsByCourse.entrySet()) {
+                out.writeUTF(SymbolTable.name(course.getKey()));
+                out.writeInt(course.getValue().size());
+                for (Session session : course.getValue().values()) {
+                    out.writeInt((int) session.date.toEpochDay());
+                    session.attended.write(out);
+                    session.late.write(out);
+                }
+            }
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to save attendance to file: " + e.getMessage(), "SAVE", "ATTENDANCE", e);
+        }
+        loadedGeneration = lease.commit();
+    }
+
+    private void reloadIfStale(DataFile.Lease lease) throws RepositoryException {
+        if (lease.getGeneration() != loadedGeneration) {
+            loadAll();
+        }
+    }
+
+    private synchronized void reloadIfChanged() {
+        try {
+            if (dataFile.currentGeneration() != loadedGeneration) {
+                loadAll();
+            }
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not reload attendance data: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package sms.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Files stored by the SHA-256 of their content, as {@code <dir>/ab/abcdef...}.
+ *
+ * {@link #put(InputStream)} hashes the content while copying it to a temporary
+ * file beside the blobs, then renames it into place, or simply drops it if a blob
+ * with that hash is already stored. The same content is therefore kept once no
+ * matter how often it is uploaded or under which names. Blobs are immutable;
+ * callers decide when one is no longer referenced and {@link #delete(String)} it.
+ */
+public final class BlobStore {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+
+    public BlobStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Store content unless identical content is already stored
+     * @param in The content, read to the end but not closed
+     * @return The content's SHA-256 as lower-case hex
+     */
+    public String put(InputStream in) throws IOException {
+        Files.createDirectories(directory.toPath());
+        MessageDigest digest = sha256();
+        Path temp = Files.createTempFile(directory.toPath(), "upload", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            File target = file(hash);
+            if (!target.exists()) {
+                Files.createDirectories(target.getParentFile().toPath());
+                Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            return hash;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @param hash A hash returned by {@link #put(InputStream)}
+     * @return Where the blob is (or would be) stored
+     */
+    public File file(String hash) {
+        return new File(new File(directory, hash.substring(0, 2)), hash);
+    }
+
+    public boolean contains(String hash) {
+        return file(hash).exists();
+    }
+
+    /**
+     * @return true if the blob existed and was removed
+     */
+    public boolean delete(String hash) throws IOException {
+        return Files.deleteIfExists(file(hash).toPath());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package sms.data;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import sms.domain.Broadcast;
+import sms.domain.support.SymbolTable;
+import sms.domain.support.Timestamps;
+import sms.events.ChangeEventBus;
+import sms.exceptions.NotFoundException;
+import sms.exceptions.RepositoryException;
+import sms.exceptions.ValidationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Broadcast messages, each stored once however many recipients it has.
+ *
+ * Recipients are worked out when an inbox is read: broadcasts are indexed by
+ * audience (role, course, batch, or listed user), and a reader's inbox is the
+ * union of the entries that match them. Read state lives in each broadcast's
+ * bitmap, so marking one read rewrites broadcasts.json rather than messages.json.
+ * Broadcasts past their expiry are not shown and are removed by
+ * {@link #purgeExpired(long)}. Each broadcast remembers the buckets it was filed
+ * in, so removing one touches only those.
+ */
+public class BroadcastRepository implements Repository<Broadcast> {
+    private static final String DATA_FILE = "broadcasts.json";
+    // Keyed by ID in insertion order
+    private final Map<Integer, Broadcast> broadcasts;
+    // Audience indexes, each bucket keyed by broadcast ID; role codes are case-folded
+    private final Map<Long, Map<Integer, Broadcast>> byRole;
+    private final Map<Long, Map<Integer, Broadcast>> byCourse;
+    private final Map<Long, Map<Integer, Broadcast>> byBatch;
+    private final Map<Long, Map<Integer, Broadcast>> byRecipient;
+    private final Map<Integer, List<Slot>> slotsById;
+    private final TimeIndex<Broadcast> byExpiry;
+    private final ObjectMapper objectMapper;
+    private final DataFile dataFile;
+    private final ChangeEventBus<Broadcast> eventBus;
+    private final IdSequence idSequence;
+    private long loadedGeneration;
+
+    public BroadcastRepository() {
+        this.broadcasts = new LinkedHashMap<>();
+        this.byRole = new HashMap<>();
+        this.byCourse = new HashMap<>();
+        this.byBatch = new HashMap<>();
+        this.byRecipient = new HashMap<>();
+        this.slotsById = new HashMap<>();
+        this.byExpiry = new TimeIndex<>(Broadcast::getExpiresAtMillis, Broadcast::getBroadcastId);
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.eventBus = new ChangeEventBus<>("Broadcast", Broadcast.class, Broadcast::getBroadcastId, this);
+        this.idSequence = IdSequence.of("broadcast");
+        this.dataFile = DataFile.of(DATA_FILE);
+        try {
+            loadAll();
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not load existing broadcast data: " + e.getMessage());
+        }
+        dataFile.onChange(this::reloadIfChanged);
+    }
+
+    @Override
+    public synchronized void add(Broadcast broadcast) throws RepositoryException, ValidationException {
+        if (broadcast == null) {
+            throw new ValidationException("Broadcast cannot be null", "broadcast", "null");
+        }
+        if (broadcast.getMessage() == null || broadcast.getMessage().trim().isEmpty()) {
+            throw new ValidationException("Broadcast content cannot be empty", "message", broadcast.getMessage());
+        }
+        if (!isValidAudience(broadcast)) {
+            throw new ValidationException("Broadcast audience is incomplete", "audience", broadcast.getAudience());
+        }
+
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            broadcasts.put(broadcast.getBroadcastId(), broadcast);
+            index(broadcast);
+            saveAll(lease);
+        }
+        idSequence.ensureAbove(broadcast.getBroadcastId());
+        eventBus.added(broadcast);
+        System.out.println("BroadcastRepository: Added broadcast from " + broadcast.getFromUserName() + " to "
+                + describeAudience(broadcast));
+    }
+
+    @Override
+    public synchronized void update(Broadcast broadcast) throws RepositoryException, NotFoundException {
+        if (broadcast == null) {
+            throw new NotFoundException("Broadcast not found", "Broadcast", "null");
+        }
+
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            if (!broadcasts.containsKey(broadcast.getBroadcastId())) {
+                throw new NotFoundException("Broadcast not found with ID: " + broadcast.getBroadcastId(), "Broadcast", String.valueOf(broadcast.getBroadcastId()));
+            }
+            unindex(broadcast.getBroadcastId());
+            broadcasts.put(broadcast.getBroadcastId(), broadcast);
+            index(broadcast);
+            saveAll(lease);
+        }
+        eventBus.updated(broadcast);
+        System.out.println("BroadcastRepository: Updated broadcast " + broadcast.getBroadcastId());
+    }
+
+    @Override
+    public synchronized void delete(Broadcast broadcast) throws RepositoryException, NotFoundException {
+        if (broadcast == null) {
+            throw new NotFoundException("Broadcast not found", "Broadcast", "null");
+        }
+
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            if (!broadcasts.containsKey(broadcast.getBroadcastId())) {
+                throw new NotFoundException("Broadcast not found with ID: " + broadcast.getBroadcastId(), "Broadcast", String.valueOf(broadcast.getBroadcastId()));
+            }
+            unindex(broadcast.getBroadcastId());
+            broadcasts.remove(broadcast.getBroadcastId());
+            saveAll(lease);
+        }
+        eventBus.deleted(broadcast);
+        System.out.println("BroadcastRepository: Deleted broadcast " + broadcast.getBroadcastId());
+    }
+
+    @Override
+    public synchronized List<Broadcast> getAll() throws RepositoryException {
+        return new ArrayList<>(broadcasts.values());
+    }
+
+    @Override
+    public synchronized List<Broadcast> find(String criteria) throws RepositoryException {
+        return broadcasts.values().stream()
+                .filter(b -> b.getMessage().toLowerCase().contains(criteria.toLowerCase()) ||
+                           b.getFromUserName().toLowerCase().contains(criteria.toLowerCase()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized List<Broadcast> sort(String criteria) throws RepositoryException {
+        List<Broadcast> sortedList = new ArrayList<>(broadcasts.values());
+        if ("date".equalsIgnoreCase(criteria)) {
+            sortedList.sort((b1, b2) -> Long.compare(b1.getTimestampMillis(), b2.getTimestampMillis()));
+        } else {
+            sortedList.sort((b1, b2) -> Integer.compare(b1.getBroadcastId(), b2.getBroadcastId()));
+        }
+        return sortedList;
+    }
+
+    /**
+     * Find the broadcasts addressed to one reader
+     * @param userId The reader
+     * @param role The reader's role, in any case
+     * @param courseIds The reader's courses, or empty
+     * @param batch The reader's batch year range, or null
+     * @return The matching broadcasts, oldest first
+     */
+    public synchronized List<Broadcast> getBroadcastsForUser(int userId, String role, Collection<String> courseIds,
+                                                             String batch) {
+        int roleCode = SymbolTable.lookupFolded(role);
+        if (roleCode == SymbolTable.UNKNOWN) {
+            return new ArrayList<>();
+        }
+        // Keyed by time then ID, which also drops a broadcast matched through two courses twice
+        TreeMap<Long, TreeMap<Integer, Broadcast>> inbox = new TreeMap<>();
+        collect(byRole.get((long) roleCode), roleCode, inbox);
+        collect(byRecipient.get(recipientKey(userId, roleCode)), roleCode, inbox);
+        for (String courseId : courseIds) {
+            collect(byCourse.get((long) SymbolTable.lookup(courseId)), roleCode, inbox);
+        }
+        if (batch != null) {
+            collect(byBatch.get((long) SymbolTable.lookup(batch)), roleCode, inbox);
+        }
+        long now = System.currentTimeMillis();
+        List<Broadcast> matched = new ArrayList<>();
+        for (TreeMap<Integer, Broadcast> atTime : inbox.values()) {
+            for (Broadcast broadcast : atTime.values()) {
+                if (broadcast.getExpiresAtMillis() == Timestamps.NONE || broadcast.getExpiresAtMillis() > now) {
+                    matched.add(broadcast);
+                }
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * @param userId The reader
+     * @param role The reader's role, in any case
+     * @param courseIds The reader's courses, or empty
+     * @param batch The reader's batch year range, or null
+     * @return The reader's unread broadcasts, oldest first
+     */
+    public synchronized List<Broadcast> getUnreadBroadcastsForUser(int userId, String role,
+                                                                   Collection<String> courseIds, String batch) {
+        List<Broadcast> unread = getBroadcastsForUser(userId, role, courseIds, batch);
+        unread.removeIf(b -> b.isReadBy(userId));
+        return unread;
+    }
+
+    /**
+     * Mark broadcasts read by one reader with a single write of broadcasts.json
+     * @param userId The reader
+     * @param read The broadcasts the reader has seen
+     */
+    public synchronized void markRead(int userId, Collection<Broadcast> read) throws RepositoryException {
+        List<Broadcast> changed = new ArrayList<>();
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            for (Broadcast broadcast : read) {
+                // After a reload the caller's copy is stale, so set the bit on the loaded one
+                Broadcast loaded = broadcasts.get(broadcast.getBroadcastId());
+                if (loaded != null && loaded.markReadBy(userId)) {
+                    broadcast.markReadBy(userId);
+                    changed.add(loaded);
+                }
+            }
+            if (changed.isEmpty()) {
+                return;
+            }
+            saveAll(lease);
+        }
+        for (Broadcast broadcast : changed) {
+            eventBus.updated(broadcast);
+        }
+    }
+
+    /**
+     * Delete every expired broadcast, with a single write of broadcasts.json
+     * @param nowMillis The current time
+     * @return How many broadcasts were deleted
+     */
+    public synchronized int purgeExpired(long nowMillis) throws RepositoryException {
+        long earliest = byExpiry.earliest();
+        if ((earliest == Timestamps.NONE || earliest > nowMillis) && dataFile.currentGeneration() == loadedGeneration) {
+            return 0;
+        }
+        List<Broadcast> expired;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            expired = byExpiry.between(Long.MIN_VALUE + 1, nowMillis + 1);
+            if (expired.isEmpty()) {
+                return 0;
+            }
+            for (Broadcast broadcast : expired) {
+                unindex(broadcast.getBroadcastId());
+                broadcasts.remove(broadcast.getBroadcastId());
+            }
+            saveAll(lease);
+        }
+        eventBus.beginBatch();
+        try {
+            for (Broadcast broadcast : expired) {
+                eventBus.deleted(broadcast);
+            }
+        } finally {
+            eventBus.commitBatch();
+        }
+        System.out.println("BroadcastRepository: Purged " + expired.size() + " expired broadcasts");
+        return expired.size();
+    }
+
+    public synchronized Broadcast findById(int broadcastId) throws NotFoundException {
+        Broadcast broadcast = broadcasts.get(broadcastId);
+        if (broadcast == null) {
+            throw new NotFoundException("Broadcast not found with ID: " + broadcastId, "Broadcast", String.valueOf(broadcastId));
+        }
+        return broadcast;
+    }
+
+    public int getNextBroadcastId() throws RepositoryException {
+        return idSequence.next();
+    }
+
+    /**
+     * @param broadcast A broadcast
+     * @return Its audience in words, e.g. "all TEACHER" or "STUDENT in CS101"
+     */
+    public static String describeAudience(Broadcast broadcast) {
+        String role = broadcast.getAudienceRole();
+        if (Broadcast.AUDIENCE_COURSE.equals(broadcast.getAudience())) {
+            return role + " in course " + broadcast.getAudienceKey();
+        }
+        if (Broadcast.AUDIENCE_BATCH.equals(broadcast.getAudience())) {
+            return role + " in batch " + broadcast.getAudienceKey();
+        }
+        if (Broadcast.AUDIENCE_LIST.equals(broadcast.getAudience())) {
+            return broadcast.getRecipientIds().size() + " " + role;
+        }
+        return "all " + role;
+    }
+
+    private static boolean isValidAudience(Broadcast broadcast) {
+        if (broadcast.getAudienceRole() == null || broadcast.getAudience() == null) {
+            return false;
+        }
+        switch (broadcast.getAudience()) {
+            case Broadcast.AUDIENCE_ROLE:
+                return true;
+            case Broadcast.AUDIENCE_COURSE:
+            case Broadcast.AUDIENCE_BATCH:
+                return broadcast.getAudienceKey() != null && !broadcast.getAudienceKey().trim().isEmpty();
+            case Broadcast.AUDIENCE_LIST:
+                return !broadcast.getRecipientIds().isEmpty();
+            default:
+                return false;
+        }
+    }
+
+    private static long recipientKey(int userId, int foldedRoleCode) {
+        return ((long) userId << 32) | (foldedRoleCode & 0xFFFFFFFFL);
+    }
+
+    private static void collect(Map<Integer, Broadcast> candidates, int foldedRoleCode,
+                                TreeMap<Long, TreeMap<Integer, Broadcast>> inbox) {
+        if (candidates == null) {
+            return;
+        }
+        for (Broadcast broadcast : candidates.values()) {
+            if (SymbolTable.folded(broadcast.getAudienceRoleCode()) == foldedRoleCode) {
+                inbox.computeIfAbsent(broadcast.getTimestampMillis(), t -> new TreeMap<>())
+                        .put(broadcast.getBroadcastId(), broadcast);
+            }
+        }
+    }
+
+    // One bucket a broadcast was filed in
+    private static final class Slot {
+        private final Map<Long, Map<Integer, Broadcast>> index;
+        private final long key;
+
+        Slot(Map<Long, Map<Integer, Broadcast>> index, long key) {
+            this.index = index;
+            this.key = key;
+        }
+    }
+
+    private void index(Broadcast broadcast) {
+        byExpiry.put(broadcast);
+        List<Slot> slots = slotsFor(broadcast);
+        for (Slot slot : slots) {
+            slot.index.computeIfAbsent(slot.key, k -> new LinkedHashMap<>()).put(broadcast.getBroadcastId(), broadcast);
+        }
+        slotsById.put(broadcast.getBroadcastId(), slots);
+    }
+
+    // Uses the slots recorded by index(), since a broadcast may have been changed in place before update()
+    private void unindex(int broadcastId) {
+        byExpiry.remove(broadcastId);
+        List<Slot> slots = slotsById.remove(broadcastId);
+        if (slots == null) {
+            return;
+        }
+        for (Slot slot : slots) {
+            Map<Integer, Broadcast> bucket = slot.index.get(slot.key);
+            if (bucket != null) {
+                bucket.remove(broadcastId);
+                if (bucket.isEmpty()) {
+                    slot.index.remove(slot.key);
+                }
+            }
+        }
+    }
+
+    private List<Slot> slotsFor(Broadcast broadcast) {
+        List<Slot> slots = new ArrayList<>();
+        String audience = broadcast.getAudience() == null ? Broadcast.AUDIENCE_ROLE : broadcast.getAudience();
+        switch (audience) {
+            case Broadcast.AUDIENCE_COURSE:
+                slots.add(new Slot(byCourse, SymbolTable.code(broadcast.getAudienceKey())));
+                break;
+            case Broadcast.AUDIENCE_BATCH:
+                slots.add(new Slot(byBatch, SymbolTable.code(broadcast.getAudienceKey())));
+                break;
+            case Broadcast.AUDIENCE_LIST:
+                int roleCode = SymbolTable.folded(broadcast.getAudienceRoleCode());
+                for (int userId : broadcast.getRecipientIds()) {
+                    slots.add(new Slot(byRecipient, recipientKey(userId, roleCode)));
+                }
+                break;
+            default:
+                slots.add(new Slot(byRole, SymbolTable.folded(broadcast.getAudienceRoleCode())));
+        }
+        return slots;
+    }
+
+    private void loadAll() throws RepositoryException {
+        try (DataFile.Lease lease = dataFile.lockShared()) {
+            loadedGeneration = lease.getGeneration();
+            File file = dataFile.getFile();
+            if (!file.exists()) {
+                System.out.println("Broadcast data file does not exist. Starting with empty repository.");
+                return;
+            }
+
+            try {
+                List<Broadcast> loadedBroadcasts = objectMapper.readValue(file, new TypeReference<List<Broadcast>>() {});
+                broadcasts.clear();
+                byRole.clear();
+                byCourse.clear();
+                byBatch.clear();
+                byRecipient.clear();
+                slotsById.clear();
+                byExpiry.clear();
+                for (Broadcast broadcast : loadedBroadcasts) {
+                    broadcasts.put(broadcast.getBroadcastId(), broadcast);
+                    index(broadcast);
+                }
+                eventBus.reset(broadcasts.values());
+                idSequence.ensureAbove(broadcasts.keySet().stream().mapToInt(Integer::intValue).max().orElse(0));
+                System.out.println("Loaded " + broadcasts.size() + " broadcasts from " + DATA_FILE);
+            } catch (IOException e) {
+                throw new RepositoryException("Failed to load broadcasts from file: " + e.getMessage(), "LOAD", "Broadcast");
+            }
+        }
+    }
+
+    private void saveAll(DataFile.Lease lease) throws RepositoryException {
+        try {
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(DATA_FILE), broadcasts.values());
+            loadedGeneration = lease.commit();
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to save broadcasts to file: " + e.getMessage(), "SAVE", "Broadcast");
+        }
+    }
+
+    private void reloadIfStale(DataFile.Lease lease) throws RepositoryException {
+        if (lease.getGeneration() != loadedGeneration) {
+            loadAll();
+        }
+    }
+
+    private synchronized void reloadIfChanged() {
+        try {
+            if (dataFile.currentGeneration() != loadedGeneration) {
+                loadAll();
+            }
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not reload broadcast data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the bus that publishes committed broadcast changes
+     * @return The change-event bus for this repository
+     */
+    public ChangeEventBus<Broadcast> getEventBus() {
+        return eventBus;
+    }
+}
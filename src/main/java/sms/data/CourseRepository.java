@@ -3,34 +3,60 @@ package sms.data;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import sms.domain.Course;
+import sms.domain.support.IdentityMap;
+import sms.domain.support.SymbolTable;
+import sms.events.ChangeEventBus;
+import sms.exceptions.NotFoundException;
 import sms.exceptions.RepositoryException;
 import sms.exceptions.ValidationException;
-import sms.exceptions.NotFoundException;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class CourseRepository implements Repository<Course> {
     private static final String DATA_FILE = "courses.json";
     private final List<Course> courses;
+    // Primary-key index: interned courseId code -> course
+    private final Map<Integer, Course> coursesById;
     private final ObjectMapper objectMapper;
+    private final DataFile dataFile;
+    private final ChangeEventBus<Course> eventBus;
+    // Faculty index: teacher userId -> courses, plus facultyName -> courses for
+    // courses assigned before facultyId existed. facultyKeys remembers which key
+    // each course code is filed under so it can be moved when the course changes.
+    private final Map<Integer, Set<Course>> coursesByFacultyId;
+    private final Map<String, Set<Course>> coursesByFacultyName;
+    private final Map<Integer, Object> facultyKeys;
+    private long loadedGeneration;
 
     public CourseRepository() {
         this.courses = new ArrayList<>();
+        this.coursesById = new HashMap<>();
+        this.coursesByFacultyId = new HashMap<>();
+        this.coursesByFacultyName = new HashMap<>();
+        this.facultyKeys = new HashMap<>();
         this.objectMapper = new ObjectMapper();
         this.objectMapper.configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.eventBus = new ChangeEventBus<>("Course", Course.class, Course::getCourseIdCode, this);
+        this.dataFile = DataFile.of(DATA_FILE);
         try {
             loadAll();
         } catch (RepositoryException e) {
             System.out.println("Warning: Could not load existing course data: " + e.getMessage());
         }
+        dataFile.onChange(this::reloadIfChanged);
     }
 
     @Override
-    public void add(Course course) throws RepositoryException, ValidationException {
+    public synchronized void add(Course course) throws RepositoryException, ValidationException {
         if (course == null) {
             throw new ValidationException("Course cannot be null", "course", "null");
         }
@@ -38,56 +64,77 @@ public class CourseRepository implements Repository<Course> {
             throw new ValidationException("Course ID cannot be empty", "courseId", course.getCourseId());
         }
         
-        courses.add(course);
-        saveAll();
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            Course shared = IdentityMap.intern(course);
+            courses.add(shared);
+            coursesById.put(shared.getCourseIdCode(), shared);
+            indexFaculty(shared);
+            saveAll(lease);
+        }
+        eventBus.added(course);
         System.out.println("CourseRepository: Added course " + course.getCourseName());
     }
 
     @Override
-    public void update(Course course) throws RepositoryException, NotFoundException {
+    public synchronized void update(Course course) throws RepositoryException, NotFoundException {
         if (course == null) {
             throw new NotFoundException("Course not found", "Course", "null");
         }
         
-        boolean found = false;
-        for (int i = 0; i < courses.size(); i++) {
-            if (courses.get(i).getCourseId().equals(course.getCourseId())) {
-                courses.set(i, course);
-                found = true;
-                break;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            boolean found = false;
+            for (int i = 0; i < courses.size(); i++) {
+                if (courses.get(i).getCourseIdCode() == course.getCourseIdCode()) {
+                    Course shared = IdentityMap.intern(course);
+                    courses.set(i, shared);
+                    coursesById.put(shared.getCourseIdCode(), shared);
+                    indexFaculty(shared);
+                    found = true;
+                    break;
+                }
             }
-        }
         
-        if (!found) {
-            throw new NotFoundException("Course not found with ID: " + course.getCourseId(), "Course", course.getCourseId());
-        }
+            if (!found) {
+                throw new NotFoundException("Course not found with ID: " + course.getCourseId(), "Course", course.getCourseId());
+            }
         
-        saveAll();
+            saveAll(lease);
+        }
+        eventBus.updated(course);
         System.out.println("CourseRepository: Updated course " + course.getCourseName());
     }
 
     @Override
-    public void delete(Course course) throws RepositoryException, NotFoundException {
+    public synchronized void delete(Course course) throws RepositoryException, NotFoundException {
         if (course == null) {
             throw new NotFoundException("Course not found", "Course", "null");
         }
         
-        boolean removed = courses.removeIf(c -> c.getCourseId().equals(course.getCourseId()));
-        if (!removed) {
-            throw new NotFoundException("Course not found with ID: " + course.getCourseId(), "Course", course.getCourseId());
-        }
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            boolean removed = courses.removeIf(c -> c.getCourseIdCode() == course.getCourseIdCode());
+            if (!removed) {
+                throw new NotFoundException("Course not found with ID: " + course.getCourseId(), "Course", course.getCourseId());
+            }
+            coursesById.remove(course.getCourseIdCode());
+            unindexFaculty(course.getCourseIdCode());
         
-        saveAll();
+            saveAll(lease);
+        }
+        IdentityMap.evict(course);
+        eventBus.deleted(course);
         System.out.println("CourseRepository: Deleted course " + course.getCourseName());
     }
 
     @Override
-    public List<Course> getAll() throws RepositoryException {
+    public synchronized List<Course> getAll() throws RepositoryException {
         return new ArrayList<>(courses);
     }
 
     @Override
-    public List<Course> find(String criteria) throws RepositoryException {
+    public synchronized List<Course> find(String criteria) throws RepositoryException {
         return courses.stream()
                 .filter(course -> course.getCourseName().toLowerCase().contains(criteria.toLowerCase()) ||
                                 course.getCourseId().toLowerCase().contains(criteria.toLowerCase()) ||
@@ -95,36 +142,150 @@ public class CourseRepository implements Repository<Course> {
                 .collect(Collectors.toList());
     }
 
-    private void loadAll() throws RepositoryException {
-        File file = new File(DATA_FILE);
-        if (!file.exists()) {
-            System.out.println("Course data file does not exist. Starting with empty repository.");
+    /**
+     * Add many courses with a single write of courses.json
+     * @param batch The courses to add
+     * @return The courses that were not added because their courseId is already taken
+     */
+    public synchronized List<Course> addAll(Collection<Course> batch) throws RepositoryException {
+        List<Course> added = new ArrayList<>(batch.size());
+        List<Course> skipped = new ArrayList<>();
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            for (Course course : batch) {
+                if (coursesById.containsKey(course.getCourseIdCode())) {
+                    skipped.add(course);
+                    continue;
+                }
+                Course shared = IdentityMap.intern(course);
+                courses.add(shared);
+                coursesById.put(shared.getCourseIdCode(), shared);
+                indexFaculty(shared);
+                added.add(course);
+            }
+            if (!added.isEmpty()) {
+                saveAll(lease);
+            }
+        }
+        for (Course course : added) {
+            eventBus.added(course);
+        }
+        System.out.println("CourseRepository: Added " + added.size() + " courses");
+        return skipped;
+    }
+
+    public synchronized boolean containsCourseId(String courseId) {
+        return coursesById.containsKey(SymbolTable.lookup(courseId));
+    }
+
+    /**
+     * Get the courses assigned to a teacher
+     * @param teacherId The teacher's userId
+     * @param teacherName The teacher's name, matched against courses assigned before facultyId was stored
+     * @return The teacher's courses
+     */
+    public synchronized List<Course> getCoursesByFaculty(int teacherId, String teacherName) {
+        Set<Course> result = new LinkedHashSet<>(coursesByFacultyId.getOrDefault(teacherId, Set.of()));
+        result.addAll(coursesByFacultyName.getOrDefault(String.valueOf(teacherId), Set.of()));
+        if (teacherName != null) {
+            result.addAll(coursesByFacultyName.getOrDefault(teacherName, Set.of()));
+        }
+        return new ArrayList<>(result);
+    }
+
+    private void indexFaculty(Course course) {
+        unindexFaculty(course.getCourseIdCode());
+        Object key;
+        if (course.getFacultyId() != 0) {
+            key = course.getFacultyId();
+            coursesByFacultyId.computeIfAbsent(course.getFacultyId(), id -> new LinkedHashSet<>()).add(course);
+        } else if (course.getFacultyName() != null) {
+            key = course.getFacultyName();
+            coursesByFacultyName.computeIfAbsent(course.getFacultyName(), name -> new LinkedHashSet<>()).add(course);
+        } else {
             return;
         }
+        facultyKeys.put(course.getCourseIdCode(), key);
+    }
 
-        try {
-            List<Course> courseList = objectMapper.readValue(file, new TypeReference<List<Course>>() {});
-            courses.clear();
-            courses.addAll(courseList);
-            System.out.println("Loaded " + courses.size() + " courses from " + DATA_FILE);
-        } catch (IOException e) {
-            throw new RepositoryException("Failed to load courses from file: " + e.getMessage(), "LOAD", "COURSE", e);
+    private void unindexFaculty(int courseCode) {
+        Object key = facultyKeys.remove(courseCode);
+        Map<?, Set<Course>> index = key instanceof Integer ? coursesByFacultyId : coursesByFacultyName;
+        Set<Course> filed = index.get(key);
+        if (filed != null) {
+            filed.removeIf(c -> c.getCourseIdCode() == courseCode);
+            if (filed.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private void loadAll() throws RepositoryException {
+        try (DataFile.Lease lease = dataFile.lockShared()) {
+            loadedGeneration = lease.getGeneration();
+            File file = dataFile.getFile();
+            if (!file.exists()) {
+                System.out.println("Course data file does not exist. Starting with empty repository.");
+                return;
+            }
+
+            try {
+                List<Course> courseList = objectMapper.readValue(file, new TypeReference<List<Course>>() {});
+                Map<Integer, Course> previous = new HashMap<>(coursesById);
+                courses.clear();
+                coursesById.clear();
+                coursesByFacultyId.clear();
+                coursesByFacultyName.clear();
+                facultyKeys.clear();
+                for (Course loaded : courseList) {
+                    Course shared = IdentityMap.intern(loaded);
+                    courses.add(shared);
+                    coursesById.put(shared.getCourseIdCode(), shared);
+                    indexFaculty(shared);
+                    previous.remove(shared.getCourseIdCode());
+                }
+                // Deleted by another process
+                for (Course removed : previous.values()) {
+                    IdentityMap.evict(removed);
+                }
+                eventBus.reset(courses);
+                System.out.println("Loaded " + courses.size() + " courses from " + DATA_FILE);
+            } catch (IOException e) {
+                throw new RepositoryException("Failed to load courses from file: " + e.getMessage(), "LOAD", "COURSE", e);
+            }
         }
     }
 
-    private void saveAll() throws RepositoryException {
+    private void saveAll(DataFile.Lease lease) throws RepositoryException {
         try {
             objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(DATA_FILE), courses);
+            loadedGeneration = lease.commit();
         } catch (IOException e) {
             throw new RepositoryException("Failed to save courses to file: " + e.getMessage(), "SAVE", "COURSE", e);
         }
     }
 
-    public long count() {
+    private void reloadIfStale(DataFile.Lease lease) throws RepositoryException {
+        if (lease.getGeneration() != loadedGeneration) {
+            loadAll();
+        }
+    }
+
+    private synchronized void reloadIfChanged() {
+        try {
+            if (dataFile.currentGeneration() != loadedGeneration) {
+                loadAll();
+            }
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not reload course data: " + e.getMessage());
+        }
+    }
+
+    public synchronized long count() {
         return courses.size();
     }
 
-    public List<Course> sort(String criteria) throws RepositoryException {
+    public synchronized List<Course> sort(String criteria) throws RepositoryException {
         List<Course> sortedList = new ArrayList<>(courses);
         
         if ("code".equalsIgnoreCase(criteria) || "id".equalsIgnoreCase(criteria)) {
@@ -137,4 +298,12 @@ public class CourseRepository implements Repository<Course> {
         
         return sortedList;
     }
+
+    /**
+     * Get the bus that publishes committed course changes
+     * @return The change-event bus for this repository
+     */
+    public ChangeEventBus<Course> getEventBus() {
+        return eventBus;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,271 @@
+package sms.data;
+
+import sms.exceptions.RepositoryException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coordinates access to a JSON data file that may be shared by several JVMs
+ * running against the same working directory.
+ *
+ * Every data file gets a sidecar "<name>.lock" file. Writers hold an exclusive
+ * FileChannel lock on it while they reload, mutate and save, and bump the
+ * generation counter stored in its first 8 bytes when they commit. Readers hold
+ * a shared lock while reading. A WatchService thread notices when another
+ * process bumps the counter so repositories can reload instead of clobbering
+ * the file on their next save.
+ *
+ * One instance exists per file in each JVM (see {@link #of(String)}), because
+ * FileChannel locks are held on behalf of the whole process.
+ */
+public final class DataFile {
+    private static final Map<Path, DataFile> OPEN_FILES = new ConcurrentHashMap<>();
+    private static final Map<Path, WatchService> WATCHERS = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final Path lockPath;
+    private final ReentrantLock localLock;
+    private final List<Runnable> changeListeners;
+    private FileChannel channel;
+    private FileLock fileLock;
+    private volatile long lastKnownGeneration;
+
+    private DataFile(Path path) {
+        this.file = path.toFile();
+        this.lockPath = path.resolveSibling(path.getFileName() + ".lock");
+        this.localLock = new ReentrantLock();
+        this.changeListeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Get the shared coordinator for a data file
+     * @param fileName The data file name, relative to the working directory
+     * @return The coordinator for that file
+     */
+    public static DataFile of(String fileName) {
+        Path path = new File(fileName).getAbsoluteFile().toPath().normalize();
+        return OPEN_FILES.computeIfAbsent(path, DataFile::new);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Lock the file for reading. Other processes may read at the same time but cannot commit.
+     * @return A lease that must be closed when reading is done
+     * @throws RepositoryException if the lock cannot be acquired
+     */
+    public Lease lockShared() throws RepositoryException {
+        return acquire(true);
+    }
+
+    /**
+     * Lock the file for a read-modify-write cycle.
+     * @return A lease that must be closed when the write is done
+     * @throws RepositoryException if the lock cannot be acquired
+     */
+    public Lease lockExclusive() throws RepositoryException {
+        return acquire(false);
+    }
+
+    /**
+     * Read the generation last committed by any process
+     * @return The current generation, 0 if nothing was ever committed
+     * @throws RepositoryException if the lock file cannot be read
+     */
+    public long currentGeneration() throws RepositoryException {
+        try (Lease lease = lockShared()) {
+            return lease.getGeneration();
+        }
+    }
+
+    /**
+     * Register a callback invoked from the watcher thread whenever the lock file changes.
+     * Callers compare {@link #currentGeneration()} with the generation they loaded to
+     * decide whether another process (or another repository instance) has committed.
+     * @param listener The callback to run
+     */
+    public void onChange(Runnable listener) {
+        changeListeners.add(listener);
+        startWatching();
+    }
+
+    private Lease acquire(boolean shared) throws RepositoryException {
+        localLock.lock();
+        try {
+            if (localLock.getHoldCount() == 1) {
+                openChannel();
+                fileLock = channel.lock(0, Long.MAX_VALUE, shared);
+            } else if (!shared && fileLock.isShared()) {
+                throw new RepositoryException("Cannot upgrade a shared lock on " + file.getName(), "LOCK", file.getName());
+            }
+            lastKnownGeneration = readGeneration();
+            return new Lease(!shared);
+        } catch (IOException e) {
+            releaseLocal();
+            throw new RepositoryException("Failed to lock " + file.getName() + ": " + e.getMessage(), "LOCK", file.getName(), e);
+        } catch (RepositoryException | RuntimeException e) {
+            releaseLocal();
+            throw e;
+        }
+    }
+
+    private void openChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+    }
+
+    private long readGeneration() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        int read = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, read);
+            if (n < 0) {
+                return 0;
+            }
+            read += n;
+        }
+        buffer.flip();
+        return buffer.getLong();
+    }
+
+    private void writeGeneration(long generation) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        buffer.putLong(generation).flip();
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, written);
+        }
+        channel.force(false);
+    }
+
+    private void releaseLocal() {
+        try {
+            if (localLock.getHoldCount() == 1 && fileLock != null) {
+                fileLock.release();
+                fileLock = null;
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: Could not release lock on " + file.getName() + ": " + e.getMessage());
+        } finally {
+            localLock.unlock();
+        }
+    }
+
+    private void startWatching() {
+        Path directory = lockPath.getParent();
+        WATCHERS.computeIfAbsent(directory, dir -> {
+            try {
+                WatchService watchService = FileSystems.getDefault().newWatchService();
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                Thread watcher = new Thread(() -> watch(watchService, dir), "data-file-watcher");
+                watcher.setDaemon(true);
+                watcher.start();
+                return watchService;
+            } catch (IOException e) {
+                System.err.println("Warning: Could not watch data directory " + dir + ": " + e.getMessage());
+                return null;
+            }
+        });
+    }
+
+    private static void watch(WatchService watchService, Path directory) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.context() instanceof Path) {
+                        Path changed = directory.resolve((Path) event.context());
+                        String name = changed.getFileName().toString();
+                        if (name.endsWith(".lock")) {
+                            DataFile dataFile = OPEN_FILES.get(directory.resolve(name.substring(0, name.length() - 5)));
+                            if (dataFile != null) {
+                                dataFile.notifyChange();
+                            }
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void notifyChange() {
+        for (Runnable listener : changeListeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                System.err.println("Warning: Could not reload " + file.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A held lock on the data file. Closing it releases the lock.
+     */
+    public final class Lease implements AutoCloseable {
+        private final boolean exclusive;
+        private boolean closed;
+
+        private Lease(boolean exclusive) {
+            this.exclusive = exclusive;
+        }
+
+        /**
+         * @return The generation committed when (or since) this lease was acquired
+         */
+        public long getGeneration() {
+            return lastKnownGeneration;
+        }
+
+        /**
+         * Publish a successful write to other processes
+         * @return The new generation
+         * @throws RepositoryException if the lease is shared or the counter cannot be written
+         */
+        public long commit() throws RepositoryException {
+            if (!exclusive) {
+                throw new RepositoryException("Cannot commit under a shared lock on " + file.getName(), "COMMIT", file.getName());
+            }
+            try {
+                long next = readGeneration() + 1;
+                writeGeneration(next);
+                lastKnownGeneration = next;
+                return next;
+            } catch (IOException e) {
+                throw new RepositoryException("Failed to commit " + file.getName() + ": " + e.getMessage(), "COMMIT", file.getName(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                releaseLocal();
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package sms.data;
+
+import sms.domain.Course;
+import sms.domain.Student;
+import sms.domain.support.IdentityMap;
+import sms.domain.support.SymbolTable;
+import sms.events.ChangeEvent;
+import sms.exceptions.RepositoryException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Two-way index of committed enrollments: course to student ids, and student id
+ * to courses. Courses are keyed by their interned course id code.
+ *
+ * The index is seeded from the student repository and then kept current by its
+ * change events, so it reflects exactly what has been saved, including changes
+ * another process made. Rosters and per-course counts come from here instead of
+ * scanning every student's course list.
+ */
+public class EnrollmentIndex {
+    private final Map<Integer, Set<Integer>> studentsByCourse;
+    private final Map<Integer, Set<Integer>> coursesByStudent;
+
+    public EnrollmentIndex(StudentRepository studentRepository) throws RepositoryException {
+        this.studentsByCourse = new HashMap<>();
+        this.coursesByStudent = new HashMap<>();
+        studentRepository.getEventBus().subscribe(this::onStudentChange);
+        for (Student student : studentRepository.getAll()) {
+            enroll(student);
+        }
+    }
+
+    /**
+     * @param courseId The course to look up
+     * @return The students enrolled in it
+     */
+    public synchronized List<Student> getStudentsInCourse(String courseId) {
+        return toStudents(studentsByCourse.getOrDefault(SymbolTable.lookup(courseId), Collections.emptySet()));
+    }
+
+    /**
+     * @param courseId The course to look up
+     * @return How many students are enrolled in it
+     */
+    public synchronized int countStudentsInCourse(String courseId) {
+        return studentsByCourse.getOrDefault(SymbolTable.lookup(courseId), Collections.emptySet()).size();
+    }
+
+    /**
+     * @param studentId The student's userId
+     * @return The ids of the courses the student is enrolled in
+     */
+    public synchronized Set<String> getCourseIdsForStudent(int studentId) {
+        Set<String> courseIds = new LinkedHashSet<>();
+        for (int courseCode : coursesByStudent.getOrDefault(studentId, Collections.emptySet())) {
+            courseIds.add(SymbolTable.name(courseCode));
+        }
+        return courseIds;
+    }
+
+    /**
+     * Build a roster across several courses, e.g. everything a teacher teaches
+     * @param courses The courses to include
+     * @return Each student enrolled in at least one of them, once
+     */
+    public synchronized List<Student> getStudentsInCourses(Collection<Course> courses) {
+        Set<Integer> studentIds = new LinkedHashSet<>();
+        for (Course course : courses) {
+            studentIds.addAll(studentsByCourse.getOrDefault(course.getCourseIdCode(), Collections.emptySet()));
+        }
+        return toStudents(studentIds);
+    }
+
+    private synchronized void onStudentChange(ChangeEvent<Student> event) {
+        if (event.getBefore() != null) {
+            unenroll(event.getBefore().getUserId());
+        }
+        if (event.getAfter() != null) {
+            enroll(event.getAfter());
+        }
+    }
+
+    private void enroll(Student student) {
+        if (student.getCourses() == null || student.getCourses().isEmpty()) {
+            return;
+        }
+        Set<Integer> courseCodes = coursesByStudent.computeIfAbsent(student.getUserId(), id -> new LinkedHashSet<>());
+        for (Course course : student.getCourses()) {
+            if (course != null && courseCodes.add(course.getCourseIdCode())) {
+                studentsByCourse.computeIfAbsent(course.getCourseIdCode(), code -> new LinkedHashSet<>()).add(student.getUserId());
+            }
+        }
+    }
+
+    private void unenroll(int studentId) {
+        Set<Integer> courseCodes = coursesByStudent.remove(studentId);
+        if (courseCodes == null) {
+            return;
+        }
+        for (int courseCode : courseCodes) {
+            Set<Integer> students = studentsByCourse.get(courseCode);
+            if (students != null) {
+                students.remove(studentId);
+                if (students.isEmpty()) {
+                    studentsByCourse.remove(courseCode);
+                }
+            }
+        }
+    }
+
+    private List<Student> toStudents(Collection<Integer> studentIds) {
+        List<Student> students = new ArrayList<>(studentIds.size());
+        for (int studentId : studentIds) {
+            students.add(IdentityMap.user(Student.class, studentId, Student::new));
+        }
+        return students;
+    }
+}
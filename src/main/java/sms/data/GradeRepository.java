@@ -3,34 +3,48 @@ package sms.data;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import sms.domain.Grade;
+import sms.domain.support.SymbolTable;
+import sms.events.ChangeEventBus;
+import sms.exceptions.NotFoundException;
 import sms.exceptions.RepositoryException;
 import sms.exceptions.ValidationException;
-import sms.exceptions.NotFoundException;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class GradeRepository implements Repository<Grade> {
     private static final String DATA_FILE = "grades.json";
     private final List<Grade> grades;
+    // Primary-key index: studentId and course code packed into a long -> grade
+    private final Map<Long, Grade> gradesByKey;
     private final ObjectMapper objectMapper;
+    private final DataFile dataFile;
+    private final ChangeEventBus<Grade> eventBus;
+    private long loadedGeneration;
 
     public GradeRepository() {
         this.grades = new ArrayList<>();
+        this.gradesByKey = new HashMap<>();
         this.objectMapper = new ObjectMapper();
         this.objectMapper.configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.eventBus = new ChangeEventBus<>("Grade", Grade.class, grade -> key(grade.getStudentId(), grade.getCourseIdCode()), this);
+        this.dataFile = DataFile.of(DATA_FILE);
         try {
             loadAll();
         } catch (RepositoryException e) {
             System.out.println("Warning: Could not load existing grade data: " + e.getMessage());
         }
+        dataFile.onChange(this::reloadIfChanged);
     }
 
     @Override
-    public void add(Grade grade) throws RepositoryException, ValidationException {
+    public synchronized void add(Grade grade) throws RepositoryException, ValidationException {
         if (grade == null) {
             throw new ValidationException("Grade cannot be null", "grade", "null");
         }
@@ -38,61 +52,76 @@ public class GradeRepository implements Repository<Grade> {
             throw new ValidationException("Grade value cannot be empty", "grade", grade.getGrade());
         }
         
-        grades.add(grade);
-        saveAll();
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            grades.add(grade);
+            gradesByKey.put(key(grade.getStudentId(), grade.getCourseIdCode()), grade);
+            saveAll(lease);
+        }
+        eventBus.added(grade);
         System.out.println("GradeRepository: Added grade '" + grade.getGrade() + "' for student " + grade.getStudentId() + " in course " + grade.getCourseId());
     }
 
     @Override
-    public void update(Grade grade) throws RepositoryException, NotFoundException {
+    public synchronized void update(Grade grade) throws RepositoryException, NotFoundException {
         if (grade == null) {
             throw new NotFoundException("Grade not found", "Grade", "null");
         }
         
-        boolean found = false;
-        for (int i = 0; i < grades.size(); i++) {
-            Grade g = grades.get(i);
-            if (g.getStudentId() == grade.getStudentId() && 
-                g.getCourseId().equals(grade.getCourseId())) {
-                grades.set(i, grade);
-                found = true;
-                break;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            boolean found = false;
+            for (int i = 0; i < grades.size(); i++) {
+                Grade g = grades.get(i);
+                if (g.getStudentId() == grade.getStudentId() && 
+                    g.getCourseIdCode() == grade.getCourseIdCode()) {
+                    grades.set(i, grade);
+                    gradesByKey.put(key(grade.getStudentId(), grade.getCourseIdCode()), grade);
+                    found = true;
+                    break;
+                }
             }
-        }
         
-        if (!found) {
-            throw new NotFoundException("Grade not found for student " + grade.getStudentId() + " in course " + grade.getCourseId(), "Grade", grade.getCourseId());
-        }
+            if (!found) {
+                throw new NotFoundException("Grade not found for student " + grade.getStudentId() + " in course " + grade.getCourseId(), "Grade", grade.getCourseId());
+            }
         
-        saveAll();
+            saveAll(lease);
+        }
+        eventBus.updated(grade);
         System.out.println("GradeRepository: Updated grade for student " + grade.getStudentId() + " in course " + grade.getCourseId());
     }
 
     @Override
-    public void delete(Grade grade) throws RepositoryException, NotFoundException {
+    public synchronized void delete(Grade grade) throws RepositoryException, NotFoundException {
         if (grade == null) {
             throw new NotFoundException("Grade not found", "Grade", "null");
         }
         
-        boolean removed = grades.removeIf(g -> 
-            g.getStudentId() == grade.getStudentId() && 
-            g.getCourseId().equals(grade.getCourseId()));
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            boolean removed = grades.removeIf(g -> 
+                g.getStudentId() == grade.getStudentId() && 
+                g.getCourseIdCode() == grade.getCourseIdCode());
         
-        if (!removed) {
-            throw new NotFoundException("Grade not found for student " + grade.getStudentId() + " in course " + grade.getCourseId(), "Grade", grade.getCourseId());
-        }
+            if (!removed) {
+                throw new NotFoundException("Grade not found for student " + grade.getStudentId() + " in course " + grade.getCourseId(), "Grade", grade.getCourseId());
+            }
+            gradesByKey.remove(key(grade.getStudentId(), grade.getCourseIdCode()));
         
-        saveAll();
+            saveAll(lease);
+        }
+        eventBus.deleted(grade);
         System.out.println("GradeRepository: Deleted grade for student " + grade.getStudentId() + " in course " + grade.getCourseId());
     }
 
     @Override
-    public List<Grade> getAll() throws RepositoryException {
+    public synchronized List<Grade> getAll() throws RepositoryException {
         return new ArrayList<>(grades);
     }
 
     @Override
-    public List<Grade> find(String criteria) throws RepositoryException {
+    public synchronized List<Grade> find(String criteria) throws RepositoryException {
         return grades.stream()
                 .filter(g -> g.getCourseId().toLowerCase().contains(criteria.toLowerCase()) ||
                            g.getGrade().toLowerCase().contains(criteria.toLowerCase()) ||
@@ -100,58 +129,118 @@ public class GradeRepository implements Repository<Grade> {
                 .collect(Collectors.toList());
     }
 
-    public List<Grade> getGradesByCourseId(String courseId) {
+    public synchronized List<Grade> getGradesByCourseId(String courseId) {
+        int courseCode = SymbolTable.lookup(courseId);
         return grades.stream()
-                .filter(g -> g.getCourseId().equals(courseId))
+                .filter(g -> g.getCourseIdCode() == courseCode)
                 .collect(Collectors.toList());
     }
 
-    public List<Grade> getGradesByStudentId(int studentId) {
+    public synchronized List<Grade> getGradesByStudentId(int studentId) {
         return grades.stream()
                 .filter(g -> g.getStudentId() == studentId)
                 .collect(Collectors.toList());
     }
 
-    public List<Grade> getGradesByTeacherId(int teacherId) {
+    public synchronized List<Grade> getGradesByTeacherId(int teacherId) {
         return grades.stream()
                 .filter(g -> g.getTeacherId() == teacherId)
                 .collect(Collectors.toList());
     }
 
-    public Grade getGradeByStudentAndCourse(int studentId, String courseId) throws NotFoundException {
-        return grades.stream()
-                .filter(g -> g.getStudentId() == studentId && g.getCourseId().equals(courseId))
-                .findFirst()
-                .orElse(null);
+    public synchronized Grade getGradeByStudentAndCourse(int studentId, String courseId) throws NotFoundException {
+        return gradesByKey.get(key(studentId, SymbolTable.lookup(courseId)));
     }
 
-    private void loadAll() throws RepositoryException {
-        File file = new File(DATA_FILE);
-        if (!file.exists()) {
-            System.out.println("Grade data file does not exist. Starting with empty repository.");
-            return;
+    public synchronized boolean containsGrade(int studentId, String courseId) {
+        return gradesByKey.containsKey(key(studentId, SymbolTable.lookup(courseId)));
+    }
+
+    /**
+     * Add many grades with a single write of grades.json
+     * @param batch The grades to add
+     * @return The grades that were not added because the student already has a grade in that course
+     */
+    public synchronized List<Grade> addAll(Collection<Grade> batch) throws RepositoryException {
+        List<Grade> added = new ArrayList<>(batch.size());
+        List<Grade> skipped = new ArrayList<>();
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            for (Grade grade : batch) {
+                if (gradesByKey.putIfAbsent(key(grade.getStudentId(), grade.getCourseIdCode()), grade) != null) {
+                    skipped.add(grade);
+                    continue;
+                }
+                grades.add(grade);
+                added.add(grade);
+            }
+            if (!added.isEmpty()) {
+                saveAll(lease);
+            }
+        }
+        for (Grade grade : added) {
+            eventBus.added(grade);
         }
+        System.out.println("GradeRepository: Added " + added.size() + " grades");
+        return skipped;
+    }
 
-        try {
-            List<Grade> loadedGrades = objectMapper.readValue(file, new TypeReference<List<Grade>>() {});
-            grades.clear();
-            grades.addAll(loadedGrades);
-            System.out.println("Loaded " + grades.size() + " grades from " + DATA_FILE);
-        } catch (IOException e) {
-            throw new RepositoryException("Failed to load grades from file: " + e.getMessage(), "LOAD", "Grade");
+    private static long key(int studentId, int courseCode) {
+        return ((long) studentId << 32) | (courseCode & 0xFFFFFFFFL);
+    }
+
+    private void loadAll() throws RepositoryException {
+        try (DataFile.Lease lease = dataFile.lockShared()) {
+            loadedGeneration = lease.getGeneration();
+            File file = dataFile.getFile();
+            if (!file.exists()) {
+                System.out.println("Grade data file does not exist. Starting with empty repository.");
+                return;
+            }
+
+            try {
+                List<Grade> loadedGrades = objectMapper.readValue(file, new TypeReference<List<Grade>>() {});
+                grades.clear();
+                grades.addAll(loadedGrades);
+                gradesByKey.clear();
+                for (Grade loaded : loadedGrades) {
+                    gradesByKey.put(key(loaded.getStudentId(), loaded.getCourseIdCode()), loaded);
+                }
+                eventBus.reset(grades);
+                System.out.println("Loaded " + grades.size() + " grades from " + DATA_FILE);
+            } catch (IOException e) {
+                throw new RepositoryException("Failed to load grades from file: " + e.getMessage(), "LOAD", "Grade");
+            }
         }
     }
 
-    private void saveAll() throws RepositoryException {
+    private void saveAll(DataFile.Lease lease) throws RepositoryException {
         try {
             objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(DATA_FILE), grades);
+            loadedGeneration = lease.commit();
         } catch (IOException e) {
             throw new RepositoryException("Failed to save grades to file: " + e.getMessage(), "SAVE", "Grade");
         }
     }
 
+    private void reloadIfStale(DataFile.Lease lease) throws RepositoryException {
+        if (lease.getGeneration() != loadedGeneration) {
+            loadAll();
+        }
+    }
+
+    private synchronized void reloadIfChanged() {
+        try {
+            if (dataFile.currentGeneration() != loadedGeneration) {
+                loadAll();
+            }
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not reload grade data: " + e.getMessage());
+        }
+    }
+
     @Override
-    public List<Grade> sort(String criteria) throws RepositoryException {
+    public synchronized List<Grade> sort(String criteria) throws RepositoryException {
         List<Grade> sortedList = new ArrayList<>(grades);
         if ("student".equalsIgnoreCase(criteria) || "id".equalsIgnoreCase(criteria)) {
             sortedList.sort((g1, g2) -> Integer.compare(g1.getStudentId(), g2.getStudentId()));
@@ -162,4 +251,12 @@ public class GradeRepository implements Repository<Grade> {
         }
         return sortedList;
     }
+
+    /**
+     * Get the bus that publishes committed grade changes
+     * @return The change-event bus for this repository
+     */
+    public ChangeEventBus<Grade> getEventBus() {
+        return eventBus;
+    }
 }
@@ -0,0 +1,92 @@
+package sms.data;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import sms.exceptions.RepositoryException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out record ids without scanning the records for max()+1.
+ *
+ * Ids are reserved from sequences.json in blocks (hi/lo): taking a block locks the
+ * file, bumps the stored high-water mark by {@link #BLOCK_SIZE} and commits, after
+ * which the ids inside the block are handed out from memory. The mark only ever
+ * moves forward, so ids are never reused across restarts or between processes;
+ * ids left in a block when the program exits are simply skipped.
+ */
+public final class IdSequence {
+    private static final String DATA_FILE = "sequences.json";
+    private static final int BLOCK_SIZE = 20;
+    private static final Map<String, IdSequence> SEQUENCES = new ConcurrentHashMap<>();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String name;
+    private final DataFile dataFile;
+    private int next;
+    private int limit;
+    private int floor;
+
+    private IdSequence(String name) {
+        this.name = name;
+        this.dataFile = DataFile.of(DATA_FILE);
+        this.floor = 1;
+    }
+
+    /**
+     * Get the sequence with the given name. There is one instance per name in each JVM.
+     * @param name The sequence name, e.g. "message"
+     * @return The shared sequence
+     */
+    public static IdSequence of(String name) {
+        return SEQUENCES.computeIfAbsent(name, IdSequence::new);
+    }
+
+    /**
+     * Tell the sequence that an id is already taken, e.g. by a record loaded from a
+     * file written before sequences existed. Later ids will be greater than it.
+     * @param usedId The highest id known to be in use
+     */
+    public synchronized void ensureAbove(int usedId) {
+        if (usedId >= floor) {
+            floor = usedId + 1;
+        }
+        if (next <= usedId) {
+            next = limit;
+        }
+    }
+
+    /**
+     * Get the next unused id
+     * @return The id
+     * @throws RepositoryException if a new block cannot be reserved
+     */
+    public synchronized int next() throws RepositoryException {
+        if (next >= limit) {
+            reserveBlock();
+        }
+        return next++;
+    }
+
+    private void reserveBlock() throws RepositoryException {
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            File file = dataFile.getFile();
+            Map<String, Integer> marks = new TreeMap<>();
+            if (file.exists() && file.length() > 0) {
+                marks.putAll(MAPPER.readValue(file, new TypeReference<Map<String, Integer>>() {}));
+            }
+            int start = Math.max(marks.getOrDefault(name, 1), floor);
+            marks.put(name, start + BLOCK_SIZE);
+            MAPPER.writerWithDefaultPrettyPrinter().writeValue(file, marks);
+            lease.commit();
+            next = start;
+            limit = start + BLOCK_SIZE;
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to reserve " + name + " ids: " + e.getMessage(), "SEQUENCE", name, e);
+        }
+    }
+}
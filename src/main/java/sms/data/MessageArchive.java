@@ -0,0 +1,343 @@
+package sms.data;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import sms.domain.Message;
+import sms.domain.support.CompressedBitmap;
+import sms.exceptions.RepositoryException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold storage for old messages: immutable, gzip-compressed JSON segments, one or
+ * more per calendar month, under {@code message-archive/}.
+ *
+ * A small index file lists each segment's time range, size, highest message ID
+ * and a bitmap of the user IDs that appear in it, so a history query only opens
+ * segments that can hold the messages it wants. Segments are read on demand and
+ * the most recently used few are kept in memory. Archiving more messages for a
+ * month writes a new segment rather than changing an old one.
+ *
+ * Callers serialize writes by holding the exclusive lease on messages.json.
+ */
+public final class MessageArchive {
+    private static final String DIRECTORY = "message-archive";
+    private static final String INDEX_FILE = "index.json";
+    private static final int CACHED_SEGMENTS = 4;
+    private static final Comparator<Message> NEWEST_FIRST = Comparator
+            .comparingLong(Message::getTimestampMillis)
+            .thenComparingInt(Message::getMessageId)
+            .reversed();
+
+    private final File directory;
+    private final ObjectMapper objectMapper;
+    private final List<Segment> segments;
+    private final Map<String, List<Message>> cache;
+
+    public MessageArchive() {
+        this(new File(DIRECTORY));
+    }
+
+    MessageArchive(File directory) {
+        this.directory = directory;
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.segments = new ArrayList<>();
+        this.cache = new LinkedHashMap<>(CACHED_SEGMENTS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Message>> eldest) {
+                return size() > CACHED_SEGMENTS;
+            }
+        };
+    }
+
+    /**
+     * One entry of the sparse index
+     */
+    public static final class Segment {
+        private String file;
+        private String month;
+        private long fromMillis;
+        private long toMillis;
+        private int count;
+        private int maxMessageId;
+        private String participants;
+        private CompressedBitmap participantBitmap;
+
+        public Segment() {}
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public String getMonth() {
+            return month;
+        }
+
+        public void setMonth(String month) {
+            this.month = month;
+        }
+
+        public long getFromMillis() {
+            return fromMillis;
+        }
+
+        public void setFromMillis(long fromMillis) {
+            this.fromMillis = fromMillis;
+        }
+
+        public long getToMillis() {
+            return toMillis;
+        }
+
+        public void setToMillis(long toMillis) {
+            this.toMillis = toMillis;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public int getMaxMessageId() {
+            return maxMessageId;
+        }
+
+        public void setMaxMessageId(int maxMessageId) {
+            this.maxMessageId = maxMessageId;
+        }
+
+        /**
+         * @return Base64 of the bitmap of sender and recipient user IDs
+         */
+        public String getParticipants() {
+            return participants;
+        }
+
+        public void setParticipants(String participants) {
+            this.participants = participants;
+            this.participantBitmap = null;
+        }
+
+        boolean mayInvolve(int userId) throws IOException {
+            if (participantBitmap == null) {
+                byte[] bytes = Base64.getDecoder().decode(participants == null ? "" : participants);
+                participantBitmap = bytes.length == 0 ? new CompressedBitmap()
+                        : CompressedBitmap.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+            }
+            return participantBitmap.contains(userId);
+        }
+    }
+
+    /**
+     * Re-read the index, e.g. after another process archived messages
+     */
+    public synchronized void reload() throws RepositoryException {
+        File index = new File(directory, INDEX_FILE);
+        segments.clear();
+        if (!index.exists()) {
+            return;
+        }
+        try {
+            segments.addAll(objectMapper.readValue(index, new TypeReference<List<Segment>>() {}));
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to load message archive index: " + e.getMessage(), "LOAD", "Message");
+        }
+        cache.keySet().removeIf(file -> segments.stream().noneMatch(s -> s.file.equals(file)));
+    }
+
+    /**
+     * Write messages into new segments, one per month they fall in
+     * @param messages The messages to archive
+     */
+    public synchronized void append(Collection<Message> messages) throws RepositoryException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        TreeMap<YearMonth, List<Message>> byMonth = new TreeMap<>();
+        for (Message message : messages) {
+            YearMonth month = YearMonth.from(Instant.ofEpochMilli(message.getTimestampMillis()).atZone(ZoneId.systemDefault()));
+            byMonth.computeIfAbsent(month, m -> new ArrayList<>()).add(message);
+        }
+        try {
+            Files.createDirectories(directory.toPath());
+            List<Segment> written = new ArrayList<>();
+            for (Map.Entry<YearMonth, List<Message>> entry : byMonth.entrySet()) {
+                written.add(writeSegment(entry.getKey(), entry.getValue()));
+            }
+            segments.addAll(written);
+            writeAtomically(new File(directory, INDEX_FILE), out -> objectMapper.writerWithDefaultPrettyPrinter().writeValue(out, segments));
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to archive messages: " + e.getMessage(), "SAVE", "Message", e);
+        }
+    }
+
+    /**
+     * Find the newest archived messages of one user before a position
+     * @param userId A sender or recipient the messages must involve
+     * @param matches Which of that user's messages are wanted
+     * @param notBeforeMillis Only messages at or after this time, so segments that
+     *                        end earlier are never opened; Long.MIN_VALUE for no bound
+     * @param beforeMillis Only messages before this time...
+     * @param beforeId ...or at this time with a lower ID
+     * @param limit The most messages to return
+     * @return The messages, newest first
+     */
+    public synchronized List<Message> findBefore(int userId, Predicate<Message> matches, long notBeforeMillis,
+                                                 long beforeMillis, int beforeId, int limit) throws RepositoryException {
+        List<Segment> candidates = new ArrayList<>();
+        try {
+            for (Segment segment : segments) {
+                if (segment.fromMillis <= beforeMillis && segment.toMillis >= notBeforeMillis
+                        && segment.mayInvolve(userId)) {
+                    candidates.add(segment);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            throw new RepositoryException("Corrupt message archive index: " + e.getMessage(), "LOAD", "Message");
+        }
+        candidates.sort(Comparator.comparingLong(Segment::getToMillis).reversed());
+
+        List<Message> found = new ArrayList<>();
+        for (Segment segment : candidates) {
+            // Segments overlap, so stop only once no remaining one can beat the current page
+            if (found.size() >= limit && segment.toMillis < found.get(limit - 1).getTimestampMillis()) {
+                break;
+            }
+            for (Message message : load(segment)) {
+                long time = message.getTimestampMillis();
+                if (time < notBeforeMillis || time > beforeMillis
+                        || (time == beforeMillis && message.getMessageId() >= beforeId)) {
+                    continue;
+                }
+                if (found.size() >= limit && NEWEST_FIRST.compare(message, found.get(limit - 1)) > 0) {
+                    break;
+                }
+                if (matches.test(message)) {
+                    found.add(message);
+                    found.sort(NEWEST_FIRST);
+                    if (found.size() > limit) {
+                        found.remove(limit);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return How many messages the archive holds
+     */
+    public synchronized int getMessageCount() {
+        return segments.stream().mapToInt(Segment::getCount).sum();
+    }
+
+    /**
+     * @return The highest archived message ID, 0 if the archive is empty
+     */
+    public synchronized int getMaxMessageId() {
+        return segments.stream().mapToInt(Segment::getMaxMessageId).max().orElse(0);
+    }
+
+    /**
+     * @return The index entries, oldest month first
+     */
+    public synchronized List<Segment> getSegments() {
+        List<Segment> sorted = new ArrayList<>(segments);
+        sorted.sort(Comparator.comparing(Segment::getMonth).thenComparingLong(Segment::getFromMillis));
+        return sorted;
+    }
+
+    private Segment writeSegment(YearMonth month, List<Message> messages) throws IOException {
+        messages.sort(NEWEST_FIRST);
+        int sequence = 1;
+        File file;
+        do {
+            file = new File(directory, "messages-" + month + "-" + sequence++ + ".json.gz");
+        } while (file.exists());
+        writeAtomically(file, out -> {
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                objectMapper.writeValue(gzip, messages);
+            }
+        });
+
+        CompressedBitmap participants = new CompressedBitmap();
+        Segment segment = new Segment();
+        segment.file = file.getName();
+        segment.month = month.toString();
+        segment.fromMillis = Long.MAX_VALUE;
+        segment.toMillis = Long.MIN_VALUE;
+        for (Message message : messages) {
+            segment.fromMillis = Math.min(segment.fromMillis, message.getTimestampMillis());
+            segment.toMillis = Math.max(segment.toMillis, message.getTimestampMillis());
+            segment.maxMessageId = Math.max(segment.maxMessageId, message.getMessageId());
+            participants.add(message.getFromUserId());
+            participants.add(message.getToUserId());
+        }
+        segment.count = messages.size();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        participants.write(new DataOutputStream(bytes));
+        segment.setParticipants(Base64.getEncoder().encodeToString(bytes.toByteArray()));
+        cache.put(segment.file, new ArrayList<>(messages));
+        return segment;
+    }
+
+    // Newest first, as written
+    private List<Message> load(Segment segment) throws RepositoryException {
+        List<Message> messages = cache.get(segment.file);
+        if (messages == null) {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(new File(directory, segment.file).toPath()))) {
+                messages = objectMapper.readValue(in, new TypeReference<List<Message>>() {});
+            } catch (IOException e) {
+                throw new RepositoryException("Failed to read archive segment " + segment.file + ": " + e.getMessage(), "LOAD", "Message", e);
+            }
+            cache.put(segment.file, messages);
+        }
+        return messages;
+    }
+
+    private interface Writer {
+        void write(OutputStream out) throws IOException;
+    }
+
+    // Write beside the target and rename, so readers never see half a file
+    private static void writeAtomically(File target, Writer writer) throws IOException {
+        Path temp = new File(target.getParentFile(), target.getName() + ".tmp").toPath();
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            writer.write(out);
+        }
+        Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -3,34 +3,82 @@ package sms.data;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import sms.domain.Message;
+import sms.domain.support.SymbolTable;
+import sms.domain.support.Timestamps;
+import sms.events.ChangeEventBus;
+import sms.exceptions.NotFoundException;
 import sms.exceptions.RepositoryException;
 import sms.exceptions.ValidationException;
-import sms.exceptions.NotFoundException;
 
 import java.io.File;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class MessageRepository implements Repository<Message> {
     private static final String DATA_FILE = "messages.json";
-    private final List<Message> messages;
+    /** Read messages older than this (about a term) move to the archive */
+    public static final Duration DEFAULT_ARCHIVE_AGE = Duration.ofDays(120);
+    private static final Comparator<Message> NEWEST_FIRST = Comparator
+            .comparingLong(Message::getTimestampMillis)
+            .thenComparingInt(Message::getMessageId)
+            .reversed();
+    // Keyed by ID in insertion order, so single and bulk removals need no scan
+    private final Map<Integer, Message> messages;
+    private final TimeIndex<Message> byExpiry;
+    // Retention by category (the sender's case-folded role code), in millis
+    private final Map<Integer, Long> retention;
+    // Mailboxes keyed by recipient userId and case-folded role code
+    private final Map<Long, Mailbox> mailboxes;
+    private final Map<Integer, Filed> filedById;
+    // Conversations keyed by each participant, then by the other participant
+    private final Map<Long, Map<Long, Conversation>> conversations;
+    private final MessageArchive archive;
     private final ObjectMapper objectMapper;
+    private final DataFile dataFile;
+    private final ChangeEventBus<Message> eventBus;
+    private final IdSequence idSequence;
+    private long loadedGeneration;
 
     public MessageRepository() {
-        this.messages = new ArrayList<>();
+        this.messages = new LinkedHashMap<>();
+        this.byExpiry = new TimeIndex<>(this::expiryOf, Message::getMessageId);
+        this.retention = new HashMap<>();
+        this.mailboxes = new HashMap<>();
+        this.filedById = new HashMap<>();
+        this.conversations = new HashMap<>();
+        this.archive = new MessageArchive();
         this.objectMapper = new ObjectMapper();
         this.objectMapper.configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        // Filed remembers what callers change in place, so the bus keeps no snapshot
+        this.eventBus = new ChangeEventBus<>("Message", Message.class, Message::getMessageId, this, false);
+        this.idSequence = IdSequence.of("message");
+        this.dataFile = DataFile.of(DATA_FILE);
         try {
             loadAll();
         } catch (RepositoryException e) {
             System.out.println("Warning: Could not load existing message data: " + e.getMessage());
         }
+        try {
+            compact(System.currentTimeMillis());
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not compact message data: " + e.getMessage());
+        }
+        dataFile.onChange(this::reloadIfChanged);
     }
 
     @Override
-    public void add(Message message) throws RepositoryException, ValidationException {
+    public synchronized void add(Message message) throws RepositoryException, ValidationException {
         if (message == null) {
             throw new ValidationException("Message cannot be null", "message", "null");
         }
@@ -38,126 +86,821 @@ public class MessageRepository implements Repository<Message> {
             throw new ValidationException("Message content cannot be empty", "message", message.getMessage());
         }
         
-        messages.add(message);
-        saveAll();
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            messages.put(message.getMessageId(), message);
+            file(message);
+            saveAll(lease);
+        }
+        idSequence.ensureAbove(message.getMessageId());
+        eventBus.added(message);
         System.out.println("MessageRepository: Added message from " + message.getFromUserName() + " to " + message.getToUserName());
     }
 
+    /**
+     * Add many messages with a single write of messages.json
+     * @param batch The messages to add
+     */
+    public synchronized void addAll(Collection<Message> batch) throws RepositoryException, ValidationException {
+        for (Message message : batch) {
+            if (message.getMessage() == null || message.getMessage().trim().isEmpty()) {
+                throw new ValidationException("Message content cannot be empty", "message", message.getMessage());
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            for (Message message : batch) {
+                messages.put(message.getMessageId(), message);
+                file(message);
+            }
+            saveAll(lease);
+        }
+        for (Message message : batch) {
+            idSequence.ensureAbove(message.getMessageId());
+            eventBus.added(message);
+        }
+        System.out.println("MessageRepository: Added " + batch.size() + " messages");
+    }
+
     @Override
-    public void update(Message message) throws RepositoryException, NotFoundException {
+    public synchronized void update(Message message) throws RepositoryException, NotFoundException {
         if (message == null) {
             throw new NotFoundException("Message not found", "Message", "null");
         }
         
-        boolean found = false;
-        for (int i = 0; i < messages.size(); i++) {
-            if (messages.get(i).getMessageId() == message.getMessageId()) {
-                messages.set(i, message);
-                found = true;
-                break;
+        Message before;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            if (!messages.containsKey(message.getMessageId())) {
+                throw new NotFoundException("Message not found with ID: " + message.getMessageId(), "Message", String.valueOf(message.getMessageId()));
             }
-        }
+            before = committedCopy(message);
+            messages.put(message.getMessageId(), message);
+            file(message);
         
-        if (!found) {
-            throw new NotFoundException("Message not found with ID: " + message.getMessageId(), "Message", String.valueOf(message.getMessageId()));
+            saveAll(lease);
         }
-        
-        saveAll();
+        eventBus.updated(before, message);
         System.out.println("MessageRepository: Updated message " + message.getMessageId());
     }
 
     @Override
-    public void delete(Message message) throws RepositoryException, NotFoundException {
+    public synchronized void delete(Message message) throws RepositoryException, NotFoundException {
         if (message == null) {
             throw new NotFoundException("Message not found", "Message", "null");
         }
         
-        boolean removed = messages.removeIf(m -> m.getMessageId() == message.getMessageId());
-        if (!removed) {
-            throw new NotFoundException("Message not found with ID: " + message.getMessageId(), "Message", String.valueOf(message.getMessageId()));
-        }
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            boolean removed = messages.remove(message.getMessageId()) != null;
+            unfile(message.getMessageId());
+            if (!removed) {
+                throw new NotFoundException("Message not found with ID: " + message.getMessageId(), "Message", String.valueOf(message.getMessageId()));
+            }
         
-        saveAll();
+            saveAll(lease);
+        }
+        eventBus.deleted(message);
         System.out.println("MessageRepository: Deleted message " + message.getMessageId());
     }
 
+    /**
+     * Mark every unread message of one recipient read, with a single write of messages.json
+     * @param userId The recipient
+     * @param role The recipient's role, in any case
+     * @return How many messages were marked
+     */
+    public synchronized int markAllRead(int userId, String role) throws RepositoryException {
+        List<Message> changed = new ArrayList<>();
+        List<Message> before;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            Mailbox mailbox = mailboxFor(userId, role);
+            if (mailbox == null || mailbox.unread == 0) {
+                return 0;
+            }
+            for (Message message : mailbox.messages.values()) {
+                if (!message.isRead()) {
+                    changed.add(message);
+                }
+            }
+            before = applyRead(changed);
+            saveAll(lease);
+        }
+        publishUpdated(before, changed);
+        System.out.println("MessageRepository: Marked " + changed.size() + " messages read");
+        return changed.size();
+    }
+
+    /**
+     * Mark messages read by ID, with a single write of messages.json
+     * @param messageIds The messages to mark; unknown or already read IDs are skipped
+     * @return How many messages were marked
+     */
+    public synchronized int markRead(Collection<Integer> messageIds) throws RepositoryException {
+        List<Message> changed = new ArrayList<>();
+        List<Message> before;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            for (int messageId : new LinkedHashSet<>(messageIds)) {
+                Filed filed = filedById.get(messageId);
+                if (filed != null && !filed.read) {
+                    changed.add(mailboxes.get(filed.mailbox).messages.get(filed.key));
+                }
+            }
+            if (changed.isEmpty()) {
+                return 0;
+            }
+            before = applyRead(changed);
+            saveAll(lease);
+        }
+        publishUpdated(before, changed);
+        System.out.println("MessageRepository: Marked " + changed.size() + " messages read");
+        return changed.size();
+    }
+
+    /**
+     * Delete every message between two participants, in both directions, with a
+     * single write of messages.json. Archived messages are immutable and stay.
+     * @param userId One participant
+     * @param role Their role, in any case
+     * @param otherUserId The other participant
+     * @param otherRole Their role, in any case
+     * @return How many messages were deleted
+     */
+    public synchronized int deleteConversation(int userId, String role, int otherUserId, String otherRole)
+            throws RepositoryException {
+        int roleCode = SymbolTable.lookupFolded(role);
+        int otherRoleCode = SymbolTable.lookupFolded(otherRole);
+        if (roleCode == SymbolTable.UNKNOWN || otherRoleCode == SymbolTable.UNKNOWN) {
+            return 0;
+        }
+        List<Message> removed;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            Conversation conversation = conversationFor(mailboxKey(userId, roleCode), mailboxKey(otherUserId, otherRoleCode));
+            if (conversation == null) {
+                return 0;
+            }
+            removed = new ArrayList<>(conversation.messages.values());
+            remove(removed);
+            saveAll(lease);
+        }
+        publishDeleted(removed);
+        System.out.println("MessageRepository: Deleted " + removed.size() + " messages");
+        return removed.size();
+    }
+
+    /**
+     * Move read messages older than a cutoff out of messages.json into the archive.
+     * Unread messages stay, so unread counts never include archived messages.
+     * @param cutoffMillis Messages sent before this time are archived
+     * @return How many messages were archived
+     */
+    public synchronized int archiveOlderThan(long cutoffMillis) throws RepositoryException {
+        List<Message> archived = new ArrayList<>();
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            for (Message message : messages.values()) {
+                long time = message.getTimestampMillis();
+                if (message.isRead() && time != Timestamps.NONE && time < cutoffMillis) {
+                    archived.add(message);
+                }
+            }
+            if (archived.isEmpty()) {
+                return 0;
+            }
+            // Segments first: a crash before the save leaves duplicates, which reads skip
+            archive.append(archived);
+            remove(archived);
+            saveAll(lease);
+        }
+        publishDeleted(archived);
+        System.out.println("MessageRepository: Archived " + archived.size() + " messages");
+        return archived.size();
+    }
+
+    /**
+     * Give every message of a category a time to live. Messages with their own
+     * expiry keep it.
+     * @param category The sender's role, in any case, e.g. "SYSTEM" for automated reminders
+     * @param ttl How long such messages are kept after they are sent, or null to keep them
+     */
+    public synchronized void setRetention(String category, Duration ttl) {
+        int categoryCode = SymbolTable.folded(SymbolTable.code(category));
+        if (ttl == null) {
+            retention.remove(categoryCode);
+        } else {
+            retention.put(categoryCode, ttl.toMillis());
+        }
+        byExpiry.rebuild(messages.values());
+    }
+
+    /**
+     * Delete every message that has expired, with a single write of messages.json.
+     * Expired messages are found through the expiry index, so when none are due this
+     * costs one lookup.
+     * @param nowMillis The current time
+     * @return How many messages were deleted
+     */
+    public synchronized int purgeExpired(long nowMillis) throws RepositoryException {
+        long earliest = byExpiry.earliest();
+        if ((earliest == Timestamps.NONE || earliest > nowMillis) && dataFile.currentGeneration() == loadedGeneration) {
+            return 0;
+        }
+        List<Message> expired;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            expired = expiredAt(nowMillis);
+            if (expired.isEmpty()) {
+                return 0;
+            }
+            remove(expired);
+            saveAll(lease);
+        }
+        publishDeleted(expired);
+        System.out.println("MessageRepository: Purged " + expired.size() + " expired messages");
+        return expired.size();
+    }
+
+    /**
+     * Purge expired messages and archive old read ones, so messages.json holds
+     * about {@link #DEFAULT_ARCHIVE_AGE} of traffic
+     * @param nowMillis The current time
+     */
+    public synchronized void compact(long nowMillis) throws RepositoryException {
+        purgeExpired(nowMillis);
+        archiveOlderThan(nowMillis - DEFAULT_ARCHIVE_AGE.toMillis());
+    }
+
+    /**
+     * @return How many messages have been moved to the archive
+     */
+    public synchronized int getArchivedCount() {
+        return archive.getMessageCount();
+    }
+
     @Override
-    public List<Message> getAll() throws RepositoryException {
-        return new ArrayList<>(messages);
+    public synchronized List<Message> getAll() throws RepositoryException {
+        return new ArrayList<>(messages.values());
     }
 
     @Override
-    public List<Message> find(String criteria) throws RepositoryException {
-        return messages.stream()
+    public synchronized List<Message> find(String criteria) throws RepositoryException {
+        return messages.values().stream()
                 .filter(message -> message.getMessage().toLowerCase().contains(criteria.toLowerCase()) ||
                                  message.getFromUserName().toLowerCase().contains(criteria.toLowerCase()) ||
                                  message.getToUserName().toLowerCase().contains(criteria.toLowerCase()))
                 .collect(Collectors.toList());
     }
 
-    public List<Message> getMessagesForUser(int userId, String role) throws RepositoryException {
-        return messages.stream()
-                .filter(message -> message.getToUserId() == userId && message.getToRole().equalsIgnoreCase(role))
-                .collect(Collectors.toList());
+    /**
+     * @param userId The recipient
+     * @param role The recipient's role, in any case
+     * @return The recipient's messages that are not archived, oldest first. Use
+     *         {@link #getInboxPage} for the full history.
+     */
+    public synchronized List<Message> getMessagesForUser(int userId, String role) throws RepositoryException {
+        Mailbox mailbox = mailboxFor(userId, role);
+        return mailbox == null ? new ArrayList<>() : new ArrayList<>(mailbox.messages.values());
     }
 
-    public List<Message> getUnreadMessagesForUser(int userId, String role) throws RepositoryException {
-        return messages.stream()
-                .filter(message -> message.getToUserId() == userId && 
-                                 message.getToRole().equalsIgnoreCase(role) && 
-                                 !message.isRead())
-                .collect(Collectors.toList());
+    /**
+     * @param userId The recipient
+     * @param role The recipient's role, in any case
+     * @return The recipient's unread messages, oldest first. Only read messages are
+     *         archived, so these all come from messages.json.
+     */
+    public synchronized List<Message> getUnreadMessagesForUser(int userId, String role) throws RepositoryException {
+        List<Message> unread = new ArrayList<>();
+        Mailbox mailbox = mailboxFor(userId, role);
+        if (mailbox != null && mailbox.unread > 0) {
+            for (Message message : mailbox.messages.values()) {
+                if (!message.isRead()) {
+                    unread.add(message);
+                }
+            }
+        }
+        return unread;
+    }
+
+    /**
+     * @param userId The recipient
+     * @param role The recipient's role, in any case
+     * @return How many of the recipient's messages are unread
+     */
+    public synchronized int getUnreadCount(int userId, String role) {
+        Mailbox mailbox = mailboxFor(userId, role);
+        return mailbox == null ? 0 : mailbox.unread;
     }
 
-    public Message findById(int messageId) throws NotFoundException {
-        return messages.stream()
-                .filter(m -> m.getMessageId() == messageId)
-                .findFirst()
-                .orElseThrow(() -> new NotFoundException("Message not found with ID: " + messageId, "Message", String.valueOf(messageId)));
+    /**
+     * @param userId The recipient
+     * @param role The recipient's role, in any case
+     * @return How many messages the recipient has that are not archived
+     */
+    public synchronized int getMessageCount(int userId, String role) {
+        Mailbox mailbox = mailboxFor(userId, role);
+        return mailbox == null ? 0 : mailbox.messages.size();
+    }
+
+    /**
+     * One page of the recipient's messages, newest first
+     * @param userId The recipient
+     * @param role The recipient's role, in any case
+     * @param before Where the page starts; {@link Cursor#latest()} for the newest messages
+     * @param limit The most messages to return
+     * @return The page, with the cursor for the next one
+     */
+    public synchronized Page getInboxPage(int userId, String role, Cursor before, int limit) throws RepositoryException {
+        int roleCode = SymbolTable.lookupFolded(role);
+        if (roleCode == SymbolTable.UNKNOWN) {
+            return Page.EMPTY;
+        }
+        Mailbox mailbox = mailboxes.get(mailboxKey(userId, roleCode));
+        return page(mailbox == null ? null : mailbox.messages, before, limit, userId,
+                m -> m.getToUserId() == userId && SymbolTable.folded(m.getToRoleCode()) == roleCode);
+    }
+
+    /**
+     * One page of the messages exchanged by two participants, in either direction,
+     * newest first
+     * @param userId One participant
+     * @param role Their role, in any case
+     * @param otherUserId The other participant
+     * @param otherRole Their role, in any case
+     * @param before Where the page starts; {@link Cursor#latest()} for the newest messages
+     * @param limit The most messages to return
+     * @return The page, with the cursor for the next one
+     */
+    public synchronized Page getConversationPage(int userId, String role, int otherUserId, String otherRole,
+                                                 Cursor before, int limit) throws RepositoryException {
+        int roleCode = SymbolTable.lookupFolded(role);
+        int otherRoleCode = SymbolTable.lookupFolded(otherRole);
+        if (roleCode == SymbolTable.UNKNOWN || otherRoleCode == SymbolTable.UNKNOWN) {
+            return Page.EMPTY;
+        }
+        Conversation conversation = conversationFor(mailboxKey(userId, roleCode), mailboxKey(otherUserId, otherRoleCode));
+        return page(conversation == null ? null : conversation.messages, before, limit, userId,
+                m -> isBetween(m, userId, roleCode, otherUserId, otherRoleCode)
+                        || isBetween(m, otherUserId, otherRoleCode, userId, roleCode));
+    }
+
+    /**
+     * @param userId A participant
+     * @param role Their role, in any case
+     * @return The participant's conversations with messages that are not archived,
+     *         most recently active first
+     */
+    public synchronized List<ConversationSummary> getConversations(int userId, String role) {
+        List<ConversationSummary> summaries = new ArrayList<>();
+        int roleCode = SymbolTable.lookupFolded(role);
+        Map<Long, Conversation> byOther = roleCode == SymbolTable.UNKNOWN ? null
+                : conversations.get(mailboxKey(userId, roleCode));
+        if (byOther == null) {
+            return summaries;
+        }
+        for (Conversation conversation : byOther.values()) {
+            Message last = conversation.messages.lastEntry().getValue();
+            boolean lastIsFromOther = last.getToUserId() == userId
+                    && SymbolTable.folded(last.getToRoleCode()) == roleCode;
+            summaries.add(lastIsFromOther
+                    ? new ConversationSummary(last.getFromUserId(), last.getFromUserName(), last.getFromRole(),
+                                              conversation.messages.size(), last)
+                    : new ConversationSummary(last.getToUserId(), last.getToUserName(), last.getToRole(),
+                                              conversation.messages.size(), last));
+        }
+        summaries.sort((c1, c2) -> Long.compare(c2.getLastMessage().getTimestampMillis(),
+                                                c1.getLastMessage().getTimestampMillis()));
+        return summaries;
+    }
+
+    public synchronized Message findById(int messageId) throws NotFoundException {
+        Message message = messages.get(messageId);
+        if (message == null) {
+            throw new NotFoundException("Message not found with ID: " + messageId, "Message", String.valueOf(messageId));
+        }
+        return message;
     }
 
     private void loadAll() throws RepositoryException {
-        File file = new File(DATA_FILE);
-        if (!file.exists()) {
-            System.out.println("Message data file does not exist. Starting with empty repository.");
-            return;
+        try (DataFile.Lease lease = dataFile.lockShared()) {
+            loadedGeneration = lease.getGeneration();
+            archive.reload();
+            idSequence.ensureAbove(archive.getMaxMessageId());
+            File file = dataFile.getFile();
+            if (!file.exists()) {
+                System.out.println("Message data file does not exist. Starting with empty repository.");
+                return;
+            }
+
+            try {
+                List<Message> loadedMessages = objectMapper.readValue(file, new TypeReference<List<Message>>() {});
+                List<Message> previous = new ArrayList<>(messages.values());
+                messages.clear();
+                mailboxes.clear();
+                filedById.clear();
+                conversations.clear();
+                byExpiry.clear();
+                for (Message message : loadedMessages) {
+                    messages.put(message.getMessageId(), message);
+                    file(message);
+                }
+                eventBus.reset(previous, messages.values());
+                idSequence.ensureAbove(messages.keySet().stream().mapToInt(Integer::intValue).max().orElse(0));
+                System.out.println("Loaded " + messages.size() + " messages from " + DATA_FILE);
+            } catch (IOException e) {
+                throw new RepositoryException("Failed to load messages from file: " + e.getMessage(), "LOAD", "Message");
+            }
         }
+    }
 
+    private void saveAll(DataFile.Lease lease) throws RepositoryException {
         try {
-            List<Message> loadedMessages = objectMapper.readValue(file, new TypeReference<List<Message>>() {});
-            messages.clear();
-            messages.addAll(loadedMessages);
-            System.out.println("Loaded " + messages.size() + " messages from " + DATA_FILE);
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(DATA_FILE), messages.values());
+            loadedGeneration = lease.commit();
         } catch (IOException e) {
-            throw new RepositoryException("Failed to load messages from file: " + e.getMessage(), "LOAD", "Message");
+            throw new RepositoryException("Failed to save messages to file: " + e.getMessage(), "SAVE", "Message");
         }
     }
 
-    private void saveAll() throws RepositoryException {
+    private void reloadIfStale(DataFile.Lease lease) throws RepositoryException {
+        if (lease.getGeneration() != loadedGeneration) {
+            loadAll();
+        }
+    }
+
+    private synchronized void reloadIfChanged() {
         try {
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(DATA_FILE), messages);
-        } catch (IOException e) {
-            throw new RepositoryException("Failed to save messages to file: " + e.getMessage(), "SAVE", "Message");
+            if (dataFile.currentGeneration() != loadedGeneration) {
+                loadAll();
+            }
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not reload message data: " + e.getMessage());
         }
     }
 
-    public int getNextMessageId() {
-        return messages.stream()
-                .mapToInt(Message::getMessageId)
-                .max()
-                .orElse(0) + 1;
+    public int getNextMessageId() throws RepositoryException {
+        return idSequence.next();
     }
 
     @Override
-    public List<Message> sort(String criteria) throws RepositoryException {
-        List<Message> sortedList = new ArrayList<>(messages);
+    public synchronized List<Message> sort(String criteria) throws RepositoryException {
+        List<Message> sortedList = new ArrayList<>(messages.values());
         if ("id".equalsIgnoreCase(criteria)) {
             sortedList.sort((m1, m2) -> Integer.compare(m1.getMessageId(), m2.getMessageId()));
         } else if ("date".equalsIgnoreCase(criteria)) {
-            sortedList.sort((m1, m2) -> m1.getTimestamp().compareTo(m2.getTimestamp()));
+            sortedList.sort((m1, m2) -> Long.compare(m1.getTimestampMillis(), m2.getTimestampMillis()));
         } else {
             sortedList.sort((m1, m2) -> Integer.compare(m1.getMessageId(), m2.getMessageId()));
         }
         return sortedList;
     }
+
+    /**
+     * A position in a message history; pages hold the messages strictly before it
+     */
+    public static final class Cursor {
+        private static final Cursor LATEST = new Cursor(Long.MAX_VALUE, Integer.MAX_VALUE);
+
+        private final long timestamp;
+        private final int messageId;
+
+        private Cursor(long timestamp, int messageId) {
+            this.timestamp = timestamp;
+            this.messageId = messageId;
+        }
+
+        /**
+         * @return A cursor before which every message lies
+         */
+        public static Cursor latest() {
+            return LATEST;
+        }
+
+        /**
+         * @param timestamp Epoch millis
+         * @return A cursor for the messages sent before that time
+         */
+        public static Cursor before(long timestamp) {
+            return new Cursor(timestamp, Integer.MIN_VALUE);
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        private MailKey key() {
+            return new MailKey(timestamp, messageId);
+        }
+    }
+
+    /**
+     * Messages newest first, and where the next (older) page starts
+     */
+    public static final class Page {
+        private static final Page EMPTY = new Page(new ArrayList<>(), null);
+
+        private final List<Message> messages;
+        private final Cursor next;
+
+        private Page(List<Message> messages, Cursor next) {
+            this.messages = messages;
+            this.next = next;
+        }
+
+        public List<Message> getMessages() {
+            return new ArrayList<>(messages);
+        }
+
+        /**
+         * @return The cursor for the next page, or null if this is the last one
+         */
+        public Cursor getNextCursor() {
+            return next;
+        }
+
+        public boolean hasMore() {
+            return next != null;
+        }
+    }
+
+    /**
+     * A conversation as seen by one of its participants
+     */
+    public static final class ConversationSummary {
+        private final int otherUserId;
+        private final String otherUserName;
+        private final String otherRole;
+        private final int messageCount;
+        private final Message lastMessage;
+
+        ConversationSummary(int otherUserId, String otherUserName, String otherRole, int messageCount,
+                            Message lastMessage) {
+            this.otherUserId = otherUserId;
+            this.otherUserName = otherUserName;
+            this.otherRole = otherRole;
+            this.messageCount = messageCount;
+            this.lastMessage = lastMessage;
+        }
+
+        public int getOtherUserId() {
+            return otherUserId;
+        }
+
+        public String getOtherUserName() {
+            return otherUserName;
+        }
+
+        public String getOtherRole() {
+            return otherRole;
+        }
+
+        public int getMessageCount() {
+            return messageCount;
+        }
+
+        public Message getLastMessage() {
+            return lastMessage;
+        }
+    }
+
+    // Walks back from the cursor through the in-memory history, O(log n + limit), and
+    // merges in archived messages from the segments that can hold any. When memory
+    // already has a full page and one more, only archived messages newer than the
+    // oldest of those can change the page, so older segments are not opened.
+    private Page page(TreeMap<MailKey, Message> history, Cursor before, int requested, int userId,
+                      Predicate<Message> matches) throws RepositoryException {
+        int limit = Math.max(1, requested);
+        List<Message> candidates = new ArrayList<>(limit * 2 + 2);
+        if (history != null) {
+            for (Message message : history.headMap(before.key(), false).descendingMap().values()) {
+                if (candidates.size() > limit) {
+                    break;
+                }
+                candidates.add(message);
+            }
+        }
+        // Archived messages can expire after they were archived; they are just not shown
+        long now = System.currentTimeMillis();
+        Predicate<Message> live = m -> expiryOf(m) == Timestamps.NONE || expiryOf(m) > now;
+        long notBefore = candidates.size() > limit ? candidates.get(limit).getTimestampMillis() : Long.MIN_VALUE;
+        for (Message message : archive.findBefore(userId, matches.and(live), notBefore,
+                before.timestamp, before.messageId, limit + 1)) {
+            if (!filedById.containsKey(message.getMessageId())) {
+                candidates.add(message);
+            }
+        }
+        candidates.sort(NEWEST_FIRST);
+        if (candidates.size() <= limit) {
+            return new Page(candidates, null);
+        }
+        List<Message> page = new ArrayList<>(candidates.subList(0, limit));
+        Message last = page.get(limit - 1);
+        return new Page(page, new Cursor(last.getTimestampMillis(), last.getMessageId()));
+    }
+
+    private static boolean isBetween(Message message, int fromUserId, int fromRoleCode, int toUserId, int toRoleCode) {
+        return message.getFromUserId() == fromUserId && SymbolTable.folded(message.getFromRoleCode()) == fromRoleCode
+                && message.getToUserId() == toUserId && SymbolTable.folded(message.getToRoleCode()) == toRoleCode;
+    }
+
+    // Both participants' messages in timestamp order
+    private static final class Conversation {
+        private final long first;
+        private final long second;
+        private final TreeMap<MailKey, Message> messages = new TreeMap<>();
+
+        Conversation(long first, long second) {
+            this.first = first;
+            this.second = second;
+        }
+    }
+
+    // One recipient's messages in timestamp order, with a running unread count
+    private static final class Mailbox {
+        private final TreeMap<MailKey, Message> messages = new TreeMap<>();
+        private int unread;
+    }
+
+    private static final class MailKey implements Comparable<MailKey> {
+        private final long timestamp;
+        private final int messageId;
+
+        MailKey(long timestamp, int messageId) {
+            this.timestamp = timestamp;
+            this.messageId = messageId;
+        }
+
+        @Override
+        public int compareTo(MailKey other) {
+            int byTime = Long.compare(timestamp, other.timestamp);
+            return byTime != 0 ? byTime : Integer.compare(messageId, other.messageId);
+        }
+    }
+
+    // Where and how a message was filed, since callers change messages in place before update()
+    private static final class Filed {
+        private final long mailbox;
+        private final MailKey key;
+        private final boolean read;
+        private final Conversation conversation;
+
+        Filed(long mailbox, MailKey key, boolean read, Conversation conversation) {
+            this.mailbox = mailbox;
+            this.key = key;
+            this.read = read;
+            this.conversation = conversation;
+        }
+    }
+
+    private static long mailboxKey(int userId, int foldedRoleCode) {
+        return ((long) userId << 32) | (foldedRoleCode & 0xFFFFFFFFL);
+    }
+
+    private Mailbox mailboxFor(int userId, String role) {
+        int roleCode = SymbolTable.lookupFolded(role);
+        return roleCode == SymbolTable.UNKNOWN ? null : mailboxes.get(mailboxKey(userId, roleCode));
+    }
+
+    private void file(Message message) {
+        unfile(message.getMessageId());
+        long key = mailboxKey(message.getToUserId(), SymbolTable.folded(message.getToRoleCode()));
+        Mailbox mailbox = mailboxes.computeIfAbsent(key, k -> new Mailbox());
+        MailKey mailKey = new MailKey(message.getTimestampMillis(), message.getMessageId());
+        mailbox.messages.put(mailKey, message);
+        if (!message.isRead()) {
+            mailbox.unread++;
+        }
+        long sender = mailboxKey(message.getFromUserId(), SymbolTable.folded(message.getFromRoleCode()));
+        Conversation conversation = conversationFor(sender, key);
+        if (conversation == null) {
+            conversation = new Conversation(sender, key);
+            conversations.computeIfAbsent(sender, k -> new HashMap<>()).put(key, conversation);
+            conversations.computeIfAbsent(key, k -> new HashMap<>()).put(sender, conversation);
+        }
+        conversation.messages.put(mailKey, message);
+        filedById.put(message.getMessageId(), new Filed(key, mailKey, message.isRead(), conversation));
+        byExpiry.put(message);
+    }
+
+    private void unfile(int messageId) {
+        byExpiry.remove(messageId);
+        Filed filed = filedById.remove(messageId);
+        if (filed == null) {
+            return;
+        }
+        Mailbox mailbox = mailboxes.get(filed.mailbox);
+        mailbox.messages.remove(filed.key);
+        if (!filed.read) {
+            mailbox.unread--;
+        }
+        if (mailbox.messages.isEmpty()) {
+            mailboxes.remove(filed.mailbox);
+        }
+        Conversation conversation = filed.conversation;
+        conversation.messages.remove(filed.key);
+        if (conversation.messages.isEmpty()) {
+            removeConversation(conversation.first, conversation.second);
+            removeConversation(conversation.second, conversation.first);
+        }
+    }
+
+    private Conversation conversationFor(long participant, long otherParticipant) {
+        Map<Long, Conversation> byOther = conversations.get(participant);
+        return byOther == null ? null : byOther.get(otherParticipant);
+    }
+
+    private void removeConversation(long participant, long otherParticipant) {
+        Map<Long, Conversation> byOther = conversations.get(participant);
+        if (byOther != null) {
+            byOther.remove(otherParticipant);
+            if (byOther.isEmpty()) {
+                conversations.remove(participant);
+            }
+        }
+    }
+
+    // Returns the before images, see committedCopy
+    private List<Message> applyRead(List<Message> unread) {
+        List<Message> before = new ArrayList<>(unread.size());
+        for (Message message : unread) {
+            before.add(committedCopy(message));
+            message.setRead(true);
+            file(message);
+        }
+        return before;
+    }
+
+    // The message as last committed, for change events: after sending only the read
+    // flag changes, and Filed remembers it. Null if nobody is listening.
+    private Message committedCopy(Message message) {
+        if (!eventBus.hasListeners()) {
+            return null;
+        }
+        Message copy = objectMapper.convertValue(message, Message.class);
+        Filed filed = filedById.get(message.getMessageId());
+        if (filed != null) {
+            copy.setRead(filed.read);
+            copy.setTimestampMillis(filed.key.timestamp);
+        }
+        return copy;
+    }
+
+    private void remove(List<Message> removed) {
+        for (Message message : removed) {
+            messages.remove(message.getMessageId());
+            unfile(message.getMessageId());
+        }
+    }
+
+    private List<Message> expiredAt(long nowMillis) {
+        return byExpiry.between(Long.MIN_VALUE + 1, nowMillis + 1);
+    }
+
+    // The message's own expiry, else its send time plus its category's retention
+    private long expiryOf(Message message) {
+        if (message.getExpiresAtMillis() != Timestamps.NONE) {
+            return message.getExpiresAtMillis();
+        }
+        Long ttl = retention.get(SymbolTable.folded(message.getFromRoleCode()));
+        if (ttl == null || message.getTimestampMillis() == Timestamps.NONE) {
+            return Timestamps.NONE;
+        }
+        return message.getTimestampMillis() + ttl;
+    }
+
+    private void publishDeleted(List<Message> removed) {
+        eventBus.beginBatch();
+        try {
+            for (Message message : removed) {
+                eventBus.deleted(message);
+            }
+        } finally {
+            eventBus.commitBatch();
+        }
+    }
+
+    private void publishUpdated(List<Message> before, List<Message> changed) {
+        eventBus.beginBatch();
+        try {
+            for (int i = 0; i < changed.size(); i++) {
+                eventBus.updated(before.get(i), changed.get(i));
+            }
+        } finally {
+            eventBus.commitBatch();
+        }
+    }
+
+    /**
+     * Get the bus that publishes committed message changes
+     * @return The change-event bus for this repository
+     */
+    public ChangeEventBus<Message> getEventBus() {
+        return eventBus;
+    }
 }
@@ -3,34 +3,48 @@ package sms.data;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import sms.domain.Student;
+import sms.domain.support.IdentityMap;
+import sms.events.ChangeEventBus;
+import sms.exceptions.NotFoundException;
 import sms.exceptions.RepositoryException;
 import sms.exceptions.ValidationException;
-import sms.exceptions.NotFoundException;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class StudentRepository implements Repository<Student> {
     private static final String DATA_FILE = "students.json";
     private final List<Student> students;
+    // Primary-key index: userId -> student
+    private final Map<Integer, Student> studentsById;
     private final ObjectMapper objectMapper;
+    private final DataFile dataFile;
+    private final ChangeEventBus<Student> eventBus;
+    private long loadedGeneration;
 
     public StudentRepository() {
         this.students = new ArrayList<>();
+        this.studentsById = new HashMap<>();
         this.objectMapper = new ObjectMapper();
         this.objectMapper.configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.eventBus = new ChangeEventBus<>("Student", Student.class, Student::getUserId, this);
+        this.dataFile = DataFile.of(DATA_FILE);
         try {
             loadAll();
         } catch (RepositoryException e) {
             System.out.println("Warning: Could not load existing student data: " + e.getMessage());
         }
+        dataFile.onChange(this::reloadIfChanged);
     }
 
     @Override
-    public void add(Student student) throws RepositoryException, ValidationException {
+    public synchronized void add(Student student) throws RepositoryException, ValidationException {
         if (student == null) {
             throw new ValidationException("Student cannot be null", "student", "null");
         }
@@ -38,56 +52,151 @@ public class StudentRepository implements Repository<Student> {
             throw new ValidationException("Student name cannot be empty", "name", student.getName());
         }
         
-        students.add(student);
-        saveAll();
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            Student shared = IdentityMap.intern(student);
+            students.add(shared);
+            studentsById.put(shared.getUserId(), shared);
+            saveAll(lease);
+        }
+        eventBus.added(student);
         System.out.println("StudentRepository: Added student " + student.getName());
     }
 
     @Override
-    public void update(Student student) throws RepositoryException, NotFoundException {
+    public synchronized void update(Student student) throws RepositoryException, NotFoundException {
         if (student == null) {
             throw new NotFoundException("Student not found", "Student", "null");
         }
         
-        boolean found = false;
-        for (int i = 0; i < students.size(); i++) {
-            if (students.get(i).getUserId() == student.getUserId()) {
-                students.set(i, student);
-                found = true;
-                break;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            boolean found = false;
+            for (int i = 0; i < students.size(); i++) {
+                if (students.get(i).getUserId() == student.getUserId()) {
+                    Student shared = IdentityMap.intern(student);
+                    students.set(i, shared);
+                    studentsById.put(shared.getUserId(), shared);
+                    found = true;
+                    break;
+                }
             }
-        }
         
-        if (!found) {
-            throw new NotFoundException("Student not found with ID: " + student.getUserId(), "Student", String.valueOf(student.getUserId()));
-        }
+            if (!found) {
+                throw new NotFoundException("Student not found with ID: " + student.getUserId(), "Student", String.valueOf(student.getUserId()));
+            }
         
-        saveAll();
+            saveAll(lease);
+        }
+        eventBus.updated(student);
         System.out.println("StudentRepository: Updated student " + student.getName());
     }
 
     @Override
-    public void delete(Student student) throws RepositoryException, NotFoundException {
+    public synchronized void delete(Student student) throws RepositoryException, NotFoundException {
         if (student == null) {
             throw new NotFoundException("Student not found", "Student", "null");
         }
         
-        boolean removed = students.removeIf(s -> s.getUserId() == student.getUserId());
-        if (!removed) {
-            throw new NotFoundException("Student not found with ID: " + student.getUserId(), "Student", String.valueOf(student.getUserId()));
-        }
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            boolean removed = students.removeIf(s -> s.getUserId() == student.getUserId());
+            if (!removed) {
+                throw new NotFoundException("Student not found with ID: " + student.getUserId(), "Student", String.valueOf(student.getUserId()));
+            }
+            studentsById.remove(student.getUserId());
         
-        saveAll();
+            saveAll(lease);
+        }
+        IdentityMap.evict(student);
+        eventBus.deleted(student);
         System.out.println("StudentRepository: Deleted student " + student.getName());
     }
 
+    /**
+     * Add many students with a single write of students.json
+     * @param batch The students to add
+     * @return The students that were not added because their userId is already taken
+     */
+    public synchronized List<Student> addAll(Collection<Student> batch) throws RepositoryException {
+        List<Student> added = new ArrayList<>(batch.size());
+        List<Student> skipped = new ArrayList<>();
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            for (Student student : batch) {
+                if (studentsById.containsKey(student.getUserId())) {
+                    skipped.add(student);
+                    continue;
+                }
+                Student shared = IdentityMap.intern(student);
+                students.add(shared);
+                studentsById.put(shared.getUserId(), shared);
+                added.add(student);
+            }
+            if (!added.isEmpty()) {
+                saveAll(lease);
+            }
+        }
+        for (Student student : added) {
+            eventBus.added(student);
+        }
+        System.out.println("StudentRepository: Added " + added.size() + " students");
+        return skipped;
+    }
+
+    /**
+     * Update many students with a single write of students.json
+     * @param batch The students to update
+     * @return The students that were not updated because their userId does not exist
+     */
+    public synchronized List<Student> updateAll(Collection<Student> batch) throws RepositoryException {
+        Map<Integer, Student> pending = new HashMap<>();
+        for (Student student : batch) {
+            pending.put(student.getUserId(), student);
+        }
+        List<Student> updated = new ArrayList<>(pending.size());
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            for (int i = 0; i < students.size() && updated.size() < pending.size(); i++) {
+                Student student = pending.get(students.get(i).getUserId());
+                if (student != null) {
+                    Student shared = IdentityMap.intern(student);
+                    students.set(i, shared);
+                    studentsById.put(shared.getUserId(), shared);
+                    updated.add(student);
+                }
+            }
+            if (!updated.isEmpty()) {
+                saveAll(lease);
+            }
+        }
+        for (Student student : updated) {
+            eventBus.updated(student);
+            pending.remove(student.getUserId());
+        }
+        System.out.println("StudentRepository: Updated " + updated.size() + " students");
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * @param userId The userId to look up
+     * @return The student with that userId, or null
+     */
+    public synchronized Student getByUserId(int userId) {
+        return studentsById.get(userId);
+    }
+
+    public synchronized boolean containsUserId(int userId) {
+        return studentsById.containsKey(userId);
+    }
+
     @Override
-    public List<Student> getAll() throws RepositoryException {
+    public synchronized List<Student> getAll() throws RepositoryException {
         return new ArrayList<>(students);
     }
 
     @Override
-    public List<Student> find(String criteria) throws RepositoryException {
+    public synchronized List<Student> find(String criteria) throws RepositoryException {
         return students.stream()
                 .filter(student -> student.getName().toLowerCase().contains(criteria.toLowerCase()) ||
                                  student.getEmail().toLowerCase().contains(criteria.toLowerCase()) ||
@@ -96,35 +205,67 @@ public class StudentRepository implements Repository<Student> {
     }
 
     private void loadAll() throws RepositoryException {
-        File file = new File(DATA_FILE);
-        if (!file.exists()) {
-            System.out.println("Student data file does not exist. Starting with empty repository.");
-            return;
+        try (DataFile.Lease lease = dataFile.lockShared()) {
+            loadedGeneration = lease.getGeneration();
+            File file = dataFile.getFile();
+            if (!file.exists()) {
+                System.out.println("Student data file does not exist. Starting with empty repository.");
+                return;
+            }
+
+            try {
+                List<Student> studentList = objectMapper.readValue(file, new TypeReference<List<Student>>() {});
+                Map<Integer, Student> previous = new HashMap<>(studentsById);
+                students.clear();
+                studentsById.clear();
+                for (Student loaded : studentList) {
+                    Student shared = IdentityMap.intern(loaded);
+                    students.add(shared);
+                    studentsById.put(shared.getUserId(), shared);
+                    previous.remove(shared.getUserId());
+                }
+                // Deleted by another process
+                for (Student removed : previous.values()) {
+                    IdentityMap.evict(removed);
+                }
+                eventBus.reset(students);
+                System.out.println("Loaded " + students.size() + " students from " + DATA_FILE);
+            } catch (IOException e) {
+                throw new RepositoryException("Failed to load students from file: " + e.getMessage(), "LOAD", "STUDENT", e);
+            }
         }
+    }
 
+    private void saveAll(DataFile.Lease lease) throws RepositoryException {
         try {
-            List<Student> studentList = objectMapper.readValue(file, new TypeReference<List<Student>>() {});
-            students.clear();
-            students.addAll(studentList);
-            System.out.println("Loaded " + students.size() + " students from " + DATA_FILE);
+            objectMapper.writerFor(new TypeReference<List<Student>>() {}).withDefaultPrettyPrinter().writeValue(new File(DATA_FILE), students);
+            loadedGeneration = lease.commit();
         } catch (IOException e) {
-            throw new RepositoryException("Failed to load students from file: " + e.getMessage(), "LOAD", "STUDENT", e);
+            throw new RepositoryException("Failed to save students to file: " + e.getMessage(), "SAVE", "STUDENT", e);
         }
     }
 
-    private void saveAll() throws RepositoryException {
+    private void reloadIfStale(DataFile.Lease lease) throws RepositoryException {
+        if (lease.getGeneration() != loadedGeneration) {
+            loadAll();
+        }
+    }
+
+    private synchronized void reloadIfChanged() {
         try {
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(DATA_FILE), students);
-        } catch (IOException e) {
-            throw new RepositoryException("Failed to save students to file: " + e.getMessage(), "SAVE", "STUDENT", e);
+            if (dataFile.currentGeneration() != loadedGeneration) {
+                loadAll();
+            }
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not reload student data: " + e.getMessage());
         }
     }
 
-    public long count() {
+    public synchronized long count() {
         return students.size();
     }
 
-    public List<Student> sort(String criteria) throws RepositoryException {
+    public synchronized List<Student> sort(String criteria) throws RepositoryException {
         List<Student> sortedList = new ArrayList<>(students);
         
         if ("name".equalsIgnoreCase(criteria)) {
@@ -137,4 +278,12 @@ public class StudentRepository implements Repository<Student> {
         
         return sortedList;
     }
+
+    /**
+     * Get the bus that publishes committed student changes
+     * @return The change-event bus for this repository
+     */
+    public ChangeEventBus<Student> getEventBus() {
+        return eventBus;
+    }
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package sms.data;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import sms.domain.Submission;
+import sms.events.ChangeEventBus;
 import sms.exceptions.RepositoryException;
 
 import java.io.File;
@@ -14,66 +15,117 @@ import java.util.stream.Collectors;
 public class SubmissionRepository implements Repository<Submission> {
     private static final String FILE_PATH = "submissions.json";
     private final ObjectMapper objectMapper;
+    private final DataFile dataFile;
+    private final ChangeEventBus<Submission> eventBus;
+    private final IdSequence idSequence;
     private List<Submission> submissions;
+    private final TimeIndex<Submission> byTimestamp;
+    private long loadedGeneration;
 
     public SubmissionRepository() {
         this.objectMapper = new ObjectMapper();
         this.submissions = new ArrayList<>();
+        this.byTimestamp = new TimeIndex<>(Submission::getTimestampMillis, Submission::getSubmissionId);
+        this.eventBus = new ChangeEventBus<>("Submission", Submission.class, Submission::getSubmissionId, this);
+        this.idSequence = IdSequence.of("submission");
+        this.dataFile = DataFile.of(FILE_PATH);
         loadFromFile();
+        dataFile.onChange(this::reloadIfChanged);
     }
 
     private void loadFromFile() {
-        try {
-            File file = new File(FILE_PATH);
+        try (DataFile.Lease lease = dataFile.lockShared()) {
+            loadedGeneration = lease.getGeneration();
+            File file = dataFile.getFile();
             if (file.exists()) {
                 submissions = objectMapper.readValue(file, new TypeReference<List<Submission>>() {});
+                byTimestamp.rebuild(submissions);
+                eventBus.reset(submissions);
+                idSequence.ensureAbove(submissions.stream().mapToInt(Submission::getSubmissionId).max().orElse(0));
                 System.out.println("Loaded " + submissions.size() + " submissions from " + FILE_PATH);
             } else {
                 System.out.println("Submission data file does not exist. Starting with empty repository.");
                 submissions = new ArrayList<>();
+                byTimestamp.rebuild(submissions);
+                eventBus.reset(submissions);
             }
-        } catch (IOException e) {
+        } catch (IOException | RepositoryException e) {
             System.err.println("Error loading submissions from file: " + e.getMessage());
             submissions = new ArrayList<>();
+            byTimestamp.rebuild(submissions);
+            eventBus.reset(submissions);
         }
     }
 
-    private void saveToFile() throws RepositoryException {
+    private void saveToFile(DataFile.Lease lease) throws RepositoryException {
         try {
             objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(FILE_PATH), submissions);
+            loadedGeneration = lease.commit();
         } catch (IOException e) {
             throw new RepositoryException("Failed to save submissions to file", e);
         }
     }
 
+    private void reloadIfStale(DataFile.Lease lease) {
+        if (lease.getGeneration() != loadedGeneration) {
+            loadFromFile();
+        }
+    }
+
+    private synchronized void reloadIfChanged() {
+        try {
+            if (dataFile.currentGeneration() != loadedGeneration) {
+                loadFromFile();
+            }
+        } catch (RepositoryException e) {
+            System.err.println("Error reloading submissions from file: " + e.getMessage());
+        }
+    }
+
     @Override
-    public void add(Submission submission) throws RepositoryException {
-        submissions.add(submission);
-        saveToFile();
+    public synchronized void add(Submission submission) throws RepositoryException {
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            submissions.add(submission);
+            byTimestamp.put(submission);
+            saveToFile(lease);
+        }
+        idSequence.ensureAbove(submission.getSubmissionId());
+        eventBus.added(submission);
     }
 
     @Override
-    public void update(Submission submission) throws RepositoryException {
-        for (int i = 0; i < submissions.size(); i++) {
-            if (submissions.get(i).getSubmissionId() == submission.getSubmissionId()) {
-                submissions.set(i, submission);
-                saveToFile();
-                return;
+    public synchronized void update(Submission submission) throws RepositoryException {
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            for (int i = 0; i < submissions.size(); i++) {
+                if (submissions.get(i).getSubmissionId() == submission.getSubmissionId()) {
+                    submissions.set(i, submission);
+                    byTimestamp.put(submission);
+                    saveToFile(lease);
+                    eventBus.updated(submission);
+                    return;
+                }
             }
         }
         throw new RepositoryException("Submission not found for update");
     }
 
     @Override
-    public void delete(Submission submission) throws RepositoryException {
-        if (submissions.remove(submission)) {
-            saveToFile();
-        } else {
-            throw new RepositoryException("Submission not found for deletion");
+    public synchronized void delete(Submission submission) throws RepositoryException {
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            if (submissions.removeIf(s -> s.getSubmissionId() == submission.getSubmissionId())) {
+                byTimestamp.remove(submission.getSubmissionId());
+                saveToFile(lease);
+            } else {
+                throw new RepositoryException("Submission not found for deletion");
+            }
         }
+        eventBus.deleted(submission);
     }
 
-    public Submission getById(int id) throws RepositoryException {
+    public synchronized Submission getById(int id) throws RepositoryException {
         return submissions.stream()
                 .filter(s -> s.getSubmissionId() == id)
                 .findFirst()
@@ -81,12 +133,12 @@ public class SubmissionRepository implements Repository<Submission> {
     }
 
     @Override
-    public List<Submission> getAll() throws RepositoryException {
+    public synchronized List<Submission> getAll() throws RepositoryException {
         return new ArrayList<>(submissions);
     }
 
     @Override
-    public List<Submission> find(String criteria) throws RepositoryException {
+    public synchronized List<Submission> find(String criteria) throws RepositoryException {
         String lowerCriteria = criteria.toLowerCase();
         return submissions.stream()
                 .filter(s -> s.getFileName().toLowerCase().contains(lowerCriteria) ||
@@ -95,26 +147,23 @@ public class SubmissionRepository implements Repository<Submission> {
                 .collect(Collectors.toList());
     }
 
-    public int getNextSubmissionId() {
-        return submissions.stream()
-                .mapToInt(Submission::getSubmissionId)
-                .max()
-                .orElse(0) + 1;
+    public int getNextSubmissionId() throws RepositoryException {
+        return idSequence.next();
     }
 
-    public List<Submission> getSubmissionsByStudentId(int studentId) throws RepositoryException {
+    public synchronized List<Submission> getSubmissionsByStudentId(int studentId) throws RepositoryException {
         return submissions.stream()
                 .filter(submission -> submission.getStudentId() == studentId)
                 .collect(Collectors.toList());
     }
 
-    public List<Submission> getSubmissionsByAssignmentId(int assignmentId) throws RepositoryException {
+    public synchronized List<Submission> getSubmissionsByAssignmentId(int assignmentId) throws RepositoryException {
         return submissions.stream()
                 .filter(submission -> submission.getAssignmentId() == assignmentId)
                 .collect(Collectors.toList());
     }
 
-    public Submission getSubmissionByStudentAndAssignment(int studentId, int assignmentId) throws RepositoryException {
+    public synchronized Submission getSubmissionByStudentAndAssignment(int studentId, int assignmentId) throws RepositoryException {
         return submissions.stream()
                 .filter(submission -> submission.getStudentId() == studentId && 
                                     submission.getAssignmentId() == assignmentId)
@@ -122,7 +171,16 @@ public class SubmissionRepository implements Repository<Submission> {
                 .orElse(null);
     }
 
-    public void deleteBySubmissionId(int submissionId) throws RepositoryException {
+    /**
+     * @param from Start of the range in epoch millis, inclusive
+     * @param to End of the range in epoch millis, exclusive
+     * @return Submissions made in the range, earliest first
+     */
+    public synchronized List<Submission> getSubmissionsBetween(long from, long to) {
+        return byTimestamp.between(from, to);
+    }
+
+    public synchronized void deleteBySubmissionId(int submissionId) throws RepositoryException {
         Submission submission = getById(submissionId);
         if (submission != null) {
             delete(submission);
@@ -132,7 +190,7 @@ public class SubmissionRepository implements Repository<Submission> {
     }
 
     @Override
-    public List<Submission> sort(String criteria) throws RepositoryException {
+    public synchronized List<Submission> sort(String criteria) throws RepositoryException {
         List<Submission> sortedList = new ArrayList<>(submissions);
         if ("id".equalsIgnoreCase(criteria)) {
             sortedList.sort((s1, s2) -> Integer.compare(s1.getSubmissionId(), s2.getSubmissionId()));
@@ -143,4 +201,12 @@ public class SubmissionRepository implements Repository<Submission> {
         }
         return sortedList;
     }
+
+    /**
+     * Get the bus that publishes committed submission changes
+     * @return The change-event bus for this repository
+     */
+    public ChangeEventBus<Submission> getEventBus() {
+        return eventBus;
+    }
 }
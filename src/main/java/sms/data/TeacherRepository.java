@@ -3,34 +3,44 @@ package sms.data;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import sms.domain.Teacher;
+import sms.domain.support.IdentityMap;
+import sms.events.ChangeEventBus;
+import sms.exceptions.NotFoundException;
 import sms.exceptions.RepositoryException;
 import sms.exceptions.ValidationException;
-import sms.exceptions.NotFoundException;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class TeacherRepository implements Repository<Teacher> {
     private static final String DATA_FILE = "teachers.json";
     private final List<Teacher> teachers;
     private final ObjectMapper objectMapper;
+    private final DataFile dataFile;
+    private final ChangeEventBus<Teacher> eventBus;
+    private long loadedGeneration;
 
     public TeacherRepository() {
         this.teachers = new ArrayList<>();
         this.objectMapper = new ObjectMapper();
         this.objectMapper.configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.eventBus = new ChangeEventBus<>("Teacher", Teacher.class, Teacher::getUserId, this);
+        this.dataFile = DataFile.of(DATA_FILE);
         try {
             loadAll();
         } catch (RepositoryException e) {
             System.out.println("Warning: Could not load existing teacher data: " + e.getMessage());
         }
+        dataFile.onChange(this::reloadIfChanged);
     }
 
     @Override
-    public void add(Teacher teacher) throws RepositoryException, ValidationException {
+    public synchronized void add(Teacher teacher) throws RepositoryException, ValidationException {
         if (teacher == null) {
             throw new ValidationException("Teacher cannot be null", "teacher", "null");
         }
@@ -38,56 +48,69 @@ public class TeacherRepository implements Repository<Teacher> {
             throw new ValidationException("Teacher name cannot be empty", "name", teacher.getName());
         }
         
-        teachers.add(teacher);
-        saveAll();
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            teachers.add(IdentityMap.intern(teacher));
+            saveAll(lease);
+        }
+        eventBus.added(teacher);
         System.out.println("TeacherRepository: Added teacher " + teacher.getName());
     }
 
     @Override
-    public void update(Teacher teacher) throws RepositoryException, NotFoundException {
+    public synchronized void update(Teacher teacher) throws RepositoryException, NotFoundException {
         if (teacher == null) {
             throw new NotFoundException("Teacher not found", "Teacher", "null");
         }
         
-        boolean found = false;
-        for (int i = 0; i < teachers.size(); i++) {
-            if (teachers.get(i).getUserId() == teacher.getUserId()) {
-                teachers.set(i, teacher);
-                found = true;
-                break;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            boolean found = false;
+            for (int i = 0; i < teachers.size(); i++) {
+                if (teachers.get(i).getUserId() == teacher.getUserId()) {
+                    teachers.set(i, IdentityMap.intern(teacher));
+                    found = true;
+                    break;
+                }
             }
-        }
         
-        if (!found) {
-            throw new NotFoundException("Teacher not found with ID: " + teacher.getUserId(), "Teacher", String.valueOf(teacher.getUserId()));
-        }
+            if (!found) {
+                throw new NotFoundException("Teacher not found with ID: " + teacher.getUserId(), "Teacher", String.valueOf(teacher.getUserId()));
+            }
         
-        saveAll();
+            saveAll(lease);
+        }
+        eventBus.updated(teacher);
         System.out.println("TeacherRepository: Updated teacher " + teacher.getName());
     }
 
     @Override
-    public void delete(Teacher teacher) throws RepositoryException, NotFoundException {
+    public synchronized void delete(Teacher teacher) throws RepositoryException, NotFoundException {
         if (teacher == null) {
             throw new NotFoundException("Teacher not found", "Teacher", "null");
         }
         
-        boolean removed = teachers.removeIf(t -> t.getUserId() == teacher.getUserId());
-        if (!removed) {
-            throw new NotFoundException("Teacher not found with ID: " + teacher.getUserId(), "Teacher", String.valueOf(teacher.getUserId()));
-        }
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            boolean removed = teachers.removeIf(t -> t.getUserId() == teacher.getUserId());
+            if (!removed) {
+                throw new NotFoundException("Teacher not found with ID: " + teacher.getUserId(), "Teacher", String.valueOf(teacher.getUserId()));
+            }
         
-        saveAll();
+            saveAll(lease);
+        }
+        IdentityMap.evict(teacher);
+        eventBus.deleted(teacher);
         System.out.println("TeacherRepository: Deleted teacher " + teacher.getName());
     }
 
     @Override
-    public List<Teacher> getAll() throws RepositoryException {
+    public synchronized List<Teacher> getAll() throws RepositoryException {
         return new ArrayList<>(teachers);
     }
 
     @Override
-    public List<Teacher> find(String criteria) throws RepositoryException {
+    public synchronized List<Teacher> find(String criteria) throws RepositoryException {
         return teachers.stream()
                 .filter(teacher -> teacher.getName().toLowerCase().contains(criteria.toLowerCase()) ||
                                  teacher.getEmail().toLowerCase().contains(criteria.toLowerCase()) ||
@@ -96,35 +119,67 @@ public class TeacherRepository implements Repository<Teacher> {
     }
 
     private void loadAll() throws RepositoryException {
-        File file = new File(DATA_FILE);
-        if (!file.exists()) {
-            System.out.println("Teacher data file does not exist. Starting with empty repository.");
-            return;
+        try (DataFile.Lease lease = dataFile.lockShared()) {
+            loadedGeneration = lease.getGeneration();
+            File file = dataFile.getFile();
+            if (!file.exists()) {
+                System.out.println("Teacher data file does not exist. Starting with empty repository.");
+                return;
+            }
+
+            try {
+                List<Teacher> teacherList = objectMapper.readValue(file, new TypeReference<List<Teacher>>() {});
+                Map<Integer, Teacher> previous = new HashMap<>();
+                for (Teacher existing : teachers) {
+                    previous.put(existing.getUserId(), existing);
+                }
+                teachers.clear();
+                for (Teacher loaded : teacherList) {
+                    teachers.add(IdentityMap.intern(loaded));
+                    previous.remove(loaded.getUserId());
+                }
+                // Deleted by another process
+                for (Teacher removed : previous.values()) {
+                    IdentityMap.evict(removed);
+                }
+                eventBus.reset(teachers);
+                System.out.println("Loaded " + teachers.size() + " teachers from " + DATA_FILE);
+            } catch (IOException e) {
+                throw new RepositoryException("Failed to load teachers from file: " + e.getMessage(), "LOAD", "TEACHER", e);
+            }
         }
+    }
 
+    private void saveAll(DataFile.Lease lease) throws RepositoryException {
         try {
-            List<Teacher> teacherList = objectMapper.readValue(file, new TypeReference<List<Teacher>>() {});
-            teachers.clear();
-            teachers.addAll(teacherList);
-            System.out.println("Loaded " + teachers.size() + " teachers from " + DATA_FILE);
+            objectMapper.writerFor(new TypeReference<List<Teacher>>() {}).withDefaultPrettyPrinter().writeValue(new File(DATA_FILE), teachers);
+            loadedGeneration = lease.commit();
         } catch (IOException e) {
-            throw new RepositoryException("Failed to load teachers from file: " + e.getMessage(), "LOAD", "TEACHER", e);
+            throw new RepositoryException("Failed to save teachers to file: " + e.getMessage(), "SAVE", "TEACHER", e);
+        }
+    }
+
+    private void reloadIfStale(DataFile.Lease lease) throws RepositoryException {
+        if (lease.getGeneration() != loadedGeneration) {
+            loadAll();
         }
     }
 
-    private void saveAll() throws RepositoryException {
+    private synchronized void reloadIfChanged() {
         try {
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(DATA_FILE), teachers);
-        } catch (IOException e) {
-            throw new RepositoryException("Failed to save teachers to file: " + e.getMessage(), "SAVE", "TEACHER", e);
+            if (dataFile.currentGeneration() != loadedGeneration) {
+                loadAll();
+            }
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not reload teacher data: " + e.getMessage());
         }
     }
 
-    public long count() {
+    public synchronized long count() {
         return teachers.size();
     }
 
-    public List<Teacher> sort(String criteria) throws RepositoryException {
+    public synchronized List<Teacher> sort(String criteria) throws RepositoryException {
         List<Teacher> sortedList = new ArrayList<>(teachers);
         
         if ("name".equalsIgnoreCase(criteria)) {
@@ -137,4 +192,12 @@ public class TeacherRepository implements Repository<Teacher> {
         
         return sortedList;
     }
+
+    /**
+     * Get the bus that publishes committed teacher changes
+     * @return The change-event bus for this repository
+     */
+    public ChangeEventBus<Teacher> getEventBus() {
+        return eventBus;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package sms.data;
+
+import sms.domain.support.Timestamps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Records ordered by one of their times, for range queries such as "submitted in
+ * the last 24 hours" without scanning every record.
+ *
+ * The index remembers the time each record was filed under, so a record whose
+ * time was changed in place is still found and moved by {@link #put(Object)}.
+ * Records without a time ({@link Timestamps#NONE}) are not indexed. Not
+ * thread-safe; repositories use it under their own lock.
+ * @param <T> The type of record indexed
+ */
+public final class TimeIndex<T> {
+    private final ToLongFunction<T> timeFunction;
+    private final ToIntFunction<T> idFunction;
+    private final TreeMap<Long, Map<Integer, T>> byTime;
+    private final Map<Integer, Long> timeById;
+
+    /**
+     * @param timeFunction The time to order by, in epoch millis
+     * @param idFunction The record's primary key
+     */
+    public TimeIndex(ToLongFunction<T> timeFunction, ToIntFunction<T> idFunction) {
+        this.timeFunction = timeFunction;
+        this.idFunction = idFunction;
+        this.byTime = new TreeMap<>();
+        this.timeById = new HashMap<>();
+    }
+
+    /**
+     * Add a record, or move it if it is already indexed
+     * @param record The record
+     */
+    public void put(T record) {
+        int id = idFunction.applyAsInt(record);
+        remove(id);
+        long time = timeFunction.applyAsLong(record);
+        if (time != Timestamps.NONE) {
+            byTime.computeIfAbsent(time, t -> new LinkedHashMap<>()).put(id, record);
+            timeById.put(id, time);
+        }
+    }
+
+    /**
+     * @param id The primary key of the record to drop
+     */
+    public void remove(int id) {
+        Long time = timeById.remove(id);
+        if (time != null) {
+            Map<Integer, T> records = byTime.get(time);
+            records.remove(id);
+            if (records.isEmpty()) {
+                byTime.remove(time);
+            }
+        }
+    }
+
+    public void clear() {
+        byTime.clear();
+        timeById.clear();
+    }
+
+    /**
+     * Replace the whole index, e.g. after a reload
+     * @param records Everything the repository holds
+     */
+    public void rebuild(Collection<T> records) {
+        clear();
+        for (T record : records) {
+            put(record);
+        }
+    }
+
+    /**
+     * @return The earliest indexed time, or {@link Timestamps#NONE} if the index is empty
+     */
+    public long earliest() {
+        return byTime.isEmpty() ? Timestamps.NONE : byTime.firstKey();
+    }
+
+    /**
+     * @param from Start of the range in epoch millis, inclusive
+     * @param to End of the range in epoch millis, exclusive
+     * @return The records in the range, earliest first
+     */
+    public List<T> between(long from, long to) {
+        List<T> records = new ArrayList<>();
+        if (from >= to) {
+            return records;
+        }
+        for (Map<Integer, T> atTime : byTime.subMap(from, true, to, false).values()) {
+            records.addAll(atTime.values());
+        }
+        return records;
+    }
+}
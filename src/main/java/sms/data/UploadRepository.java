@@ -3,35 +3,66 @@ package sms.data;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import sms.domain.UploadMetadata;
+import sms.domain.support.SymbolTable;
+import sms.events.ChangeEventBus;
+import sms.exceptions.NotFoundException;
 import sms.exceptions.RepositoryException;
 import sms.exceptions.ValidationException;
-import sms.exceptions.NotFoundException;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
+/**
+ * Upload metadata, kept in uploads.json.
+ *
+ * Uploads stored by content hash share one blob per distinct content, so the
+ * repository also counts how many uploads reference each hash; a blob whose
+ * count reaches zero may be deleted. Storing or deleting a blob together with its
+ * metadata must run inside {@link #withExclusiveLock(LockedChange)}, so that no
+ * other process can change the counts in between.
+ */
 public class UploadRepository implements Repository<UploadMetadata> {
     private static final String DATA_FILE = "uploads.json";
     private final List<UploadMetadata> uploads;
+    private final Map<String, Integer> references;
     private final ObjectMapper objectMapper;
+    private final DataFile dataFile;
+    private final ChangeEventBus<UploadMetadata> eventBus;
+    private final IdSequence idSequence;
+    private long loadedGeneration;
+
+    /**
+     * Steps run while uploads.json is locked exclusively
+     * @param <T> The result of the steps
+     */
+    public interface LockedChange<T> {
+        T apply() throws RepositoryException, ValidationException, NotFoundException, IOException;
+    }
 
     public UploadRepository() {
         this.uploads = new ArrayList<>();
+        this.references = new HashMap<>();
         this.objectMapper = new ObjectMapper();
         this.objectMapper.configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.eventBus = new ChangeEventBus<>("Upload", UploadMetadata.class, UploadMetadata::getId, this);
+        this.idSequence = IdSequence.of("upload");
+        this.dataFile = DataFile.of(DATA_FILE);
         try {
             loadAll();
         } catch (RepositoryException e) {
             System.out.println("Upload data file does not exist. Starting with empty repository.");
         }
+        dataFile.onChange(this::reloadIfChanged);
     }
 
     @Override
-    public void add(UploadMetadata upload) throws RepositoryException, ValidationException {
+    public synchronized void add(UploadMetadata upload) throws RepositoryException, ValidationException {
         if (upload == null) {
             throw new ValidationException("Upload metadata cannot be null", "upload", "null");
         }
@@ -39,53 +70,76 @@ public class UploadRepository implements Repository<UploadMetadata> {
             throw new ValidationException("File name cannot be empty", "fileName", upload.getFileName());
         }
         
-        uploads.add(upload);
-        saveAll();
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            uploads.add(upload);
+            reference(upload.getContentHash(), 1);
+            saveAll(lease);
+        }
+        idSequence.ensureAbove(upload.getId());
+        eventBus.added(upload);
     }
 
     @Override
-    public void update(UploadMetadata upload) throws RepositoryException, NotFoundException {
+    public synchronized void update(UploadMetadata upload) throws RepositoryException, NotFoundException {
         if (upload == null) {
             throw new NotFoundException("Upload not found", "Upload", "null");
         }
         
-        boolean found = false;
-        for (int i = 0; i < uploads.size(); i++) {
-            if (uploads.get(i).getId() == upload.getId()) {
-                uploads.set(i, upload);
-                found = true;
-                break;
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            boolean found = false;
+            for (int i = 0; i < uploads.size(); i++) {
+                if (uploads.get(i).getId() == upload.getId()) {
+                    reference(uploads.get(i).getContentHash(), -1);
+                    reference(upload.getContentHash(), 1);
+                    uploads.set(i, upload);
+                    found = true;
+                    break;
+                }
             }
-        }
         
-        if (!found) {
-            throw new NotFoundException("Upload not found with ID: " + upload.getId(), "Upload", String.valueOf(upload.getId()));
-        }
+            if (!found) {
+                throw new NotFoundException("Upload not found with ID: " + upload.getId(), "Upload", String.valueOf(upload.getId()));
+            }
         
-        saveAll();
+            saveAll(lease);
+        }
+        eventBus.updated(upload);
     }
 
     @Override
-    public void delete(UploadMetadata upload) throws RepositoryException, NotFoundException {
+    public synchronized void delete(UploadMetadata upload) throws RepositoryException, NotFoundException {
         if (upload == null) {
             throw new NotFoundException("Upload not found", "Upload", "null");
         }
         
-        boolean removed = uploads.removeIf(u -> u.getId() == upload.getId());
-        if (!removed) {
-            throw new NotFoundException("Upload not found with ID: " + upload.getId(), "Upload", String.valueOf(upload.getId()));
-        }
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            UploadMetadata removed = null;
+            for (int i = 0; i < uploads.size(); i++) {
+                if (uploads.get(i).getId() == upload.getId()) {
+                    removed = uploads.remove(i);
+                    break;
+                }
+            }
+            if (removed == null) {
+                throw new NotFoundException("Upload not found with ID: " + upload.getId(), "Upload", String.valueOf(upload.getId()));
+            }
+            reference(removed.getContentHash(), -1);
         
-        saveAll();
+            saveAll(lease);
+        }
+        eventBus.deleted(upload);
     }
 
     @Override
-    public List<UploadMetadata> getAll() throws RepositoryException {
+    public synchronized List<UploadMetadata> getAll() throws RepositoryException {
         return new ArrayList<>(uploads);
     }
 
     @Override
-    public List<UploadMetadata> find(String criteria) throws RepositoryException {
+    public synchronized List<UploadMetadata> find(String criteria) throws RepositoryException {
         return uploads.stream()
                 .filter(upload -> upload.getFileName().toLowerCase().contains(criteria.toLowerCase()) ||
                                 upload.getUploadedBy().toLowerCase().contains(criteria.toLowerCase()) ||
@@ -94,7 +148,7 @@ public class UploadRepository implements Repository<UploadMetadata> {
     }
 
     @Override
-    public List<UploadMetadata> sort(String criteria) throws RepositoryException {
+    public synchronized List<UploadMetadata> sort(String criteria) throws RepositoryException {
         List<UploadMetadata> sorted = new ArrayList<>(uploads);
         
         switch (criteria.toLowerCase()) {
@@ -107,7 +161,7 @@ public class UploadRepository implements Repository<UploadMetadata> {
                 break;
             case "timestamp":
             case "date":
-                sorted.sort(Comparator.comparing(UploadMetadata::getTimestamp).reversed());
+                sorted.sort(Comparator.comparingLong(UploadMetadata::getTimestampMillis).reversed());
                 break;
             default:
                 sorted.sort(Comparator.comparing(UploadMetadata::getId));
@@ -116,50 +170,130 @@ public class UploadRepository implements Repository<UploadMetadata> {
         return sorted;
     }
 
-    public List<UploadMetadata> getUploadsByRole(String role) throws RepositoryException {
+    public synchronized List<UploadMetadata> getUploadsByRole(String role) throws RepositoryException {
+        int roleCode = SymbolTable.lookupFolded(role);
         return uploads.stream()
-                .filter(upload -> upload.getRole().equalsIgnoreCase(role))
+                .filter(upload -> SymbolTable.folded(upload.getRoleCode()) == roleCode)
                 .collect(Collectors.toList());
     }
 
-    public List<UploadMetadata> getUploadsByUser(String userName) throws RepositoryException {
+    public synchronized List<UploadMetadata> getUploadsByUser(String userName) throws RepositoryException {
         return uploads.stream()
                 .filter(upload -> upload.getUploadedBy().equalsIgnoreCase(userName))
                 .collect(Collectors.toList());
     }
 
-    public int getNextUploadId() {
-        return uploads.stream()
-                .mapToInt(UploadMetadata::getId)
-                .max()
-                .orElse(0) + 1;
+    public synchronized UploadMetadata findById(int uploadId) throws NotFoundException {
+        for (UploadMetadata upload : uploads) {
+            if (upload.getId() == uploadId) {
+                return upload;
+            }
+        }
+        throw new NotFoundException("Upload not found with ID: " + uploadId, "Upload", String.valueOf(uploadId));
     }
 
-    private void loadAll() throws RepositoryException {
-        File file = new File(DATA_FILE);
-        if (!file.exists()) {
-            throw new RepositoryException("Upload data file does not exist");
+    /**
+     * Run several steps under one exclusive lock on uploads.json, after reloading
+     * any change committed by another process. Calls to this repository made by
+     * the steps reuse the lock, so reference counts read inside cannot go stale
+     * before the steps finish.
+     * @param change The steps to run
+     * @return What the steps returned
+     */
+    public synchronized <T> T withExclusiveLock(LockedChange<T> change)
+            throws RepositoryException, ValidationException, NotFoundException {
+        try (DataFile.Lease lease = dataFile.lockExclusive()) {
+            reloadIfStale(lease);
+            return change.apply();
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to update upload content: " + e.getMessage(), "UPDATE", "Upload", e);
         }
+    }
 
-        try {
-            List<UploadMetadata> loadedUploads = objectMapper.readValue(file, 
-                new TypeReference<List<UploadMetadata>>() {});
+    /**
+     * @param contentHash A content hash
+     * @return How many uploads refer to the blob with that hash
+     */
+    public synchronized int getReferenceCount(String contentHash) {
+        return references.getOrDefault(contentHash, 0);
+    }
+
+    /**
+     * @return How many distinct blobs the uploads refer to
+     */
+    public synchronized int getBlobCount() {
+        return references.size();
+    }
+
+    public int getNextUploadId() throws RepositoryException {
+        return idSequence.next();
+    }
+
+    private void loadAll() throws RepositoryException {
+        try (DataFile.Lease lease = dataFile.lockShared()) {
+            loadedGeneration = lease.getGeneration();
+            File file = dataFile.getFile();
+            if (!file.exists()) {
+                throw new RepositoryException("Upload data file does not exist");
+            }
+
+            try {
+                List<UploadMetadata> loadedUploads = objectMapper.readValue(file, 
+                    new TypeReference<List<UploadMetadata>>() {});
             
-            uploads.clear();
-            uploads.addAll(loadedUploads);
+                uploads.clear();
+                uploads.addAll(loadedUploads);
+                references.clear();
+                for (UploadMetadata upload : uploads) {
+                    reference(upload.getContentHash(), 1);
+                }
+                eventBus.reset(uploads);
+                idSequence.ensureAbove(uploads.stream().mapToInt(UploadMetadata::getId).max().orElse(0));
             
-            System.out.println("Loaded " + uploads.size() + " uploads from " + DATA_FILE);
-        } catch (IOException e) {
-            throw new RepositoryException("Failed to load uploads from file: " + e.getMessage(), e);
+                System.out.println("Loaded " + uploads.size() + " uploads from " + DATA_FILE);
+            } catch (IOException e) {
+                throw new RepositoryException("Failed to load uploads from file: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void reference(String contentHash, int delta) {
+        if (contentHash != null) {
+            references.merge(contentHash, delta, (count, change) -> count + change == 0 ? null : count + change);
         }
     }
 
-    private void saveAll() throws RepositoryException {
+    private void saveAll(DataFile.Lease lease) throws RepositoryException {
         try {
             objectMapper.writerWithDefaultPrettyPrinter()
                        .writeValue(new File(DATA_FILE), uploads);
+            loadedGeneration = lease.commit();
         } catch (IOException e) {
             throw new RepositoryException("Failed to save uploads to file: " + e.getMessage(), e);
         }
     }
+
+    private void reloadIfStale(DataFile.Lease lease) throws RepositoryException {
+        if (lease.getGeneration() != loadedGeneration) {
+            loadAll();
+        }
+    }
+
+    private synchronized void reloadIfChanged() {
+        try {
+            if (dataFile.currentGeneration() != loadedGeneration) {
+                loadAll();
+            }
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not reload upload data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the bus that publishes committed upload changes
+     * @return The change-event bus for this repository
+     */
+    public ChangeEventBus<UploadMetadata> getEventBus() {
+        return eventBus;
+    }
 }
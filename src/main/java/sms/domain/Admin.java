@@ -1,6 +1,9 @@
 package sms.domain;
 
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import sms.domain.support.References;
 import sms.exceptions.*;
 import sms.search.Searchable;
 import sms.sort.Sortable;
@@ -11,8 +14,14 @@ import java.util.stream.Collectors;
 
 @JsonTypeName("admin")
 public class Admin extends User implements Searchable<Object>, Sortable<Object> {
+    @JsonSerialize(contentUsing = References.UserSerializer.class)
+    @JsonDeserialize(contentUsing = References.StudentDeserializer.class)
     private List<Student> managedStudents;
+    @JsonSerialize(contentUsing = References.UserSerializer.class)
+    @JsonDeserialize(contentUsing = References.TeacherDeserializer.class)
     private List<Teacher> managedTeachers;
+    @JsonSerialize(contentUsing = References.CourseSerializer.class)
+    @JsonDeserialize(contentUsing = References.CourseDeserializer.class)
     private List<Course> managedCourses;
     private List<Batch> managedBatches;
 
@@ -99,6 +108,7 @@ public class Admin extends User implements Searchable<Object>, Sortable<Object>
 
         teacher.addCourse(course);
         course.setFacultyName(teacher.getName());
+        course.setFacultyId(teacher.getUserId());
         System.out.println("Admin: Assigned course " + course.getCourseId() + " to teacher " + teacher.getName());
     }
 
@@ -257,11 +267,33 @@ public class Admin extends User implements Searchable<Object>, Sortable<Object>
         System.out.println("4. Reports & Statistics");
         System.out.println("5. View Messages");
         System.out.println("6. Upload File");
+        System.out.println("7. Export Reports (CSV)");
+        System.out.println("8. Bulk Import (CSV/JSON)");
+        System.out.println("9. Delete Uploaded File");
         System.out.println("0. Logout");
         System.out.println("=".repeat(50));
         System.out.print("Choose an option: ");
     }
 
+    public void showExportMenu() {
+        System.out.println("\n--- Export Reports (CSV) ---");
+        System.out.println("1. Export Grades");
+        System.out.println("2. Export Student Roster");
+        System.out.println("3. Export Submissions");
+        System.out.println("4. Export Attendance");
+        System.out.println("0. Back to Main Menu");
+        System.out.print("Choose an option: ");
+    }
+
+    public void showImportMenu() {
+        System.out.println("\n--- Bulk Import (CSV/JSON) ---");
+        System.out.println("1. Import Students (StudentTable layout)");
+        System.out.println("2. Import Courses");
+        System.out.println("3. Import Grade Sheet");
+        System.out.println("0. Back to Main Menu");
+        System.out.print("Choose an option: ");
+    }
+
     public void showStudentManagementMenu() {
         System.out.println("\n--- Student Management ---");
         System.out.println("1. Register New Student");
@@ -1,17 +1,24 @@
 package sms.domain;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import sms.domain.support.SymbolTable;
+import sms.domain.support.Timestamps;
 
 public class Assignment {
     private int id;
-    private String courseId;
+    private int courseId;
     private int teacherId;
     private String title;
     private String description;
-    private String dueDate;
+    private long dueDate;
+    private long remindedAt;
 
-    public Assignment() {}
+    public Assignment() {
+        this.remindedAt = Timestamps.NONE;
+    }
 
     @JsonCreator
     public Assignment(@JsonProperty("id") int id,
@@ -21,11 +28,12 @@ public class Assignment {
                      @JsonProperty("description") String description,
                      @JsonProperty("dueDate") String dueDate) {
         this.id = id;
-        this.courseId = courseId;
+        this.courseId = SymbolTable.code(courseId);
         this.teacherId = teacherId;
         this.title = title;
         this.description = description;
-        this.dueDate = dueDate;
+        this.dueDate = Timestamps.parseDeadline(dueDate);
+        this.remindedAt = Timestamps.NONE;
     }
 
     public int getId() {
@@ -37,11 +45,16 @@ public class Assignment {
     }
 
     public String getCourseId() {
+        return SymbolTable.name(courseId);
+    }
+
+    @JsonIgnore
+    public int getCourseIdCode() {
         return courseId;
     }
 
     public void setCourseId(String courseId) {
-        this.courseId = courseId;
+        this.courseId = SymbolTable.code(courseId);
     }
 
     public int getTeacherId() {
@@ -68,22 +81,64 @@ public class Assignment {
         this.description = description;
     }
 
+    /**
+     * @return The due date as "yyyy-MM-dd", or "yyyy-MM-dd HH:mm" when a time was given
+     */
+    @JsonIgnore
     public String getDueDate() {
-        return dueDate;
+        return Timestamps.formatDeadline(dueDate);
     }
 
+    /**
+     * @param dueDate A date, which means the end of that day, or a date and time
+     */
+    @JsonProperty("dueDate")
     public void setDueDate(String dueDate) {
+        this.dueDate = Timestamps.parseDeadline(dueDate);
+    }
+
+    @JsonProperty("dueDate")
+    public long getDueDateMillis() {
+        return dueDate;
+    }
+
+    @JsonIgnore
+    public void setDueDateMillis(long dueDate) {
         this.dueDate = dueDate;
     }
 
+    /**
+     * @return The scheduled time of the latest deadline reminder sent, or null if none was
+     */
+    @JsonProperty("remindedAt")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Long getRemindedAt() {
+        return remindedAt == Timestamps.NONE ? null : remindedAt;
+    }
+
+    @JsonProperty("remindedAt")
+    public void setRemindedAt(Long remindedAt) {
+        this.remindedAt = remindedAt == null ? Timestamps.NONE : remindedAt;
+    }
+
+    @JsonIgnore
+    public long getRemindedAtMillis() {
+        return remindedAt;
+    }
+
+    @JsonIgnore
+    public void setRemindedAtMillis(long remindedAt) {
+        this.remindedAt = remindedAt;
+    }
+
     @Override
     public String toString() {
         return "Assignment{" +
                 "id=" + id +
-                ", courseId='" + courseId + '\'' +
+                ", courseId='" + getCourseId() + '\'' +
                 ", teacherId=" + teacherId +
                 ", title='" + title + '\'' +
-                ", dueDate='" + dueDate + '\'' +
+                ", dueDate='" + getDueDate() + '\'' +
                 '}';
     }
 }
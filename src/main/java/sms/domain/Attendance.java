@@ -1,11 +1,13 @@
 package sms.domain;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import sms.domain.support.SymbolTable;
 
 public class Attendance {
     private String studentRegNo;
-    private String courseCode;
+    private int courseCode;
     private String classDates;
     private String status; // "Present", "Absent", "Late"
 
@@ -18,7 +20,7 @@ public class Attendance {
                      @JsonProperty("classDates") String classDates,
                      @JsonProperty("status") String status) {
         this.studentRegNo = studentRegNo;
-        this.courseCode = courseCode;
+        this.courseCode = SymbolTable.code(courseCode);
         this.classDates = classDates;
         this.status = status;
     }
@@ -32,11 +34,16 @@ public class Attendance {
     }
 
     public String getCourseCode() {
+        return SymbolTable.name(courseCode);
+    }
+
+    @JsonIgnore
+    public int getCourseCodeCode() {
         return courseCode;
     }
 
     public void setCourseCode(String courseCode) {
-        this.courseCode = courseCode;
+        this.courseCode = SymbolTable.code(courseCode);
     }
 
     public String getClassDates() {
@@ -75,7 +82,7 @@ public class Attendance {
     public String toString() {
         return "Attendance{" +
                 "studentRegNo='" + studentRegNo + '\'' +
-                ", courseCode='" + courseCode + '\'' +
+                ", courseCode='" + getCourseCode() + '\'' +
                 ", classDates='" + classDates + '\'' +
                 ", status='" + status + '\'' +
                 '}';
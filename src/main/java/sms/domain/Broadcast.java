@@ -0,0 +1,247 @@
+package sms.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import sms.domain.support.CompressedBitmap;
+import sms.domain.support.SymbolTable;
+import sms.domain.support.Timestamps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * A message stored once for a whole audience rather than copied to every recipient.
+ *
+ * The audience is everyone with a role ({@link #AUDIENCE_ROLE}), the students of a
+ * course ({@link #AUDIENCE_COURSE}) or of a batch ({@link #AUDIENCE_BATCH}), or an
+ * explicit list of users with a role ({@link #AUDIENCE_LIST}). Recipients who have
+ * read it are kept as a bitmap of user IDs, written to JSON as base64.
+ */
+public class Broadcast {
+    public static final String AUDIENCE_ROLE = "ROLE";
+    public static final String AUDIENCE_COURSE = "COURSE";
+    public static final String AUDIENCE_BATCH = "BATCH";
+    public static final String AUDIENCE_LIST = "LIST";
+
+    private int broadcastId;
+    private int fromUserId;
+    private String fromUserName;
+    private int fromRole;
+    private String audience;
+    private int audienceRole;
+    private String audienceKey;
+    private List<Integer> recipientIds;
+    private String message;
+    private long timestamp;
+    private long expiresAt;
+    private CompressedBitmap readBy;
+
+    public Broadcast() {
+        this.recipientIds = new ArrayList<>();
+        this.timestamp = System.currentTimeMillis();
+        this.expiresAt = Timestamps.NONE;
+        this.readBy = new CompressedBitmap();
+    }
+
+    /**
+     * @param audience One of the AUDIENCE_ constants
+     * @param audienceRole The role of every recipient
+     * @param audienceKey The course ID or batch year range, null for the other audiences
+     */
+    public Broadcast(int broadcastId, int fromUserId, String fromUserName, String fromRole,
+                     String audience, String audienceRole, String audienceKey, String message) {
+        this();
+        this.broadcastId = broadcastId;
+        this.fromUserId = fromUserId;
+        this.fromUserName = fromUserName;
+        this.fromRole = SymbolTable.code(fromRole);
+        this.audience = audience;
+        this.audienceRole = SymbolTable.code(audienceRole);
+        this.audienceKey = audienceKey;
+        this.message = message;
+    }
+
+    public int getBroadcastId() {
+        return broadcastId;
+    }
+
+    public void setBroadcastId(int broadcastId) {
+        this.broadcastId = broadcastId;
+    }
+
+    public int getFromUserId() {
+        return fromUserId;
+    }
+
+    public void setFromUserId(int fromUserId) {
+        this.fromUserId = fromUserId;
+    }
+
+    public String getFromUserName() {
+        return fromUserName;
+    }
+
+    public void setFromUserName(String fromUserName) {
+        this.fromUserName = fromUserName;
+    }
+
+    public String getFromRole() {
+        return SymbolTable.name(fromRole);
+    }
+
+    public void setFromRole(String fromRole) {
+        this.fromRole = SymbolTable.code(fromRole);
+    }
+
+    public String getAudience() {
+        return audience;
+    }
+
+    public void setAudience(String audience) {
+        this.audience = audience;
+    }
+
+    public String getAudienceRole() {
+        return SymbolTable.name(audienceRole);
+    }
+
+    @JsonIgnore
+    public int getAudienceRoleCode() {
+        return audienceRole;
+    }
+
+    public void setAudienceRole(String audienceRole) {
+        this.audienceRole = SymbolTable.code(audienceRole);
+    }
+
+    public String getAudienceKey() {
+        return audienceKey;
+    }
+
+    public void setAudienceKey(String audienceKey) {
+        this.audienceKey = audienceKey;
+    }
+
+    public List<Integer> getRecipientIds() {
+        return recipientIds;
+    }
+
+    public void setRecipientIds(List<Integer> recipientIds) {
+        this.recipientIds = recipientIds != null ? recipientIds : new ArrayList<>();
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    @JsonIgnore
+    public String getTimestamp() {
+        return Timestamps.format(timestamp);
+    }
+
+    @JsonProperty("timestamp")
+    public long getTimestampMillis() {
+        return timestamp;
+    }
+
+    @JsonProperty("timestamp")
+    public void setTimestampMillis(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return When this broadcast expires in epoch millis, or null if it never does
+     */
+    @JsonProperty("expiresAt")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Long getExpiresAt() {
+        return expiresAt == Timestamps.NONE ? null : expiresAt;
+    }
+
+    @JsonProperty("expiresAt")
+    public void setExpiresAt(Long expiresAt) {
+        this.expiresAt = expiresAt == null ? Timestamps.NONE : expiresAt;
+    }
+
+    @JsonIgnore
+    public long getExpiresAtMillis() {
+        return expiresAt;
+    }
+
+    @JsonIgnore
+    public void setExpiresAtMillis(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @param userId A recipient
+     * @return true if the recipient has read this broadcast
+     */
+    public boolean isReadBy(int userId) {
+        return readBy.contains(userId);
+    }
+
+    /**
+     * @param userId A recipient
+     * @return true if the recipient had not read it before
+     */
+    public boolean markReadBy(int userId) {
+        return readBy.add(userId);
+    }
+
+    /**
+     * @return How many recipients have read this broadcast
+     */
+    @JsonIgnore
+    public int getReadCount() {
+        return readBy.cardinality();
+    }
+
+    @JsonProperty("readBy")
+    public String getReadByEncoded() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            readBy.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    @JsonProperty("readBy")
+    public void setReadByEncoded(String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            this.readBy = new CompressedBitmap();
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(encoded)))) {
+            this.readBy = CompressedBitmap.read(in);
+        } catch (IOException | IllegalArgumentException e) {
+            this.readBy = new CompressedBitmap();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Broadcast{" +
+                "broadcastId=" + broadcastId +
+                ", from=" + fromUserName + " (" + getFromRole() + ")" +
+                ", audience=" + audience + " " + getAudienceRole() + (audienceKey != null ? " " + audienceKey : "") +
+                ", message='" + message + '\'' +
+                ", timestamp='" + getTimestamp() + '\'' +
+                ", readBy=" + readBy.cardinality() +
+                '}';
+    }
+}
@@ -1,13 +1,16 @@
 package sms.domain;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import sms.domain.support.SymbolTable;
 
 public class Course {
-    private String courseId;
+    private int courseId;
     private String courseName;
     private int creditHours;
     private String facultyName;
+    private int facultyId; // userId of the assigned teacher, 0 if unassigned
     private String classDays;
     private String classTimes;
     private String classDates;
@@ -23,7 +26,7 @@ public class Course {
                  @JsonProperty("classDays") String classDays,
                  @JsonProperty("classTimes") String classTimes,
                  @JsonProperty("classDates") String classDates) {
-        this.courseId = courseId;
+        this.courseId = SymbolTable.code(courseId);
         this.courseName = courseName;
         this.creditHours = creditHours;
         this.facultyName = facultyName;
@@ -34,14 +37,14 @@ public class Course {
 
     // Simplified constructor
     public Course(String courseId, String courseName, int creditHours) {
-        this.courseId = courseId;
+        this.courseId = SymbolTable.code(courseId);
         this.courseName = courseName;
         this.creditHours = creditHours;
     }
 
     public void displayCourseInfo() {
         System.out.println("=== Course Information ===");
-        System.out.println("Course ID: " + courseId);
+        System.out.println("Course ID: " + getCourseId());
         System.out.println("Course Name: " + courseName);
         System.out.println("Credit Hours: " + creditHours);
         System.out.println("Faculty: " + (facultyName != null ? facultyName : "Not Assigned"));
@@ -52,11 +55,16 @@ public class Course {
 
     // Getters and Setters
     public String getCourseId() {
+        return SymbolTable.name(courseId);
+    }
+
+    @JsonIgnore
+    public int getCourseIdCode() {
         return courseId;
     }
 
     public void setCourseId(String courseId) {
-        this.courseId = courseId;
+        this.courseId = SymbolTable.code(courseId);
     }
 
     public String getCourseName() {
@@ -83,6 +91,14 @@ public class Course {
         this.facultyName = facultyName;
     }
 
+    public int getFacultyId() {
+        return facultyId;
+    }
+
+    public void setFacultyId(int facultyId) {
+        this.facultyId = facultyId;
+    }
+
     public String getClassDays() {
         return classDays;
     }
@@ -110,7 +126,7 @@ public class Course {
     @Override
     public String toString() {
         return "Course{" +
-                "courseId='" + courseId + '\'' +
+                "courseId='" + getCourseId() + '\'' +
                 ", courseName='" + courseName + '\'' +
                 ", creditHours=" + creditHours +
                 ", facultyName='" + facultyName + '\'' +
@@ -122,11 +138,11 @@ public class Course {
         if (this == obj) return true;
         if (obj == null || getClass() != obj.getClass()) return false;
         Course course = (Course) obj;
-        return courseId != null ? courseId.equals(course.courseId) : course.courseId == null;
+        return courseId == course.courseId;
     }
 
     @Override
     public int hashCode() {
-        return courseId != null ? courseId.hashCode() : 0;
+        return courseId != SymbolTable.NONE ? getCourseId().hashCode() : 0;
     }
 }
\ No newline at end of file
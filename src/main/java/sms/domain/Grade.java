@@ -1,13 +1,15 @@
 package sms.domain;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import sms.domain.support.SymbolTable;
 
 public class Grade {
     private int studentId;
-    private String courseId;
+    private int courseId;
     private int teacherId;
-    private String grade;
+    private int grade;
 
     public Grade() {}
 
@@ -17,9 +19,9 @@ public class Grade {
                 @JsonProperty("teacherId") int teacherId,
                 @JsonProperty("grade") String grade) {
         this.studentId = studentId;
-        this.courseId = courseId;
+        this.courseId = SymbolTable.code(courseId);
         this.teacherId = teacherId;
-        this.grade = grade;
+        this.grade = SymbolTable.code(grade);
     }
 
     public int getStudentId() {
@@ -31,11 +33,16 @@ public class Grade {
     }
 
     public String getCourseId() {
+        return SymbolTable.name(courseId);
+    }
+
+    @JsonIgnore
+    public int getCourseIdCode() {
         return courseId;
     }
 
     public void setCourseId(String courseId) {
-        this.courseId = courseId;
+        this.courseId = SymbolTable.code(courseId);
     }
 
     public int getTeacherId() {
@@ -47,20 +54,25 @@ public class Grade {
     }
 
     public String getGrade() {
+        return SymbolTable.name(grade);
+    }
+
+    @JsonIgnore
+    public int getGradeCode() {
         return grade;
     }
 
     public void setGrade(String grade) {
-        this.grade = grade;
+        this.grade = SymbolTable.code(grade);
     }
 
     @Override
     public String toString() {
         return "Grade{" +
                 "studentId=" + studentId +
-                ", courseId='" + courseId + '\'' +
+                ", courseId='" + getCourseId() + '\'' +
                 ", teacherId=" + teacherId +
-                ", grade='" + grade + '\'' +
+                ", grade='" + getGrade() + '\'' +
                 '}';
     }
 }
@@ -1,22 +1,27 @@
 package sms.domain;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import sms.domain.support.SymbolTable;
+import sms.domain.support.Timestamps;
 
 public class Message {
     private int messageId;
     private int fromUserId;
     private String fromUserName;
-    private String fromRole;
+    private int fromRole;
     private int toUserId;
     private String toUserName;
-    private String toRole;
+    private int toRole;
     private String message;
-    private String timestamp;
+    private long timestamp;
+    private long expiresAt;
     private boolean isRead;
 
     public Message() {
-        this.timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        this.timestamp = System.currentTimeMillis();
+        this.expiresAt = Timestamps.NONE;
         this.isRead = false;
     }
 
@@ -25,12 +30,13 @@ public class Message {
         this.messageId = messageId;
         this.fromUserId = fromUserId;
         this.fromUserName = fromUserName;
-        this.fromRole = fromRole;
+        this.fromRole = SymbolTable.code(fromRole);
         this.toUserId = toUserId;
         this.toUserName = toUserName;
-        this.toRole = toRole;
+        this.toRole = SymbolTable.code(toRole);
         this.message = message;
-        this.timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        this.timestamp = System.currentTimeMillis();
+        this.expiresAt = Timestamps.NONE;
         this.isRead = false;
     }
 
@@ -59,11 +65,16 @@ public class Message {
     }
 
     public String getFromRole() {
+        return SymbolTable.name(fromRole);
+    }
+
+    @JsonIgnore
+    public int getFromRoleCode() {
         return fromRole;
     }
 
     public void setFromRole(String fromRole) {
-        this.fromRole = fromRole;
+        this.fromRole = SymbolTable.code(fromRole);
     }
 
     public int getToUserId() {
@@ -83,11 +94,16 @@ public class Message {
     }
 
     public String getToRole() {
+        return SymbolTable.name(toRole);
+    }
+
+    @JsonIgnore
+    public int getToRoleCode() {
         return toRole;
     }
 
     public void setToRole(String toRole) {
-        this.toRole = toRole;
+        this.toRole = SymbolTable.code(toRole);
     }
 
     public String getMessage() {
@@ -98,14 +114,56 @@ public class Message {
         this.message = message;
     }
 
+    @JsonIgnore
     public String getTimestamp() {
-        return timestamp;
+        return Timestamps.format(timestamp);
     }
 
+    /**
+     * Set the time from text, accepting the "yyyy-MM-dd HH:mm:ss" strings of older files
+     */
+    @JsonProperty("timestamp")
     public void setTimestamp(String timestamp) {
+        this.timestamp = Timestamps.parse(timestamp);
+    }
+
+    @JsonProperty("timestamp")
+    public long getTimestampMillis() {
+        return timestamp;
+    }
+
+    @JsonIgnore
+    public void setTimestampMillis(long timestamp) {
         this.timestamp = timestamp;
     }
 
+    /**
+     * @return When this message expires in epoch millis, or null if it never does
+     */
+    @JsonProperty("expiresAt")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Long getExpiresAt() {
+        return expiresAt == Timestamps.NONE ? null : expiresAt;
+    }
+
+    @JsonProperty("expiresAt")
+    public void setExpiresAt(Long expiresAt) {
+        this.expiresAt = expiresAt == null ? Timestamps.NONE : expiresAt;
+    }
+
+    /**
+     * @return When this message expires in epoch millis, {@link Timestamps#NONE} if it never does
+     */
+    @JsonIgnore
+    public long getExpiresAtMillis() {
+        return expiresAt;
+    }
+
+    @JsonIgnore
+    public void setExpiresAtMillis(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
     public boolean isRead() {
         return isRead;
     }
@@ -118,10 +176,10 @@ public class Message {
     public String toString() {
         return "Message{" +
                 "messageId=" + messageId +
-                ", from=" + fromUserName + " (" + fromRole + ")" +
-                ", to=" + toUserName + " (" + toRole + ")" +
+                ", from=" + fromUserName + " (" + getFromRole() + ")" +
+                ", to=" + toUserName + " (" + getToRole() + ")" +
                 ", message='" + message + '\'' +
-                ", timestamp='" + timestamp + '\'' +
+                ", timestamp='" + getTimestamp() + '\'' +
                 ", isRead=" + isRead +
                 '}';
     }
@@ -1,14 +1,23 @@
 package sms.domain;
 
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import sms.domain.support.References;
 import sms.exceptions.ValidationException;
 import java.util.ArrayList;
 import java.util.List;
 
 @JsonTypeName("principal")
 public class Principal extends User {
+    @JsonSerialize(contentUsing = References.UserSerializer.class)
+    @JsonDeserialize(contentUsing = References.AdminDeserializer.class)
     private List<Admin> managedAdmins;
+    @JsonSerialize(contentUsing = References.UserSerializer.class)
+    @JsonDeserialize(contentUsing = References.TeacherDeserializer.class)
     private List<Teacher> appointedTeachers;
+    @JsonSerialize(contentUsing = References.CourseSerializer.class)
+    @JsonDeserialize(contentUsing = References.CourseDeserializer.class)
     private List<Course> managedCourses;
 
     // Default constructor for Jackson
@@ -43,6 +52,7 @@ public class Principal extends User {
         System.out.println("4. View Students");
         System.out.println("5. View Reports & Statistics");
         System.out.println("6. Send Message to Admin/Teacher");
+        System.out.println("7. Attendance Shortage Report");
         System.out.println("0. Logout");
         System.out.println("=".repeat(50));
         System.out.print("Choose an option: ");
@@ -190,6 +200,7 @@ public class Principal extends User {
 
         teacher.addCourse(course);
         course.setFacultyName(teacher.getName());
+        course.setFacultyId(teacher.getUserId());
         System.out.println("✓ Principal: Assigned course " + course.getCourseId() + 
                           " to teacher " + teacher.getName());
     }
@@ -1,6 +1,9 @@
 package sms.domain;
 
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import sms.domain.support.References;
 import sms.exceptions.ValidationException;
 import sms.search.Searchable;
 import sms.sort.Sortable;
@@ -13,6 +16,8 @@ public class Student extends User implements Searchable<Course>, Sortable<Course
     private String id;
     private Department dept;
     private Batch batch;
+    @JsonSerialize(contentUsing = References.CourseSerializer.class)
+    @JsonDeserialize(contentUsing = References.CourseDeserializer.class)
     private List<Course> courses;
 
     // Default constructor for Jackson
@@ -27,6 +32,32 @@ public class Student extends User implements Searchable<Course>, Sortable<Course
         this.courses = new ArrayList<>();
     }
 
+    /**
+     * Get the userId from a registration number, "S" followed by the userId
+     * @param regNo A registration number such as S1001; the prefix is optional and
+     *              may be lower case
+     * @return The userId
+     */
+    public static int parseRegNo(String regNo) throws ValidationException {
+        if (regNo == null || regNo.trim().isEmpty()) {
+            throw new ValidationException("Registration number cannot be empty", "studentRegNo", regNo);
+        }
+        String digits = regNo.trim();
+        if (digits.length() > 1 && (digits.charAt(0) == 'S' || digits.charAt(0) == 's')) {
+            digits = digits.substring(1);
+        }
+        int userId;
+        try {
+            userId = Integer.parseInt(digits);
+        } catch (NumberFormatException e) {
+            throw new ValidationException("Invalid registration number '" + regNo + "'", "studentRegNo", regNo);
+        }
+        if (userId <= 0) {
+            throw new ValidationException("Invalid registration number '" + regNo + "'", "studentRegNo", regNo);
+        }
+        return userId;
+    }
+
     @Override
     public String getRole() {
         return "STUDENT";
@@ -174,6 +205,7 @@ public class Student extends User implements Searchable<Course>, Sortable<Course
         System.out.println("4. Dashboard");
         System.out.println("5. View My Courses");
         System.out.println("6. Upload File");
+        System.out.println("7. View Attendance");
         System.out.println("0. Logout");
         System.out.println("==================================================");
         System.out.print("Choose an option: ");
@@ -195,6 +227,8 @@ public class Student extends User implements Searchable<Course>, Sortable<Course
         System.out.println("2. Send Message to Teacher");
         System.out.println("3. View Unread Messages");
         System.out.println("4. Mark Messages as Read");
+        System.out.println("5. Delete Conversation");
+        System.out.println("6. View Conversations");
         System.out.println("0. Back to Main Menu");
         System.out.print("Choose an option: ");
     }
@@ -1,14 +1,16 @@
 package sms.domain;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import sms.domain.support.SymbolTable;
 
 public class StudentTable {
     private String studentName;
     private String studentRegNo;
     private String department;
     private String yearOfStudy;
-    private String courseCode;
+    private int courseCode;
     private String studentEmail;
 
     // Default constructor for Jackson
@@ -25,7 +27,7 @@ public class StudentTable {
         this.studentRegNo = studentRegNo;
         this.department = department;
         this.yearOfStudy = yearOfStudy;
-        this.courseCode = courseCode;
+        this.courseCode = SymbolTable.code(courseCode);
         this.studentEmail = studentEmail;
     }
 
@@ -62,11 +64,16 @@ public class StudentTable {
     }
 
     public String getCourseCode() {
+        return SymbolTable.name(courseCode);
+    }
+
+    @JsonIgnore
+    public int getCourseCodeCode() {
         return courseCode;
     }
 
     public void setCourseCode(String courseCode) {
-        this.courseCode = courseCode;
+        this.courseCode = SymbolTable.code(courseCode);
     }
 
     public String getStudentEmail() {
@@ -84,7 +91,7 @@ public class StudentTable {
                 ", studentRegNo='" + studentRegNo + '\'' +
                 ", department='" + department + '\'' +
                 ", yearOfStudy='" + yearOfStudy + '\'' +
-                ", courseCode='" + courseCode + '\'' +
+                ", courseCode='" + getCourseCode() + '\'' +
                 ", studentEmail='" + studentEmail + '\'' +
                 '}';
     }
@@ -1,9 +1,9 @@
 package sms.domain;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import sms.domain.support.Timestamps;
 
 public class Submission {
     private int submissionId;
@@ -11,7 +11,7 @@ public class Submission {
     private int studentId;
     private String fileName;
     private String filePath;
-    private String timestamp;
+    private long timestamp;
 
     public Submission() {}
 
@@ -27,7 +27,7 @@ public class Submission {
         this.studentId = studentId;
         this.fileName = fileName;
         this.filePath = filePath;
-        this.timestamp = timestamp;
+        this.timestamp = Timestamps.parse(timestamp);
     }
 
     public Submission(int submissionId, int assignmentId, int studentId, String fileName, String filePath) {
@@ -36,7 +36,7 @@ public class Submission {
         this.studentId = studentId;
         this.fileName = fileName;
         this.filePath = filePath;
-        this.timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        this.timestamp = System.currentTimeMillis();
     }
 
     public int getSubmissionId() {
@@ -79,11 +79,23 @@ public class Submission {
         this.filePath = filePath;
     }
 
+    @JsonIgnore
     public String getTimestamp() {
-        return timestamp;
+        return Timestamps.format(timestamp);
     }
 
+    @JsonProperty("timestamp")
     public void setTimestamp(String timestamp) {
+        this.timestamp = Timestamps.parse(timestamp);
+    }
+
+    @JsonProperty("timestamp")
+    public long getTimestampMillis() {
+        return timestamp;
+    }
+
+    @JsonIgnore
+    public void setTimestampMillis(long timestamp) {
         this.timestamp = timestamp;
     }
 
@@ -95,7 +107,7 @@ public class Submission {
                 ", studentId=" + studentId +
                 ", fileName='" + fileName + '\'' +
                 ", filePath='" + filePath + '\'' +
-                ", timestamp='" + timestamp + '\'' +
+                ", timestamp='" + getTimestamp() + '\'' +
                 '}';
     }
 }
@@ -1,6 +1,9 @@
 package sms.domain;
 
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import sms.domain.support.References;
 import sms.exceptions.ValidationException;
 import sms.search.Searchable;
 import sms.sort.Sortable;
@@ -11,8 +14,12 @@ import java.util.stream.Collectors;
 @JsonTypeName("teacher")
 public class Teacher extends User implements Searchable<Student>, Sortable<Student> {
     private String id;
+    @JsonSerialize(contentUsing = References.CourseSerializer.class)
+    @JsonDeserialize(contentUsing = References.CourseDeserializer.class)
     private List<Course> courses;
     private List<Batch> batches;
+    @JsonSerialize(contentUsing = References.UserSerializer.class)
+    @JsonDeserialize(contentUsing = References.StudentDeserializer.class)
     private List<Student> students; // Students taught by this teacher
 
     // Default constructor for Jackson
@@ -184,6 +191,7 @@ public class Teacher extends User implements Searchable<Student>, Sortable<Stude
         System.out.println("5. View My Courses");
         System.out.println("6. View My Students");
         System.out.println("7. Upload File");
+        System.out.println("8. Attendance");
         System.out.println("0. Logout");
         System.out.println("=".repeat(50));
         System.out.print("Choose an option: ");
@@ -209,12 +217,23 @@ public class Teacher extends User implements Searchable<Student>, Sortable<Stude
         System.out.print("Choose an option: ");
     }
 
+    public void showAttendanceMenu() {
+        System.out.println("\n--- Attendance ---");
+        System.out.println("1. Mark Attendance for a Class");
+        System.out.println("2. View Attendance for a Class");
+        System.out.println("0. Back to Main Menu");
+        System.out.print("Choose an option: ");
+    }
+
     public void showMessagingMenu() {
         System.out.println("\n--- Messaging System ---");
         System.out.println("1. View My Messages");
         System.out.println("2. Send Message to Students");
         System.out.println("3. View Unread Messages");
         System.out.println("4. Mark Messages as Read");
+        System.out.println("5. Broadcast to a Course");
+        System.out.println("6. Delete Conversation");
+        System.out.println("7. View Conversations");
         System.out.println("0. Back to Main Menu");
         System.out.print("Choose an option: ");
     }
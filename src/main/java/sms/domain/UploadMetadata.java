@@ -1,8 +1,10 @@
 package sms.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import sms.domain.support.SymbolTable;
+import sms.domain.support.Timestamps;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -16,23 +18,25 @@ public class UploadMetadata {
     @JsonProperty("uploadedBy")
     private String uploadedBy;
     
-    @JsonProperty("role")
-    private String role;
+    private int role;
     
     @JsonProperty("filePath")
     private String filePath;
     
-    @JsonProperty("timestamp")
-    private String timestamp;
+    private long timestamp;
     
     @JsonProperty("fileSize")
     private long fileSize;
     
+    @JsonProperty("contentHash")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String contentHash;
+    
     @JsonProperty("visibleTo")
     private List<String> visibleTo;
 
     public UploadMetadata() {
-        this.timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        this.timestamp = System.currentTimeMillis();
         this.visibleTo = new ArrayList<>();
     }
 
@@ -40,10 +44,10 @@ public class UploadMetadata {
         this.id = id;
         this.fileName = fileName;
         this.uploadedBy = uploadedBy;
-        this.role = role;
+        this.role = SymbolTable.code(role);
         this.filePath = filePath;
         this.fileSize = fileSize;
-        this.timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        this.timestamp = System.currentTimeMillis();
         this.visibleTo = new ArrayList<>();
     }
     
@@ -51,10 +55,10 @@ public class UploadMetadata {
         this.id = id;
         this.fileName = fileName;
         this.uploadedBy = uploadedBy;
-        this.role = role;
+        this.role = SymbolTable.code(role);
         this.filePath = filePath;
         this.fileSize = fileSize;
-        this.timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        this.timestamp = System.currentTimeMillis();
         this.visibleTo = visibleTo != null ? new ArrayList<>(visibleTo) : new ArrayList<>();
     }
 
@@ -83,12 +87,18 @@ public class UploadMetadata {
         this.uploadedBy = uploadedBy;
     }
 
+    @JsonProperty("role")
     public String getRole() {
+        return SymbolTable.name(role);
+    }
+
+    @JsonIgnore
+    public int getRoleCode() {
         return role;
     }
 
     public void setRole(String role) {
-        this.role = role;
+        this.role = SymbolTable.code(role);
     }
 
     public String getFilePath() {
@@ -99,11 +109,23 @@ public class UploadMetadata {
         this.filePath = filePath;
     }
 
+    @JsonIgnore
     public String getTimestamp() {
-        return timestamp;
+        return Timestamps.format(timestamp);
     }
 
+    @JsonProperty("timestamp")
     public void setTimestamp(String timestamp) {
+        this.timestamp = Timestamps.parse(timestamp);
+    }
+
+    @JsonProperty("timestamp")
+    public long getTimestampMillis() {
+        return timestamp;
+    }
+
+    @JsonIgnore
+    public void setTimestampMillis(long timestamp) {
         this.timestamp = timestamp;
     }
 
@@ -115,6 +137,17 @@ public class UploadMetadata {
         this.fileSize = fileSize;
     }
     
+    /**
+     * @return The SHA-256 of the file's content, or null for uploads stored before blobs
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+    
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+    
     public List<String> getVisibleTo() {
         return visibleTo;
     }
@@ -129,6 +162,6 @@ public class UploadMetadata {
             (visibleTo.contains("ALL") ? "Visible to: ALL" : "Visible to: " + visibleTo.size() + " user(s)") : 
             "No visibility set";
         return String.format("[%s] %s uploaded by %s (%s) - %s bytes - %s - %s", 
-                           id, fileName, uploadedBy, role, fileSize, timestamp, visibility);
+                           id, fileName, uploadedBy, getRole(), fileSize, getTimestamp(), visibility);
     }
 }
@@ -0,0 +1,643 @@
+package sms.domain.support;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative ints, laid out like a Roaring bitmap.
+ *
+ * Values are grouped by their high 16 bits. Each group (container) holds its low
+ * 16 bits either as a sorted char array, while it has at most {@link #ARRAY_LIMIT}
+ * values, or as a 65536-bit word array once it is denser than that. A sparse set
+ * therefore costs about two bytes per value and a dense one one bit per value, and
+ * AND/OR/XOR/AND-NOT work container by container with word-wide operations and
+ * popcounts.
+ *
+ * Instances are not thread-safe; share them only when no one modifies them.
+ */
+public final class CompressedBitmap {
+    /** Largest container kept as a sorted array */
+    public static final int ARRAY_LIMIT = 4096;
+    private static final int WORDS = 1024;
+
+    private char[] keys;
+    private Container[] containers;
+    private int size;
+
+    public CompressedBitmap() {
+        this.keys = new char[4];
+        this.containers = new Container[4];
+    }
+
+    /**
+     * @param values The values to include
+     * @return A bitmap holding them
+     */
+    public static CompressedBitmap of(int... values) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int value : values) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @param value A non-negative int
+     * @return true if the value was not already present
+     */
+    public boolean add(int value) {
+        char key = (char) (value >>> 16);
+        int i = find(key);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, key, new Container());
+        }
+        return containers[i].add((char) value);
+    }
+
+    /**
+     * @param value The value to remove
+     * @return true if it was present
+     */
+    public boolean remove(int value) {
+        int i = find((char) (value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        boolean removed = containers[i].remove((char) value);
+        if (containers[i].cardinality == 0) {
+            removeContainer(i);
+        }
+        return removed;
+    }
+
+    public boolean contains(int value) {
+        int i = find((char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    /**
+     * @return How many values are in the set
+     */
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += containers[i].cardinality;
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public CompressedBitmap copy() {
+        CompressedBitmap copy = new CompressedBitmap();
+        copy.keys = Arrays.copyOf(keys, Math.max(4, size));
+        copy.containers = new Container[copy.keys.length];
+        for (int i = 0; i < size; i++) {
+            copy.containers[i] = containers[i].copy();
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Call an action for every value, in ascending order
+     * @param action The action to call
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    /**
+     * @return The values in ascending order
+     */
+    public int[] toArray() {
+        int[] values = new int[cardinality()];
+        int[] next = {0};
+        forEach(value -> values[next[0]++] = value);
+        return values;
+    }
+
+    /**
+     * @return A new bitmap with the values in both this and other
+     */
+    public CompressedBitmap and(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                result.append(keys[i], Container.and(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Count the values in both bitmaps without building the intersection
+     * @return The cardinality of this AND other
+     */
+    public int andCardinality(CompressedBitmap other) {
+        int total = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                total += Container.andCardinality(containers[i], other.containers[j]);
+                i++;
+                j++;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return A new bitmap with the values in this or other
+     */
+    public CompressedBitmap or(CompressedBitmap other) {
+        return merge(other, Op.OR);
+    }
+
+    /**
+     * @return A new bitmap with the values in exactly one of this and other
+     */
+    public CompressedBitmap xor(CompressedBitmap other) {
+        return merge(other, Op.XOR);
+    }
+
+    /**
+     * @return A new bitmap with the values in this but not in other
+     */
+    public CompressedBitmap andNot(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            if (j < other.size && other.keys[j] == keys[i]) {
+                result.append(keys[i], Container.andNot(containers[i], other.containers[j]));
+            } else {
+                result.append(keys[i], containers[i].copy());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write the bitmap in a compact binary form
+     * @param out The stream to write to
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            Container container = containers[i];
+            out.writeChar(keys[i]);
+            out.writeInt(container.cardinality);
+            if (container.bits == null) {
+                for (int v = 0; v < container.cardinality; v++) {
+                    out.writeChar(container.array[v]);
+                }
+            } else {
+                for (long word : container.bits) {
+                    out.writeLong(word);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a bitmap written by {@link #write(DataOutput)}
+     * @param in The stream to read from
+     * @return The bitmap
+     */
+    public static CompressedBitmap read(DataInput in) throws IOException {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            char key = in.readChar();
+            int cardinality = in.readInt();
+            Container container = new Container();
+            container.cardinality = cardinality;
+            if (cardinality <= ARRAY_LIMIT) {
+                container.array = new char[cardinality];
+                for (int v = 0; v < cardinality; v++) {
+                    container.array[v] = in.readChar();
+                }
+            } else {
+                container.array = null;
+                container.bits = new long[WORDS];
+                for (int w = 0; w < WORDS; w++) {
+                    container.bits[w] = in.readLong();
+                }
+            }
+            bitmap.append(key, container);
+        }
+        return bitmap;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CompressedBitmap)) {
+            return false;
+        }
+        return Arrays.equals(toArray(), ((CompressedBitmap) o).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return "CompressedBitmap{cardinality=" + cardinality() + ", containers=" + size + '}';
+    }
+
+    private enum Op { OR, XOR }
+
+    private CompressedBitmap merge(CompressedBitmap other, Op op) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j >= other.size || i < size && keys[i] < other.keys[j]) {
+                result.append(keys[i], containers[i].copy());
+                i++;
+            } else if (i >= size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                Container merged = op == Op.OR
+                        ? Container.or(containers[i], other.containers[j])
+                        : Container.xor(containers[i], other.containers[j]);
+                result.append(keys[i], merged);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    private int find(char key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else if (keys[mid] > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    // Adds a container after all existing keys; empty containers are dropped
+    private void append(char key, Container container) {
+        if (container != null && container.cardinality > 0) {
+            insertContainer(size, key, container);
+        }
+    }
+
+    private void insertContainer(int index, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+        containers[--size] = null;
+    }
+
+    // The low 16 bits of one group of values: a sorted array, or 1024 words once dense
+    private static final class Container {
+        private char[] array = new char[4];
+        private long[] bits;
+        private int cardinality;
+
+        boolean contains(char low) {
+            if (bits != null) {
+                return (bits[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(array, 0, cardinality, low) >= 0;
+        }
+
+        boolean add(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before | (1L << low);
+                if (before == bits[low >>> 6]) {
+                    return false;
+                }
+                cardinality++;
+                return true;
+            }
+            int i = Arrays.binarySearch(array, 0, cardinality, low);
+            if (i >= 0) {
+                return false;
+            }
+            if (cardinality == ARRAY_LIMIT) {
+                toBits();
+                return add(low);
+            }
+            i = -i - 1;
+            if (cardinality == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_LIMIT, cardinality * 2));
+            }
+            System.arraycopy(array, i, array, i + 1, cardinality - i);
+            array[i] = low;
+            cardinality++;
+            return true;
+        }
+
+        boolean remove(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before & ~(1L << low);
+                if (before == bits[low >>> 6]) {
+                    return false;
+                }
+                if (--cardinality <= ARRAY_LIMIT) {
+                    toArray();
+                }
+                return true;
+            }
+            int i = Arrays.binarySearch(array, 0, cardinality, low);
+            if (i < 0) {
+                return false;
+            }
+            System.arraycopy(array, i + 1, array, i, cardinality - i - 1);
+            cardinality--;
+            return true;
+        }
+
+        void forEach(int high, IntConsumer action) {
+            if (bits == null) {
+                for (int i = 0; i < cardinality; i++) {
+                    action.accept(high | array[i]);
+                }
+                return;
+            }
+            for (int w = 0; w < WORDS; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    action.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        Container copy() {
+            Container copy = new Container();
+            copy.cardinality = cardinality;
+            if (bits != null) {
+                copy.array = null;
+                copy.bits = bits.clone();
+            } else {
+                copy.array = Arrays.copyOf(array, Math.max(4, cardinality));
+            }
+            return copy;
+        }
+
+        private void toBits() {
+            bits = words();
+            array = null;
+        }
+
+        private void toArray() {
+            char[] values = new char[Math.max(4, cardinality)];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            array = values;
+            bits = null;
+        }
+
+        // The container as 1024 words; a copy when the container is already dense
+        private long[] words() {
+            if (bits != null) {
+                return bits.clone();
+            }
+            long[] words = new long[WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                words[array[i] >>> 6] |= 1L << array[i];
+            }
+            return words;
+        }
+
+        private static Container fromWords(long[] words) {
+            Container container = new Container();
+            for (long word : words) {
+                container.cardinality += Long.bitCount(word);
+            }
+            container.bits = words;
+            container.array = null;
+            if (container.cardinality <= ARRAY_LIMIT) {
+                container.toArray();
+            }
+            return container;
+        }
+
+        private static Container fromArray(char[] values, int count) {
+            Container container = new Container();
+            container.array = values;
+            container.cardinality = count;
+            return container;
+        }
+
+        static Container and(Container a, Container b) {
+            if (a.bits != null && b.bits != null) {
+                long[] words = new long[WORDS];
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] = a.bits[w] & b.bits[w];
+                }
+                return fromWords(words);
+            }
+            if (a.bits != null) {
+                return and(b, a);
+            }
+            char[] values = new char[Math.max(4, a.cardinality)];
+            int n = 0;
+            if (b.bits != null) {
+                for (int i = 0; i < a.cardinality; i++) {
+                    if (b.contains(a.array[i])) {
+                        values[n++] = a.array[i];
+                    }
+                }
+            } else {
+                int i = 0;
+                int j = 0;
+                while (i < a.cardinality && j < b.cardinality) {
+                    if (a.array[i] < b.array[j]) {
+                        i++;
+                    } else if (a.array[i] > b.array[j]) {
+                        j++;
+                    } else {
+                        values[n++] = a.array[i];
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            return fromArray(values, n);
+        }
+
+        static int andCardinality(Container a, Container b) {
+            if (a.bits != null && b.bits != null) {
+                int count = 0;
+                for (int w = 0; w < WORDS; w++) {
+                    count += Long.bitCount(a.bits[w] & b.bits[w]);
+                }
+                return count;
+            }
+            if (a.bits != null) {
+                return andCardinality(b, a);
+            }
+            int count = 0;
+            if (b.bits != null) {
+                for (int i = 0; i < a.cardinality; i++) {
+                    if (b.contains(a.array[i])) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+            int i = 0;
+            int j = 0;
+            while (i < a.cardinality && j < b.cardinality) {
+                if (a.array[i] < b.array[j]) {
+                    i++;
+                } else if (a.array[i] > b.array[j]) {
+                    j++;
+                } else {
+                    count++;
+                    i++;
+                    j++;
+                }
+            }
+            return count;
+        }
+
+        static Container or(Container a, Container b) {
+            if (a.bits == null && b.bits == null && a.cardinality + b.cardinality <= ARRAY_LIMIT) {
+                char[] values = new char[Math.max(4, a.cardinality + b.cardinality)];
+                int n = 0;
+                int i = 0;
+                int j = 0;
+                while (i < a.cardinality || j < b.cardinality) {
+                    if (j >= b.cardinality || i < a.cardinality && a.array[i] < b.array[j]) {
+                        values[n++] = a.array[i++];
+                    } else if (i >= a.cardinality || a.array[i] > b.array[j]) {
+                        values[n++] = b.array[j++];
+                    } else {
+                        values[n++] = a.array[i++];
+                        j++;
+                    }
+                }
+                return fromArray(values, n);
+            }
+            long[] words = a.words();
+            if (b.bits != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] |= b.bits[w];
+                }
+            } else {
+                for (int i = 0; i < b.cardinality; i++) {
+                    words[b.array[i] >>> 6] |= 1L << b.array[i];
+                }
+            }
+            return fromWords(words);
+        }
+
+        static Container xor(Container a, Container b) {
+            if (a.bits == null && b.bits == null && a.cardinality + b.cardinality <= ARRAY_LIMIT) {
+                char[] values = new char[Math.max(4, a.cardinality + b.cardinality)];
+                int n = 0;
+                int i = 0;
+                int j = 0;
+                while (i < a.cardinality || j < b.cardinality) {
+                    if (j >= b.cardinality || i < a.cardinality && a.array[i] < b.array[j]) {
+                        values[n++] = a.array[i++];
+                    } else if (i >= a.cardinality || a.array[i] > b.array[j]) {
+                        values[n++] = b.array[j++];
+                    } else {
+                        i++;
+                        j++;
+                    }
+                }
+                return fromArray(values, n);
+            }
+            long[] words = a.words();
+            if (b.bits != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] ^= b.bits[w];
+                }
+            } else {
+                for (int i = 0; i < b.cardinality; i++) {
+                    words[b.array[i] >>> 6] ^= 1L << b.array[i];
+                }
+            }
+            return fromWords(words);
+        }
+
+        static Container andNot(Container a, Container b) {
+            if (a.bits == null) {
+                char[] values = new char[Math.max(4, a.cardinality)];
+                int n = 0;
+                for (int i = 0; i < a.cardinality; i++) {
+                    if (!b.contains(a.array[i])) {
+                        values[n++] = a.array[i];
+                    }
+                }
+                return fromArray(values, n);
+            }
+            long[] words = a.bits.clone();
+            if (b.bits != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] &= ~b.bits[w];
+                }
+            } else {
+                for (int i = 0; i < b.cardinality; i++) {
+                    words[b.array[i] >>> 6] &= ~(1L << b.array[i]);
+                }
+            }
+            return fromWords(words);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package sms.domain.support;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import sms.domain.Course;
+import sms.domain.User;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Keeps exactly one in-memory instance of every Course and User.
+ *
+ * Data files store other users and courses by id (see {@link References}). While a
+ * file is read, each id is resolved here to the shared instance, creating an empty
+ * placeholder if the record it points at has not been loaded yet. When the owning
+ * repository later loads the full record it is merged into that same instance, so
+ * every student, teacher and admin holding a reference sees the real data, and sees
+ * later updates without being saved again.
+ *
+ * Repositories evict a record when it is deleted, or when a reload no longer
+ * contains it, so the map does not keep deleted records alive.
+ */
+public final class IdentityMap {
+    private static final Map<Class<?>, Map<Object, Object>> INSTANCES = new ConcurrentHashMap<>();
+    private static final ObjectMapper MERGER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private IdentityMap() {}
+
+    /**
+     * Get the shared instance for a course id, creating a placeholder if needed
+     * @param courseId The course id
+     * @return The shared course, or null for a null id
+     */
+    public static Course course(String courseId) {
+        if (courseId == null) {
+            return null;
+        }
+        return lookup(Course.class, courseId, () -> {
+            Course course = new Course();
+            course.setCourseId(courseId);
+            return course;
+        });
+    }
+
+    /**
+     * Get the shared instance for a user id, creating a placeholder if needed
+     * @param type The concrete user type
+     * @param userId The user id
+     * @param factory Creates an empty user of that type
+     * @return The shared user
+     */
+    public static <T extends User> T user(Class<T> type, int userId, Supplier<T> factory) {
+        return lookup(type, userId, () -> {
+            T user = factory.get();
+            user.setUserId(userId);
+            return user;
+        });
+    }
+
+    /**
+     * Make a loaded or edited course the authoritative state for its id
+     * @param course The course as loaded from its own file or passed to a repository
+     * @return The shared instance, now holding that state
+     */
+    public static Course intern(Course course) {
+        if (course == null || course.getCourseId() == null) {
+            return course;
+        }
+        return merge(Course.class, course.getCourseId(), course);
+    }
+
+    /**
+     * Make a loaded or edited user the authoritative state for its id
+     * @param user The user as loaded from its own file or passed to a repository
+     * @return The shared instance, now holding that state
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends User> T intern(T user) {
+        if (user == null) {
+            return null;
+        }
+        return merge((Class<T>) user.getClass(), user.getUserId(), user);
+    }
+
+    /**
+     * Forget a deleted course. Records that still hold it keep their copy; a later
+     * lookup of the id gets a new placeholder.
+     * @param course The deleted course
+     */
+    public static void evict(Course course) {
+        if (course != null && course.getCourseId() != null) {
+            remove(Course.class, course.getCourseId());
+        }
+    }
+
+    /**
+     * Forget a deleted user, as for {@link #evict(Course)}
+     * @param user The deleted user
+     */
+    public static void evict(User user) {
+        if (user != null) {
+            remove(user.getClass(), user.getUserId());
+        }
+    }
+
+    /**
+     * Resolve a full copy embedded in an older data file. The copy only seeds a
+     * placeholder; it never overwrites a record that has already been loaded.
+     * @param copy The embedded copy
+     * @return The shared instance
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T adopt(Class<T> type, Object id, T copy) {
+        Map<Object, Object> instances = INSTANCES.computeIfAbsent(type, t -> new ConcurrentHashMap<>());
+        return (T) instances.computeIfAbsent(id, key -> copy);
+    }
+
+    private static void remove(Class<?> type, Object id) {
+        Map<Object, Object> instances = INSTANCES.get(type);
+        if (instances != null) {
+            instances.remove(id);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T lookup(Class<T> type, Object id, Supplier<T> factory) {
+        Map<Object, Object> instances = INSTANCES.computeIfAbsent(type, t -> new ConcurrentHashMap<>());
+        return (T) instances.computeIfAbsent(id, key -> factory.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T merge(Class<T> type, Object id, T state) {
+        Map<Object, Object> instances = INSTANCES.computeIfAbsent(type, t -> new ConcurrentHashMap<>());
+        T shared = (T) instances.putIfAbsent(id, state);
+        if (shared == null || shared == state) {
+            return state;
+        }
+        synchronized (shared) {
+            try {
+                JsonNode tree = MERGER.valueToTree(state);
+                MERGER.readerForUpdating(shared).readValue(tree);
+            } catch (Exception e) {
+                System.err.println("Warning: Could not merge " + type.getSimpleName() + " " + id + ": " + e.getMessage());
+                return shared;
+            }
+        }
+        return shared;
+    }
+}
@@ -0,0 +1,145 @@
+package sms.domain.support;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.jsontype.TypeDeserializer;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import sms.domain.Admin;
+import sms.domain.Course;
+import sms.domain.Student;
+import sms.domain.Teacher;
+import sms.domain.User;
+
+import java.io.IOException;
+
+/**
+ * Jackson (de)serializers that store courses and users held by another record as
+ * bare ids, and resolve them through {@link IdentityMap} when read back.
+ *
+ * Files written before references were introduced embed full copies instead of
+ * ids; those are still accepted and only used until the real record is loaded.
+ */
+public final class References {
+
+    private References() {}
+
+    public static class CourseSerializer extends StdSerializer<Course> {
+        private static final long serialVersionUID = 1L;
+
+        public CourseSerializer() {
+            super(Course.class);
+        }
+
+        @Override
+        public void serialize(Course course, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeString(course.getCourseId());
+        }
+    }
+
+    public static class UserSerializer extends StdSerializer<User> {
+        private static final long serialVersionUID = 1L;
+
+        public UserSerializer() {
+            super(User.class);
+        }
+
+        @Override
+        public void serialize(User user, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeNumber(user.getUserId());
+        }
+
+        @Override
+        public void serializeWithType(User user, JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSer) throws IOException {
+            // A reference is just the id; the type comes from the field it sits in
+            serialize(user, gen, provider);
+        }
+    }
+
+    public static class CourseDeserializer extends StdDeserializer<Course> {
+        private static final long serialVersionUID = 1L;
+
+        public CourseDeserializer() {
+            super(Course.class);
+        }
+
+        @Override
+        public Course deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (p.currentToken() == JsonToken.START_OBJECT) {
+                Course copy = ctxt.readValue(p, Course.class);
+                return copy.getCourseId() == null ? copy : IdentityMap.adopt(Course.class, copy.getCourseId(), copy);
+            }
+            return IdentityMap.course(p.getValueAsString());
+        }
+    }
+
+    public static class StudentDeserializer extends UserDeserializer<Student> {
+        private static final long serialVersionUID = 1L;
+
+        public StudentDeserializer() {
+            super(Student.class);
+        }
+
+        @Override
+        protected Student create() {
+            return new Student();
+        }
+    }
+
+    public static class TeacherDeserializer extends UserDeserializer<Teacher> {
+        private static final long serialVersionUID = 1L;
+
+        public TeacherDeserializer() {
+            super(Teacher.class);
+        }
+
+        @Override
+        protected Teacher create() {
+            return new Teacher();
+        }
+    }
+
+    public static class AdminDeserializer extends UserDeserializer<Admin> {
+        private static final long serialVersionUID = 1L;
+
+        public AdminDeserializer() {
+            super(Admin.class);
+        }
+
+        @Override
+        protected Admin create() {
+            return new Admin();
+        }
+    }
+
+    private abstract static class UserDeserializer<T extends User> extends StdDeserializer<T> {
+        private static final long serialVersionUID = 1L;
+
+        private final Class<T> userType;
+
+        protected UserDeserializer(Class<T> userType) {
+            super(userType);
+            this.userType = userType;
+        }
+
+        protected abstract T create();
+
+        @Override
+        public T deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (p.currentToken() == JsonToken.START_OBJECT) {
+                T copy = ctxt.readValue(p, userType);
+                return IdentityMap.adopt(userType, copy.getUserId(), copy);
+            }
+            return IdentityMap.user(userType, p.getValueAsInt(), this::create);
+        }
+
+        @Override
+        public Object deserializeWithType(JsonParser p, DeserializationContext ctxt, TypeDeserializer typeDeserializer) throws IOException {
+            return deserialize(p, ctxt);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package sms.domain.support;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide dictionary that turns frequently repeated strings (course ids,
+ * roles, grade letters) into small int codes.
+ *
+ * Records keep the code instead of their own String copy, and filters compare
+ * codes instead of calling equals()/equalsIgnoreCase(). Every interned value also
+ * interns its lower-case form, so {@link #folded(int)} gives a code that matches
+ * case-insensitively. Strings are only turned back into text by {@link #name(int)}
+ * when a getter hands them to the rest of the application or to Jackson.
+ *
+ * Codes are only meaningful inside one JVM; they are never written to disk.
+ */
+public final class SymbolTable {
+    /** Code for a null value */
+    public static final int NONE = 0;
+    /** Returned by the lookup methods for a value that no record uses */
+    public static final int UNKNOWN = -1;
+
+    private static final Map<String, Integer> CODES = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[64];
+    private static volatile int[] foldedCodes = new int[64];
+    private static int size = 1;
+
+    private SymbolTable() {}
+
+    /**
+     * Intern a value
+     * @param value The string to intern, may be null
+     * @return Its code, {@link #NONE} for null
+     */
+    public static int code(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        Integer existing = CODES.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        return add(value);
+    }
+
+    /**
+     * Find the code of a value without interning it, for query arguments
+     * @param value The string to look up
+     * @return Its code, or {@link #UNKNOWN} if nothing has interned it (or it is null)
+     */
+    public static int lookup(String value) {
+        if (value == null) {
+            return UNKNOWN;
+        }
+        Integer existing = CODES.get(value);
+        return existing != null ? existing : UNKNOWN;
+    }
+
+    /**
+     * Find the case-insensitive code of a value without interning it
+     * @param value The string to look up
+     * @return The code of its lower-case form, or {@link #UNKNOWN}
+     */
+    public static int lookupFolded(String value) {
+        return value == null ? UNKNOWN : lookup(value.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @param code A code returned by {@link #code(String)}
+     * @return The interned string, null for {@link #NONE}
+     */
+    public static String name(int code) {
+        return code == NONE ? null : names[code];
+    }
+
+    /**
+     * @param code A code returned by {@link #code(String)}
+     * @return The code of the value's lower-case form
+     */
+    public static int folded(int code) {
+        return code == NONE ? NONE : foldedCodes[code];
+    }
+
+    private static synchronized int add(String value) {
+        Integer existing = CODES.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        String lower = value.toLowerCase(Locale.ROOT);
+        int foldedCode = lower.equals(value) ? size : code(lower);
+        int code = size++;
+        if (code >= names.length) {
+            foldedCodes = Arrays.copyOf(foldedCodes, names.length * 2);
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+        names[code] = value;
+        foldedCodes[code] = foldedCode;
+        CODES.put(value, code);
+        return code;
+    }
+}
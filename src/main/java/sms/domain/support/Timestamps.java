@@ -0,0 +1,121 @@
+package sms.domain.support;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Conversions between the epoch-millisecond times that records keep and the
+ * text the application shows and older data files contain.
+ *
+ * Data files written before timestamps were typed hold strings such as
+ * "2025-10-03 10:30:00" or "2025-10-15"; {@link #parse(String)} accepts those as
+ * well as plain epoch milliseconds, so a file is converted the first time it is
+ * saved. Local times are read in the system time zone.
+ */
+public final class Timestamps {
+    /** Millis value for a missing or unreadable time */
+    public static final long NONE = Long.MIN_VALUE;
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter DATE_MINUTES = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    // A date-only deadline means the end of that day
+    private static final LocalTime END_OF_DAY = LocalTime.of(23, 59, 59);
+
+    private Timestamps() {}
+
+    /**
+     * @param text Epoch millis, "yyyy-MM-dd HH:mm[:ss]", ISO "yyyy-MM-ddTHH:mm[:ss]" or "yyyy-MM-dd"
+     * @return The time in epoch millis, {@link #NONE} if the text is blank or unreadable;
+     *         a bare date is the start of that day
+     */
+    public static long parse(String text) {
+        return parse(text, LocalTime.MIDNIGHT);
+    }
+
+    /**
+     * Parse a due date, where a bare date means the end of that day
+     * @param text As for {@link #parse(String)}
+     * @return The time in epoch millis, or {@link #NONE}
+     */
+    public static long parseDeadline(String text) {
+        return parse(text, END_OF_DAY);
+    }
+
+    /**
+     * @param millis Epoch millis
+     * @return "yyyy-MM-dd HH:mm:ss", or null for {@link #NONE}
+     */
+    public static String format(long millis) {
+        if (millis == NONE) {
+            return null;
+        }
+        return toLocal(millis).format(DATE_TIME);
+    }
+
+    /**
+     * Format a due date, leaving out the time when it is the end of the day
+     * @param millis Epoch millis
+     * @return "yyyy-MM-dd" or "yyyy-MM-dd HH:mm", or null for {@link #NONE}
+     */
+    public static String formatDeadline(long millis) {
+        if (millis == NONE) {
+            return null;
+        }
+        LocalDateTime local = toLocal(millis);
+        return local.toLocalTime().equals(END_OF_DAY) ? local.toLocalDate().toString() : local.format(DATE_MINUTES);
+    }
+
+    /**
+     * @param date A calendar day
+     * @return Epoch millis at the start of the day
+     */
+    public static long startOf(LocalDate date) {
+        return date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocal(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    private static long parse(String text, LocalTime dateOnlyTime) {
+        if (text == null || text.trim().isEmpty()) {
+            return NONE;
+        }
+        String value = text.trim();
+        if (isDigits(value)) {
+            return Long.parseLong(value);
+        }
+        try {
+            LocalDateTime local;
+            if (value.length() == 10) {
+                local = LocalDate.parse(value).atTime(dateOnlyTime);
+            } else if (value.indexOf('T') == 10) {
+                local = LocalDateTime.parse(value);
+            } else if (value.length() == 16) {
+                local = LocalDateTime.parse(value, DATE_MINUTES);
+            } else {
+                local = LocalDateTime.parse(value, DATE_TIME);
+            }
+            return local.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return NONE;
+        }
+    }
+
+    private static boolean isDigits(String value) {
+        if (value.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
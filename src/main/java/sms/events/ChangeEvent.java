@@ -0,0 +1,60 @@
+package sms.events;
+
+/**
+ * A committed change to a repository record.
+ * The before image is null for ADD and the after image is null for DELETE.
+ * Both images are detached copies, so listeners may keep them.
+ * @param <T> The type of record that changed
+ */
+public class ChangeEvent<T> {
+    private final long sequence;
+    private final String entityType;
+    private final ChangeType type;
+    private final T before;
+    private final T after;
+
+    public ChangeEvent(long sequence, String entityType, ChangeType type, T before, T after) {
+        this.sequence = sequence;
+        this.entityType = entityType;
+        this.type = type;
+        this.before = before;
+        this.after = after;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public ChangeType getType() {
+        return type;
+    }
+
+    public T getBefore() {
+        return before;
+    }
+
+    public T getAfter() {
+        return after;
+    }
+
+    /**
+     * @return The after image, or the before image for deletes
+     */
+    public T getItem() {
+        return after != null ? after : before;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" +
+                "sequence=" + sequence +
+                ", entityType='" + entityType + '\'' +
+                ", type=" + type +
+                ", item=" + getItem() +
+                '}';
+    }
+}
@@ -0,0 +1,355 @@
+package sms.events;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Publishes committed repository changes to listeners.
+ *
+ * Callers mutate records in place before calling update(), so a before image
+ * cannot be taken from the record itself. A bus gets them in one of two ways:
+ * <ul>
+ * <li>By default, while any listener is registered, it keeps a serialized
+ * snapshot of every committed record. The application always registers
+ * listeners, so this holds each repository's data a second time (about 16 MB for
+ * 50,000 messages), and a reload serializes every record to find what changed.
+ * The first subscription builds the snapshot from the collection last passed to
+ * {@link #reset(Collection)}, and the last unsubscription drops it.</li>
+ * <li>A repository that remembers the committed state of whatever its callers can
+ * change constructs the bus with {@code snapshots} off and publishes updates with
+ * {@link #updated(Object, Object)}. Nothing is kept; only the records in an event
+ * are serialized, and a reload compares the records it replaced with the new ones
+ * through {@link #reset(Collection, Collection)}.</li>
+ * </ul>
+ * Either way nothing is serialized while no listener is registered. Listeners registered with
+ * {@link #subscribe(ChangeListener)} run on the committing thread; listeners
+ * registered with {@link #subscribeAsync(ChangeListener)} run on one dispatcher
+ * thread per bus. Either way events arrive in commit order.
+ *
+ * Repositories publish while holding their own lock, which they pass to the
+ * constructor; subscribing takes the same lock, so publication itself is not
+ * synchronized here.
+ * @param <T> The type of record being published
+ */
+public class ChangeEventBus<T> {
+    private final String entityType;
+    private final Class<T> recordType;
+    private final Function<T, ?> keyFunction;
+    private final ObjectMapper objectMapper;
+    private final Object lock;
+    private final boolean snapshots;
+    private final List<ChangeListener<T>> listeners;
+    private final List<ChangeListener<T>> asyncListeners;
+    private final List<ChangeEvent<T>> pending;
+    private volatile ExecutorService dispatcher;
+    // Null while there are no listeners
+    private Map<Object, byte[]> committed;
+    private Collection<T> source;
+    private long sequence;
+    private int batchDepth;
+
+    /**
+     * @param lock The lock the repository holds while it publishes and calls reset()
+     */
+    public ChangeEventBus(String entityType, Class<T> recordType, Function<T, ?> keyFunction, Object lock) {
+        this(entityType, recordType, keyFunction, lock, true);
+    }
+
+    /**
+     * @param lock The lock the repository holds while it publishes and calls reset()
+     * @param snapshots false if the repository supplies before images itself
+     */
+    public ChangeEventBus(String entityType, Class<T> recordType, Function<T, ?> keyFunction, Object lock,
+                          boolean snapshots) {
+        this.entityType = entityType;
+        this.recordType = recordType;
+        this.keyFunction = keyFunction;
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.lock = lock;
+        this.snapshots = snapshots;
+        this.source = Collections.emptyList();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.asyncListeners = new CopyOnWriteArrayList<>();
+        this.pending = new ArrayList<>();
+    }
+
+    /**
+     * Register a listener that runs on the committing thread
+     * @param listener The listener to add
+     */
+    public void subscribe(ChangeListener<T> listener) {
+        synchronized (lock) {
+            startSnapshot();
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * Register a listener that runs on this bus's dispatcher thread
+     * @param listener The listener to add
+     */
+    public void subscribeAsync(ChangeListener<T> listener) {
+        synchronized (lock) {
+            if (dispatcher == null) {
+                dispatcher = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, entityType.toLowerCase() + "-events");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            startSnapshot();
+            asyncListeners.add(listener);
+        }
+    }
+
+    public void unsubscribe(ChangeListener<T> listener) {
+        synchronized (lock) {
+            listeners.remove(listener);
+            asyncListeners.remove(listener);
+            if (listeners.isEmpty() && asyncListeners.isEmpty()) {
+                committed = null;
+            }
+        }
+    }
+
+    /**
+     * Hold back events until the matching {@link #commitBatch()}. Batches nest.
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * Deliver the events held since {@link #beginBatch()}, in commit order
+     */
+    public void commitBatch() {
+        if (batchDepth > 0 && --batchDepth == 0) {
+            List<ChangeEvent<T>> batch = new ArrayList<>(pending);
+            pending.clear();
+            for (ChangeEvent<T> event : batch) {
+                deliver(event);
+            }
+        }
+    }
+
+    public void added(T item) {
+        publish(ChangeType.ADD, item);
+    }
+
+    public void updated(T item) {
+        if (!snapshots) {
+            throw new IllegalStateException(entityType + " updates must be published with their before image");
+        }
+        publish(ChangeType.UPDATE, item);
+    }
+
+    /**
+     * Publish an update with a before image the repository kept itself
+     * @param before The record as last committed
+     * @param after The record now
+     */
+    public void updated(T before, T after) {
+        if (snapshots) {
+            publish(ChangeType.UPDATE, after);
+        } else if (hasListeners()) {
+            emit(ChangeType.UPDATE, snapshot(before), snapshot(after));
+        } else {
+            sequence++;
+        }
+    }
+
+    /**
+     * @return true if any listener is registered, e.g. to skip building before images
+     */
+    public boolean hasListeners() {
+        return !listeners.isEmpty() || !asyncListeners.isEmpty();
+    }
+
+    public void deleted(T item) {
+        publish(ChangeType.DELETE, item);
+    }
+
+    /**
+     * Replace the committed snapshot after a (re)load, publishing whatever differs
+     * @param items Everything the repository now holds, kept by the bus as its live view
+     */
+    public void reset(Collection<T> items) {
+        if (!snapshots) {
+            throw new IllegalStateException(entityType + " reloads must be published with the records they replace");
+        }
+        source = items;
+        if (committed == null) {
+            return;
+        }
+        beginBatch();
+        try {
+            Set<Object> seen = new HashSet<>();
+            for (T item : items) {
+                Object key = keyFunction.apply(item);
+                seen.add(key);
+                byte[] now = snapshot(item);
+                byte[] previous = committed.put(key, now);
+                if (previous == null) {
+                    emit(ChangeType.ADD, null, now);
+                } else if (!Arrays.equals(previous, now)) {
+                    emit(ChangeType.UPDATE, previous, now);
+                }
+            }
+            List<Object> removed = new ArrayList<>();
+            for (Object key : committed.keySet()) {
+                if (!seen.contains(key)) {
+                    removed.add(key);
+                }
+            }
+            for (Object key : removed) {
+                emit(ChangeType.DELETE, committed.remove(key), null);
+            }
+        } finally {
+            commitBatch();
+        }
+    }
+
+    /**
+     * Publish whatever differs after a (re)load. With snapshots on, {@code previous}
+     * is ignored and the snapshot is used instead.
+     * @param previous The records the repository held before
+     * @param items Everything the repository now holds
+     */
+    public void reset(Collection<T> previous, Collection<T> items) {
+        if (snapshots) {
+            reset(items);
+            return;
+        }
+        if (!hasListeners()) {
+            return;
+        }
+        Map<Object, T> before = new HashMap<>();
+        for (T item : previous) {
+            before.put(keyFunction.apply(item), item);
+        }
+        beginBatch();
+        try {
+            for (T item : items) {
+                T old = before.remove(keyFunction.apply(item));
+                byte[] now = snapshot(item);
+                if (old == null) {
+                    emit(ChangeType.ADD, null, now);
+                } else {
+                    byte[] was = snapshot(old);
+                    if (!Arrays.equals(was, now)) {
+                        emit(ChangeType.UPDATE, was, now);
+                    }
+                }
+            }
+            for (T old : before.values()) {
+                emit(ChangeType.DELETE, snapshot(old), null);
+            }
+        } finally {
+            commitBatch();
+        }
+    }
+
+    private void publish(ChangeType type, T item) {
+        if (!snapshots) {
+            if (!hasListeners()) {
+                sequence++;
+            } else if (type == ChangeType.DELETE) {
+                emit(type, snapshot(item), null);
+            } else {
+                emit(type, null, snapshot(item));
+            }
+            return;
+        }
+        if (committed == null) {
+            sequence++;
+            return;
+        }
+        Object key = keyFunction.apply(item);
+        byte[] previous;
+        byte[] now = null;
+        if (type == ChangeType.DELETE) {
+            previous = committed.remove(key);
+        } else {
+            now = snapshot(item);
+            previous = committed.put(key, now);
+        }
+        emit(type, previous, now);
+    }
+
+    // Snapshot what the repository holds now, before the first listener sees an event
+    private void startSnapshot() {
+        if (snapshots && committed == null) {
+            committed = new HashMap<>();
+            for (T item : source) {
+                committed.put(keyFunction.apply(item), snapshot(item));
+            }
+        }
+    }
+
+    private byte[] snapshot(T item) {
+        try {
+            return objectMapper.writeValueAsBytes(item);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not snapshot " + entityType + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void emit(ChangeType type, byte[] before, byte[] after) {
+        sequence++;
+        ChangeEvent<T> event = new ChangeEvent<>(sequence, entityType, type, toRecord(before), toRecord(after));
+        if (batchDepth > 0) {
+            pending.add(event);
+        } else {
+            deliver(event);
+        }
+    }
+
+    private T toRecord(byte[] snapshot) {
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(snapshot, recordType);
+        } catch (Exception e) {
+            System.err.println("Warning: Could not copy " + entityType + " change: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void deliver(ChangeEvent<T> event) {
+        for (ChangeListener<T> listener : listeners) {
+            try {
+                listener.onChange(event);
+            } catch (RuntimeException e) {
+                System.err.println("Warning: " + entityType + " listener failed: " + e.getMessage());
+            }
+        }
+        if (!asyncListeners.isEmpty()) {
+            dispatcher.execute(() -> {
+                for (ChangeListener<T> listener : asyncListeners) {
+                    try {
+                        listener.onChange(event);
+                    } catch (RuntimeException e) {
+                        System.err.println("Warning: " + entityType + " listener failed: " + e.getMessage());
+                    }
+                }
+            });
+        }
+    }
+}
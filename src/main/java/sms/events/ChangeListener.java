@@ -0,0 +1,14 @@
+package sms.events;
+
+/**
+ * Generic interface for components that react to repository changes
+ * @param <T> The type of record being observed
+ */
+@FunctionalInterface
+public interface ChangeListener<T> {
+    /**
+     * Called once per committed change, in commit order
+     * @param event The change with its before and after images
+     */
+    void onChange(ChangeEvent<T> event);
+}
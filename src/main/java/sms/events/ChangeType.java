@@ -0,0 +1,10 @@
+package sms.events;
+
+/**
+ * Kind of change applied to a repository record
+ */
+public enum ChangeType {
+    ADD,
+    UPDATE,
+    DELETE
+}
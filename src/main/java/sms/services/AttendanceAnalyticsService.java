@@ -0,0 +1,321 @@
+package sms.services;
+
+import sms.data.AttendanceRepository;
+import sms.data.EnrollmentIndex;
+import sms.domain.Student;
+import sms.domain.support.CompressedBitmap;
+import sms.domain.support.SymbolTable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Attendance percentages and shortage lists computed over the session bitmaps in
+ * {@link AttendanceRepository}.
+ *
+ * For a course, the attended bitmaps of all its sessions are summed into
+ * bit-sliced counters: slice i holds the students whose attendance count has bit
+ * i set, so adding a session is a ripple of AND/XOR over a handful of bitmaps and
+ * "attended fewer than k classes" is a comparison of the slices against k, again
+ * with AND/OR only. Students enrolled in a course who were never marked count as
+ * having attended nothing. Courses are tallied in parallel, and a course's
+ * counters are kept until one of its sessions is marked again.
+ *
+ * As in {@link GradeAnalyticsService}, a course's department is the letter prefix
+ * of its id.
+ */
+public class AttendanceAnalyticsService {
+    /** The usual minimum attendance, in percent */
+    public static final double DEFAULT_THRESHOLD = 75.0;
+    private static final Comparator<AttendanceSummary> BY_PERCENTAGE = Comparator
+            .comparingDouble(AttendanceSummary::getPercentage)
+            .thenComparing(AttendanceSummary::getCourseId)
+            .thenComparingInt(AttendanceSummary::getUserId);
+
+    private final AttendanceRepository attendanceRepository;
+    private final EnrollmentIndex enrollmentIndex;
+    // Keyed by interned course id code
+    private final Map<Integer, Counters> countersByCourse;
+
+    public AttendanceAnalyticsService(AttendanceRepository attendanceRepository, EnrollmentIndex enrollmentIndex) {
+        this.attendanceRepository = attendanceRepository;
+        this.enrollmentIndex = enrollmentIndex;
+        this.countersByCourse = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * One student's attendance in one course
+     */
+    public static final class AttendanceSummary {
+        private final int userId;
+        private final String courseId;
+        private final int attended;
+        private final int late;
+        private final int held;
+
+        AttendanceSummary(int userId, String courseId, int attended, int late, int held) {
+            this.userId = userId;
+            this.courseId = courseId;
+            this.attended = attended;
+            this.late = late;
+            this.held = held;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+
+        public String getCourseId() {
+            return courseId;
+        }
+
+        /**
+         * @return Classes attended, including those arrived late to
+         */
+        public int getAttended() {
+            return attended;
+        }
+
+        public int getLate() {
+            return late;
+        }
+
+        /**
+         * @return Classes held in the course
+         */
+        public int getHeld() {
+            return held;
+        }
+
+        /**
+         * @return Attendance in percent, 100 if no class has been held
+         */
+        public double getPercentage() {
+            return held == 0 ? 100.0 : attended * 100.0 / held;
+        }
+    }
+
+    /**
+     * @param userId The student
+     * @param courseId The course
+     * @return The student's attendance in the course
+     */
+    public AttendanceSummary getAttendance(int userId, String courseId) {
+        List<AttendanceRepository.Session> sessions = attendanceRepository.getSessions(courseId);
+        int index = attendanceRepository.indexOf(userId);
+        int attended = 0;
+        int late = 0;
+        if (index >= 0) {
+            for (AttendanceRepository.Session session : sessions) {
+                if (session.getAttended().contains(index)) {
+                    attended++;
+                    if (session.getLate().contains(index)) {
+                        late++;
+                    }
+                }
+            }
+        }
+        return new AttendanceSummary(userId, courseId, attended, late, sessions.size());
+    }
+
+    /**
+     * @param userId The student
+     * @param courseIds The student's courses
+     * @return The student's attendance in each course that has held a class
+     */
+    public List<AttendanceSummary> getStudentAttendance(int userId, Collection<String> courseIds) {
+        List<AttendanceSummary> summaries = new ArrayList<>();
+        for (String courseId : courseIds) {
+            AttendanceSummary summary = getAttendance(userId, courseId);
+            if (summary.getHeld() > 0) {
+                summaries.add(summary);
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * @param courseId The course
+     * @return The attendance of every student enrolled in or marked for the course,
+     *         lowest percentage first
+     */
+    public List<AttendanceSummary> getCourseAttendance(String courseId) {
+        Tally tally = tally(courseId);
+        List<AttendanceSummary> summaries = tally.summarize(tally.universe);
+        for (int userId : tally.unmarked) {
+            summaries.add(new AttendanceSummary(userId, courseId, 0, 0, tally.held));
+        }
+        summaries.sort(BY_PERCENTAGE);
+        return summaries;
+    }
+
+    /**
+     * Share of seats filled across all of a course's classes
+     * @param courseId The course
+     * @return Attendance in percent, 100 if no class has been held
+     */
+    public double getCourseRate(String courseId) {
+        Tally tally = tally(courseId);
+        long seats = (long) tally.held * (tally.universe.cardinality() + tally.unmarked.size());
+        if (seats == 0) {
+            return 100.0;
+        }
+        long filled = 0;
+        for (AttendanceRepository.Session session : tally.sessions) {
+            filled += session.getAttended().andCardinality(tally.universe);
+        }
+        return filled * 100.0 / seats;
+    }
+
+    /**
+     * Find students whose attendance in a department's courses is below a threshold
+     * @param department A department code such as "CS", or null for every course
+     * @param threshold The minimum attendance, in percent
+     * @return One entry per student and course below the threshold, lowest percentage first
+     */
+    public List<AttendanceSummary> getShortages(String department, double threshold) {
+        List<String> courseIds = attendanceRepository.getCourseIds().stream()
+                .filter(id -> department == null || GradeAnalyticsService.departmentOf(id).equalsIgnoreCase(department))
+                .collect(Collectors.toList());
+        return courseIds.parallelStream()
+                .flatMap(courseId -> tally(courseId).below(threshold).stream())
+                .sorted(BY_PERCENTAGE)
+                .collect(Collectors.toList());
+    }
+
+    private Tally tally(String courseId) {
+        List<AttendanceRepository.Session> sessions = attendanceRepository.getSessions(courseId);
+        // Sessions are replaced rather than modified, so unchanged references mean unchanged counts
+        int courseCode = SymbolTable.code(courseId);
+        Counters counters = countersByCourse.get(courseCode);
+        if (counters == null || !counters.sessions.equals(sessions)) {
+            counters = new Counters(sessions);
+            countersByCourse.put(courseCode, counters);
+        }
+        Tally tally = new Tally(courseId, counters);
+        CompressedBitmap roster = new CompressedBitmap();
+        for (Student student : enrollmentIndex.getStudentsInCourse(courseId)) {
+            int index = attendanceRepository.indexOf(student.getUserId());
+            if (index >= 0) {
+                roster.add(index);
+            } else {
+                tally.unmarked.add(student.getUserId());
+            }
+        }
+        // Anyone enrolled or marked at least once counts towards the course
+        tally.universe = roster.or(counters.marked);
+        return tally;
+    }
+
+    // Bit-sliced attendance counters over all sessions of one course
+    private static final class Counters {
+        private final List<AttendanceRepository.Session> sessions;
+        private final List<CompressedBitmap> slices = new ArrayList<>();
+        private CompressedBitmap marked = new CompressedBitmap();
+
+        Counters(List<AttendanceRepository.Session> sessions) {
+            this.sessions = sessions;
+            for (AttendanceRepository.Session session : sessions) {
+                add(session.getAttended());
+                marked = marked.or(session.getAttended());
+            }
+        }
+
+        // Add one to the counter of every student in the bitmap
+        private void add(CompressedBitmap attended) {
+            CompressedBitmap carry = attended;
+            for (int i = 0; i < slices.size() && !carry.isEmpty(); i++) {
+                CompressedBitmap slice = slices.get(i);
+                slices.set(i, slice.xor(carry));
+                carry = slice.and(carry);
+            }
+            if (!carry.isEmpty()) {
+                slices.add(carry);
+            }
+        }
+
+        int count(int index) {
+            int count = 0;
+            for (int i = 0; i < slices.size(); i++) {
+                if (slices.get(i).contains(index)) {
+                    count |= 1 << i;
+                }
+            }
+            return count;
+        }
+    }
+
+    // One course's counters restricted to the students who belong to it
+    private final class Tally {
+        private final String courseId;
+        private final List<AttendanceRepository.Session> sessions;
+        private final List<CompressedBitmap> slices;
+        private final Counters counters;
+        private final int held;
+        private final List<Integer> unmarked = new ArrayList<>();
+        private CompressedBitmap universe;
+
+        Tally(String courseId, Counters counters) {
+            this.courseId = courseId;
+            this.counters = counters;
+            this.sessions = counters.sessions;
+            this.slices = counters.slices;
+            this.held = sessions.size();
+        }
+
+        // Students in the universe whose count is below k
+        CompressedBitmap lessThan(int k) {
+            if (k >= 1 << slices.size()) {
+                return universe.copy();
+            }
+            CompressedBitmap less = new CompressedBitmap();
+            CompressedBitmap equal = universe;
+            for (int i = slices.size() - 1; i >= 0; i--) {
+                if ((k & (1 << i)) != 0) {
+                    less = less.or(equal.andNot(slices.get(i)));
+                    equal = equal.and(slices.get(i));
+                } else {
+                    equal = equal.andNot(slices.get(i));
+                }
+            }
+            return less;
+        }
+
+        List<AttendanceSummary> below(double threshold) {
+            List<AttendanceSummary> shortages = new ArrayList<>();
+            if (held == 0) {
+                return shortages;
+            }
+            // Fewest classes a student must attend to reach the threshold
+            int required = (int) Math.ceil(threshold * held / 100.0 - 1e-9);
+            if (required <= 0) {
+                return shortages;
+            }
+            shortages.addAll(summarize(lessThan(required)));
+            for (int userId : unmarked) {
+                shortages.add(new AttendanceSummary(userId, courseId, 0, 0, held));
+            }
+            return shortages;
+        }
+
+        List<AttendanceSummary> summarize(CompressedBitmap students) {
+            List<AttendanceSummary> summaries = new ArrayList<>();
+            students.forEach(index -> {
+                int late = 0;
+                for (AttendanceRepository.Session session : sessions) {
+                    if (session.getLate().contains(index)) {
+                        late++;
+                    }
+                }
+                summaries.add(new AttendanceSummary(attendanceRepository.userIdAt(index), courseId,
+                        counters.count(index), late, held));
+            });
+            return summaries;
+        }
+    }
+}
@@ -0,0 +1,574 @@
+package sms.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import sms.data.CourseRepository;
+import sms.data.GradeRepository;
+import sms.data.StudentRepository;
+import sms.domain.Batch;
+import sms.domain.Course;
+import sms.domain.Department;
+import sms.domain.Grade;
+import sms.domain.Student;
+import sms.domain.support.IdentityMap;
+import sms.exceptions.RepositoryException;
+import sms.exceptions.ValidationException;
+import sms.validation.InputValidator;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Imports students (in the StudentTable layout), courses and grade sheets from CSV
+ * or JSON files.
+ *
+ * The source is read as a stream, {@link #CHUNK_SIZE} rows at a time. Each chunk is
+ * validated in parallel with {@link InputValidator}, then checked in file order
+ * for duplicates against the repositories' primary-key indexes and the rows
+ * already accepted. Accepted records are committed {@link #BATCH_SIZE} at a time,
+ * each batch with one write of the data file. Every rejected row is reported with
+ * its line number and the reason.
+ *
+ * CSV files need a header row; columns are matched by name, ignoring case, spaces
+ * and underscores. JSON files hold an array of objects with the same field names.
+ */
+public class BulkImportService {
+    /** Rows validated in parallel at a time */
+    public static final int CHUNK_SIZE = 10_000;
+    /** Records committed with one write of the data file */
+    public static final int BATCH_SIZE = 50_000;
+
+    private static final String[] STUDENT_COLUMNS =
+            {"studentName", "studentRegNo", "department", "yearOfStudy", "courseCode", "studentEmail"};
+    private static final String[] COURSE_COLUMNS = {"courseId", "courseName", "creditHours", "facultyName"};
+    private static final String[] GRADE_COLUMNS = {"studentId", "courseId", "teacherId", "grade"};
+
+    private final StudentRepository studentRepository;
+    private final CourseRepository courseRepository;
+    private final GradeRepository gradeRepository;
+    private final ObjectMapper objectMapper;
+
+    public BulkImportService(StudentRepository studentRepository, CourseRepository courseRepository,
+                             GradeRepository gradeRepository) {
+        this.studentRepository = studentRepository;
+        this.courseRepository = courseRepository;
+        this.gradeRepository = gradeRepository;
+        this.objectMapper = new ObjectMapper();
+    }
+
+    /**
+     * The outcome of one import
+     */
+    public static final class ImportResult {
+        private long rowsRead;
+        private long imported;
+        private final List<Rejection> rejected = new ArrayList<>();
+
+        public long getRowsRead() {
+            return rowsRead;
+        }
+
+        /**
+         * @return How many records were added (for students, how many students)
+         */
+        public long getImported() {
+            return imported;
+        }
+
+        public List<Rejection> getRejected() {
+            return rejected;
+        }
+    }
+
+    /**
+     * A row that was not imported
+     */
+    public static final class Rejection {
+        private final long line;
+        private final String reason;
+
+        Rejection(long line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+
+        /**
+         * @return The CSV line number, or the position of the object in a JSON array
+         */
+        public long getLine() {
+            return line;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + line + ": " + reason;
+        }
+    }
+
+    /**
+     * Import students, one row per student and course. A student's first row creates
+     * the account, with the registration number as username and initial password;
+     * further rows for the same registration number add courses.
+     * @param source A CSV or JSON file in the StudentTable layout
+     * @return The outcome of the import
+     */
+    public ImportResult importStudents(Path source) throws RepositoryException {
+        ImportResult result = new ImportResult();
+        Map<Integer, Student> pending = new LinkedHashMap<>();
+        Map<Integer, Student> imported = new HashMap<>();
+        Map<Integer, Student> lateEnrollments = new LinkedHashMap<>();
+        try (RowReader reader = open(source, STUDENT_COLUMNS)) {
+            List<Row> chunk;
+            while (!(chunk = reader.next(CHUNK_SIZE)).isEmpty()) {
+                result.rowsRead += chunk.size();
+                for (Checked<Student> checked : validate(chunk, this::parseStudent)) {
+                    if (checked.error != null) {
+                        result.rejected.add(new Rejection(checked.row.line, checked.error));
+                        continue;
+                    }
+                    Student student = checked.value;
+                    // Only interned once the row is accepted, so bad rows leave nothing behind
+                    String courseId = checked.row.get(4);
+                    if (courseId != null && !courseRepository.containsCourseId(courseId)) {
+                        result.rejected.add(new Rejection(checked.row.line, "Unknown course " + courseId));
+                        continue;
+                    }
+                    Course course = IdentityMap.course(courseId);
+                    if (course != null) {
+                        student.getCourses().add(course);
+                    }
+                    // A student committed in an earlier batch needs a second write for new courses
+                    Student earlier = pending.get(student.getUserId());
+                    boolean committed = earlier == null && imported.containsKey(student.getUserId());
+                    if (committed) {
+                        earlier = imported.get(student.getUserId());
+                    }
+                    if (earlier == null) {
+                        if (studentRepository.containsUserId(student.getUserId())) {
+                            result.rejected.add(new Rejection(checked.row.line, "Student " + student.getId() + " already exists"));
+                        } else {
+                            pending.put(student.getUserId(), student);
+                        }
+                    } else if (!earlier.getName().equals(student.getName())) {
+                        result.rejected.add(new Rejection(checked.row.line, "Student " + student.getId()
+                                + " was already imported as " + earlier.getName()));
+                    } else if (course != null && !hasCourse(earlier, course.getCourseId())) {
+                        earlier.getCourses().add(course);
+                        if (committed) {
+                            lateEnrollments.put(earlier.getUserId(), earlier);
+                        }
+                    }
+                }
+                if (pending.size() >= BATCH_SIZE) {
+                    commitStudents(pending, imported, result);
+                }
+            }
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to read " + source + ": " + e.getMessage(), "IMPORT", "STUDENT", e);
+        }
+        commitStudents(pending, imported, result);
+        if (!lateEnrollments.isEmpty()) {
+            studentRepository.updateAll(lateEnrollments.values());
+        }
+        return result;
+    }
+
+    /**
+     * @param source A CSV or JSON file with courseId, courseName, creditHours and optional facultyName
+     * @return The outcome of the import
+     */
+    public ImportResult importCourses(Path source) throws RepositoryException {
+        ImportResult result = new ImportResult();
+        Map<String, Course> pending = new LinkedHashMap<>();
+        Set<String> seen = new HashSet<>();
+        try (RowReader reader = open(source, COURSE_COLUMNS)) {
+            List<Row> chunk;
+            while (!(chunk = reader.next(CHUNK_SIZE)).isEmpty()) {
+                result.rowsRead += chunk.size();
+                for (Checked<Course> checked : validate(chunk, this::parseCourse)) {
+                    if (checked.error != null) {
+                        result.rejected.add(new Rejection(checked.row.line, checked.error));
+                    } else if (!seen.add(checked.value.getCourseId())) {
+                        result.rejected.add(new Rejection(checked.row.line, "Duplicate course " + checked.value.getCourseId() + " in file"));
+                    } else if (courseRepository.containsCourseId(checked.value.getCourseId())) {
+                        result.rejected.add(new Rejection(checked.row.line, "Course " + checked.value.getCourseId() + " already exists"));
+                    } else {
+                        pending.put(checked.value.getCourseId(), checked.value);
+                    }
+                }
+                if (pending.size() >= BATCH_SIZE) {
+                    commit(pending, courseRepository::addAll, result, "Course ", Course::getCourseId);
+                }
+            }
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to read " + source + ": " + e.getMessage(), "IMPORT", "COURSE", e);
+        }
+        commit(pending, courseRepository::addAll, result, "Course ", Course::getCourseId);
+        return result;
+    }
+
+    /**
+     * @param source A CSV or JSON file with studentId, courseId, optional teacherId and grade
+     * @return The outcome of the import
+     */
+    public ImportResult importGrades(Path source) throws RepositoryException {
+        ImportResult result = new ImportResult();
+        Map<String, Grade> pending = new LinkedHashMap<>();
+        Set<String> seen = new HashSet<>();
+        try (RowReader reader = open(source, GRADE_COLUMNS)) {
+            List<Row> chunk;
+            while (!(chunk = reader.next(CHUNK_SIZE)).isEmpty()) {
+                result.rowsRead += chunk.size();
+                for (Checked<Grade> checked : validate(chunk, this::parseGrade)) {
+                    Grade grade = checked.value;
+                    String key = grade == null ? null : gradeKey(grade);
+                    if (checked.error != null) {
+                        result.rejected.add(new Rejection(checked.row.line, checked.error));
+                    } else if (!studentRepository.containsUserId(grade.getStudentId())) {
+                        result.rejected.add(new Rejection(checked.row.line, "Unknown student " + grade.getStudentId()));
+                    } else if (!courseRepository.containsCourseId(grade.getCourseId())) {
+                        result.rejected.add(new Rejection(checked.row.line, "Unknown course " + grade.getCourseId()));
+                    } else if (!seen.add(key)) {
+                        result.rejected.add(new Rejection(checked.row.line, "Duplicate grade for student "
+                                + grade.getStudentId() + " in " + grade.getCourseId() + " in file"));
+                    } else if (gradeRepository.containsGrade(grade.getStudentId(), grade.getCourseId())) {
+                        result.rejected.add(new Rejection(checked.row.line, "Student " + grade.getStudentId()
+                                + " already has a grade in " + grade.getCourseId()));
+                    } else {
+                        pending.put(key, grade);
+                    }
+                }
+                if (pending.size() >= BATCH_SIZE) {
+                    commit(pending, gradeRepository::addAll, result, "Grade ", BulkImportService::gradeKey);
+                }
+            }
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to read " + source + ": " + e.getMessage(), "IMPORT", "GRADE", e);
+        }
+        commit(pending, gradeRepository::addAll, result, "Grade ", BulkImportService::gradeKey);
+        return result;
+    }
+
+    // ===================== VALIDATION =====================
+
+    private interface RowParser<T> {
+        T parse(Row row) throws ValidationException;
+    }
+
+    private static final class Checked<T> {
+        private final Row row;
+        private final T value;
+        private final String error;
+
+        Checked(Row row, T value, String error) {
+            this.row = row;
+            this.value = value;
+            this.error = error;
+        }
+    }
+
+    // Parses and validates a chunk on all cores; the result keeps the file order
+    private static <T> List<Checked<T>> validate(List<Row> chunk, RowParser<T> parser) {
+        return chunk.parallelStream()
+                .map(row -> {
+                    try {
+                        return new Checked<>(row, parser.parse(row), null);
+                    } catch (ValidationException e) {
+                        return new Checked<T>(row, null, e.getMessage());
+                    } catch (RuntimeException e) {
+                        return new Checked<T>(row, null, "Invalid row: " + e.getMessage());
+                    }
+                })
+                .collect(Collectors.toList());
+    }
+
+    private Student parseStudent(Row row) throws ValidationException {
+        String name = row.get(0);
+        String regNo = row.get(1);
+        String email = row.get(5);
+        InputValidator.validateName(name);
+        InputValidator.validateEmail(email);
+        int userId = Student.parseRegNo(regNo);
+        Student student = new Student(userId, name.trim(), email.trim(), regNo.trim().toLowerCase(Locale.ROOT), regNo.trim());
+        if (row.get(2) != null) {
+            student.setDept(new Department(row.get(2)));
+        }
+        if (row.get(3) != null) {
+            student.setBatch(new Batch(row.get(3)));
+        }
+        if (row.get(4) != null) {
+            // Attached by importStudents once the course is known to exist
+            InputValidator.validateCourseId(row.get(4));
+        }
+        return student;
+    }
+
+    private Course parseCourse(Row row) throws ValidationException {
+        InputValidator.validateCourseId(row.get(0));
+        InputValidator.validateCourseName(row.get(1));
+        InputValidator.validateCreditHours(row.get(2));
+        Course course = new Course(row.get(0), row.get(1), Integer.parseInt(row.get(2)));
+        course.setFacultyName(row.get(3));
+        return course;
+    }
+
+    private Grade parseGrade(Row row) throws ValidationException {
+        InputValidator.validateNumericId(row.get(0));
+        InputValidator.validateCourseId(row.get(1));
+        int teacherId = 0;
+        if (row.get(2) != null) {
+            InputValidator.validateNumericId(row.get(2));
+            teacherId = Integer.parseInt(row.get(2));
+        }
+        String letter = row.get(3) == null ? null : row.get(3).toUpperCase(Locale.ROOT);
+        if (GradeDistribution.pointsFor(letter) < 0) {
+            throw new ValidationException("Invalid grade '" + row.get(3) + "': expected A, A-, B+, B, B-, C+, C, C-, D or F",
+                    "grade", row.get(3));
+        }
+        return new Grade(Integer.parseInt(row.get(0)), row.get(1), teacherId, letter);
+    }
+
+    // ===================== COMMIT =====================
+
+    private interface BatchWriter<T> {
+        List<T> addAll(List<T> batch) throws RepositoryException;
+    }
+
+    private interface KeyOf<T> {
+        String key(T item);
+    }
+
+    private static <T> void commit(Map<String, T> pending, BatchWriter<T> writer, ImportResult result,
+                                   String label, KeyOf<T> keyOf) throws RepositoryException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<T> batch = new ArrayList<>(pending.values());
+        pending.clear();
+        List<T> skipped = writer.addAll(batch);
+        result.imported += batch.size() - skipped.size();
+        for (T item : skipped) {
+            // Another process added the record after it was checked
+            result.rejected.add(new Rejection(0, label + keyOf.key(item) + " was added concurrently"));
+        }
+    }
+
+    private void commitStudents(Map<Integer, Student> pending, Map<Integer, Student> imported,
+                                ImportResult result) throws RepositoryException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Student> batch = new ArrayList<>(pending.values());
+        pending.clear();
+        List<Student> skipped = studentRepository.addAll(batch);
+        Set<Integer> skippedIds = new HashSet<>();
+        for (Student student : skipped) {
+            skippedIds.add(student.getUserId());
+            result.rejected.add(new Rejection(0, "Student " + student.getId() + " was added concurrently"));
+        }
+        for (Student student : batch) {
+            if (!skippedIds.contains(student.getUserId())) {
+                imported.put(student.getUserId(), studentRepository.getByUserId(student.getUserId()));
+            }
+        }
+        result.imported += batch.size() - skipped.size();
+    }
+
+    private static boolean hasCourse(Student student, String courseId) {
+        for (Course course : student.getCourses()) {
+            if (course.getCourseId().equals(courseId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String gradeKey(Grade grade) {
+        return grade.getStudentId() + ":" + grade.getCourseId();
+    }
+
+    // ===================== READING =====================
+
+    private RowReader open(Path source, String[] columns) throws IOException {
+        if (source.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json")) {
+            return new JsonRowReader(objectMapper.readerFor(JsonNode.class).readValues(source.toFile()), columns);
+        }
+        return new CsvRowReader(Files.newBufferedReader(source, StandardCharsets.UTF_8), columns);
+    }
+
+    private static final class Row {
+        private final long line;
+        private final String[] values;
+
+        Row(long line, String[] values) {
+            this.line = line;
+            this.values = values;
+        }
+
+        /**
+         * @return The trimmed value of a column, or null if it is missing or blank
+         */
+        String get(int column) {
+            String value = values[column];
+            return value == null || value.trim().isEmpty() ? null : value.trim();
+        }
+    }
+
+    private interface RowReader extends Closeable {
+        /**
+         * @return Up to max rows, empty at the end of the source
+         */
+        List<Row> next(int max) throws IOException;
+    }
+
+    private static String normalize(String column) {
+        StringBuilder normalized = new StringBuilder(column.length());
+        for (int i = 0; i < column.length(); i++) {
+            char c = column.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static final class CsvRowReader implements RowReader {
+        private final BufferedReader reader;
+        private final int[] positions;
+        private final int columnCount;
+        private long line;
+
+        CsvRowReader(BufferedReader reader, String[] columns) throws IOException {
+            this.reader = reader;
+            this.columnCount = columns.length;
+            String header = reader.readLine();
+            line = 1;
+            if (header == null) {
+                throw new IOException("File is empty");
+            }
+            if (!header.isEmpty() && header.charAt(0) == '\uFEFF') {
+                header = header.substring(1);
+            }
+            List<String> headings = split(header);
+            this.positions = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                positions[i] = -1;
+                for (int j = 0; j < headings.size(); j++) {
+                    if (normalize(headings.get(j)).equals(normalize(columns[i]))) {
+                        positions[i] = j;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public List<Row> next(int max) throws IOException {
+            List<Row> rows = new ArrayList<>();
+            String text;
+            while (rows.size() < max && (text = reader.readLine()) != null) {
+                line++;
+                if (text.trim().isEmpty()) {
+                    continue;
+                }
+                List<String> fields = split(text);
+                String[] values = new String[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    values[i] = positions[i] >= 0 && positions[i] < fields.size() ? fields.get(positions[i]) : null;
+                }
+                rows.add(new Row(line, values));
+            }
+            return rows;
+        }
+
+        // Splits one CSV line, honouring double-quoted fields (RFC 4180)
+        private static List<String> split(String text) {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static final class JsonRowReader implements RowReader {
+        private final MappingIterator<JsonNode> nodes;
+        private final String[] columns;
+        private long index;
+
+        JsonRowReader(MappingIterator<JsonNode> nodes, String[] columns) {
+            this.nodes = nodes;
+            this.columns = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                this.columns[i] = normalize(columns[i]);
+            }
+        }
+
+        @Override
+        public List<Row> next(int max) throws IOException {
+            List<Row> rows = new ArrayList<>();
+            while (rows.size() < max && nodes.hasNextValue()) {
+                JsonNode node = nodes.nextValue();
+                index++;
+                String[] values = new String[columns.length];
+                node.fields().forEachRemaining(field -> {
+                    String name = normalize(field.getKey());
+                    for (int i = 0; i < columns.length; i++) {
+                        if (columns[i].equals(name) && !field.getValue().isNull()) {
+                            values[i] = field.getValue().asText();
+                        }
+                    }
+                });
+                rows.add(new Row(index, values));
+            }
+            return rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            nodes.close();
+        }
+    }
+}
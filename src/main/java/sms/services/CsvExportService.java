@@ -0,0 +1,267 @@
+package sms.services;
+
+import sms.data.AttendanceRepository;
+import sms.data.GradeRepository;
+import sms.data.StudentRepository;
+import sms.data.SubmissionRepository;
+import sms.domain.Course;
+import sms.domain.Student;
+import sms.exceptions.RepositoryException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes grades, rosters, submissions and attendance as CSV reports.
+ *
+ * Rows are formatted one record at a time straight into a buffered writer, so an
+ * export holds one row in memory on top of the records the repositories already
+ * keep. Large exports are split into contiguous partitions that are written to
+ * temporary files in parallel and then appended to the report in partition
+ * order, so the output is identical to a sequential export.
+ */
+public class CsvExportService {
+    /** Exports with fewer records than this are written on the calling thread */
+    public static final int PARALLEL_THRESHOLD = 50_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final GradeRepository gradeRepository;
+    private final StudentRepository studentRepository;
+    private final SubmissionRepository submissionRepository;
+    private final AttendanceRepository attendanceRepository;
+
+    public CsvExportService(GradeRepository gradeRepository, StudentRepository studentRepository,
+                            SubmissionRepository submissionRepository, AttendanceRepository attendanceRepository) {
+        this.gradeRepository = gradeRepository;
+        this.studentRepository = studentRepository;
+        this.submissionRepository = submissionRepository;
+        this.attendanceRepository = attendanceRepository;
+    }
+
+    /**
+     * Formats one record as zero or more CSV rows
+     * @param <T> The type of record
+     */
+    public interface RowWriter<T> {
+        /**
+         * @return How many rows were written
+         */
+        int write(T record, Writer out) throws IOException;
+    }
+
+    /**
+     * @param target The CSV file to write
+     * @return How many rows were written, excluding the header
+     */
+    public long exportGrades(Path target) throws RepositoryException {
+        return export(target, "StudentID,Course,TeacherID,Grade", gradeRepository.getAll(), (grade, out) -> {
+            row(out, String.valueOf(grade.getStudentId()), grade.getCourseId(),
+                    String.valueOf(grade.getTeacherId()), grade.getGrade());
+            return 1;
+        });
+    }
+
+    /**
+     * Write one row per student and enrolled course, in the StudentTable layout
+     * @param target The CSV file to write
+     * @return How many rows were written, excluding the header
+     */
+    public long exportRoster(Path target) throws RepositoryException {
+        return export(target, "StudentName,StudentRegNo,Department,YearOfStudy,CourseCode,StudentEmail",
+                studentRepository.getAll(), this::writeRosterRows);
+    }
+
+    /**
+     * @param target The CSV file to write
+     * @return How many rows were written, excluding the header
+     */
+    public long exportSubmissions(Path target) throws RepositoryException {
+        return export(target, "SubmissionID,AssignmentID,StudentID,FileName,FilePath,Timestamp",
+                submissionRepository.getAll(), (submission, out) -> {
+                    row(out, String.valueOf(submission.getSubmissionId()), String.valueOf(submission.getAssignmentId()),
+                            String.valueOf(submission.getStudentId()), submission.getFileName(),
+                            submission.getFilePath(), submission.getTimestamp());
+                    return 1;
+                });
+    }
+
+    /**
+     * Write one row per Present or Late mark, reading each session's bitmaps
+     * directly; absences are implied by the course roster and are not written
+     * @param target The CSV file to write
+     * @return How many rows were written, excluding the header
+     */
+    public long exportAttendance(Path target) throws RepositoryException {
+        List<AttendanceRepository.Session> sessions = new ArrayList<>();
+        for (String courseId : attendanceRepository.getCourseIds()) {
+            sessions.addAll(attendanceRepository.getSessions(courseId));
+        }
+        // Session bitmaps are immutable and dense indexes are never reassigned
+        int[] userIds = attendanceRepository.getUserIds();
+        return export(target, "StudentRegNo,CourseCode,ClassDate,Status", sessions, (session, out) -> {
+            String date = session.getDate().toString();
+            int[] attended = session.getAttended().toArray();
+            for (int index : attended) {
+                row(out, "S" + userIds[index], session.getCourseId(), date,
+                        session.getLate().contains(index) ? AttendanceRepository.LATE : AttendanceRepository.PRESENT);
+            }
+            return attended.length;
+        });
+    }
+
+    /**
+     * Write a CSV report, in parallel partitions when it is large
+     * @param target The CSV file to write
+     * @param header The header line, without a line break
+     * @param records The records to export, in output order
+     * @param rowWriter Formats each record
+     * @return How many rows were written, excluding the header
+     */
+    public <T> long export(Path target, String header, List<T> records, RowWriter<T> rowWriter) throws RepositoryException {
+        int partitions = records.size() < PARALLEL_THRESHOLD ? 1
+                : Math.min(Runtime.getRuntime().availableProcessors(), records.size() / PARALLEL_THRESHOLD);
+        try {
+            if (partitions <= 1) {
+                try (Writer out = open(target)) {
+                    out.write(header);
+                    out.write('\n');
+                    return writeRange(records, 0, records.size(), rowWriter, out);
+                }
+            }
+            return exportPartitioned(target, header, records, rowWriter, partitions);
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to export " + target, "EXPORT", "CSV", e);
+        }
+    }
+
+    private <T> long exportPartitioned(Path target, String header, List<T> records, RowWriter<T> rowWriter,
+                                       int partitions) throws IOException, RepositoryException {
+        List<Path> parts = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(partitions);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            int size = records.size();
+            for (int i = 0; i < partitions; i++) {
+                int from = (int) ((long) size * i / partitions);
+                int to = (int) ((long) size * (i + 1) / partitions);
+                Path part = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName() + ".", ".part");
+                parts.add(part);
+                results.add(executor.submit(() -> {
+                    try (Writer out = open(part)) {
+                        return writeRange(records, from, to, rowWriter, out);
+                    }
+                }));
+            }
+
+            long rows = 0;
+            for (Future<Long> result : results) {
+                rows += result.get();
+            }
+
+            try (Writer out = open(target)) {
+                out.write(header);
+                out.write('\n');
+            }
+            try (FileChannel report = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                for (Path part : parts) {
+                    try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                        long position = 0;
+                        long length = in.size();
+                        while (position < length) {
+                            position += in.transferTo(position, length - position, report);
+                        }
+                    }
+                }
+            }
+            return rows;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Export of " + target + " was interrupted", "EXPORT", "CSV", e);
+        } catch (ExecutionException e) {
+            throw new RepositoryException("Failed to export " + target + ": " + e.getCause().getMessage(),
+                    "EXPORT", "CSV", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            for (Path part : parts) {
+                Files.deleteIfExists(part);
+            }
+        }
+    }
+
+    private static <T> long writeRange(List<T> records, int from, int to, RowWriter<T> rowWriter, Writer out)
+            throws IOException {
+        long rows = 0;
+        for (int i = from; i < to; i++) {
+            rows += rowWriter.write(records.get(i), out);
+        }
+        return rows;
+    }
+
+    private int writeRosterRows(Student student, Writer out) throws IOException {
+        if (student.getCourses() == null) {
+            return 0;
+        }
+        String department = student.getDept() != null ? student.getDept().getName() : null;
+        String year = student.getBatch() != null ? student.getBatch().getYearRange() : null;
+        int rows = 0;
+        for (Course course : student.getCourses()) {
+            if (course != null) {
+                row(out, student.getName(), student.getId(), department, year, course.getCourseId(), student.getEmail());
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static Writer open(Path path) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    private static void row(Writer out, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            field(out, fields[i]);
+        }
+        out.write('\n');
+    }
+
+    // Quote fields that contain a separator, quote or line break (RFC 4180)
+    private static void field(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,314 @@
+package sms.services;
+
+import sms.data.AssignmentRepository;
+import sms.data.EnrollmentIndex;
+import sms.data.MessageRepository;
+import sms.data.SubmissionRepository;
+import sms.domain.Assignment;
+import sms.domain.Message;
+import sms.domain.Student;
+import sms.domain.Submission;
+import sms.domain.support.Timestamps;
+import sms.events.ChangeEvent;
+import sms.exceptions.NotFoundException;
+import sms.exceptions.RepositoryException;
+import sms.exceptions.ValidationException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends reminder messages to students who have not submitted an assignment as
+ * its due date approaches.
+ *
+ * Every assignment gets one {@link TimingWheel} entry per reminder offset (by
+ * default 24 hours and 1 hour before it is due). Assignment events reschedule or
+ * cancel an assignment's entries in O(1), and a background thread turns the wheel
+ * once per tick, so nothing ever rescans the assignment list. When a reminder
+ * fires, the course roster from {@link EnrollmentIndex} is checked against the
+ * assignment's submissions and the messages are queued on the
+ * {@link MessageDeliveryService}.
+ *
+ * Before sending, a reminder is claimed with
+ * {@link AssignmentRepository#claimReminder(int, long)}, which records its time on
+ * the assignment under the assignments file lock. Every process running the
+ * service schedules the same reminders, but only the one that claims a reminder
+ * sends it. Reminders at or before the recorded time are never scheduled again.
+ * If reminders came due while no process was running, the latest of them is sent
+ * on the first tick, as long as the assignment is not yet due. Each reminder
+ * expires a day after the assignment is due.
+ *
+ * If queueing fails part way through a reminder, the claim is released and the
+ * students already reminded are remembered, so the reminder is retried on the
+ * next tick for the rest only. {@link #stop()} waits for a tick in progress to
+ * finish queueing, so stop this service before the delivery service.
+ */
+public class DeadlineReminderService {
+    public static final List<Duration> DEFAULT_OFFSETS = List.of(Duration.ofHours(24), Duration.ofHours(1));
+    /** Resolution of the wheel and interval of the background thread */
+    public static final long TICK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long EXPIRES_AFTER_DUE_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int SENDER_ID = 0;
+    private static final String SENDER_NAME = "Deadline Reminders";
+    private static final String SENDER_ROLE = "SYSTEM";
+    private static final String STUDENT_ROLE = "STUDENT";
+
+    private final AssignmentRepository assignmentRepository;
+    private final SubmissionRepository submissionRepository;
+    private final MessageRepository messageRepository;
+    private final MessageDeliveryService messageDeliveryService;
+    private final EnrollmentIndex enrollmentIndex;
+    private final List<Duration> offsets;
+    private final TimingWheel<Reminder> wheel;
+    private final Map<Integer, List<TimingWheel.Entry<Reminder>>> entriesByAssignment;
+    // Students already reminded, for reminders whose sending failed part way
+    private final Map<Integer, Progress> progressByAssignment;
+    private ScheduledExecutorService executor;
+
+    public DeadlineReminderService(AssignmentRepository assignmentRepository, SubmissionRepository submissionRepository,
+                                   MessageRepository messageRepository, MessageDeliveryService messageDeliveryService,
+                                   EnrollmentIndex enrollmentIndex, List<Duration> offsets) throws RepositoryException {
+        this.assignmentRepository = assignmentRepository;
+        this.submissionRepository = submissionRepository;
+        this.messageRepository = messageRepository;
+        this.messageDeliveryService = messageDeliveryService;
+        this.enrollmentIndex = enrollmentIndex;
+        this.offsets = new ArrayList<>(offsets);
+        this.wheel = new TimingWheel<>(TICK_MILLIS, System.currentTimeMillis());
+        this.entriesByAssignment = new HashMap<>();
+        this.progressByAssignment = new HashMap<>();
+        assignmentRepository.getEventBus().subscribe(this::onAssignmentChange);
+        synchronized (this) {
+            for (Assignment assignment : assignmentRepository.getAll()) {
+                schedule(assignment);
+            }
+        }
+    }
+
+    // One reminder for one assignment at one offset before its due date
+    private static final class Reminder {
+        private final int assignmentId;
+        private final Duration offset;
+        private final long remindAt;
+
+        Reminder(int assignmentId, Duration offset, long remindAt) {
+            this.assignmentId = assignmentId;
+            this.offset = offset;
+            this.remindAt = remindAt;
+        }
+    }
+
+    // The students a partly sent reminder has reached
+    private static final class Progress {
+        private final long remindAt;
+        private final Set<Integer> reminded = new HashSet<>();
+
+        Progress(long remindAt) {
+            this.remindAt = remindAt;
+        }
+    }
+
+    /**
+     * Start turning the wheel on a background thread
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "deadline-reminders");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(() -> sendDueReminders(System.currentTimeMillis()),
+                TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background thread, letting a tick in progress finish queueing first
+     */
+    public void stop() {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = executor;
+            executor = null;
+        }
+        if (stopping == null) {
+            return;
+        }
+        // Not while holding the lock: the tick takes it
+        stopping.shutdown();
+        try {
+            if (!stopping.awaitTermination(MessageDeliveryService.SEND_TIMEOUT_MILLIS * 2, TimeUnit.MILLISECONDS)) {
+                stopping.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            stopping.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return How many reminders are waiting to be sent
+     */
+    public synchronized int getPendingCount() {
+        return wheel.size();
+    }
+
+    /**
+     * Send every reminder that has come due
+     * @param nowMillis The current time
+     * @return How many messages were sent
+     */
+    public int sendDueReminders(long nowMillis) {
+        List<Reminder> fired;
+        synchronized (this) {
+            fired = wheel.advance(nowMillis);
+            for (Reminder reminder : fired) {
+                List<TimingWheel.Entry<Reminder>> entries = entriesByAssignment.get(reminder.assignmentId);
+                if (entries != null) {
+                    entries.removeIf(entry -> !entry.isScheduled());
+                    if (entries.isEmpty()) {
+                        entriesByAssignment.remove(reminder.assignmentId);
+                    }
+                }
+            }
+        }
+        // Build and save messages outside the lock, since repository events take it
+        int sent = 0;
+        for (Reminder reminder : fired) {
+            try {
+                sent += send(reminder);
+            } catch (RepositoryException | ValidationException | RuntimeException e) {
+                System.out.println("Warning: Could not send reminders for assignment " + reminder.assignmentId + ": " + e.getMessage());
+            }
+        }
+        return sent;
+    }
+
+    private int send(Reminder reminder) throws RepositoryException, ValidationException {
+        if (!assignmentRepository.claimReminder(reminder.assignmentId, reminder.remindAt)) {
+            // Deleted, or already sent by this or another process
+            return 0;
+        }
+        Assignment assignment;
+        try {
+            assignment = assignmentRepository.getAssignmentById(reminder.assignmentId);
+        } catch (NotFoundException e) {
+            return 0;
+        }
+        Set<Integer> submitted = new HashSet<>();
+        for (Submission submission : submissionRepository.getSubmissionsByAssignmentId(assignment.getId())) {
+            submitted.add(submission.getStudentId());
+        }
+
+        // A reminder caught up after downtime no longer knows how far off the deadline is
+        boolean late = System.currentTimeMillis() - reminder.remindAt > TICK_MILLIS;
+        String text = "Reminder: '" + assignment.getTitle() + "' for " + assignment.getCourseId() + " is due "
+                + assignment.getDueDate() + (late ? "" : " (in " + describe(reminder.offset) + ")")
+                + " and you have not submitted it yet.";
+        Progress progress;
+        synchronized (this) {
+            progress = progressByAssignment.remove(assignment.getId());
+        }
+        if (progress == null || progress.remindAt != reminder.remindAt) {
+            progress = new Progress(reminder.remindAt);
+        }
+        int sent = 0;
+        try {
+            for (Student student : enrollmentIndex.getStudentsInCourse(assignment.getCourseId())) {
+                if (submitted.contains(student.getUserId()) || progress.reminded.contains(student.getUserId())) {
+                    continue;
+                }
+                Message message = new Message(messageRepository.getNextMessageId(), SENDER_ID, SENDER_NAME, SENDER_ROLE,
+                        student.getUserId(), student.getName(), STUDENT_ROLE, text);
+                message.setExpiresAtMillis(assignment.getDueDateMillis() + EXPIRES_AFTER_DUE_MILLIS);
+                messageDeliveryService.send(message);
+                progress.reminded.add(student.getUserId());
+                sent++;
+            }
+        } catch (RepositoryException | ValidationException | RuntimeException e) {
+            // Retried on the next tick, for the students not reached yet
+            synchronized (this) {
+                progressByAssignment.put(assignment.getId(), progress);
+            }
+            try {
+                assignmentRepository.releaseReminder(assignment.getId(), reminder.remindAt);
+            } catch (RepositoryException release) {
+                System.out.println("Warning: Could not release reminder for assignment " + assignment.getId()
+                        + ": " + release.getMessage());
+            }
+            throw e;
+        }
+        if (sent > 0) {
+            System.out.println("DeadlineReminderService: Sent " + sent + " reminders for assignment " + assignment.getId());
+        }
+        return sent;
+    }
+
+    private void schedule(Assignment assignment) {
+        cancel(assignment.getId());
+        long due = assignment.getDueDateMillis();
+        if (due == Timestamps.NONE) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (due <= now) {
+            return;
+        }
+        long reminded = assignment.getRemindedAtMillis();
+        List<TimingWheel.Entry<Reminder>> entries = new ArrayList<>(offsets.size());
+        Reminder missed = null;
+        for (Duration offset : offsets) {
+            long at = due - offset.toMillis();
+            if (reminded != Timestamps.NONE && at <= reminded) {
+                continue;
+            }
+            if (at > now) {
+                entries.add(wheel.schedule(at, new Reminder(assignment.getId(), offset, at)));
+            } else if (missed == null || at > missed.remindAt) {
+                missed = new Reminder(assignment.getId(), offset, at);
+            }
+        }
+        if (missed != null) {
+            // Fires on the next tick
+            entries.add(wheel.schedule(missed.remindAt, missed));
+        }
+        if (!entries.isEmpty()) {
+            entriesByAssignment.put(assignment.getId(), entries);
+        }
+    }
+
+    private void cancel(int assignmentId) {
+        List<TimingWheel.Entry<Reminder>> entries = entriesByAssignment.remove(assignmentId);
+        if (entries != null) {
+            for (TimingWheel.Entry<Reminder> entry : entries) {
+                wheel.cancel(entry);
+            }
+        }
+    }
+
+    private synchronized void onAssignmentChange(ChangeEvent<Assignment> event) {
+        if (event.getAfter() != null) {
+            schedule(event.getAfter());
+        } else if (event.getBefore() != null) {
+            cancel(event.getBefore().getId());
+            progressByAssignment.remove(event.getBefore().getId());
+        }
+    }
+
+    private static String describe(Duration offset) {
+        if (offset.toHours() > 0 && offset.toMinutes() % 60 == 0) {
+            return offset.toHours() + (offset.toHours() == 1 ? " hour" : " hours");
+        }
+        return offset.toMinutes() + (offset.toMinutes() == 1 ? " minute" : " minutes");
+    }
+}
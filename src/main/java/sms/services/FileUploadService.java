@@ -1,42 +1,53 @@
 package sms.services;
 
+import sms.data.BlobStore;
 import sms.data.UploadRepository;
 import sms.domain.UploadMetadata;
+import sms.exceptions.NotFoundException;
 import sms.exceptions.RepositoryException;
 import sms.exceptions.UploadException;
 import sms.exceptions.ValidationException;
 import java.io.File;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Stores uploaded files and their metadata.
+ *
+ * File content goes into a {@link BlobStore} under {@code uploads/blobs/}, keyed by
+ * its SHA-256, so identical files uploaded by many users or under different names
+ * share one copy and files with the same name no longer overwrite each other.
+ * Each {@link UploadMetadata} records the hash of its content; a blob is deleted
+ * with the last upload that refers to it. Both run under the uploads.json
+ * exclusive lock, so another process cannot delete a blob that is being stored
+ * again, or record a new reference to a blob that is being deleted.
+ */
 public class FileUploadService implements UploadService<File> {
     private static final long MAX_FILE_SIZE = 10 * 1024 * 1024; // 10MB
     private static final String[] ALLOWED_EXTENSIONS = {".csv", ".json", ".txt", ".xlsx", ".pdf", ".doc", ".docx"};
+    private static final String BLOB_DIRECTORY = "blobs";
     private final String uploadDirectory;
     private final Map<String, String> fileMetadata;
+    private final BlobStore blobStore;
     private UploadRepository uploadRepository;
 
     public FileUploadService() {
-        this.uploadDirectory = "uploads/";
-        this.fileMetadata = new HashMap<>();
-        this.uploadRepository = new UploadRepository();
-        createUploadDirectory();
-        createRoleDirectories();
+        this("uploads/");
     }
 
     public FileUploadService(String uploadDirectory) {
         this.uploadDirectory = uploadDirectory;
         this.fileMetadata = new HashMap<>();
+        this.blobStore = new BlobStore(new File(uploadDirectory, BLOB_DIRECTORY));
         this.uploadRepository = new UploadRepository();
         createUploadDirectory();
-        createRoleDirectories();
     }
 
     private void createUploadDirectory() {
@@ -50,20 +61,6 @@ public class FileUploadService implements UploadService<File> {
         }
     }
 
-    private void createRoleDirectories() {
-        try {
-            String[] roleDirs = {"admin", "teachers", "students", "others"};
-            for (String roleDir : roleDirs) {
-                Path path = Paths.get(uploadDirectory + roleDir);
-                if (!path.toFile().exists()) {
-                    path.toFile().mkdirs();
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Warning: Could not create role directories: " + e.getMessage());
-        }
-    }
-
     /**
      * Role-based file upload method
      * @param filePath Path to the file to upload
@@ -92,27 +89,31 @@ public class FileUploadService implements UploadService<File> {
             // Validate the file
             validate(sourceFile);
             
-            // Determine target directory based on role
-            String roleDir = getRoleDirectory(role);
-            String targetPath = uploadDirectory + roleDir + "/" + sourceFile.getName();
-            
-            // Create target file and copy
-            Path target = Paths.get(targetPath);
-            Files.copy(sourceFile.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
-            
-            // Save metadata to repository
-            int uploadId = uploadRepository.getNextUploadId();
-            UploadMetadata metadata = new UploadMetadata(
-                uploadId,
-                sourceFile.getName(),
-                userName,
-                role,
-                targetPath,
-                sourceFile.length(),
-                visibleTo
-            );
-            
-            uploadRepository.add(metadata);
+            UploadMetadata metadata = uploadRepository.withExclusiveLock(() -> {
+                // Hash while copying; identical content is kept only once
+                String contentHash;
+                try (InputStream in = Files.newInputStream(sourceFile.toPath())) {
+                    contentHash = blobStore.put(in);
+                }
+                
+                // Save metadata to repository
+                int uploadId = uploadRepository.getNextUploadId();
+                UploadMetadata added = new UploadMetadata(
+                    uploadId,
+                    sourceFile.getName(),
+                    userName,
+                    role,
+                    blobStore.file(contentHash).getPath(),
+                    sourceFile.length(),
+                    visibleTo
+                );
+                added.setContentHash(contentHash);
+                
+                uploadRepository.add(added);
+                return added;
+            });
+            String targetPath = metadata.getFilePath();
+            boolean duplicate = uploadRepository.getReferenceCount(metadata.getContentHash()) > 1;
             
             // Display success message
             String roleDisplay = role.substring(0, 1).toUpperCase() + role.substring(1);
@@ -121,6 +122,9 @@ public class FileUploadService implements UploadService<File> {
                 (visibleTo != null && !visibleTo.isEmpty() ? "Visible to: " + visibleTo.size() + " user(s)" : "Private");
             System.out.println("\n✓ File uploaded successfully by " + roleDisplay + ": " + userName + 
                              " → " + targetPath + " (" + visibilityMsg + ")");
+            if (duplicate) {
+                System.out.println("  Identical content was already stored; it shares that copy.");
+            }
             
             return targetPath;
             
@@ -134,18 +138,25 @@ public class FileUploadService implements UploadService<File> {
     }
 
     /**
-     * Get the role-specific directory
+     * Delete an upload's metadata, and its stored content if no other upload shares it
+     * @param uploadId The upload to delete
+     * @return true if the content was deleted too
+     * @throws NotFoundException if there is no such upload
+     * @throws RepositoryException if the metadata or content cannot be removed
      */
-    private String getRoleDirectory(String role) {
-        switch (role.toLowerCase()) {
-            case "admin":
-                return "admin";
-            case "teacher":
-                return "teachers";
-            case "student":
-                return "students";
-            default:
-                return "others";
+    public boolean deleteUpload(int uploadId) throws RepositoryException, NotFoundException {
+        try {
+            return uploadRepository.withExclusiveLock(() -> {
+                UploadMetadata upload = uploadRepository.findById(uploadId);
+                uploadRepository.delete(upload);
+                String contentHash = upload.getContentHash();
+                if (contentHash == null || uploadRepository.getReferenceCount(contentHash) > 0) {
+                    return false;
+                }
+                return blobStore.delete(contentHash);
+            });
+        } catch (ValidationException e) {
+            throw new RepositoryException("Failed to delete upload: " + e.getMessage(), "DELETE", "Upload", e);
         }
     }
 
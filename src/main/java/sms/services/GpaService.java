@@ -0,0 +1,235 @@
+package sms.services;
+
+import sms.data.CourseRepository;
+import sms.data.GradeRepository;
+import sms.domain.Course;
+import sms.domain.Grade;
+import sms.domain.Student;
+import sms.domain.support.IdentityMap;
+import sms.domain.support.SymbolTable;
+import sms.events.ChangeEvent;
+import sms.exceptions.RepositoryException;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Credit-weighted GPA for single students and whole cohorts.
+ *
+ * Each grade is converted to grade points once, when it is written, and added to a
+ * running per-student total of quality points (points x credit hours) and credit
+ * hours. Reading a GPA is one map lookup, and cohort calculations only divide two
+ * numbers per student, so they run over parallel streams without touching grades.
+ * Totals are kept current from grade events, and re-weighted when a course's credit
+ * hours change.
+ */
+public class GpaService {
+    // Per student totals are immutable and swapped on write, so parallel readers
+    // always see a consistent pair without locking.
+    private final Map<Integer, Totals> totalsByStudent;
+    // Points and credits of every counted grade, keyed by studentId and course code
+    private final Map<Long, double[]> entries;
+    private final Map<Integer, Set<Integer>> studentsByCourse;
+
+    public GpaService(GradeRepository gradeRepository, CourseRepository courseRepository) throws RepositoryException {
+        this.totalsByStudent = new ConcurrentHashMap<>();
+        this.entries = new HashMap<>();
+        this.studentsByCourse = new HashMap<>();
+        gradeRepository.getEventBus().subscribe(this::onGradeChange);
+        courseRepository.getEventBus().subscribe(this::onCourseChange);
+        synchronized (this) {
+            for (Grade grade : gradeRepository.getAll()) {
+                record(grade);
+            }
+        }
+    }
+
+    /**
+     * Convert a letter grade to grade points
+     * @param grade The letter grade, e.g. "B+"
+     * @return The points on a 4.0 scale, or -1 if it is not a letter grade
+     */
+    public static double pointsFor(String grade) {
+        return GradeDistribution.pointsFor(grade);
+    }
+
+    /**
+     * @param studentId The student's userId
+     * @return The credit-weighted GPA, or -1 if the student has no letter grades
+     */
+    public double getGpa(int studentId) {
+        Totals totals = totalsByStudent.get(studentId);
+        return totals == null ? -1 : totals.gpa();
+    }
+
+    /**
+     * @param studentId The student's userId
+     * @return The credit hours counted towards the student's GPA
+     */
+    public double getCreditsAttempted(int studentId) {
+        Totals totals = totalsByStudent.get(studentId);
+        return totals == null ? 0 : totals.credits;
+    }
+
+    /**
+     * Compute the GPA of every student in a cohort
+     * @param students The cohort, e.g. one batch or department
+     * @return GPA by userId, for students with at least one letter grade
+     */
+    public Map<Integer, Double> computeGpas(Collection<Student> students) {
+        return students.parallelStream()
+                .map(Student::getUserId)
+                .distinct()
+                .filter(totalsByStudent::containsKey)
+                .collect(Collectors.toConcurrentMap(id -> id, this::getGpa));
+    }
+
+    /**
+     * Rank a cohort by GPA, highest first
+     * @param students The cohort to rank
+     * @return Students with at least one letter grade, best GPA first
+     */
+    public List<StudentGpa> rank(Collection<Student> students) {
+        return students.parallelStream()
+                .filter(student -> totalsByStudent.containsKey(student.getUserId()))
+                .map(student -> new StudentGpa(student, getGpa(student.getUserId())))
+                .sorted(Comparator.comparingDouble(StudentGpa::getGpa).reversed()
+                        .thenComparing(s -> s.getStudent().getUserId()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param students Students to choose from
+     * @param department The department name
+     * @return The students in that department
+     */
+    public static List<Student> inDepartment(Collection<Student> students, String department) {
+        return students.parallelStream()
+                .filter(s -> s.getDept() != null && department.equalsIgnoreCase(s.getDept().getName()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param students Students to choose from
+     * @param yearRange The batch, e.g. "2024-2028"
+     * @return The students in that batch
+     */
+    public static List<Student> inBatch(Collection<Student> students, String yearRange) {
+        return students.parallelStream()
+                .filter(s -> s.getBatch() != null && yearRange.equals(s.getBatch().getYearRange()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * A student's position in a cohort ranking
+     */
+    public static final class StudentGpa {
+        private final Student student;
+        private final double gpa;
+
+        StudentGpa(Student student, double gpa) {
+            this.student = student;
+            this.gpa = gpa;
+        }
+
+        public Student getStudent() {
+            return student;
+        }
+
+        public double getGpa() {
+            return gpa;
+        }
+    }
+
+    private synchronized void onGradeChange(ChangeEvent<Grade> event) {
+        if (event.getBefore() != null) {
+            forget(event.getBefore());
+        }
+        if (event.getAfter() != null) {
+            record(event.getAfter());
+        }
+    }
+
+    private synchronized void onCourseChange(ChangeEvent<Course> event) {
+        if (event.getAfter() == null || event.getBefore() != null
+                && event.getBefore().getCreditHours() == event.getAfter().getCreditHours()) {
+            return;
+        }
+        int courseCode = SymbolTable.lookup(event.getAfter().getCourseId());
+        double credits = creditsFor(event.getAfter());
+        for (int studentId : new HashSet<>(studentsByCourse.getOrDefault(courseCode, Set.of()))) {
+            double[] entry = entries.get(key(studentId, courseCode));
+            if (entry != null && entry[1] != credits) {
+                adjust(studentId, -entry[0] * entry[1], -entry[1]);
+                entry[1] = credits;
+                adjust(studentId, entry[0] * entry[1], entry[1]);
+            }
+        }
+    }
+
+    private void record(Grade grade) {
+        double points = pointsFor(grade.getGrade());
+        if (points < 0) {
+            return;
+        }
+        long key = key(grade.getStudentId(), grade.getCourseIdCode());
+        if (entries.containsKey(key)) {
+            forget(grade);
+        }
+        double credits = creditsFor(IdentityMap.course(grade.getCourseId()));
+        entries.put(key, new double[] {points, credits});
+        studentsByCourse.computeIfAbsent(grade.getCourseIdCode(), code -> new HashSet<>()).add(grade.getStudentId());
+        adjust(grade.getStudentId(), points * credits, credits);
+    }
+
+    private void forget(Grade grade) {
+        double[] entry = entries.remove(key(grade.getStudentId(), grade.getCourseIdCode()));
+        if (entry == null) {
+            return;
+        }
+        Set<Integer> students = studentsByCourse.get(grade.getCourseIdCode());
+        if (students != null) {
+            students.remove(grade.getStudentId());
+        }
+        adjust(grade.getStudentId(), -entry[0] * entry[1], -entry[1]);
+    }
+
+    private void adjust(int studentId, double qualityPoints, double credits) {
+        totalsByStudent.compute(studentId, (id, totals) -> {
+            Totals updated = totals == null
+                    ? new Totals(qualityPoints, credits)
+                    : new Totals(totals.qualityPoints + qualityPoints, totals.credits + credits);
+            return updated.credits <= 0 ? null : updated;
+        });
+    }
+
+    // Courses that are missing or have no credit hours still count, with weight 1
+    private static double creditsFor(Course course) {
+        return course != null && course.getCreditHours() > 0 ? course.getCreditHours() : 1;
+    }
+
+    private static long key(int studentId, int courseCode) {
+        return ((long) studentId << 32) | (courseCode & 0xFFFFFFFFL);
+    }
+
+    private static final class Totals {
+        private final double qualityPoints;
+        private final double credits;
+
+        Totals(double qualityPoints, double credits) {
+            this.qualityPoints = qualityPoints;
+            this.credits = credits;
+        }
+
+        double gpa() {
+            return qualityPoints / credits;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package sms.services;
+
+import sms.data.GradeRepository;
+import sms.domain.Grade;
+import sms.domain.support.SymbolTable;
+import sms.events.ChangeEvent;
+import sms.exceptions.RepositoryException;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Grade distributions per course, rolled up per department and institution.
+ *
+ * Each course keeps a {@link GradeDistribution} that is adjusted by grade events,
+ * so a write moves one bucket and a report never rescans the grade file. Larger
+ * groups are built by merging course distributions, which costs a fixed number of
+ * buckets per course regardless of how many grades it has.
+ *
+ * Courses have no department of their own, so the department is taken from the
+ * letter prefix of the course id ("CS" for "CS101").
+ */
+public class GradeAnalyticsService {
+    // Keyed by interned course code
+    private final Map<Integer, GradeDistribution> distributionsByCourse;
+
+    public GradeAnalyticsService(GradeRepository gradeRepository) throws RepositoryException {
+        this.distributionsByCourse = new HashMap<>();
+        gradeRepository.getEventBus().subscribe(this::onGradeChange);
+        synchronized (this) {
+            for (Grade grade : gradeRepository.getAll()) {
+                record(grade, 1);
+            }
+        }
+    }
+
+    /**
+     * @param courseId The course to look up
+     * @return A copy of the course's distribution, empty if it has no grades
+     */
+    public synchronized GradeDistribution getCourseDistribution(String courseId) {
+        GradeDistribution distribution = distributionsByCourse.get(SymbolTable.lookup(courseId));
+        return distribution == null ? new GradeDistribution() : distribution.copy();
+    }
+
+    /**
+     * Merge the distributions of several courses, e.g. everything a teacher teaches
+     * @param courseIds The courses to include
+     * @return The combined distribution
+     */
+    public synchronized GradeDistribution rollUp(Collection<String> courseIds) {
+        GradeDistribution combined = new GradeDistribution();
+        for (String courseId : courseIds) {
+            GradeDistribution distribution = distributionsByCourse.get(SymbolTable.lookup(courseId));
+            if (distribution != null) {
+                combined.merge(distribution);
+            }
+        }
+        return combined;
+    }
+
+    /**
+     * @return One distribution per department code, in alphabetical order
+     */
+    public synchronized Map<String, GradeDistribution> getDepartmentDistributions() {
+        Map<String, GradeDistribution> departments = new TreeMap<>();
+        for (Map.Entry<Integer, GradeDistribution> entry : distributionsByCourse.entrySet()) {
+            departments.computeIfAbsent(departmentOf(SymbolTable.name(entry.getKey())), code -> new GradeDistribution())
+                    .merge(entry.getValue());
+        }
+        return departments;
+    }
+
+    /**
+     * @return The distribution of every grade in the institution
+     */
+    public synchronized GradeDistribution getOverallDistribution() {
+        GradeDistribution combined = new GradeDistribution();
+        for (GradeDistribution distribution : distributionsByCourse.values()) {
+            combined.merge(distribution);
+        }
+        return combined;
+    }
+
+    /**
+     * @param courseId A course id such as "CS101"
+     * @return Its department code, "CS" for "CS101"
+     */
+    public static String departmentOf(String courseId) {
+        if (courseId == null) {
+            return "";
+        }
+        int end = 0;
+        while (end < courseId.length() && Character.isLetter(courseId.charAt(end))) {
+            end++;
+        }
+        return end == 0 ? courseId : courseId.substring(0, end).toUpperCase();
+    }
+
+    private synchronized void onGradeChange(ChangeEvent<Grade> event) {
+        if (event.getBefore() != null) {
+            record(event.getBefore(), -1);
+        }
+        if (event.getAfter() != null) {
+            record(event.getAfter(), 1);
+        }
+    }
+
+    private void record(Grade grade, int delta) {
+        GradeDistribution distribution = distributionsByCourse.computeIfAbsent(grade.getCourseIdCode(),
+                code -> new GradeDistribution());
+        distribution.record(grade.getGrade(), delta);
+        if (distribution.getCount() == 0 && distribution.getUnscoredCount() == 0) {
+            distributionsByCourse.remove(grade.getCourseIdCode());
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package sms.services;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Fixed-bucket histogram of letter grades, one bucket per letter on the 4.0 scale.
+ *
+ * Because letter grades are discrete, the buckets hold the exact distribution, so
+ * the mean, median and percentiles computed from them are exact too. Two
+ * distributions merge by adding their buckets, which is how course figures roll
+ * up into department and institution figures.
+ */
+public class GradeDistribution {
+    private static final String[] LETTERS = {"A", "A-", "B+", "B", "B-", "C+", "C", "C-", "D", "F"};
+    private static final double[] POINTS = {4.0, 3.7, 3.3, 3.0, 2.7, 2.3, 2.0, 1.7, 1.0, 0.0};
+
+    private final long[] counts;
+    private long unscored;
+
+    public GradeDistribution() {
+        this.counts = new long[LETTERS.length];
+    }
+
+    /**
+     * Add or remove one grade
+     * @param grade The letter grade; anything else is counted as unscored
+     * @param delta 1 to add, -1 to remove
+     */
+    public void record(String grade, int delta) {
+        int bucket = bucketOf(grade);
+        if (bucket < 0) {
+            unscored += delta;
+        } else {
+            counts[bucket] += delta;
+        }
+    }
+
+    /**
+     * Add another distribution's grades to this one
+     * @param other The distribution to merge in
+     * @return This distribution
+     */
+    public GradeDistribution merge(GradeDistribution other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        unscored += other.unscored;
+        return this;
+    }
+
+    public GradeDistribution copy() {
+        return new GradeDistribution().merge(this);
+    }
+
+    /**
+     * @return The number of letter grades
+     */
+    public long getCount() {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return The number of grades that are not letter grades
+     */
+    public long getUnscoredCount() {
+        return unscored;
+    }
+
+    /**
+     * @return The mean grade points, or -1 if there are no letter grades
+     */
+    public double getMean() {
+        long total = getCount();
+        if (total == 0) {
+            return -1;
+        }
+        double sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += counts[i] * POINTS[i];
+        }
+        return sum / total;
+    }
+
+    public double getMedian() {
+        return getPercentile(50);
+    }
+
+    /**
+     * Get the grade points at a percentile, using the nearest-rank method
+     * @param percentile Between 0 and 100
+     * @return The grade points at that rank, or -1 if there are no letter grades
+     */
+    public double getPercentile(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        // Walk from the lowest grade up so low percentiles mean low grades
+        for (int i = counts.length - 1; i >= 0; i--) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return POINTS[i];
+            }
+        }
+        return POINTS[0];
+    }
+
+    /**
+     * @return Count per letter grade, best first
+     */
+    public Map<String, Long> getHistogram() {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < LETTERS.length; i++) {
+            histogram.put(LETTERS[i], counts[i]);
+        }
+        return histogram;
+    }
+
+    /**
+     * Convert a letter grade to grade points
+     * @param grade The letter grade, e.g. "B+"
+     * @return The points on a 4.0 scale, or -1 if it is not a letter grade
+     */
+    public static double pointsFor(String grade) {
+        int bucket = bucketOf(grade);
+        return bucket < 0 ? -1 : POINTS[bucket];
+    }
+
+    /**
+     * @param points Grade points on the 4.0 scale
+     * @return The letter with the nearest points
+     */
+    public static String letterFor(double points) {
+        int best = 0;
+        for (int i = 1; i < POINTS.length; i++) {
+            if (Math.abs(POINTS[i] - points) < Math.abs(POINTS[best] - points)) {
+                best = i;
+            }
+        }
+        return LETTERS[best];
+    }
+
+    private static int bucketOf(String grade) {
+        if (grade == null) {
+            return -1;
+        }
+        String letter = grade.trim().toUpperCase(Locale.ROOT);
+        for (int i = 0; i < LETTERS.length; i++) {
+            if (LETTERS[i].equals(letter)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,296 @@
+package sms.services;
+
+import sms.data.MessageRepository;
+import sms.domain.Message;
+import sms.domain.support.SymbolTable;
+import sms.exceptions.RepositoryException;
+import sms.exceptions.ValidationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Delivers messages off the sending thread.
+ *
+ * {@link #send(Message)} puts the message on a bounded queue and returns at once;
+ * one consumer thread takes everything waiting, saves it with a single
+ * {@link MessageRepository#addAll} and then tells the recipients' listeners. A
+ * burst of sends therefore costs one write instead of one per message. When the
+ * queue is full senders wait up to {@link #SEND_TIMEOUT_MILLIS} for room.
+ *
+ * Delivery latency, from send() to the listeners being called, is measured for
+ * every message. {@link #stop()} delivers whatever is still queued. Senders hold
+ * the read side of a lock while queueing and stop() takes the write side before
+ * draining, so no message is queued after the final drain; from then on, as
+ * before {@link #start()}, send() delivers on the caller's thread.
+ */
+public class MessageDeliveryService {
+    public static final int QUEUE_CAPACITY = 1024;
+    /** The most messages saved by one write */
+    public static final int MAX_BATCH = 256;
+    public static final long SEND_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * Told about messages for one user as soon as they have been saved
+     */
+    public interface DeliveryListener {
+        void onDelivered(Message message);
+    }
+
+    // A queued message and when it was sent
+    private static final class Envelope {
+        private final Message message;
+        private final long sentNanos;
+
+        Envelope(Message message, long sentNanos) {
+            this.message = message;
+            this.sentNanos = sentNanos;
+        }
+    }
+
+    private final MessageRepository messageRepository;
+    private final BlockingQueue<Envelope> queue;
+    private final Map<Long, List<DeliveryListener>> listeners;
+    private final Object statsLock = new Object();
+    // Read side held while queueing, write side to start or stop queueing
+    private final ReentrantReadWriteLock queueLock = new ReentrantReadWriteLock();
+    private boolean queueing;
+    private volatile ExecutorService executor;
+    private volatile boolean running;
+    private long deliveredCount;
+    private long failedCount;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+
+    public MessageDeliveryService(MessageRepository messageRepository) {
+        this.messageRepository = messageRepository;
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.listeners = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Start delivering on a background thread
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        running = true;
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-delivery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::drainLoop);
+        queueLock.writeLock().lock();
+        try {
+            queueing = true;
+        } finally {
+            queueLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stop the background thread, delivering everything still queued first
+     */
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        // Waits for senders already queueing; later ones deliver on their own thread
+        queueLock.writeLock().lock();
+        try {
+            queueing = false;
+        } finally {
+            queueLock.writeLock().unlock();
+        }
+        running = false;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        deliverQueued();
+    }
+
+    /**
+     * Queue a message for delivery
+     * @param message A message with its ID already assigned
+     * @throws RepositoryException if the queue stays full for {@link #SEND_TIMEOUT_MILLIS}
+     */
+    public void send(Message message) throws RepositoryException, ValidationException {
+        if (message == null) {
+            throw new ValidationException("Message cannot be null", "message", "null");
+        }
+        queueLock.readLock().lock();
+        try {
+            if (queueing) {
+                if (!queue.offer(new Envelope(message, System.nanoTime()), SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new RepositoryException("Message delivery queue is full", "SAVE", "Message");
+                }
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while queueing message", "SAVE", "Message", e);
+        } finally {
+            queueLock.readLock().unlock();
+        }
+        // Not started, or stopping: deliver on the caller's thread
+        long sent = System.nanoTime();
+        messageRepository.add(message);
+        delivered(List.of(new Envelope(message, sent)));
+    }
+
+    /**
+     * Register a listener for one user's new messages, e.g. for a logged-in session
+     */
+    public void subscribe(int userId, String role, DeliveryListener listener) {
+        long key = recipientKey(userId, SymbolTable.folded(SymbolTable.code(role)));
+        listeners.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    public void unsubscribe(int userId, String role, DeliveryListener listener) {
+        long key = recipientKey(userId, SymbolTable.folded(SymbolTable.code(role)));
+        listeners.computeIfPresent(key, (k, list) -> {
+            list.remove(listener);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    /**
+     * @return How many messages are waiting to be saved
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    public long getDeliveredCount() {
+        synchronized (statsLock) {
+            return deliveredCount;
+        }
+    }
+
+    /**
+     * @return How many messages could not be saved
+     */
+    public long getFailedCount() {
+        synchronized (statsLock) {
+            return failedCount;
+        }
+    }
+
+    /**
+     * @return The mean time from send() to notification, in milliseconds
+     */
+    public double getAverageLatencyMillis() {
+        synchronized (statsLock) {
+            return deliveredCount == 0 ? 0 : totalLatencyNanos / 1e6 / deliveredCount;
+        }
+    }
+
+    public double getMaxLatencyMillis() {
+        synchronized (statsLock) {
+            return maxLatencyNanos / 1e6;
+        }
+    }
+
+    private void drainLoop() {
+        while (running) {
+            try {
+                Envelope first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    List<Envelope> batch = new ArrayList<>();
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    deliver(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                System.out.println("Warning: Message delivery failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void deliverQueued() {
+        List<Envelope> batch = new ArrayList<>();
+        while (queue.drainTo(batch, MAX_BATCH) > 0) {
+            deliver(batch);
+            batch.clear();
+        }
+    }
+
+    private void deliver(List<Envelope> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (Envelope envelope : batch) {
+            messages.add(envelope.message);
+        }
+        try {
+            messageRepository.addAll(messages);
+            delivered(batch);
+        } catch (RepositoryException | ValidationException e) {
+            // Save the rest one at a time so one bad message does not lose the batch
+            List<Envelope> saved = new ArrayList<>();
+            for (Envelope envelope : batch) {
+                try {
+                    messageRepository.add(envelope.message);
+                    saved.add(envelope);
+                } catch (RepositoryException | ValidationException single) {
+                    System.out.println("Warning: Could not deliver message " + envelope.message.getMessageId()
+                            + ": " + single.getMessage());
+                    synchronized (statsLock) {
+                        failedCount++;
+                    }
+                }
+            }
+            delivered(saved);
+        }
+    }
+
+    private void delivered(List<Envelope> batch) {
+        for (Envelope envelope : batch) {
+            Message message = envelope.message;
+            List<DeliveryListener> recipients = listeners.get(
+                    recipientKey(message.getToUserId(), SymbolTable.folded(message.getToRoleCode())));
+            if (recipients != null) {
+                for (DeliveryListener listener : recipients) {
+                    try {
+                        listener.onDelivered(message);
+                    } catch (RuntimeException e) {
+                        System.out.println("Warning: Delivery listener failed: " + e.getMessage());
+                    }
+                }
+            }
+        }
+        long now = System.nanoTime();
+        synchronized (statsLock) {
+            for (Envelope envelope : batch) {
+                long latency = now - envelope.sentNanos;
+                totalLatencyNanos += latency;
+                maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+            }
+            deliveredCount += batch.size();
+        }
+    }
+
+    private static long recipientKey(int userId, int foldedRoleCode) {
+        return ((long) userId << 32) | (foldedRoleCode & 0xFFFFFFFFL);
+    }
+}
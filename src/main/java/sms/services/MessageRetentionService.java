@@ -0,0 +1,97 @@
+package sms.services;
+
+import sms.data.BroadcastRepository;
+import sms.data.MessageRepository;
+import sms.exceptions.RepositoryException;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes expired messages and broadcasts on a background thread, and moves old
+ * read messages to the archive.
+ *
+ * Each repository keeps its records ordered by expiry time, so a pass in which
+ * nothing has expired costs one index lookup per repository, and a pass that does
+ * find expired records removes them all with a single write. Archiving scans
+ * messages.json, so it runs every {@link #ARCHIVE_INTERVAL_MILLIS} rather than
+ * every tick; the repository also archives when it is first loaded.
+ */
+public class MessageRetentionService {
+    /** Interval of the background thread */
+    public static final long TICK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    /** Interval between archiving passes */
+    public static final long ARCHIVE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(6);
+    /** How long automated ("SYSTEM") messages are kept unless they carry their own expiry */
+    public static final Duration SYSTEM_MESSAGE_TTL = Duration.ofDays(30);
+
+    private final MessageRepository messageRepository;
+    private final BroadcastRepository broadcastRepository;
+    private ScheduledExecutorService executor;
+
+    public MessageRetentionService(MessageRepository messageRepository, BroadcastRepository broadcastRepository) {
+        this.messageRepository = messageRepository;
+        this.broadcastRepository = broadcastRepository;
+    }
+
+    /**
+     * Start purging on a background thread
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(() -> purgeExpired(System.currentTimeMillis()),
+                0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        executor.scheduleAtFixedRate(() -> archiveOld(System.currentTimeMillis()),
+                ARCHIVE_INTERVAL_MILLIS, ARCHIVE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Remove everything that has expired
+     * @param nowMillis The current time
+     * @return How many messages and broadcasts were removed
+     */
+    public int purgeExpired(long nowMillis) {
+        int purged = 0;
+        try {
+            purged += messageRepository.purgeExpired(nowMillis);
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not purge expired messages: " + e.getMessage());
+        }
+        try {
+            purged += broadcastRepository.purgeExpired(nowMillis);
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not purge expired broadcasts: " + e.getMessage());
+        }
+        return purged;
+    }
+
+    /**
+     * Archive read messages older than {@link MessageRepository#DEFAULT_ARCHIVE_AGE}
+     * @param nowMillis The current time
+     * @return How many messages were archived
+     */
+    public int archiveOld(long nowMillis) {
+        try {
+            return messageRepository.archiveOlderThan(nowMillis - MessageRepository.DEFAULT_ARCHIVE_AGE.toMillis());
+        } catch (RepositoryException e) {
+            System.out.println("Warning: Could not archive old messages: " + e.getMessage());
+            return 0;
+        }
+    }
+}
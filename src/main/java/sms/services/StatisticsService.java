@@ -0,0 +1,176 @@
+package sms.services;
+
+import sms.data.AdminRepository;
+import sms.data.CourseRepository;
+import sms.data.GradeRepository;
+import sms.data.MessageRepository;
+import sms.data.StudentRepository;
+import sms.data.TeacherRepository;
+import sms.domain.Course;
+import sms.domain.Grade;
+import sms.domain.Message;
+import sms.domain.Student;
+import sms.domain.Teacher;
+import sms.domain.support.SymbolTable;
+import sms.events.ChangeEvent;
+import sms.events.ChangeEventBus;
+import sms.exceptions.RepositoryException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Institution-wide counters for reports and dashboards.
+ *
+ * Every counter is seeded once from the repositories and then adjusted by their
+ * change events, so each write costs O(1) (O(courses) for an enrollment change)
+ * and reading a statistic never rescans a list. Because reloads caused by other
+ * processes also arrive as events, the counters always match what is on disk.
+ * Counters are keyed by interned course codes, and recipients by userId and
+ * case-folded role code packed into a long.
+ */
+public class StatisticsService {
+    private int studentCount;
+    private int teacherCount;
+    private int adminCount;
+    private int courseCount;
+    private int gradeCount;
+    private final Map<Integer, Integer> enrollmentByCourse;
+    private final Map<Integer, Integer> coursesByTeacher;
+    private final Map<Integer, Integer> gradesByCourse;
+    private final Map<Long, Integer> unreadByRecipient;
+
+    public StatisticsService(StudentRepository studentRepository, TeacherRepository teacherRepository,
+                             AdminRepository adminRepository, CourseRepository courseRepository,
+                             GradeRepository gradeRepository, MessageRepository messageRepository) throws RepositoryException {
+        this.enrollmentByCourse = new HashMap<>();
+        this.coursesByTeacher = new HashMap<>();
+        this.gradesByCourse = new HashMap<>();
+        this.unreadByRecipient = new HashMap<>();
+
+        seed(studentRepository.getEventBus(), studentRepository.getAll(), this::applyStudent);
+        seed(teacherRepository.getEventBus(), teacherRepository.getAll(), this::applyTeacher);
+        seed(courseRepository.getEventBus(), courseRepository.getAll(), this::applyCourse);
+        seed(gradeRepository.getEventBus(), gradeRepository.getAll(), this::applyGrade);
+        seed(messageRepository.getEventBus(), messageRepository.getAll(), this::applyMessage);
+        seed(adminRepository.getEventBus(), adminRepository.getAll(), (admin, sign) -> adminCount += sign);
+    }
+
+    public synchronized int getStudentCount() {
+        return studentCount;
+    }
+
+    public synchronized int getTeacherCount() {
+        return teacherCount;
+    }
+
+    public synchronized int getAdminCount() {
+        return adminCount;
+    }
+
+    public synchronized int getCourseCount() {
+        return courseCount;
+    }
+
+    public synchronized int getGradeCount() {
+        return gradeCount;
+    }
+
+    /**
+     * @param courseId The course to look up
+     * @return How many students are enrolled in it
+     */
+    public synchronized int getEnrollment(String courseId) {
+        return enrollmentByCourse.getOrDefault(SymbolTable.lookup(courseId), 0);
+    }
+
+    /**
+     * @param teacherId The teacher's userId
+     * @return How many courses are on the teacher's record
+     */
+    public synchronized int getCourseLoad(int teacherId) {
+        return coursesByTeacher.getOrDefault(teacherId, 0);
+    }
+
+    /**
+     * @param courseId The course to look up
+     * @return How many grades have been recorded for it
+     */
+    public synchronized int getGradeCount(String courseId) {
+        return gradesByCourse.getOrDefault(SymbolTable.lookup(courseId), 0);
+    }
+
+    /**
+     * @param userId The recipient's userId
+     * @param role The recipient's role, matched case-insensitively
+     * @return How many unread messages are addressed to them
+     */
+    public synchronized int getUnreadCount(int userId, String role) {
+        int roleCode = role == null ? SymbolTable.NONE : SymbolTable.lookupFolded(role);
+        return unreadByRecipient.getOrDefault(recipientKey(userId, roleCode), 0);
+    }
+
+    private interface Delta<T> {
+        void apply(T item, int sign);
+    }
+
+    private <T> void seed(ChangeEventBus<T> eventBus, List<T> current, Delta<T> delta) {
+        eventBus.subscribe(event -> apply(event, delta));
+        synchronized (this) {
+            for (T item : current) {
+                delta.apply(item, 1);
+            }
+        }
+    }
+
+    private synchronized <T> void apply(ChangeEvent<T> event, Delta<T> delta) {
+        if (event.getBefore() != null) {
+            delta.apply(event.getBefore(), -1);
+        }
+        if (event.getAfter() != null) {
+            delta.apply(event.getAfter(), 1);
+        }
+    }
+
+    private void applyStudent(Student student, int sign) {
+        studentCount += sign;
+        if (student.getCourses() != null) {
+            for (Course course : student.getCourses()) {
+                adjust(enrollmentByCourse, SymbolTable.code(course.getCourseId()), sign);
+            }
+        }
+    }
+
+    private void applyTeacher(Teacher teacher, int sign) {
+        teacherCount += sign;
+        if (teacher.getCourses() != null) {
+            adjust(coursesByTeacher, teacher.getUserId(), sign * teacher.getCourses().size());
+        }
+    }
+
+    private void applyCourse(Course course, int sign) {
+        courseCount += sign;
+    }
+
+    private void applyGrade(Grade grade, int sign) {
+        gradeCount += sign;
+        adjust(gradesByCourse, grade.getCourseIdCode(), sign);
+    }
+
+    private void applyMessage(Message message, int sign) {
+        if (!message.isRead()) {
+            adjust(unreadByRecipient, recipientKey(message.getToUserId(), SymbolTable.folded(message.getToRoleCode())), sign);
+        }
+    }
+
+    private static long recipientKey(int userId, int foldedRoleCode) {
+        return ((long) userId << 32) | (foldedRoleCode & 0xFFFFFFFFL);
+    }
+
+    private static <K> void adjust(Map<K, Integer> counters, K key, int delta) {
+        if (delta != 0) {
+            counters.merge(key, delta, (a, b) -> a + b == 0 ? null : a + b);
+        }
+    }
+}
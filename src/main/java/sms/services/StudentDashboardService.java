@@ -0,0 +1,380 @@
+package sms.services;
+
+import sms.data.AssignmentRepository;
+import sms.data.GradeRepository;
+import sms.data.MessageRepository;
+import sms.data.StudentRepository;
+import sms.data.SubmissionRepository;
+import sms.domain.Assignment;
+import sms.domain.Course;
+import sms.domain.Grade;
+import sms.domain.Message;
+import sms.domain.Student;
+import sms.domain.Submission;
+import sms.domain.support.SymbolTable;
+import sms.domain.support.Timestamps;
+import sms.events.ChangeEvent;
+import sms.exceptions.RepositoryException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Materialized dashboard figures for each student who has opened a dashboard.
+ *
+ * A student's model is built from the repositories the first time it is asked
+ * for, and from then on kept current by assignment, submission, grade, message
+ * and student change events, so rendering a dashboard does not scan any list.
+ * A model is rebuilt if the student's course list changes, either on disk or in
+ * the session that asks for it. Courses are tracked by their interned course id
+ * codes.
+ *
+ * Assignments are the repository's live records, and a teacher edits the due
+ * date in place before saving. Pending assignments are therefore filed by id
+ * under the deadline they had when added, and moved by id, never by looking
+ * the record up by its current deadline.
+ *
+ * A model is read without holding the service lock. An event for that student
+ * during the read marks it stale, and the read is retried. After
+ * {@link #MAX_BUILD_ATTEMPTS} stale reads the last one is returned without being
+ * installed, so a student whose records change constantly still gets an answer.
+ */
+public class StudentDashboardService {
+    private static final String STUDENT_ROLE = "student";
+    private static final int MAX_BUILD_ATTEMPTS = 3;
+
+    private final AssignmentRepository assignmentRepository;
+    private final SubmissionRepository submissionRepository;
+    private final GradeRepository gradeRepository;
+    private final MessageRepository messageRepository;
+    private final Map<Integer, Model> models;
+    private final Map<Integer, Set<Integer>> modelsByCourse;
+    private final Map<Integer, Build> builds;
+
+    public StudentDashboardService(StudentRepository studentRepository, AssignmentRepository assignmentRepository,
+                                   SubmissionRepository submissionRepository, GradeRepository gradeRepository,
+                                   MessageRepository messageRepository) {
+        this.assignmentRepository = assignmentRepository;
+        this.submissionRepository = submissionRepository;
+        this.gradeRepository = gradeRepository;
+        this.messageRepository = messageRepository;
+        this.models = new HashMap<>();
+        this.modelsByCourse = new HashMap<>();
+        this.builds = new HashMap<>();
+        studentRepository.getEventBus().subscribe(this::onStudentChange);
+        assignmentRepository.getEventBus().subscribe(this::onAssignmentChange);
+        submissionRepository.getEventBus().subscribe(this::onSubmissionChange);
+        gradeRepository.getEventBus().subscribe(this::onGradeChange);
+        messageRepository.getEventBus().subscribe(this::onMessageChange);
+    }
+
+    /**
+     * Get a student's dashboard, building it on first use
+     * @param student The student, with the courses they are taking this session
+     * @return A snapshot of the student's dashboard
+     */
+    public Dashboard getDashboard(Student student) throws RepositoryException {
+        int studentId = student.getUserId();
+        Set<Integer> courseCodes = courseCodesOf(student);
+        Model model = null;
+        for (int attempt = 0; attempt < MAX_BUILD_ATTEMPTS; attempt++) {
+            Build build = new Build(courseCodes);
+            synchronized (this) {
+                Model existing = models.get(studentId);
+                if (existing != null && existing.courseCodes.equals(courseCodes)) {
+                    return new Dashboard(existing);
+                }
+                builds.put(studentId, build);
+            }
+            try {
+                // Read the repositories without holding the lock, since their events take it
+                model = build(studentId, courseCodes);
+            } finally {
+                synchronized (this) {
+                    if (builds.get(studentId) == build) {
+                        builds.remove(studentId);
+                    }
+                }
+            }
+            synchronized (this) {
+                if (!build.stale) {
+                    install(studentId, model);
+                    return new Dashboard(model);
+                }
+            }
+        }
+        // Still changing: answer from the latest read, and build again next time
+        return new Dashboard(model);
+    }
+
+    /**
+     * A read-only copy of one student's dashboard figures
+     */
+    public static final class Dashboard {
+        private final int pendingCount;
+        private final int submittedCount;
+        private final int gradeCount;
+        private final List<Assignment> pending;
+        private final List<Message> unread;
+
+        private Dashboard(Model model) {
+            this.pendingCount = model.pendingDeadlines.size();
+            this.submittedCount = model.submittedCount;
+            this.gradeCount = model.gradeCount;
+            this.pending = new ArrayList<>(pendingCount);
+            for (Map<Integer, Assignment> due : model.pending.values()) {
+                this.pending.addAll(due.values());
+            }
+            this.unread = new ArrayList<>(model.unread.values());
+        }
+
+        public int getPendingCount() {
+            return pendingCount;
+        }
+
+        public int getSubmittedCount() {
+            return submittedCount;
+        }
+
+        public int getGradeCount() {
+            return gradeCount;
+        }
+
+        public int getUnreadCount() {
+            return unread.size();
+        }
+
+        /**
+         * @param limit How many assignments to return
+         * @return Unsubmitted assignments, earliest due date first
+         */
+        public List<Assignment> getNextDeadlines(int limit) {
+            return Collections.unmodifiableList(pending.subList(0, Math.min(limit, pending.size())));
+        }
+
+        /**
+         * @return Unread messages, oldest first
+         */
+        public List<Message> getUnreadMessages() {
+            return Collections.unmodifiableList(unread);
+        }
+    }
+
+    // Mutable state behind a dashboard, only touched while holding the service lock
+    private static final class Model {
+        private final Set<Integer> courseCodes;
+        private final Map<Integer, Assignment> assignments = new HashMap<>();
+        // Deadline (no due date last), then id, to assignment
+        private final TreeMap<Long, TreeMap<Integer, Assignment>> pending = new TreeMap<>();
+        // The deadline each pending assignment is filed under
+        private final Map<Integer, Long> pendingDeadlines = new HashMap<>();
+        private final Map<Integer, Integer> submissionsByAssignment = new HashMap<>();
+        private final TreeMap<Integer, Message> unread = new TreeMap<>();
+        private int submittedCount;
+        private int gradeCount;
+
+        Model(Set<Integer> courseCodes) {
+            this.courseCodes = courseCodes;
+        }
+
+        void addAssignment(Assignment assignment) {
+            if (courseCodes.contains(assignment.getCourseIdCode())) {
+                assignments.put(assignment.getId(), assignment);
+                if (!submissionsByAssignment.containsKey(assignment.getId())) {
+                    addPending(assignment);
+                }
+            }
+        }
+
+        void removeAssignment(Assignment assignment) {
+            if (assignments.remove(assignment.getId()) != null) {
+                removePending(assignment.getId());
+            }
+        }
+
+        void addSubmission(Submission submission) {
+            submittedCount++;
+            submissionsByAssignment.merge(submission.getAssignmentId(), 1, Integer::sum);
+            removePending(submission.getAssignmentId());
+        }
+
+        void removeSubmission(Submission submission) {
+            submittedCount--;
+            Integer remaining = submissionsByAssignment.merge(submission.getAssignmentId(), -1,
+                    (a, b) -> a + b <= 0 ? null : a + b);
+            Assignment assignment = assignments.get(submission.getAssignmentId());
+            if (remaining == null && assignment != null) {
+                addPending(assignment);
+            }
+        }
+
+        private void addPending(Assignment assignment) {
+            removePending(assignment.getId());
+            long deadline = assignment.getDueDateMillis() == Timestamps.NONE ? Long.MAX_VALUE : assignment.getDueDateMillis();
+            pending.computeIfAbsent(deadline, d -> new TreeMap<>()).put(assignment.getId(), assignment);
+            pendingDeadlines.put(assignment.getId(), deadline);
+        }
+
+        private void removePending(int assignmentId) {
+            Long deadline = pendingDeadlines.remove(assignmentId);
+            if (deadline != null) {
+                Map<Integer, Assignment> due = pending.get(deadline);
+                due.remove(assignmentId);
+                if (due.isEmpty()) {
+                    pending.remove(deadline);
+                }
+            }
+        }
+    }
+
+    // A model being read for one student, and whether an event for them arrived meanwhile
+    private static final class Build {
+        private final Set<Integer> courseCodes;
+        private boolean stale;
+
+        Build(Set<Integer> courseCodes) {
+            this.courseCodes = courseCodes;
+        }
+    }
+
+    private Model build(int studentId, Set<Integer> courseCodes) throws RepositoryException {
+        Model model = new Model(courseCodes);
+        for (Submission submission : submissionRepository.getSubmissionsByStudentId(studentId)) {
+            model.addSubmission(submission);
+        }
+        for (int courseCode : courseCodes) {
+            for (Assignment assignment : assignmentRepository.getAssignmentsByCourseId(SymbolTable.name(courseCode))) {
+                model.addAssignment(assignment);
+            }
+        }
+        model.gradeCount = gradeRepository.getGradesByStudentId(studentId).size();
+        for (Message message : messageRepository.getUnreadMessagesForUser(studentId, STUDENT_ROLE)) {
+            model.unread.put(message.getMessageId(), message);
+        }
+        return model;
+    }
+
+    private void install(int studentId, Model model) {
+        discard(studentId);
+        models.put(studentId, model);
+        for (int courseCode : model.courseCodes) {
+            modelsByCourse.computeIfAbsent(courseCode, code -> new HashSet<>()).add(studentId);
+        }
+    }
+
+    private void discard(int studentId) {
+        Model model = models.remove(studentId);
+        if (model == null) {
+            return;
+        }
+        for (int courseCode : model.courseCodes) {
+            Set<Integer> students = modelsByCourse.get(courseCode);
+            if (students != null) {
+                students.remove(studentId);
+                if (students.isEmpty()) {
+                    modelsByCourse.remove(courseCode);
+                }
+            }
+        }
+    }
+
+    private synchronized void onStudentChange(ChangeEvent<Student> event) {
+        Student student = event.getItem();
+        markStale(student.getUserId());
+        Model model = models.get(student.getUserId());
+        if (model != null && (event.getAfter() == null || !model.courseCodes.equals(courseCodesOf(event.getAfter())))) {
+            discard(student.getUserId());
+        }
+    }
+
+    private synchronized void onAssignmentChange(ChangeEvent<Assignment> event) {
+        for (Build build : builds.values()) {
+            if ((event.getBefore() != null && build.courseCodes.contains(event.getBefore().getCourseIdCode()))
+                    || (event.getAfter() != null && build.courseCodes.contains(event.getAfter().getCourseIdCode()))) {
+                build.stale = true;
+            }
+        }
+        if (event.getBefore() != null) {
+            for (int studentId : studentsTaking(event.getBefore().getCourseIdCode())) {
+                models.get(studentId).removeAssignment(event.getBefore());
+            }
+        }
+        if (event.getAfter() != null) {
+            for (int studentId : studentsTaking(event.getAfter().getCourseIdCode())) {
+                models.get(studentId).addAssignment(event.getAfter());
+            }
+        }
+    }
+
+    private synchronized void onSubmissionChange(ChangeEvent<Submission> event) {
+        markStale(event.getItem().getStudentId());
+        if (event.getBefore() != null) {
+            Model model = models.get(event.getBefore().getStudentId());
+            if (model != null) {
+                model.removeSubmission(event.getBefore());
+            }
+        }
+        if (event.getAfter() != null) {
+            Model model = models.get(event.getAfter().getStudentId());
+            if (model != null) {
+                model.addSubmission(event.getAfter());
+            }
+        }
+    }
+
+    private synchronized void onGradeChange(ChangeEvent<Grade> event) {
+        markStale(event.getItem().getStudentId());
+        if (event.getBefore() != null && models.containsKey(event.getBefore().getStudentId())) {
+            models.get(event.getBefore().getStudentId()).gradeCount--;
+        }
+        if (event.getAfter() != null && models.containsKey(event.getAfter().getStudentId())) {
+            models.get(event.getAfter().getStudentId()).gradeCount++;
+        }
+    }
+
+    private synchronized void onMessageChange(ChangeEvent<Message> event) {
+        if (STUDENT_ROLE.equalsIgnoreCase(event.getItem().getToRole())) {
+            markStale(event.getItem().getToUserId());
+        }
+        if (event.getBefore() != null && isToStudent(event.getBefore())) {
+            models.get(event.getBefore().getToUserId()).unread.remove(event.getBefore().getMessageId());
+        }
+        if (event.getAfter() != null && isToStudent(event.getAfter()) && !event.getAfter().isRead()) {
+            models.get(event.getAfter().getToUserId()).unread.put(event.getAfter().getMessageId(), event.getAfter());
+        }
+    }
+
+    private void markStale(int studentId) {
+        Build build = builds.get(studentId);
+        if (build != null) {
+            build.stale = true;
+        }
+    }
+
+    private boolean isToStudent(Message message) {
+        return models.containsKey(message.getToUserId()) && STUDENT_ROLE.equalsIgnoreCase(message.getToRole());
+    }
+
+    private List<Integer> studentsTaking(int courseCode) {
+        return new ArrayList<>(modelsByCourse.getOrDefault(courseCode, Collections.emptySet()));
+    }
+
+    private static Set<Integer> courseCodesOf(Student student) {
+        Set<Integer> courseCodes = new LinkedHashSet<>();
+        if (student.getCourses() != null) {
+            for (Course course : student.getCourses()) {
+                if (course != null) {
+                    courseCodes.add(course.getCourseIdCode());
+                }
+            }
+        }
+        return courseCodes;
+    }
+}
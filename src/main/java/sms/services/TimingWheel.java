@@ -0,0 +1,189 @@
+package sms.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel for deadlines that are scheduled far more often than
+ * they fire.
+ *
+ * Level 0 has {@link #SLOTS} slots of one tick each, level 1 has slots of
+ * {@code SLOTS} ticks, and so on, so a few levels cover years at minute
+ * resolution. An entry sits in the slot of the coarsest level it still fits in
+ * and is moved down one level each time the wheel turns past that slot. Slots are
+ * doubly-linked lists, so scheduling and cancelling are O(1) and advancing only
+ * touches the slots that come due, never the whole set of entries.
+ *
+ * Not thread-safe; callers synchronize.
+ * @param <T> The payload carried by each entry
+ */
+public final class TimingWheel<T> {
+    public static final int SLOTS = 64;
+    private static final int SLOT_BITS = 6;
+    private static final int LEVELS = 6;
+
+    private final long tickMillis;
+    private final Entry<T>[][] wheels;
+    private final Entry<T> overdue;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMillis The resolution of the wheel
+     * @param startMillis The current time
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.wheels = new Entry[LEVELS][SLOTS];
+        for (Entry<T>[] wheel : wheels) {
+            for (int i = 0; i < SLOTS; i++) {
+                wheel[i] = Entry.sentinel();
+            }
+        }
+        this.overdue = Entry.sentinel();
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * A scheduled entry; pass it to {@link TimingWheel#cancel(Entry)} to unschedule it
+     * @param <T> The payload type
+     */
+    public static final class Entry<T> {
+        private final long deadline;
+        private final T payload;
+        private Entry<T> prev;
+        private Entry<T> next;
+
+        private Entry(long deadline, T payload) {
+            this.deadline = deadline;
+            this.payload = payload;
+        }
+
+        private static <T> Entry<T> sentinel() {
+            Entry<T> sentinel = new Entry<>(0, null);
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            return sentinel;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public T getPayload() {
+            return payload;
+        }
+
+        /**
+         * @return true while the entry is waiting to fire
+         */
+        public boolean isScheduled() {
+            return next != null;
+        }
+
+        private void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+        }
+    }
+
+    /**
+     * @param deadlineMillis When the entry should fire
+     * @param payload The value returned when it fires
+     * @return The entry, for cancelling
+     */
+    public Entry<T> schedule(long deadlineMillis, T payload) {
+        Entry<T> entry = new Entry<>(deadlineMillis, payload);
+        place(entry);
+        size++;
+        return entry;
+    }
+
+    /**
+     * @param entry An entry returned by {@link #schedule(long, Object)}
+     * @return true if it had not fired or been cancelled yet
+     */
+    public boolean cancel(Entry<T> entry) {
+        if (entry == null || !entry.isScheduled()) {
+            return false;
+        }
+        entry.unlink();
+        size--;
+        return true;
+    }
+
+    /**
+     * Turn the wheel up to a time and collect everything that came due
+     * @param nowMillis The current time
+     * @return The payloads of the entries that fired, in no particular order
+     */
+    public List<T> advance(long nowMillis) {
+        List<T> fired = new ArrayList<>();
+        drain(overdue, fired);
+        long targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            // When a level wraps, move the next slot of the level above down
+            for (int level = 1; level < LEVELS; level++) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                    break;
+                }
+                Entry<T> slot = wheels[level][slotIndex(currentTick, level)];
+                while (slot.next != slot) {
+                    Entry<T> entry = slot.next;
+                    entry.unlink();
+                    place(entry);
+                }
+            }
+            drain(wheels[0][slotIndex(currentTick, 0)], fired);
+            drain(overdue, fired);
+        }
+        return fired;
+    }
+
+    /**
+     * @return How many entries are waiting to fire
+     */
+    public int size() {
+        return size;
+    }
+
+    private void place(Entry<T> entry) {
+        long tick = entry.deadline / tickMillis;
+        long delta = tick - currentTick;
+        Entry<T> slot;
+        if (delta <= 0) {
+            slot = overdue;
+        } else {
+            int level = 0;
+            while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+                level++;
+            }
+            // Beyond the top level, park in the farthest slot and re-place on cascade
+            if (delta >= 1L << (SLOT_BITS * LEVELS)) {
+                tick = currentTick + (1L << (SLOT_BITS * LEVELS)) - 1;
+            }
+            slot = wheels[level][slotIndex(tick, level)];
+        }
+        entry.prev = slot.prev;
+        entry.next = slot;
+        slot.prev.next = entry;
+        slot.prev = entry;
+    }
+
+    private void drain(Entry<T> slot, List<T> fired) {
+        while (slot.next != slot) {
+            Entry<T> entry = slot.next;
+            entry.unlink();
+            size--;
+            fired.add(entry.payload);
+        }
+    }
+
+    private static int slotIndex(long tick, int level) {
+        return (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+    }
+}
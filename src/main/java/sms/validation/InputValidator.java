@@ -1,5 +1,6 @@
 package sms.validation;
 
+import sms.domain.support.Timestamps;
 import sms.exceptions.ValidationException;
 import java.util.regex.Pattern;
 
@@ -83,6 +84,16 @@ public class InputValidator {
         }
     }
     
+    public static void validateDueDate(String dueDate) throws ValidationException {
+        if (dueDate == null || dueDate.trim().isEmpty()) {
+            throw new ValidationException("⚠️ Invalid Due Date: Due Date cannot be empty", "dueDate", dueDate);
+        }
+        
+        if (Timestamps.parseDeadline(dueDate) == Timestamps.NONE) {
+            throw new ValidationException("⚠️ Invalid Due Date: use YYYY-MM-DD or YYYY-MM-DD HH:MM", "dueDate", dueDate);
+        }
+    }
+    
     public static void validateCreditHours(String creditHours) throws ValidationException {
         if (creditHours == null || creditHours.trim().isEmpty()) {
             throw new ValidationException("⚠️ Invalid Credit Hours: Credit Hours cannot be empty", "creditHours", creditHours);